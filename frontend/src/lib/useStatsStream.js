@@ -0,0 +1,46 @@
+import { useEffect, useState } from 'react';
+
+// Totals keyed by id, from a snapshot or after adding a delta
+const toMap = (list) => Object.fromEntries(list.map(t => [t.id ?? '', t]));
+
+const addDelta = (totals, list) => {
+    const next = { ...totals };
+    for (const t of list) {
+        const key = t.id ?? '';
+        const prev = next[key] ?? { id: t.id, eventCount: 0, defectSum: 0 };
+        next[key] = { id: t.id, eventCount: prev.eventCount + t.eventCount, defectSum: prev.defectSum + t.defectSum };
+    }
+    return next;
+};
+
+/**
+ * Live per-machine / per-line totals of the last hour from GET /stats/stream (SSE).
+ * The server pushes a snapshot, then deltas; nothing is polled. `connected` stays false
+ * while the backend is unreachable, so pages can keep their offline fallback.
+ */
+export function useStatsStream() {
+    const [state, setState] = useState({ connected: false, machines: {}, lines: {}, topLines: [], lastDelta: null });
+
+    useEffect(() => {
+        const source = new EventSource('/stats/stream');
+        source.addEventListener('snapshot', (e) => {
+            const s = JSON.parse(e.data);
+            setState({ connected: true, machines: toMap(s.machines), lines: toMap(s.lines), topLines: s.topLines, lastDelta: null });
+        });
+        source.addEventListener('delta', (e) => {
+            const d = JSON.parse(e.data);
+            setState(prev => ({
+                connected: true,
+                machines: addDelta(prev.machines, d.machines),
+                lines: addDelta(prev.lines, d.lines),
+                topLines: d.topLines ?? prev.topLines,
+                lastDelta: d,
+            }));
+        });
+        // EventSource reconnects by itself and gets a fresh snapshot
+        source.onerror = () => setState(prev => ({ ...prev, connected: false }));
+        return () => source.close();
+    }, []);
+
+    return state;
+}
@@ -1,14 +1,18 @@
-import { useState, useEffect } from 'react';
+import { useState, useEffect, useRef } from 'react';
 import { GlassCard } from '@/components/ui/GlassCard';
 import { ComposedChart, LineChart, Bar, Line, XAxis, YAxis, CartesianGrid, Tooltip, ResponsiveContainer } from 'recharts';
 import { Search, Activity, AlertTriangle, Cpu } from 'lucide-react';
 import axios from 'axios';
+import { useStatsStream } from '@/lib/useStatsStream';
 
 const Analytics = () => {
     const [machineId, setMachineId] = useState('D-101');
     const [data, setData] = useState([]);
     const [systemLoad, setSystemLoad] = useState([]);
     const [stats, setStats] = useState({ total: 0, defects: 0, rate: 0 });
+    const live = useStatsStream();
+    const liveRef = useRef(false);
+    liveRef.current = live.connected;
 
     // Mock initial data
     const initialData = Array.from({ length: 15 }, (_, i) => ({
@@ -31,8 +35,8 @@ const Analytics = () => {
             const now = new Date();
             const timeLabel = now.toLocaleTimeString('en-US', { hour12: false, hour: '2-digit', minute: '2-digit', second: '2-digit' });
 
-            // Update Production Data
-            setData(prev => {
+            // Update Production Data (simulated until the live feed is connected)
+            if (!liveRef.current) setData(prev => {
                 const next = [...prev.slice(1)];
                 next.push({
                     time: timeLabel,
@@ -57,13 +61,28 @@ const Analytics = () => {
         return () => clearInterval(interval);
     }, []);
 
-    // Calculate aggregate stats from current view
+    // Live feed: one chart point per pushed delta for the selected machine
     useEffect(() => {
+        if (!live.lastDelta) return;
+        const change = live.lastDelta.machines.find(m => m.id === machineId);
+        const timeLabel = new Date().toLocaleTimeString('en-US', { hour12: false, hour: '2-digit', minute: '2-digit', second: '2-digit' });
+        setData(prev => [...prev.slice(1), { time: timeLabel, count: change?.eventCount ?? 0, defects: change?.defectSum ?? 0 }]);
+    }, [live.lastDelta, machineId]);
+
+    // Calculate aggregate stats from current view (or the live totals of the last hour)
+    useEffect(() => {
+        if (live.connected) {
+            const totals = live.machines[machineId];
+            const total = totals?.eventCount ?? 0;
+            const defects = totals?.defectSum ?? 0;
+            setStats({ total, defects, rate: total > 0 ? ((defects / total) * 100).toFixed(2) : 0 });
+            return;
+        }
         const total = data.reduce((acc, curr) => acc + curr.count, 0);
         const defects = data.reduce((acc, curr) => acc + curr.defects, 0);
         const rate = total > 0 ? ((defects / total) * 100).toFixed(2) : 0;
         setStats({ total, defects, rate });
-    }, [data]);
+    }, [data, live, machineId]);
 
     return (
         <div className="space-y-6">
@@ -3,6 +3,7 @@ import { Activity, AlertTriangle, CheckCircle, Zap, X, Info } from 'lucide-react
 import { motion, AnimatePresence } from 'framer-motion';
 import { useState, useEffect } from 'react';
 import { AreaChart, Area, XAxis, YAxis, CartesianGrid, Tooltip, ResponsiveContainer } from 'recharts';
+import { useStatsStream } from '@/lib/useStatsStream';
 
 const ALERT_RESOLUTIONS = {
     'red': {
@@ -70,6 +71,10 @@ const Dashboard = () => {
         activeAlerts: 3
     });
 
+    const live = useStatsStream();
+    const liveMachines = Object.values(live.machines).filter(m => m.eventCount > 0);
+    const liveEvents = liveMachines.reduce((sum, m) => sum + m.eventCount, 0);
+
     const [machineName, setMachineName] = useState('Machine D-204');
     const [selectedAlert, setSelectedAlert] = useState(null);
 
@@ -145,14 +150,14 @@ const Dashboard = () => {
             <div className="grid grid-cols-1 md:grid-cols-2 lg:grid-cols-4 gap-6">
                 <StatCard
                     title="Active Machines"
-                    value={stats.activeMachines}
+                    value={live.connected ? liveMachines.length : stats.activeMachines}
                     change="+12%"
                     icon={Activity}
                     color="cyan"
                 />
                 <StatCard
                     title="Total Events"
-                    value={stats.totalEvents.toLocaleString()}
+                    value={(live.connected ? liveEvents : stats.totalEvents).toLocaleString()}
                     change="+5.2%"
                     icon={Zap}
                     color="purple"
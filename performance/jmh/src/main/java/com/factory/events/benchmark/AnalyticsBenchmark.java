@@ -0,0 +1,77 @@
+package com.factory.events.benchmark;
+
+import com.factory.events.model.MachineEvent;
+import com.factory.events.service.AnalyticsService;
+import com.factory.events.service.EventIngestionService;
+import com.factory.events.service.RollupService;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link AnalyticsService#getStats} and {@link AnalyticsService#getTopDefectLines} over a
+ * populated table, for a short unaligned window (mostly raw edges) and for windows spanning
+ * the whole 48h of data (hot window and rollups). The top lines of the last 24 hours are
+ * also measured on their own, as a standard sliding window served by the top-K index.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class AnalyticsBenchmark {
+
+    @Param({ "200000" })
+    public int events;
+
+    @Param({ "PT7M30S", "PT48H" })
+    public String window;
+
+    private ConfigurableApplicationContext context;
+    private AnalyticsService analyticsService;
+    private Instant start;
+    private Instant end;
+
+    @Setup(Level.Trial)
+    public void populate() {
+        context = BenchmarkContext.start("analytics");
+        EventIngestionService ingestionService = context.getBean(EventIngestionService.class);
+        EventGenerator generator = new EventGenerator(11, 200, 20, 0, 0, 0, 0, 48);
+        for (int loaded = 0; loaded < events; loaded += 5000) {
+            List<MachineEvent> batch = generator.batch(Math.min(5000, events - loaded));
+            ingestionService.processBatch(batch);
+        }
+        context.getBean(RollupService.class).catchUp();
+        analyticsService = context.getBean(AnalyticsService.class);
+
+        end = Instant.now().minusSeconds(17);
+        start = end.minus(Duration.parse(window));
+    }
+
+    @TearDown(Level.Trial)
+    public void stop() {
+        context.close();
+    }
+
+    @Benchmark
+    public AnalyticsService.MachineStats getStats() {
+        return analyticsService.getStats("M-42", start, end);
+    }
+
+    @Benchmark
+    public List<AnalyticsService.TopDefectLine> getTopDefectLines() {
+        return analyticsService.getTopDefectLines(start, end, 10);
+    }
+
+    @Benchmark
+    public List<AnalyticsService.TopDefectLine> getTopDefectLinesLast24h() {
+        Instant to = Instant.now().truncatedTo(ChronoUnit.MINUTES).plusSeconds(60);
+        return analyticsService.getTopDefectLines(to.minus(Duration.ofHours(24)), to, 10);
+    }
+}
@@ -0,0 +1,46 @@
+package com.factory.events.benchmark;
+
+import com.factory.events.FactoryEventsApplication;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+/**
+ * Boots the real backend against an in-memory H2 database (PostgreSQL mode) as a stand-in for
+ * PostgreSQL. Only relative numbers between runs are meaningful: H2 has no network hop and
+ * takes the generic (JPA) write path.
+ */
+public final class BenchmarkContext {
+
+    private BenchmarkContext() {
+    }
+
+    public static ConfigurableApplicationContext start(String databaseName) {
+        return builder(databaseName).web(WebApplicationType.NONE).run();
+    }
+
+    /**
+     * The backend with its web server on a random port ({@code local.server.port}), for
+     * benchmarks that go through HTTP.
+     */
+    public static ConfigurableApplicationContext startWeb(String databaseName, String... properties) {
+        return builder(databaseName)
+                .web(WebApplicationType.SERVLET)
+                .properties("server.port=0")
+                .properties(properties)
+                .run();
+    }
+
+    // Default properties: -D system properties given to the fork override them
+    private static SpringApplicationBuilder builder(String databaseName) {
+        return new SpringApplicationBuilder(FactoryEventsApplication.class)
+                .properties(
+                        "spring.datasource.url=jdbc:h2:mem:" + databaseName + ";MODE=PostgreSQL;DB_CLOSE_DELAY=-1",
+                        "spring.datasource.username=sa",
+                        "spring.datasource.password=",
+                        "spring.jpa.database-platform=org.hibernate.dialect.H2Dialect",
+                        "logging.level.root=WARN",
+                        // Keep background jobs out of the measurements
+                        "events.rollup.catch-up-interval-ms=86400000");
+    }
+}
@@ -0,0 +1,96 @@
+package com.factory.events.benchmark;
+
+import com.factory.events.model.MachineEvent;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+
+/**
+ * Deterministic generator of realistic ingestion traffic.
+ *
+ * A batch mixes new events with re-sent ones (gateways retry whole batches): a re-sent event
+ * is either an identical duplicate or a corrected payload, and its receivedTime may be older
+ * than the stored one (out-of-order delivery). Events are spread over many machines and lines
+ * and over the last {@code spanHours}; a small share is invalid. Every event carries a
+ * receivedTime so the service never has to mutate it.
+ */
+public class EventGenerator {
+
+    private final SplittableRandom random;
+    private final int machines;
+    private final int lines;
+    private final double resendRatio;
+    private final double correctionRatio;
+    private final double outOfOrderRatio;
+    private final double invalidRatio;
+    private final Duration span;
+    private final Instant now = Instant.now();
+    private final List<MachineEvent> sent = new ArrayList<>();
+    private long nextId;
+
+    public EventGenerator(long seed, int machines, int lines, double resendRatio, double correctionRatio,
+            double outOfOrderRatio, double invalidRatio, int spanHours) {
+        this.random = new SplittableRandom(seed);
+        this.machines = machines;
+        this.lines = lines;
+        this.resendRatio = resendRatio;
+        this.correctionRatio = correctionRatio;
+        this.outOfOrderRatio = outOfOrderRatio;
+        this.invalidRatio = invalidRatio;
+        this.span = Duration.ofHours(spanHours);
+    }
+
+    /** Plant-like defaults: 200 machines on 20 lines, 20% re-sends, 1% invalid, last 48h. */
+    public static EventGenerator typical(long seed) {
+        return new EventGenerator(seed, 200, 20, 0.2, 0.3, 0.1, 0.01, 48);
+    }
+
+    public List<MachineEvent> batch(int size) {
+        List<MachineEvent> batch = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            batch.add(!sent.isEmpty() && random.nextDouble() < resendRatio ? resend() : fresh());
+        }
+        return batch;
+    }
+
+    private MachineEvent fresh() {
+        int machine = random.nextInt(machines);
+        long duration = random.nextDouble() < invalidRatio ? -1 : 500 + random.nextInt(60_000);
+        MachineEvent event = new MachineEvent(String.format("EVT-%010d", nextId++),
+                now.minusMillis(random.nextLong(span.toMillis())), "M-" + machine, "L-" + machine % lines, duration,
+                random.nextInt(10) == 0 ? -1 : random.nextInt(4));
+        event.setReceivedTime(now.plusMillis(nextId));
+        if (sent.size() < 1_000_000) {
+            sent.add(event);
+        }
+        return event;
+    }
+
+    private MachineEvent resend() {
+        return resendOf(sent.get(random.nextInt(sent.size())));
+    }
+
+    private MachineEvent resendOf(MachineEvent original) {
+        MachineEvent copy = new MachineEvent(original);
+        if (random.nextDouble() < correctionRatio) {
+            copy.setDefectCount(original.getDefectCount() + 1);
+        }
+        long shift = random.nextDouble() < outOfOrderRatio ? -1_000 : 1_000;
+        copy.setReceivedTime(original.getReceivedTime().plusMillis(shift));
+        return copy;
+    }
+
+    /** A pool of (stored, incoming) pairs with the same eventId, for pure merge benchmarks. */
+    public MachineEvent[][] mergePairs(int count) {
+        MachineEvent[][] pairs = new MachineEvent[count][];
+        for (int i = 0; i < count; i++) {
+            MachineEvent stored = fresh();
+            MachineEvent incoming = resendOf(stored);
+            pairs[i] = new MachineEvent[] { stored, incoming };
+        }
+        return pairs;
+    }
+}
@@ -0,0 +1,55 @@
+package com.factory.events.benchmark;
+
+import com.factory.events.codec.BinaryBatchCodec;
+import com.factory.events.model.MachineEvent;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Request body decoding: Jackson binding of a JSON batch into List<MachineEvent> (what
+ * POST /events/batch does) against the binary batch format.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class JsonBindingBenchmark {
+
+    private static final TypeReference<List<MachineEvent>> BATCH = new TypeReference<>() {
+    };
+
+    @Param({ "1000" })
+    public int batchSize;
+
+    private ObjectMapper objectMapper;
+    private byte[] json;
+    private byte[] binary;
+
+    @Setup
+    public void setUp() throws IOException {
+        // Same settings as Spring Boot's auto-configured mapper
+        objectMapper = new ObjectMapper().findAndRegisterModules()
+                .disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS);
+        List<MachineEvent> events = EventGenerator.typical(3).batch(batchSize);
+        json = objectMapper.writeValueAsBytes(events);
+        binary = BinaryBatchCodec.encode(events);
+    }
+
+    @Benchmark
+    public List<MachineEvent> bindJson() throws IOException {
+        return objectMapper.readValue(json, BATCH);
+    }
+
+    @Benchmark
+    public List<MachineEvent> decodeBinary() {
+        return BinaryBatchCodec.decode(binary);
+    }
+}
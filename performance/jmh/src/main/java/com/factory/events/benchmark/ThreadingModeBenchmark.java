@@ -0,0 +1,120 @@
+package com.factory.events.benchmark;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Bursty mixed traffic over HTTP: 32 gateways posting batches to POST /events/batch while 224
+ * dashboards poll GET /stats, with request handling and ingestion workers on platform threads
+ * (Tomcat's pool of 200) or on virtual threads (spring.threads.virtual.enabled). Concurrency
+ * towards the database is bounded by the Hikari pool in both modes. Compare the throughput
+ * runs, and p99 in the sample-time runs.
+ *
+ * The virtual mode needs a Java 21 runtime. The backend defaults to H2, which never blocks on
+ * I/O; point it at PostgreSQL (-jvmArgsAppend -Dspring.datasource.url=...) to see the effect
+ * of request threads parked on JDBC.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class ThreadingModeBenchmark {
+
+    private static final int POOL = 256;
+
+    @Param({ "platform", "virtual" })
+    public String mode;
+
+    @Param({ "100" })
+    public int batchSize;
+
+    private ConfigurableApplicationContext context;
+    private HttpClient client;
+    private String baseUrl;
+    private List<byte[]> batches;
+    private final AtomicInteger next = new AtomicInteger();
+
+    @Setup(Level.Trial)
+    public void startBackend() throws IOException {
+        boolean virtual = "virtual".equals(mode);
+        if (virtual && Runtime.version().feature() < 21) {
+            throw new IllegalStateException("Virtual threads need a Java 21 runtime, this is Java "
+                    + Runtime.version().feature());
+        }
+        String databaseName = "threading-" + mode;
+        context = BenchmarkContext.startWeb(databaseName,
+                "spring.threads.virtual.enabled=" + virtual,
+                // H2 fails a row lock wait after one second; PostgreSQL waits
+                "spring.datasource.url=jdbc:h2:mem:" + databaseName
+                        + ";MODE=PostgreSQL;DB_CLOSE_DELAY=-1;LOCK_TIMEOUT=30000");
+        baseUrl = "http://localhost:" + context.getEnvironment().getProperty("local.server.port");
+        client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(Duration.ofSeconds(10))
+                .build();
+
+        ObjectMapper objectMapper = new ObjectMapper().findAndRegisterModules()
+                .disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS);
+        EventGenerator generator = EventGenerator.typical(19);
+        batches = new ArrayList<>(POOL);
+        for (int i = 0; i < POOL; i++) {
+            batches.add(objectMapper.writeValueAsBytes(generator.batch(batchSize)));
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void stopBackend() {
+        context.close();
+    }
+
+    @Benchmark
+    @Group("mixed")
+    @GroupThreads(32)
+    public int postBatch() throws Exception {
+        // Cycling through the pool turns later rounds into re-sends of stored events
+        byte[] body = batches.get(Math.floorMod(next.getAndIncrement(), POOL));
+        HttpRequest request = HttpRequest.newBuilder(URI.create(baseUrl + "/events/batch"))
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofByteArray(body))
+                .build();
+        return send(request);
+    }
+
+    @Benchmark
+    @Group("mixed")
+    @GroupThreads(224)
+    public int getStats() throws Exception {
+        Instant end = Instant.now().truncatedTo(ChronoUnit.SECONDS);
+        int machine = Math.floorMod(next.getAndIncrement(), 200);
+        HttpRequest request = HttpRequest.newBuilder(URI.create(baseUrl + "/stats?machineId=M-" + machine
+                + "&start=" + end.minus(Duration.ofHours(6)) + "&end=" + end))
+                .GET()
+                .build();
+        return send(request);
+    }
+
+    private int send(HttpRequest request) throws Exception {
+        HttpResponse<byte[]> response = client.send(request, HttpResponse.BodyHandlers.ofByteArray());
+        if (response.statusCode() >= 400) {
+            throw new IllegalStateException(request.uri().getPath() + " answered " + response.statusCode());
+        }
+        return response.statusCode();
+    }
+}
@@ -0,0 +1,64 @@
+package com.factory.events.service;
+
+import com.factory.events.benchmark.EventGenerator;
+import com.factory.events.codec.BinaryBatchCodec;
+import com.factory.events.codec.EventColumns;
+import com.factory.events.model.MachineEvent;
+import com.factory.events.archive.EventArchive;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.beans.factory.support.DefaultListableBeanFactory;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Everything a binary batch goes through before the first database read: decode, validation
+ * and in-batch dedupe, once over MachineEvent objects and once over {@link EventColumns}.
+ * Run with {@code -prof gc} to compare the allocation per batch. Lives in the service
+ * package to reach the package-private steps.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BatchPreparationBenchmark {
+
+    @Param({ "1000" })
+    public int batchSize;
+
+    private EventIngestionService service;
+    private byte[] binary;
+
+    @Setup
+    public void setUp() {
+        // The preparation steps do not touch the repository, the writer, the listeners or the cache
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        service = new EventIngestionService(null, null, List.of(), new IngestionMetrics(registry),
+                new EventIdLocks(false, registry), null, noArchive(registry), BatchPartitioner.serial(),
+                null, null);
+        binary = BinaryBatchCodec.encode(EventGenerator.typical(11).batch(batchSize));
+    }
+
+    @Benchmark
+    public List<MachineEvent> objects() {
+        EventIngestionService.BatchResult result = new EventIngestionService.BatchResult();
+        List<MachineEvent> valid = service.rejectInvalid(BinaryBatchCodec.decode(binary), result);
+        return service.dedupeInBatch(valid, result);
+    }
+
+    @Benchmark
+    public List<MachineEvent> columns() {
+        EventIngestionService.BatchResult result = new EventIngestionService.BatchResult();
+        EventColumns columns = BinaryBatchCodec.decodeColumns(binary);
+        return service.dedupeInBatch(columns, service.rejectInvalid(columns, result), result);
+    }
+
+    // Without an EventArchive bean the service only reports an empty horizon
+    static EventArchiveService noArchive(SimpleMeterRegistry registry) {
+        return new EventArchiveService(new DefaultListableBeanFactory().getBeanProvider(EventArchive.class), null,
+                null, null, null, registry, 30, 31);
+    }
+}
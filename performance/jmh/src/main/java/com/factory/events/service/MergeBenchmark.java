@@ -0,0 +1,61 @@
+package com.factory.events.service;
+
+import com.factory.events.benchmark.EventGenerator;
+import com.factory.events.model.MachineEvent;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The pure in-memory merge rules of {@link EventIngestionService}, without the database:
+ * {@code isSamePayload} and {@code checkAndMerge} over (stored, incoming) pairs that are
+ * identical, corrected, or delivered out of order. Lives in the service package to reach the
+ * package-private methods.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MergeBenchmark {
+
+    private static final int PAIRS = 4096;
+
+    private EventIngestionService service;
+    private MachineEvent[][] pairs;
+    private int next;
+    private final List<MachineEvent> inserts = new ArrayList<>();
+    private final List<MachineEvent> updates = new ArrayList<>();
+    private final EventIngestionService.BatchResult result = new EventIngestionService.BatchResult();
+
+    @Setup
+    public void setUp() {
+        // Neither method touches the repository, the writer, the listeners or the cache
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        service = new EventIngestionService(null, null, List.of(), new IngestionMetrics(registry),
+                new EventIdLocks(false, registry), null, BatchPreparationBenchmark.noArchive(registry),
+                BatchPartitioner.serial(), null, null);
+        pairs = EventGenerator.typical(7).mergePairs(PAIRS);
+    }
+
+    @Benchmark
+    public boolean isSamePayload() {
+        MachineEvent[] pair = pairs[next++ & (PAIRS - 1)];
+        return service.isSamePayload(pair[1], pair[0]);
+    }
+
+    @Benchmark
+    public void checkAndMerge(Blackhole blackhole) {
+        MachineEvent[] pair = pairs[next++ & (PAIRS - 1)];
+        inserts.clear();
+        updates.clear();
+        service.checkAndMerge(pair[1], Optional.of(pair[0]), inserts, updates, result);
+        blackhole.consume(updates);
+    }
+}
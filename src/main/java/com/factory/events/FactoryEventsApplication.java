@@ -1,13 +1,25 @@
 package com.factory.events;
 
+import com.factory.events.service.AsyncIngestionService;
+import org.springframework.boot.ApplicationRunner;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.context.annotation.Bean;
+import org.springframework.scheduling.annotation.EnableScheduling;
 
 @SpringBootApplication
+@EnableScheduling
 public class FactoryEventsApplication {
 
 	public static void main(String[] args) {
 		SpringApplication.run(FactoryEventsApplication.class, args);
 	}
 
+	// Re-apply batches that were acknowledged from the write-ahead log but not yet committed
+	// to the database when the previous process stopped. No-op unless events.wal.enabled=true.
+	@Bean
+	ApplicationRunner writeAheadLogReplay(AsyncIngestionService asyncIngestionService) {
+		return args -> asyncIngestionService.replayWriteAheadLog();
+	}
+
 }
@@ -0,0 +1,523 @@
+package com.factory.events.archive;
+
+import com.factory.events.model.MachineEvent;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.*;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * One immutable file of archived events, stored column by column.
+ *
+ * Rows are sorted by machineId, then eventTime, and cut into blocks of up to
+ * {@link #BLOCK_ROWS}. Each block holds its columns one after another and is Deflate-compressed
+ * on its own. Integers are LEB128 varints ("zz" = zigzag-encoded); times are epoch micros.
+ * <pre>
+ * block:
+ *   rows
+ *   runs(machineRef)                    -- runCount, runCount x {value, length}
+ *   runs(lineRef)                       -- refs: 0 = null, else dictionary index + 1
+ *   rows x zz(eventTime - previous)     -- the first row is relative to the block's minTime
+ *   rows x zz(durationMs)
+ *   runs(zz(defectCount))
+ *   rows x {sharedPrefix, suffix}       -- eventId, front-coded (suffix = byteLength, UTF-8)
+ *   rows x received                     -- 0 = null, else zz(receivedTime - eventTime) + 1
+ * file:
+ *   MAGIC(4) VERSION(1) | blocks | footer | footerOffset(8) MAGIC(4)
+ * footer:
+ *   dictSize, dictSize x string         -- sorted, so reference order is string order
+ *   blockCount, blockCount x {offset, compressedLength, rawLength, rows,
+ *                             minMachineRef, maxMachineRef, zz(minTime), zz(maxTime)}
+ * </pre>
+ * The footer is the zone map: scans skip blocks whose machine or time range cannot match,
+ * and stop decoding a block after the columns they need (eventIds and receivedTime come
+ * last). Only the footer is kept in memory; blocks are read from the file per scan.
+ */
+public final class ArchiveSegment {
+
+    public static final int BLOCK_ROWS = 4096;
+
+    private static final int MAGIC = 0x45565341; // "EVSA"
+    private static final byte VERSION = 1;
+    private static final int TRAILER_BYTES = 12;
+
+    private static final Comparator<MachineEvent> ROW_ORDER = Comparator.comparing(MachineEvent::getMachineId)
+            .thenComparing(MachineEvent::getEventTime)
+            .thenComparing(MachineEvent::getEventId);
+
+    private final Path file;
+    private final String[] dictionary;
+    private final Block[] blocks;
+
+    private ArchiveSegment(Path file, String[] dictionary, Block[] blocks) {
+        this.file = file;
+        this.dictionary = dictionary;
+        this.blocks = blocks;
+    }
+
+    /** Zone map and location of one block */
+    private record Block(long offset, int compressedLength, int rawLength, int rows, int minMachineRef,
+            int maxMachineRef, long minTime, long maxTime) {
+    }
+
+    /** Receives the rows a scan selected; lineId may be null. */
+    @FunctionalInterface
+    public interface RowVisitor {
+        void row(String machineId, String lineId, long eventTimeMicros, int defectCount);
+    }
+
+    /**
+     * Writes {@code events} (any order, non-null machineId) to {@code file}, replacing it
+     * atomically: the data goes to a temporary file that is forced to disk and then renamed.
+     */
+    public static ArchiveSegment write(Path file, List<MachineEvent> events) throws IOException {
+        List<MachineEvent> rows = new ArrayList<>(events);
+        rows.sort(ROW_ORDER);
+        TreeSet<String> values = new TreeSet<>();
+        for (MachineEvent event : rows) {
+            values.add(event.getMachineId());
+            if (event.getLineId() != null) {
+                values.add(event.getLineId());
+            }
+        }
+        String[] dictionary = values.toArray(new String[0]);
+
+        Writer out = new Writer();
+        out.bytes.write(ByteBuffer.allocate(5).putInt(MAGIC).put(VERSION).array());
+        List<Block> blocks = new ArrayList<>();
+        Deflater deflater = new Deflater();
+        try {
+            for (int from = 0; from < rows.size(); from += BLOCK_ROWS) {
+                List<MachineEvent> blockRows = rows.subList(from, Math.min(from + BLOCK_ROWS, rows.size()));
+                byte[] raw = encodeBlock(blockRows, dictionary);
+                byte[] compressed = deflate(deflater, raw);
+                long minTime = Long.MAX_VALUE;
+                long maxTime = Long.MIN_VALUE;
+                for (MachineEvent event : blockRows) {
+                    long time = micros(event.getEventTime());
+                    minTime = Math.min(minTime, time);
+                    maxTime = Math.max(maxTime, time);
+                }
+                blocks.add(new Block(out.bytes.size(), compressed.length, raw.length, blockRows.size(),
+                        reference(dictionary, blockRows.get(0).getMachineId()),
+                        reference(dictionary, blockRows.get(blockRows.size() - 1).getMachineId()), minTime,
+                        maxTime));
+                out.bytes.write(compressed);
+            }
+        } finally {
+            deflater.end();
+        }
+
+        long footerOffset = out.bytes.size();
+        out.varint(dictionary.length);
+        for (String value : dictionary) {
+            out.string(value.getBytes(StandardCharsets.UTF_8), 0);
+        }
+        out.varint(blocks.size());
+        for (Block block : blocks) {
+            out.varint(block.offset);
+            out.varint(block.compressedLength);
+            out.varint(block.rawLength);
+            out.varint(block.rows);
+            out.varint(block.minMachineRef);
+            out.varint(block.maxMachineRef);
+            out.varint(zigzag(block.minTime));
+            out.varint(zigzag(block.maxTime));
+        }
+        out.bytes.write(ByteBuffer.allocate(TRAILER_BYTES).putLong(footerOffset).putInt(MAGIC).array());
+
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buffer = ByteBuffer.wrap(out.bytes.toByteArray());
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(true);
+        }
+        Files.move(tmp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        return new ArchiveSegment(file, dictionary, blocks.toArray(new Block[0]));
+    }
+
+    private static byte[] encodeBlock(List<MachineEvent> rows, String[] dictionary) {
+        Writer out = new Writer();
+        out.varint(rows.size());
+        long[] machineRefs = new long[rows.size()];
+        long[] lineRefs = new long[rows.size()];
+        long[] defects = new long[rows.size()];
+        for (int i = 0; i < rows.size(); i++) {
+            machineRefs[i] = reference(dictionary, rows.get(i).getMachineId());
+            lineRefs[i] = reference(dictionary, rows.get(i).getLineId());
+            defects[i] = zigzag(rows.get(i).getDefectCount());
+        }
+        out.runs(machineRefs);
+        out.runs(lineRefs);
+
+        long previous = Long.MAX_VALUE;
+        for (MachineEvent event : rows) {
+            previous = Math.min(previous, micros(event.getEventTime()));
+        }
+        for (MachineEvent event : rows) {
+            long time = micros(event.getEventTime());
+            out.varint(zigzag(time - previous));
+            previous = time;
+        }
+        for (MachineEvent event : rows) {
+            out.varint(zigzag(event.getDurationMs()));
+        }
+        out.runs(defects);
+
+        byte[] previousId = new byte[0];
+        for (MachineEvent event : rows) {
+            byte[] id = event.getEventId().getBytes(StandardCharsets.UTF_8);
+            int shared = sharedPrefix(previousId, id);
+            out.varint(shared);
+            out.string(id, shared);
+            previousId = id;
+        }
+        for (MachineEvent event : rows) {
+            Instant received = event.getReceivedTime();
+            out.varint(received == null ? 0 : zigzag(micros(received) - micros(event.getEventTime())) + 1);
+        }
+        return out.bytes.toByteArray();
+    }
+
+    /**
+     * Reads the footer of {@code file}; the blocks stay on disk.
+     *
+     * @throws IOException if the file is not a complete segment
+     */
+    public static ArchiveSegment open(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < 5 + TRAILER_BYTES) {
+                throw new IOException("Truncated archive segment " + file);
+            }
+            ByteBuffer trailer = read(channel, size - TRAILER_BYTES, TRAILER_BYTES);
+            long footerOffset = trailer.getLong();
+            if (trailer.getInt() != MAGIC || footerOffset < 5 || footerOffset > size - TRAILER_BYTES) {
+                throw new IOException("Not an archive segment: " + file);
+            }
+            ByteBuffer header = read(channel, 0, 5);
+            if (header.getInt() != MAGIC || header.get() != VERSION) {
+                throw new IOException("Unsupported archive segment " + file);
+            }
+            Reader in = new Reader(read(channel, footerOffset, (int) (size - TRAILER_BYTES - footerOffset)));
+            String[] dictionary = new String[(int) in.varint()];
+            for (int i = 0; i < dictionary.length; i++) {
+                dictionary[i] = in.string();
+            }
+            Block[] blocks = new Block[(int) in.varint()];
+            for (int i = 0; i < blocks.length; i++) {
+                blocks[i] = new Block(in.varint(), (int) in.varint(), (int) in.varint(), (int) in.varint(),
+                        (int) in.varint(), (int) in.varint(), unzigzag(in.varint()), unzigzag(in.varint()));
+            }
+            return new ArchiveSegment(file, dictionary, blocks);
+        } catch (RuntimeException e) {
+            throw new IOException("Corrupt archive segment " + file, e);
+        }
+    }
+
+    public Path file() {
+        return file;
+    }
+
+    public int blockCount() {
+        return blocks.length;
+    }
+
+    public long rowCount() {
+        long rows = 0;
+        for (Block block : blocks) {
+            rows += block.rows;
+        }
+        return rows;
+    }
+
+    /**
+     * Visits the rows with eventTime in [fromMicros, toMicros) and, unless {@code machineIds}
+     * is null, one of those machines.
+     *
+     * @return the number of blocks read; the others were skipped by their zone maps
+     */
+    public int scan(Set<String> machineIds, long fromMicros, long toMicros, RowVisitor visitor) {
+        int[] wanted = null;
+        if (machineIds != null) {
+            wanted = machineIds.stream()
+                    .mapToInt(id -> id == null ? -1 : Arrays.binarySearch(dictionary, id))
+                    .filter(i -> i >= 0)
+                    .map(i -> i + 1)
+                    .sorted()
+                    .toArray();
+            if (wanted.length == 0) {
+                return 0;
+            }
+        }
+        int read = 0;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            Inflater inflater = new Inflater();
+            try {
+                for (Block block : blocks) {
+                    if (block.maxTime < fromMicros || block.minTime >= toMicros
+                            || (wanted != null && !anyWithin(wanted, block.minMachineRef, block.maxMachineRef))) {
+                        continue;
+                    }
+                    read++;
+                    scanBlock(inflate(inflater, channel, block), block, wanted, fromMicros, toMicros, visitor);
+                }
+            } finally {
+                inflater.end();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot read archive segment " + file, e);
+        }
+        return read;
+    }
+
+    private void scanBlock(Reader in, Block block, int[] wanted, long fromMicros, long toMicros,
+            RowVisitor visitor) {
+        int rows = (int) in.varint();
+        int[] machineRefs = in.runs(rows);
+        int[] lineRefs = in.runs(rows);
+        long[] times = new long[rows];
+        long time = block.minTime;
+        for (int i = 0; i < rows; i++) {
+            time += unzigzag(in.varint());
+            times[i] = time;
+        }
+        for (int i = 0; i < rows; i++) {
+            in.varint(); // durationMs
+        }
+        int[] defects = in.runs(rows);
+        for (int i = 0; i < rows; i++) {
+            if (times[i] < fromMicros || times[i] >= toMicros
+                    || (wanted != null && Arrays.binarySearch(wanted, machineRefs[i]) < 0)) {
+                continue;
+            }
+            visitor.row(lookup(machineRefs[i]), lookup(lineRefs[i]), times[i], (int) unzigzag(defects[i]));
+        }
+    }
+
+    /** Every row, in file order (machineId, eventTime); for audits and tests. */
+    public List<MachineEvent> readAll() {
+        List<MachineEvent> events = new ArrayList<>((int) rowCount());
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            Inflater inflater = new Inflater();
+            try {
+                for (Block block : blocks) {
+                    readBlock(inflate(inflater, channel, block), block, events);
+                }
+            } finally {
+                inflater.end();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot read archive segment " + file, e);
+        }
+        return events;
+    }
+
+    private void readBlock(Reader in, Block block, List<MachineEvent> events) {
+        int rows = (int) in.varint();
+        int[] machineRefs = in.runs(rows);
+        int[] lineRefs = in.runs(rows);
+        long[] times = new long[rows];
+        long time = block.minTime;
+        for (int i = 0; i < rows; i++) {
+            time += unzigzag(in.varint());
+            times[i] = time;
+        }
+        long[] durations = new long[rows];
+        for (int i = 0; i < rows; i++) {
+            durations[i] = unzigzag(in.varint());
+        }
+        int[] defects = in.runs(rows);
+        String[] eventIds = new String[rows];
+        byte[] id = new byte[0];
+        for (int i = 0; i < rows; i++) {
+            int shared = (int) in.varint();
+            byte[] suffix = in.bytes();
+            id = Arrays.copyOf(id, shared + suffix.length);
+            System.arraycopy(suffix, 0, id, shared, suffix.length);
+            eventIds[i] = new String(id, StandardCharsets.UTF_8);
+        }
+        for (int i = 0; i < rows; i++) {
+            long received = in.varint();
+            MachineEvent event = new MachineEvent(eventIds[i], instant(times[i]), lookup(machineRefs[i]),
+                    lookup(lineRefs[i]), durations[i], (int) unzigzag(defects[i]));
+            if (received != 0) {
+                event.setReceivedTime(instant(times[i] + unzigzag(received - 1)));
+            }
+            events.add(event);
+        }
+    }
+
+    private static boolean anyWithin(int[] sorted, int min, int max) {
+        int i = Arrays.binarySearch(sorted, min);
+        int insertion = i >= 0 ? i : -i - 1;
+        return insertion < sorted.length && sorted[insertion] <= max;
+    }
+
+    private String lookup(int ref) {
+        return ref == 0 ? null : dictionary[ref - 1];
+    }
+
+    private static int reference(String[] dictionary, String value) {
+        return value == null ? 0 : Arrays.binarySearch(dictionary, value) + 1;
+    }
+
+    public static long micros(Instant t) {
+        return Math.addExact(Math.multiplyExact(t.getEpochSecond(), 1_000_000L), t.getNano() / 1000);
+    }
+
+    static Instant instant(long micros) {
+        return Instant.ofEpochSecond(Math.floorDiv(micros, 1_000_000L), Math.floorMod(micros, 1_000_000L) * 1000L);
+    }
+
+    private static byte[] deflate(Deflater deflater, byte[] raw) {
+        deflater.reset();
+        deflater.setInput(raw);
+        deflater.finish();
+        ByteArrayOutputStream out = new ByteArrayOutputStream(raw.length / 2 + 64);
+        byte[] chunk = new byte[8192];
+        while (!deflater.finished()) {
+            out.write(chunk, 0, deflater.deflate(chunk));
+        }
+        return out.toByteArray();
+    }
+
+    private static Reader inflate(Inflater inflater, FileChannel channel, Block block) throws IOException {
+        ByteBuffer compressed = read(channel, block.offset, block.compressedLength);
+        byte[] raw = new byte[block.rawLength];
+        inflater.reset();
+        inflater.setInput(compressed.array(), 0, block.compressedLength);
+        try {
+            if (inflater.inflate(raw) != raw.length) {
+                throw new IOException("Short block at " + block.offset);
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupt block at " + block.offset, e);
+        }
+        return new Reader(ByteBuffer.wrap(raw));
+    }
+
+    private static ByteBuffer read(FileChannel channel, long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Unexpected end of archive segment");
+            }
+        }
+        return buffer.flip();
+    }
+
+    private static int sharedPrefix(byte[] a, byte[] b) {
+        int max = Math.min(a.length, b.length);
+        int i = 0;
+        while (i < max && a[i] == b[i]) {
+            i++;
+        }
+        return i;
+    }
+
+    private static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private static final class Writer {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+        void varint(long value) {
+            while ((value & ~0x7FL) != 0) {
+                bytes.write((int) ((value & 0x7F) | 0x80));
+                value >>>= 7;
+            }
+            bytes.write((int) value);
+        }
+
+        void string(byte[] utf8, int from) {
+            varint(utf8.length - from);
+            bytes.write(utf8, from, utf8.length - from);
+        }
+
+        // Run-length encoding: sorted rows repeat machine and line refs, and most defect counts are 0
+        void runs(long[] values) {
+            int runCount = 0;
+            for (int i = 0; i < values.length; i++) {
+                if (i == 0 || values[i] != values[i - 1]) {
+                    runCount++;
+                }
+            }
+            varint(runCount);
+            int start = 0;
+            for (int i = 1; i <= values.length; i++) {
+                if (i == values.length || values[i] != values[start]) {
+                    varint(values[start]);
+                    varint(i - start);
+                    start = i;
+                }
+            }
+        }
+    }
+
+    private static final class Reader {
+        final ByteBuffer buffer;
+
+        Reader(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        long varint() {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                byte b = buffer.get();
+                value |= (long) (b & 0x7F) << shift;
+                if (b >= 0) {
+                    return value;
+                }
+            }
+            throw new IllegalStateException("Varint longer than 10 bytes");
+        }
+
+        byte[] bytes() {
+            byte[] bytes = new byte[(int) varint()];
+            buffer.get(bytes);
+            return bytes;
+        }
+
+        String string() {
+            return new String(bytes(), StandardCharsets.UTF_8);
+        }
+
+        int[] runs(int rows) {
+            int[] values = new int[rows];
+            int runCount = (int) varint();
+            int pos = 0;
+            for (int r = 0; r < runCount; r++) {
+                int value = (int) varint();
+                int length = (int) varint();
+                Arrays.fill(values, pos, pos + length, value);
+                pos += length;
+            }
+            if (pos != rows) {
+                throw new IllegalStateException("Runs cover " + pos + " of " + rows + " rows");
+            }
+            return values;
+        }
+    }
+}
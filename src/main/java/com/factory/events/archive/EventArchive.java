@@ -0,0 +1,136 @@
+package com.factory.events.archive;
+
+import com.factory.events.model.MachineEvent;
+import com.factory.events.model.WindowTotals;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.*;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+
+/**
+ * Directory of {@link ArchiveSegment}s, one per UTC day of eventTime
+ * ({@code events-20260115.seg}). Footers of all segments are loaded at open; totals queries
+ * only read the blocks of the days and machines they cover.
+ */
+public class EventArchive {
+
+    private static final String PREFIX = "events-";
+    private static final String SUFFIX = ".seg";
+    private static final DateTimeFormatter DAY = DateTimeFormatter.BASIC_ISO_DATE;
+
+    private final Path dir;
+    private final ConcurrentSkipListMap<LocalDate, ArchiveSegment> segments = new ConcurrentSkipListMap<>();
+    private final AtomicLong blocksRead = new AtomicLong();
+    private final AtomicLong blocksSkipped = new AtomicLong();
+
+    private EventArchive(Path dir) {
+        this.dir = dir;
+    }
+
+    /**
+     * Opens (or creates) the archive in {@code dir}. Temporary files of an interrupted write
+     * are removed.
+     */
+    public static EventArchive open(Path dir) throws IOException {
+        Files.createDirectories(dir);
+        EventArchive archive = new EventArchive(dir);
+        try (Stream<Path> files = Files.list(dir)) {
+            for (Path file : files.toList()) {
+                String name = file.getFileName().toString();
+                if (name.endsWith(SUFFIX + ".tmp")) {
+                    Files.delete(file);
+                } else if (name.startsWith(PREFIX) && name.endsWith(SUFFIX)) {
+                    LocalDate day = LocalDate.parse(name.substring(PREFIX.length(), name.length() - SUFFIX.length()),
+                            DAY);
+                    archive.segments.put(day, ArchiveSegment.open(file));
+                }
+            }
+        }
+        return archive;
+    }
+
+    /** Stores the events of {@code day}, replacing a previous segment of that day. */
+    public void write(LocalDate day, List<MachineEvent> events) throws IOException {
+        Path file = dir.resolve(PREFIX + DAY.format(day) + SUFFIX);
+        ArchiveSegment segment = ArchiveSegment.write(file, events);
+        // Make the rename itself durable before the caller commits the removal of the rows
+        try (FileChannel directory = FileChannel.open(dir, StandardOpenOption.READ)) {
+            directory.force(true);
+        }
+        segments.put(day, segment);
+    }
+
+    /** Deletes the segments of {@code day} and every later day. */
+    public void discardFrom(LocalDate day) throws IOException {
+        for (Map.Entry<LocalDate, ArchiveSegment> entry : segments.tailMap(day, true).entrySet()) {
+            Files.deleteIfExists(entry.getValue().file());
+            segments.remove(entry.getKey());
+        }
+    }
+
+    public Optional<ArchiveSegment> segment(LocalDate day) {
+        return Optional.ofNullable(segments.get(day));
+    }
+
+    /** Totals per machine of the archived events in [start, end); absent machines had none. */
+    public Map<String, WindowTotals> machineTotals(Collection<String> machineIds, Instant start, Instant end) {
+        return totals(new HashSet<>(machineIds), start, end, true);
+    }
+
+    /** Totals per line (null included) of the archived events in [start, end). */
+    public Map<String, WindowTotals> lineTotals(Instant start, Instant end) {
+        return totals(null, start, end, false);
+    }
+
+    /** Same as {@link #lineTotals(Instant, Instant)} for the rows whose machine passes {@code machines}. */
+    public Map<String, WindowTotals> lineTotals(Predicate<String> machines, Instant start, Instant end) {
+        return totals(null, machines, start, end, false);
+    }
+
+    private Map<String, WindowTotals> totals(Set<String> machineIds, Instant start, Instant end, boolean byMachine) {
+        return totals(machineIds, machineId -> true, start, end, byMachine);
+    }
+
+    private Map<String, WindowTotals> totals(Set<String> machineIds, Predicate<String> machines, Instant start,
+            Instant end, boolean byMachine) {
+        Map<String, long[]> sums = new HashMap<>();
+        long fromMicros = ArchiveSegment.micros(start);
+        long toMicros = ArchiveSegment.micros(end);
+        LocalDate firstDay = start.atOffset(ZoneOffset.UTC).toLocalDate();
+        LocalDate lastDay = end.atOffset(ZoneOffset.UTC).toLocalDate();
+        for (ArchiveSegment segment : segments.subMap(firstDay, true, lastDay, true).values()) {
+            int read = segment.scan(machineIds, fromMicros, toMicros, (machineId, lineId, time, defectCount) -> {
+                if (!machines.test(machineId)) {
+                    return;
+                }
+                long[] sum = sums.computeIfAbsent(byMachine ? machineId : lineId, k -> new long[2]);
+                sum[0]++;
+                sum[1] += WindowTotals.defectContribution(defectCount);
+            });
+            blocksRead.addAndGet(read);
+            blocksSkipped.addAndGet(segment.blockCount() - read);
+        }
+        Map<String, WindowTotals> totals = new HashMap<>();
+        sums.forEach((key, sum) -> totals.put(key, new WindowTotals(sum[0], sum[1])));
+        return totals;
+    }
+
+    public long blocksRead() {
+        return blocksRead.get();
+    }
+
+    public long blocksSkipped() {
+        return blocksSkipped.get();
+    }
+}
@@ -0,0 +1,250 @@
+package com.factory.events.codec;
+
+import com.factory.events.model.MachineEvent;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * Compact binary encoding of a MachineEvent batch (content type {@value #MEDIA_TYPE}).
+ *
+ * Layout, all integers as LEB128 varints ("zz" = zigzag-encoded, for signed values):
+ * <pre>
+ * 'M' 'E' version(1)
+ * eventCount
+ * dictSize, dictSize x string            -- machineId/lineId values, referenced as index + 1
+ * eventCount x {
+ *   sharedPrefix, suffix string          -- eventId, front-coded against the previous eventId
+ *   zz(eventTime millis - previous)      -- the first event is relative to the epoch
+ *   machineRef, lineRef                  -- 0 = null (lineRef only), else dictionary index + 1
+ *   zz(durationMs), zz(defectCount)
+ * }
+ * string = byteLength, UTF-8 bytes
+ * </pre>
+ * eventTime is carried with millisecond precision; receivedTime is not sent (the server sets
+ * it). A typical event takes about 10 bytes instead of ~150 as JSON, and decoding creates one
+ * String per distinct machine/line rather than per event. {@link #decodeColumns} goes
+ * further and creates only the eventId Strings.
+ */
+public final class BinaryBatchCodec {
+
+    public static final String MEDIA_TYPE = "application/x-machine-events";
+
+    private static final byte MAGIC_0 = 'M';
+    private static final byte MAGIC_1 = 'E';
+    private static final byte VERSION = 1;
+    // One varint each: shared prefix, suffix length, time, machine, line, duration, defects
+    private static final int MIN_EVENT_BYTES = 7;
+
+    private BinaryBatchCodec() {
+    }
+
+    /**
+     * @throws IllegalArgumentException if an event has no eventId, eventTime or machineId
+     */
+    public static byte[] encode(List<MachineEvent> events) {
+        Map<String, Integer> dictionary = new LinkedHashMap<>();
+        for (MachineEvent event : events) {
+            if (event.getEventId() == null || event.getEventTime() == null || event.getMachineId() == null) {
+                throw new IllegalArgumentException("eventId, eventTime and machineId are required");
+            }
+            for (String value : new String[] { event.getMachineId(), event.getLineId() }) {
+                if (value != null) {
+                    dictionary.putIfAbsent(value, dictionary.size());
+                }
+            }
+        }
+
+        Writer out = new Writer(events.size() * 12 + dictionary.size() * 8 + 8);
+        out.bytes.write(MAGIC_0);
+        out.bytes.write(MAGIC_1);
+        out.bytes.write(VERSION);
+        out.varint(events.size());
+        out.varint(dictionary.size());
+        for (String value : dictionary.keySet()) {
+            out.string(value.getBytes(StandardCharsets.UTF_8), 0);
+        }
+
+        byte[] previousId = new byte[0];
+        long previousMillis = 0;
+        for (MachineEvent event : events) {
+            byte[] id = event.getEventId().getBytes(StandardCharsets.UTF_8);
+            int shared = sharedPrefix(previousId, id);
+            out.varint(shared);
+            out.string(id, shared);
+            previousId = id;
+
+            long millis = event.getEventTime().toEpochMilli();
+            out.varint(zigzag(millis - previousMillis));
+            previousMillis = millis;
+
+            out.varint(reference(dictionary, event.getMachineId()));
+            out.varint(reference(dictionary, event.getLineId()));
+            out.varint(zigzag(event.getDurationMs()));
+            out.varint(zigzag(event.getDefectCount()));
+        }
+        return out.bytes.toByteArray();
+    }
+
+    /**
+     * @throws IllegalArgumentException if {@code data} is not a well-formed batch
+     */
+    public static List<MachineEvent> decode(byte[] data) {
+        return decodeColumns(data).toEvents();
+    }
+
+    /**
+     * Decodes without creating an object per event (see {@link EventColumns}).
+     *
+     * @throws IllegalArgumentException if {@code data} is not a well-formed batch
+     */
+    public static EventColumns decodeColumns(byte[] data) {
+        Reader in = new Reader(data);
+        if (in.remaining() < 3 || data[0] != MAGIC_0 || data[1] != MAGIC_1) {
+            throw new IllegalArgumentException("Not a binary event batch");
+        }
+        if (data[2] != VERSION) {
+            throw new IllegalArgumentException("Unsupported binary batch version " + data[2]);
+        }
+        in.pos = 3;
+
+        int eventCount = in.count(MIN_EVENT_BYTES);
+        String[] dictionary = new String[in.count(1)];
+        for (int i = 0; i < dictionary.length; i++) {
+            int length = in.count(1);
+            dictionary[i] = new String(data, in.take(length), length, StandardCharsets.UTF_8);
+        }
+
+        String[] eventIds = new String[eventCount];
+        long[] eventTimes = new long[eventCount];
+        int[] machineRefs = new int[eventCount];
+        int[] lineRefs = new int[eventCount];
+        long[] durations = new long[eventCount];
+        int[] defectCounts = new int[eventCount];
+        byte[] id = new byte[64];
+        int idLength = 0;
+        long millis = 0;
+        for (int i = 0; i < eventCount; i++) {
+            int shared = in.count(0);
+            if (shared > idLength) {
+                throw new IllegalArgumentException("Event " + i + " shares more than the previous eventId");
+            }
+            int suffix = in.count(1);
+            if (shared + suffix > id.length) {
+                id = Arrays.copyOf(id, Math.max(id.length * 2, shared + suffix));
+            }
+            System.arraycopy(data, in.take(suffix), id, shared, suffix);
+            idLength = shared + suffix;
+
+            millis += unzigzag(in.varlong());
+            eventIds[i] = new String(id, 0, idLength, StandardCharsets.UTF_8);
+            eventTimes[i] = millis;
+            machineRefs[i] = reference(dictionary, in.varlong());
+            if (machineRefs[i] == 0) {
+                throw new IllegalArgumentException("Event " + i + " has no machineId");
+            }
+            lineRefs[i] = reference(dictionary, in.varlong());
+            durations[i] = unzigzag(in.varlong());
+            defectCounts[i] = (int) unzigzag(in.varlong());
+        }
+        if (in.remaining() != 0) {
+            throw new IllegalArgumentException(in.remaining() + " trailing bytes after the last event");
+        }
+        return new EventColumns(dictionary, eventIds, eventTimes, machineRefs, lineRefs, durations, defectCounts);
+    }
+
+    private static int sharedPrefix(byte[] a, byte[] b) {
+        int max = Math.min(a.length, b.length);
+        int i = 0;
+        while (i < max && a[i] == b[i]) {
+            i++;
+        }
+        return i;
+    }
+
+    private static int reference(Map<String, Integer> dictionary, String value) {
+        return value == null ? 0 : dictionary.get(value) + 1;
+    }
+
+    private static int reference(String[] dictionary, long reference) {
+        if (reference < 0 || reference > dictionary.length) {
+            throw new IllegalArgumentException("Dictionary reference " + reference + " out of range");
+        }
+        return (int) reference;
+    }
+
+    private static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private static final class Writer {
+        final ByteArrayOutputStream bytes;
+
+        Writer(int sizeHint) {
+            bytes = new ByteArrayOutputStream(sizeHint);
+        }
+
+        void varint(long value) {
+            while ((value & ~0x7FL) != 0) {
+                bytes.write((int) ((value & 0x7F) | 0x80));
+                value >>>= 7;
+            }
+            bytes.write((int) value);
+        }
+
+        void string(byte[] utf8, int from) {
+            varint(utf8.length - from);
+            bytes.write(utf8, from, utf8.length - from);
+        }
+    }
+
+    private static final class Reader {
+        final byte[] data;
+        int pos;
+
+        Reader(byte[] data) {
+            this.data = data;
+        }
+
+        int remaining() {
+            return data.length - pos;
+        }
+
+        long varlong() {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                if (pos >= data.length) {
+                    throw new IllegalArgumentException("Truncated binary batch");
+                }
+                byte b = data[pos++];
+                value |= (long) (b & 0x7F) << shift;
+                if (b >= 0) {
+                    return value;
+                }
+            }
+            throw new IllegalArgumentException("Varint longer than 64 bits at byte " + pos);
+        }
+
+        // A length or count; each unit needs at least bytesPerUnit more input, which bounds
+        // allocations driven by a corrupt or hostile header
+        int count(int bytesPerUnit) {
+            long value = varlong();
+            if (value < 0 || value > Integer.MAX_VALUE || value * bytesPerUnit > remaining()) {
+                throw new IllegalArgumentException("Count " + value + " exceeds the remaining input");
+            }
+            return (int) value;
+        }
+
+        // Skips length bytes and returns where they start
+        int take(int length) {
+            int start = pos;
+            pos += length;
+            return start;
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package com.factory.events.codec;
+
+import com.factory.events.model.MachineEvent;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A decoded batch kept column by column: eventTime as epoch millis, machine and line ids as
+ * references into a per-batch dictionary (0 = null, else index + 1), durations and defect
+ * counts as primitives. Two events have the same payload exactly when all their columns are
+ * equal, so validation and in-batch dedupe need no objects; only the events that survive
+ * them are turned into {@link MachineEvent}s with {@link #toEvent}.
+ */
+public final class EventColumns {
+
+    private final String[] dictionary;
+    private final String[] eventIds;
+    private final long[] eventTimeMillis;
+    private final int[] machineRefs;
+    private final int[] lineRefs;
+    private final long[] durationMs;
+    private final int[] defectCounts;
+
+    EventColumns(String[] dictionary, String[] eventIds, long[] eventTimeMillis, int[] machineRefs, int[] lineRefs,
+            long[] durationMs, int[] defectCounts) {
+        this.dictionary = dictionary;
+        this.eventIds = eventIds;
+        this.eventTimeMillis = eventTimeMillis;
+        this.machineRefs = machineRefs;
+        this.lineRefs = lineRefs;
+        this.durationMs = durationMs;
+        this.defectCounts = defectCounts;
+    }
+
+    public int size() {
+        return eventIds.length;
+    }
+
+    public String eventId(int i) {
+        return eventIds[i];
+    }
+
+    public long eventTimeMillis(int i) {
+        return eventTimeMillis[i];
+    }
+
+    public long durationMs(int i) {
+        return durationMs[i];
+    }
+
+    public boolean samePayload(int i, int j) {
+        return eventTimeMillis[i] == eventTimeMillis[j]
+                && machineRefs[i] == machineRefs[j]
+                && lineRefs[i] == lineRefs[j]
+                && durationMs[i] == durationMs[j]
+                && defectCounts[i] == defectCounts[j];
+    }
+
+    /** Materializes event {@code i}; machine and line id Strings are shared through the dictionary. */
+    public MachineEvent toEvent(int i) {
+        return new MachineEvent(eventIds[i], Instant.ofEpochMilli(eventTimeMillis[i]), lookup(machineRefs[i]),
+                lookup(lineRefs[i]), durationMs[i], defectCounts[i]);
+    }
+
+    public List<MachineEvent> toEvents() {
+        List<MachineEvent> events = new ArrayList<>(size());
+        for (int i = 0; i < size(); i++) {
+            events.add(toEvent(i));
+        }
+        return events;
+    }
+
+    private String lookup(int ref) {
+        return ref == 0 ? null : dictionary[ref - 1];
+    }
+}
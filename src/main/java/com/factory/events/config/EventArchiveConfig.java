@@ -0,0 +1,24 @@
+package com.factory.events.config;
+
+import com.factory.events.archive.EventArchive;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * Local cold-tier archive of old events (events.archive.enabled=true), see
+ * {@link com.factory.events.service.EventArchiveService}.
+ */
+@Configuration
+@ConditionalOnProperty(name = "events.archive.enabled", havingValue = "true")
+public class EventArchiveConfig {
+
+    @Bean
+    public EventArchive eventArchive(@Value("${events.archive.dir:data/archive}") String dir) throws IOException {
+        return EventArchive.open(Path.of(dir));
+    }
+}
@@ -0,0 +1,20 @@
+package com.factory.events.config;
+
+import org.springframework.boot.autoconfigure.orm.jpa.EntityManagerFactoryDependsOnPostProcessor;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Creates the partitioned events table (EventPartitionService) before Hibernate's
+ * ddl-auto=update runs, which would otherwise create events as a plain table. Hibernate then
+ * adds the entity's indexes to the partitioned table like to any other; it needs
+ * hibernate.hbm2ddl.extra_physical_table_types=PARTITIONED TABLE to see the existing ones.
+ */
+@Configuration
+public class EventPartitionConfig {
+
+    @Bean
+    public static EntityManagerFactoryDependsOnPostProcessor eventPartitionsBeforeJpa() {
+        return new EntityManagerFactoryDependsOnPostProcessor("eventPartitionService");
+    }
+}
@@ -0,0 +1,50 @@
+package com.factory.events.config;
+
+import com.factory.events.repository.EventWriter;
+import com.factory.events.repository.JdbcUpsertEventWriter;
+import com.factory.events.repository.JpaEventWriter;
+import com.factory.events.repository.MachineEventRepository;
+import com.factory.events.repository.SqlDialect;
+import com.factory.events.service.EventPartitionService;
+import jakarta.persistence.EntityManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import javax.sql.DataSource;
+
+/**
+ * Picks the write path for ingested events.
+ * events.ingestion.writer = auto (default) | jdbc | jpa
+ * "auto" uses the JDBC upsert writer on PostgreSQL and the JPA writer everywhere else (H2 tests).
+ * A partitioned events table always takes the JDBC writer: only it claims eventIds in event_ids,
+ * the one place eventId stays unique across partitions.
+ */
+@Configuration
+public class EventWriterConfig {
+
+    private static final Logger log = LoggerFactory.getLogger(EventWriterConfig.class);
+
+    @Bean
+    public EventWriter eventWriter(@Value("${events.ingestion.writer:auto}") String mode, DataSource dataSource,
+            JdbcTemplate jdbcTemplate, EntityManager entityManager, MachineEventRepository repository,
+            EventPartitionService partitionService) {
+        boolean partitioned = partitionService.isPartitioned();
+        boolean useJdbc = switch (mode) {
+            case "jdbc" -> true;
+            case "jpa" -> false;
+            case "auto" -> partitioned || SqlDialect.of(dataSource) == SqlDialect.POSTGRES;
+            default -> throw new IllegalArgumentException("Unknown events.ingestion.writer: " + mode);
+        };
+        if (partitioned && !useJdbc) {
+            throw new IllegalStateException("A partitioned events table needs events.ingestion.writer=jdbc or auto,"
+                    + " since the JPA writer does not claim eventIds in event_ids");
+        }
+        log.info("Event write path: {}", useJdbc ? "JDBC upsert" : "JPA");
+        return useJdbc ? new JdbcUpsertEventWriter(jdbcTemplate, partitioned)
+                : new JpaEventWriter(entityManager, repository);
+    }
+}
@@ -0,0 +1,70 @@
+package com.factory.events.config;
+
+import com.zaxxer.hikari.HikariDataSource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.jdbc.DataSourceBuilder;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.core.env.Environment;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+
+import javax.sql.DataSource;
+
+/**
+ * Read replica for analytics (events.datasource.replica.url). When one is configured, the
+ * application's DataSource routes between two pools: the primary (spring.datasource.*) for
+ * ingestion and everything else, and the replica for the reads that ReplicaReads sends there.
+ * Hibernate, JdbcTemplate and the transaction manager keep using the one routing bean. The
+ * lazy proxy defers each physical connection to the first statement, so a read transaction
+ * that is answered from memory takes no connection at all.
+ *
+ * Without a replica, Spring Boot's own single pool is used unchanged.
+ */
+@Configuration
+@ConditionalOnProperty("events.datasource.replica.url")
+public class ReadReplicaConfig {
+
+    private static final Logger log = LoggerFactory.getLogger(ReadReplicaConfig.class);
+
+    @Bean
+    @ConfigurationProperties("spring.datasource.hikari")
+    public HikariDataSource primaryDataSource(DataSourceProperties properties) {
+        return properties.initializeDataSourceBuilder().type(HikariDataSource.class).build();
+    }
+
+    /** Same credentials as the primary unless events.datasource.replica.username/password are set. */
+    @Bean
+    @ConfigurationProperties("events.datasource.replica.hikari")
+    public HikariDataSource replicaDataSource(DataSourceProperties properties, Environment environment) {
+        HikariDataSource replica = DataSourceBuilder.create()
+                .type(HikariDataSource.class)
+                .url(environment.getRequiredProperty("events.datasource.replica.url"))
+                .username(environment.getProperty("events.datasource.replica.username",
+                        properties.determineUsername()))
+                .password(environment.getProperty("events.datasource.replica.password",
+                        properties.determinePassword()))
+                .build();
+        replica.setPoolName("replica");
+        replica.setReadOnly(true);
+        log.info("Analytics reads on replica {}", replica.getJdbcUrl());
+        return replica;
+    }
+
+    @Bean
+    public ReplicaRoutingDataSource replicaRoutingDataSource(@Qualifier("primaryDataSource") DataSource primary,
+            @Qualifier("replicaDataSource") DataSource replica) {
+        return new ReplicaRoutingDataSource(primary, replica);
+    }
+
+    @Bean
+    @Primary
+    public DataSource dataSource(ReplicaRoutingDataSource replicaRoutingDataSource) {
+        return new LazyConnectionDataSourceProxy(replicaRoutingDataSource);
+    }
+}
@@ -0,0 +1,63 @@
+package com.factory.events.config;
+
+import org.springframework.jdbc.datasource.lookup.AbstractRoutingDataSource;
+
+import javax.sql.DataSource;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * Hands out replica connections inside {@link #onReplica}, primary connections everywhere
+ * else. Reads must opt in explicitly: a read-only transaction alone does not route, because
+ * Spring Data runs every repository read (ingestion lookups, warm-ups) in one.
+ */
+public final class ReplicaRoutingDataSource extends AbstractRoutingDataSource {
+
+    private enum Target {
+        PRIMARY, REPLICA
+    }
+
+    private static final ThreadLocal<Boolean> replicaScope = new ThreadLocal<>();
+
+    private final DataSource primary;
+    private final DataSource replica;
+
+    ReplicaRoutingDataSource(DataSource primary, DataSource replica) {
+        this.primary = primary;
+        this.replica = replica;
+        setTargetDataSources(Map.of(Target.PRIMARY, primary, Target.REPLICA, replica));
+        setDefaultTargetDataSource(primary);
+        afterPropertiesSet();
+    }
+
+    /** The primary pool itself, e.g. to read the WAL position the replica must reach. */
+    public DataSource primary() {
+        return primary;
+    }
+
+    /** The replica pool itself, e.g. to measure its lag. */
+    public DataSource replica() {
+        return replica;
+    }
+
+    /**
+     * Runs {@code work} with replica connections. Connections are chosen when first used, so
+     * {@code work} must open its own transaction (one already open stays on its connection).
+     */
+    public static <T> T onReplica(Supplier<T> work) {
+        Boolean outer = replicaScope.get();
+        replicaScope.set(Boolean.TRUE);
+        try {
+            return work.get();
+        } finally {
+            if (outer == null) {
+                replicaScope.remove();
+            }
+        }
+    }
+
+    @Override
+    protected Object determineCurrentLookupKey() {
+        return Boolean.TRUE.equals(replicaScope.get()) ? Target.REPLICA : Target.PRIMARY;
+    }
+}
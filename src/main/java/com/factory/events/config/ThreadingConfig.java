@@ -0,0 +1,59 @@
+package com.factory.events.config;
+
+import com.zaxxer.hikari.HikariDataSource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.boot.autoconfigure.thread.Threading;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.env.Environment;
+
+/**
+ * Thread mode of the application. spring.threads.virtual.enabled=true on Java 21+ makes Spring
+ * Boot run Tomcat requests and @Scheduled jobs on virtual threads, and the ingestion writer and
+ * stats stream senders follow through WorkerThreads. The build stays on Java 17; on an older
+ * runtime the switch is ignored with a warning.
+ *
+ * Database concurrency stays bounded by the Hikari pool (spring.datasource.hikari.*): requests
+ * beyond maximum-pool-size wait for a connection instead of opening more. With virtual
+ * threads they wait in a fair queue in front of the pool.
+ */
+@Configuration
+public class ThreadingConfig {
+
+    private static final Logger log = LoggerFactory.getLogger(ThreadingConfig.class);
+
+    // What Hikari uses when maximum-pool-size is not set
+    private static final int HIKARI_DEFAULT_POOL_SIZE = 10;
+
+    @Bean
+    public WorkerThreads workerThreads(Environment environment) {
+        boolean virtual = Threading.VIRTUAL.isActive(environment);
+        if (!virtual && environment.getProperty("spring.threads.virtual.enabled", Boolean.class, false)) {
+            log.warn("spring.threads.virtual.enabled is set, but Java {} has no virtual threads; using platform threads",
+                    Runtime.version().feature());
+        }
+        log.info("Request and worker threads: {}", virtual ? "virtual" : "platform");
+        return new WorkerThreads(virtual);
+    }
+
+    /**
+     * With virtual threads, connections are handed out through a fair queue in front of the
+     * pool (see BoundedDataSource), bounded by the same maximum-pool-size and
+     * connection-timeout.
+     */
+    @Bean
+    public static BeanPostProcessor boundedDataSource(Environment environment) {
+        return new BeanPostProcessor() {
+            @Override
+            public Object postProcessAfterInitialization(Object bean, String beanName) {
+                if (!(bean instanceof HikariDataSource hikari) || !Threading.VIRTUAL.isActive(environment)) {
+                    return bean;
+                }
+                int poolSize = hikari.getMaximumPoolSize() > 0 ? hikari.getMaximumPoolSize() : HIKARI_DEFAULT_POOL_SIZE;
+                return new BoundedDataSource(hikari, poolSize, hikari.getConnectionTimeout());
+            }
+        };
+    }
+}
@@ -0,0 +1,56 @@
+package com.factory.events.config;
+
+import org.springframework.core.task.VirtualThreadTaskExecutor;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Creates the application's own worker threads: named platform daemon threads, or virtual
+ * threads in virtual-thread mode (see ThreadingConfig).
+ */
+public final class WorkerThreads {
+
+    private final boolean virtual;
+
+    WorkerThreads(boolean virtual) {
+        this.virtual = virtual;
+    }
+
+    /** Platform threads only, for services created outside the application context. */
+    public static WorkerThreads platform() {
+        return new WorkerThreads(false);
+    }
+
+    public boolean isVirtual() {
+        return virtual;
+    }
+
+    /** Starts one long-running worker named {@code name}. */
+    public Thread start(String name, Runnable task) {
+        Thread thread = virtual ? new VirtualThreadTaskExecutor(name).getVirtualThreadFactory().newThread(task)
+                : new Thread(task, name);
+        thread.setDaemon(true);
+        thread.start();
+        return thread;
+    }
+
+    /**
+     * Executor for short blocking tasks: a pool of {@code platformThreads} threads named
+     * {@code name-N}, or one virtual thread per task. Callers bound their own concurrency.
+     */
+    public Executor executor(String name, int platformThreads) {
+        if (virtual) {
+            return new VirtualThreadTaskExecutor(name + "-");
+        }
+        AtomicInteger threadNumber = new AtomicInteger();
+        ThreadFactory factory = r -> {
+            Thread thread = new Thread(r, name + "-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+        return Executors.newFixedThreadPool(platformThreads, factory);
+    }
+}
@@ -0,0 +1,26 @@
+package com.factory.events.config;
+
+import com.factory.events.wal.WriteAheadLog;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * Local write-ahead log for accepted batches (events.wal.enabled=true).
+ * Segment size and the number of already-applied segments kept on disk are configurable.
+ */
+@Configuration
+@ConditionalOnProperty(name = "events.wal.enabled", havingValue = "true")
+public class WriteAheadLogConfig {
+
+    @Bean(destroyMethod = "close")
+    public WriteAheadLog writeAheadLog(@Value("${events.wal.dir:data/wal}") String dir,
+            @Value("${events.wal.segment-bytes:67108864}") int segmentBytes,
+            @Value("${events.wal.retained-segments:2}") int retainedSegments) throws IOException {
+        return WriteAheadLog.open(Path.of(dir), segmentBytes, retainedSegments);
+    }
+}
@@ -0,0 +1,37 @@
+package com.factory.events.controller;
+
+import com.factory.events.sharding.ShardMembership;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.List;
+
+@RestController
+@RequestMapping("/cluster")
+public class ClusterController {
+
+    private final ShardMembership membership;
+
+    public ClusterController(ShardMembership membership) {
+        this.membership = membership;
+    }
+
+    @GetMapping("/members")
+    public ShardMembership.Status getMembers() {
+        return membership.status();
+    }
+
+    // The same list must be sent to every node (see ShardMembership)
+    @PutMapping("/members")
+    public ResponseEntity<ShardMembership.Status> setMembers(@RequestBody List<String> nodes) {
+        if (!membership.isEnabled()) {
+            return ResponseEntity.status(HttpStatus.CONFLICT).build();
+        }
+        if (nodes == null || nodes.stream().anyMatch(node -> node == null || node.isBlank())) {
+            return ResponseEntity.badRequest().build();
+        }
+        membership.setMembers(nodes);
+        return ResponseEntity.ok(membership.status());
+    }
+}
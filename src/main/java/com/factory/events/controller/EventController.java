@@ -1,51 +1,237 @@
 package com.factory.events.controller;
 
+import com.factory.events.codec.BinaryBatchCodec;
+import com.factory.events.codec.EventColumns;
 import com.factory.events.model.MachineEvent;
 import com.factory.events.service.AnalyticsService;
+import com.factory.events.service.AsyncIngestionService;
+import com.factory.events.service.EventExportService;
 import com.factory.events.service.EventIngestionService;
+import com.factory.events.service.LiveStatsFeed;
+import com.factory.events.service.StreamingIngestionService;
+import com.factory.events.sharding.ShardRouter;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
 import java.time.Instant;
 import java.util.List;
+import java.util.Optional;
 
 @RestController
 @CrossOrigin(origins = "*") // Allow frontend access
 public class EventController {
 
-    private final EventIngestionService ingestionService;
+    private final ShardRouter shardRouter;
     private final AnalyticsService analyticsService;
+    private final AsyncIngestionService asyncIngestionService;
+    private final StreamingIngestionService streamingIngestionService;
+    private final LiveStatsFeed liveStatsFeed;
+    private final EventExportService exportService;
+    private final long retryAfterSeconds;
+    private final int maxStatsBatchMachines;
 
-    public EventController(EventIngestionService ingestionService, AnalyticsService analyticsService) {
-        this.ingestionService = ingestionService;
+    public EventController(ShardRouter shardRouter, AnalyticsService analyticsService,
+            AsyncIngestionService asyncIngestionService, StreamingIngestionService streamingIngestionService,
+            LiveStatsFeed liveStatsFeed, EventExportService exportService,
+            @Value("${events.ingestion.async.retry-after-seconds:1}") long retryAfterSeconds,
+            @Value("${events.analytics.stats-batch.max-machines:1000}") int maxStatsBatchMachines) {
+        this.shardRouter = shardRouter;
         this.analyticsService = analyticsService;
+        this.asyncIngestionService = asyncIngestionService;
+        this.streamingIngestionService = streamingIngestionService;
+        this.liveStatsFeed = liveStatsFeed;
+        this.exportService = exportService;
+        this.retryAfterSeconds = retryAfterSeconds;
+        this.maxStatsBatchMachines = maxStatsBatchMachines;
     }
 
+    // Batches are split by machine owner when sharded; a part forwarded by another node is applied here
     @PostMapping("/events/batch")
-    public ResponseEntity<EventIngestionService.BatchResult> ingestBatch(@RequestBody List<MachineEvent> events) {
+    public ResponseEntity<?> ingestBatch(@RequestBody List<MachineEvent> events,
+            @RequestHeader(value = ShardRouter.FORWARDED_HEADER, required = false) String forwardedBy) {
         if (events == null || events.isEmpty()) {
             return ResponseEntity.badRequest().build();
         }
-        return ResponseEntity.ok(ingestionService.processBatch(events));
+        if (asyncIngestionService.isEnabled()) {
+            return ingestAsync(events);
+        }
+        return ResponseEntity.ok(forwardedBy == null ? shardRouter.processBatch(events)
+                : shardRouter.processOwned(events));
+    }
+
+    // Same ingestion for the compact binary encoding (see BinaryBatchCodec); the synchronous
+    // path validates and dedupes the decoded columns before creating any events
+    @PostMapping(value = "/events/batch", consumes = BinaryBatchCodec.MEDIA_TYPE)
+    public ResponseEntity<?> ingestBinaryBatch(@RequestBody byte[] body) {
+        EventColumns columns;
+        try {
+            columns = BinaryBatchCodec.decodeColumns(body);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().build();
+        }
+        if (columns.size() == 0) {
+            return ResponseEntity.badRequest().build();
+        }
+        if (asyncIngestionService.isEnabled()) {
+            return ingestAsync(columns.toEvents());
+        }
+        return ResponseEntity.ok(shardRouter.processColumns(columns));
+    }
+
+    // 202 + ticket when queued, 429 + Retry-After when the writer is saturated
+    private ResponseEntity<?> ingestAsync(List<MachineEvent> events) {
+        Optional<String> ticketId;
+        try {
+            ticketId = asyncIngestionService.submit(events);
+        } catch (IllegalArgumentException e) {
+            // Larger than one write-ahead log segment
+            return ResponseEntity.status(HttpStatus.PAYLOAD_TOO_LARGE).build();
+        }
+        if (ticketId.isEmpty()) {
+            return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+                    .header(HttpHeaders.RETRY_AFTER, String.valueOf(retryAfterSeconds))
+                    .build();
+        }
+        return ResponseEntity.accepted()
+                .location(URI.create("/events/batch/" + ticketId.get()))
+                .body(asyncIngestionService.getTicket(ticketId.get()).orElseThrow());
+    }
+
+    // Large backfills: NDJSON (or one JSON array) parsed incrementally and applied in sub-batches,
+    // each split by machine owner like a batch unless another node forwarded the stream
+    @PostMapping(value = "/events/stream", consumes = { MediaType.APPLICATION_NDJSON_VALUE,
+            MediaType.APPLICATION_JSON_VALUE })
+    public ResponseEntity<EventIngestionService.BatchResult> ingestStream(InputStream body,
+            @RequestHeader(value = ShardRouter.FORWARDED_HEADER, required = false) String forwardedBy)
+            throws IOException {
+        try {
+            return ResponseEntity.ok(streamingIngestionService.ingest(body, forwardedBy != null));
+        } catch (StreamingIngestionService.MalformedStreamException e) {
+            // Sub-batches before the bad input are committed; report them with the 400
+            return ResponseEntity.badRequest().body(e.getPartialResult());
+        }
+    }
+
+    @GetMapping("/events/batch/{ticketId}")
+    public ResponseEntity<AsyncIngestionService.BatchTicket> getBatchTicket(@PathVariable String ticketId) {
+        return asyncIngestionService.getTicket(ticketId)
+                .map(ResponseEntity::ok)
+                .orElse(ResponseEntity.notFound().build());
+    }
+
+    // Raw events of one machine or line in [start, end), by (eventTime, eventId); pass nextCursor
+    // back as cursor for the next page
+    @GetMapping("/events")
+    public ResponseEntity<EventExportService.EventPage> getEvents(
+            @RequestParam(required = false) String machineId,
+            @RequestParam(required = false) String lineId,
+            @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) Instant start,
+            @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) Instant end,
+            @RequestParam(required = false) String cursor,
+            @RequestParam(required = false) Integer limit) {
+        int pageSize = limit == null ? exportService.pageSize() : limit;
+        if (!isEventRange(machineId, lineId, start, end) || pageSize < 1 || pageSize > exportService.maxPageSize()) {
+            return ResponseEntity.badRequest().build();
+        }
+        try {
+            return ResponseEntity.ok(exportService.page(blankToNull(machineId), blankToNull(lineId), start, end,
+                    cursor, pageSize));
+        } catch (IllegalArgumentException e) {
+            // Not a cursor of this API
+            return ResponseEntity.badRequest().build();
+        }
+    }
+
+    // The same range as one CSV or NDJSON download, written page by page while it is read
+    @GetMapping("/events/export")
+    public void exportEvents(
+            @RequestParam(required = false) String machineId,
+            @RequestParam(required = false) String lineId,
+            @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) Instant start,
+            @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) Instant end,
+            @RequestParam(defaultValue = "ndjson") String format,
+            HttpServletResponse response) throws IOException {
+        EventExportService.Format exportFormat;
+        try {
+            exportFormat = EventExportService.Format.valueOf(format.toUpperCase());
+        } catch (IllegalArgumentException e) {
+            exportFormat = null;
+        }
+        if (exportFormat == null || !isEventRange(machineId, lineId, start, end)) {
+            response.sendError(HttpServletResponse.SC_BAD_REQUEST);
+            return;
+        }
+        response.setContentType(exportFormat == EventExportService.Format.CSV ? "text/csv;charset=UTF-8"
+                : MediaType.APPLICATION_NDJSON_VALUE);
+        exportService.export(blankToNull(machineId), blankToNull(lineId), start, end, exportFormat,
+                response.getOutputStream());
+    }
+
+    // Exactly one of machineId and lineId, and a non-empty window
+    private static boolean isEventRange(String machineId, String lineId, Instant start, Instant end) {
+        return (blankToNull(machineId) == null) != (blankToNull(lineId) == null) && start.isBefore(end);
+    }
+
+    private static String blankToNull(String value) {
+        return value == null || value.isBlank() ? null : value;
     }
 
     @GetMapping("/stats")
     public ResponseEntity<AnalyticsService.MachineStats> getStats(
             @RequestParam String machineId,
             @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) Instant start,
-            @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) Instant end) {
+            @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) Instant end,
+            @RequestHeader(value = ShardRouter.FORWARDED_HEADER, required = false) String forwardedBy) {
+
+        return ResponseEntity.ok(forwardedBy == null ? shardRouter.getStats(machineId, start, end)
+                : analyticsService.getStats(machineId, start, end));
+    }
+
+    // Stats of many machines over one window, in request order
+    @PostMapping("/stats/batch")
+    public ResponseEntity<List<AnalyticsService.MachineStats>> getStatsBatch(@RequestBody StatsBatchRequest request,
+            @RequestHeader(value = ShardRouter.FORWARDED_HEADER, required = false) String forwardedBy) {
+        if (request.machineIds() == null || request.machineIds().isEmpty()
+                || request.machineIds().size() > maxStatsBatchMachines
+                || request.machineIds().stream().anyMatch(id -> id == null || id.isBlank())
+                || request.start() == null || request.end() == null) {
+            return ResponseEntity.badRequest().build();
+        }
+        return ResponseEntity.ok(forwardedBy == null
+                ? shardRouter.getStats(request.machineIds(), request.start(), request.end())
+                : analyticsService.getStats(request.machineIds(), request.start(), request.end()));
+    }
 
-        return ResponseEntity.ok(analyticsService.getStats(machineId, start, end));
+    // Live feed: a "snapshot" event, then "delta" events with the changes since the previous one
+    @GetMapping(value = "/stats/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public ResponseEntity<SseEmitter> streamStats() {
+        return liveStatsFeed.subscribe()
+                .map(ResponseEntity::ok)
+                .orElseGet(() -> ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).build());
     }
 
+    // Without factoryId, lines are ranked over all factories
     @GetMapping("/stats/top-defect-lines")
     public ResponseEntity<List<AnalyticsService.TopDefectLine>> getTopDefectLines(
-            @RequestParam(required = false, defaultValue = "F01") String factoryId,
+            @RequestParam(required = false) String factoryId,
             @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) Instant from,
             @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) Instant to,
             @RequestParam(defaultValue = "10") int limit) {
 
-        return ResponseEntity.ok(analyticsService.getTopDefectLines(from, to, limit));
+        String factory = factoryId == null || factoryId.isBlank() ? null : factoryId;
+        return ResponseEntity.ok(analyticsService.getTopDefectLines(factory, from, to, limit));
+    }
+
+    public record StatsBatchRequest(List<String> machineIds, Instant start, Instant end) {
     }
 }
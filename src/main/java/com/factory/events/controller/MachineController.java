@@ -1,14 +1,15 @@
 package com.factory.events.controller;
 
 import com.factory.events.model.Machine;
-import com.factory.events.repository.MachineRepository;
+import com.factory.events.service.MachineRegistry;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.CacheControl;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
 import java.time.Instant;
 import java.util.List;
-import java.util.Optional;
 
 @RestController
 @RequestMapping("/api/machines")
@@ -16,37 +17,65 @@ import java.util.Optional;
 public class MachineController {
 
     @Autowired
-    private MachineRepository machineRepository;
+    private MachineRegistry machineRegistry;
 
+    @Value("${events.machines.bulk.max-machines:1000}")
+    private int maxBulkMachines;
+
+    // Served from memory; a client sending the last ETag back in If-None-Match gets 304
     @GetMapping
-    public List<Machine> getAllMachines() {
-        return machineRepository.findAll();
+    public ResponseEntity<List<Machine>> getAllMachines() {
+        MachineRegistry.Snapshot snapshot = machineRegistry.snapshot();
+        return ResponseEntity.ok()
+                .cacheControl(CacheControl.noCache())
+                .eTag(snapshot.etag())
+                .body(snapshot.machines());
     }
 
     @GetMapping("/{id}")
     public ResponseEntity<Machine> getMachine(@PathVariable String id) {
-        return machineRepository.findById(id)
+        return machineRegistry.find(id)
                 .map(ResponseEntity::ok)
                 .orElse(ResponseEntity.notFound().build());
     }
 
     @PostMapping
     public Machine saveMachine(@RequestBody Machine machine) {
-        // Simple update or create logic
-        machine.setLastUpdated(Instant.now());
-        // Ensure ID is populated either from UI or generated.
-        // For this use case, we assume the UI provides the identifying "Dept ID" or we
-        // use a generated one if null.
-        // Since UI provides "departmentId", we might use that as ID or generate one.
-        // Let's defer to the entity's ID field. If UI doesn't send "id", we might want
-        // to map departmentId to ID or auto-gen.
+        return machineRegistry.save(normalize(machine, Instant.now()));
+    }
 
+    // Registers or updates a whole line in one transaction; every machine needs an id (or departmentId)
+    @PostMapping("/bulk")
+    public ResponseEntity<List<Machine>> saveMachines(@RequestBody List<Machine> machines) {
+        if (machines == null || machines.isEmpty() || machines.size() > maxBulkMachines) {
+            return ResponseEntity.badRequest().build();
+        }
+        Instant now = Instant.now();
+        for (Machine machine : machines) {
+            if (machine == null || isBlank(normalize(machine, now).getId())) {
+                return ResponseEntity.badRequest().build();
+            }
+        }
+        return ResponseEntity.ok(machineRegistry.saveAll(machines));
+    }
+
+    private static Machine normalize(Machine machine, Instant now) {
+        // Simple update or create logic
+        machine.setLastUpdated(now);
         // Data correction: Map deptId to ID if ID is missing but deptId exists (a
         // reasonable assumption for this specific app logic)
-        if ((machine.getId() == null || machine.getId().isEmpty()) && machine.getDepartmentId() != null) {
+        if (isBlank(machine.getId()) && machine.getDepartmentId() != null) {
             machine.setId(machine.getDepartmentId());
         }
 
-        return machineRepository.save(machine);
+        // A blank factory is the default one, stored as null so SQL can COALESCE it
+        if (machine.getFactoryId() != null && machine.getFactoryId().isBlank()) {
+            machine.setFactoryId(null);
+        }
+        return machine;
+    }
+
+    private static boolean isBlank(String value) {
+        return value == null || value.isEmpty();
     }
 }
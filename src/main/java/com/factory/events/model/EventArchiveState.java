@@ -0,0 +1,38 @@
+package com.factory.events.model;
+
+import jakarta.persistence.Entity;
+import jakarta.persistence.Id;
+import jakarta.persistence.Table;
+
+import java.time.Instant;
+
+/**
+ * Single-row archive horizon. Events with eventTime before archivedBefore have been moved from
+ * the events table into archive segments; it is updated in the transaction that deletes them.
+ */
+@Entity
+@Table(name = "event_archive_state")
+public class EventArchiveState {
+
+    public static final int SINGLETON_ID = 1;
+
+    @Id
+    private int id = SINGLETON_ID;
+
+    private Instant archivedBefore;
+
+    public EventArchiveState() {
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public Instant getArchivedBefore() {
+        return archivedBefore;
+    }
+
+    public void setArchivedBefore(Instant archivedBefore) {
+        this.archivedBefore = archivedBefore;
+    }
+}
@@ -0,0 +1,94 @@
+package com.factory.events.model;
+
+import jakarta.persistence.*;
+
+import java.io.Serializable;
+import java.time.Instant;
+import java.util.Objects;
+
+/**
+ * Pre-aggregated event count and defect sum per (machine, line) and time bucket. One table
+ * holds all resolutions (bucketSeconds = 60, 3600 or 86400), each bucket aligned to UTC.
+ * Rows are written with plain SQL by EventRollupRepository; the entity defines the schema.
+ *
+ * lineId is part of the key, so events without a line are stored under "".
+ */
+@Entity
+@Table(name = "event_rollups", indexes = {
+        @Index(name = "idx_rollup_time", columnList = "bucketSeconds, bucketStart")
+})
+@IdClass(EventRollup.Key.class)
+public class EventRollup {
+
+    @Id
+    private int bucketSeconds;
+
+    @Id
+    private String machineId;
+
+    @Id
+    private String lineId;
+
+    @Id
+    private Instant bucketStart;
+
+    private long eventCount;
+
+    private long defectSum;
+
+    public EventRollup() {
+    }
+
+    // Getters
+
+    public int getBucketSeconds() {
+        return bucketSeconds;
+    }
+
+    public String getMachineId() {
+        return machineId;
+    }
+
+    public String getLineId() {
+        return lineId;
+    }
+
+    public Instant getBucketStart() {
+        return bucketStart;
+    }
+
+    public long getEventCount() {
+        return eventCount;
+    }
+
+    public long getDefectSum() {
+        return defectSum;
+    }
+
+    public static class Key implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private int bucketSeconds;
+        private String machineId;
+        private String lineId;
+        private Instant bucketStart;
+
+        public Key() {
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o)
+                return true;
+            if (!(o instanceof Key that))
+                return false;
+            return bucketSeconds == that.bucketSeconds && Objects.equals(machineId, that.machineId)
+                    && Objects.equals(lineId, that.lineId) && Objects.equals(bucketStart, that.bucketStart);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(bucketSeconds, machineId, lineId, bucketStart);
+        }
+    }
+}
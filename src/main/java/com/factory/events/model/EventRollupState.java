@@ -0,0 +1,48 @@
+package com.factory.events.model;
+
+import jakarta.persistence.Entity;
+import jakarta.persistence.Id;
+import jakarta.persistence.Table;
+
+import java.time.Instant;
+
+/**
+ * Single-row progress marker of the rollup backfill. Rollup buckets before backfilledThrough
+ * match the raw events table; later ones are not trusted until the backfill reaches them.
+ */
+@Entity
+@Table(name = "event_rollup_state")
+public class EventRollupState {
+
+    public static final int SINGLETON_ID = 1;
+
+    @Id
+    private int id = SINGLETON_ID;
+
+    private Instant backfilledThrough;
+
+    private boolean complete;
+
+    public EventRollupState() {
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public Instant getBackfilledThrough() {
+        return backfilledThrough;
+    }
+
+    public void setBackfilledThrough(Instant backfilledThrough) {
+        this.backfilledThrough = backfilledThrough;
+    }
+
+    public boolean isComplete() {
+        return complete;
+    }
+
+    public void setComplete(boolean complete) {
+        this.complete = complete;
+    }
+}
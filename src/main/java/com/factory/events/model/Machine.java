@@ -23,6 +23,9 @@ public class Machine {
                                  // However, observing the UI: "Machine Name", "Serial", "Department", "Dept ID".
                                  // Often Dept ID is just a string. I will store all fields mapping 1:1 to UI.
 
+    // Site the machine belongs to; null means the default factory (events.factory.default-id)
+    private String factoryId;
+
     private Instant lastUpdated;
 
     public Machine() {
@@ -78,6 +81,14 @@ public class Machine {
         this.departmentId = departmentId;
     }
 
+    public String getFactoryId() {
+        return factoryId;
+    }
+
+    public void setFactoryId(String factoryId) {
+        this.factoryId = factoryId;
+    }
+
     public Instant getLastUpdated() {
         return lastUpdated;
     }
@@ -1,6 +1,8 @@
 package com.factory.events.model;
 
+import com.factory.events.service.RecentEventEntityListener;
 import jakarta.persistence.Entity;
+import jakarta.persistence.EntityListeners;
 import jakarta.persistence.Id;
 import jakarta.persistence.Index;
 import jakarta.persistence.Table;
@@ -14,6 +16,7 @@ import jakarta.validation.constraints.NotNull;
         @Index(name = "idx_machine_time", columnList = "machineId, eventTime"),
         @Index(name = "idx_line_time", columnList = "lineId, eventTime")
 })
+@EntityListeners(RecentEventEntityListener.class)
 public class MachineEvent {
 
     @Id
@@ -49,6 +52,12 @@ public class MachineEvent {
         this.defectCount = defectCount;
     }
 
+    // Copy constructor, used for detached snapshots of a stored row
+    public MachineEvent(MachineEvent other) {
+        this(other.eventId, other.eventTime, other.machineId, other.lineId, other.durationMs, other.defectCount);
+        this.receivedTime = other.receivedTime;
+    }
+
     // Getters and Setters
 
     public String getEventId() {
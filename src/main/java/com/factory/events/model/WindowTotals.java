@@ -0,0 +1,18 @@
+package com.factory.events.model;
+
+/**
+ * Event count and defect sum over a time window. Defects follow the analytics rule that
+ * unknown counts ({@code defectCount < 0}) contribute nothing.
+ */
+public record WindowTotals(long eventCount, long defectSum) {
+
+    public static final WindowTotals EMPTY = new WindowTotals(0, 0);
+
+    public WindowTotals plus(WindowTotals other) {
+        return new WindowTotals(eventCount + other.eventCount, defectSum + other.defectSum);
+    }
+
+    public static long defectContribution(int defectCount) {
+        return defectCount > 0 ? defectCount : 0;
+    }
+}
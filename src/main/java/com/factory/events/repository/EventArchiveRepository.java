@@ -0,0 +1,68 @@
+package com.factory.events.repository;
+
+import com.factory.events.model.MachineEvent;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.stereotype.Repository;
+
+import javax.sql.DataSource;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Removes events from the events table for {@link com.factory.events.service.EventArchiveService}.
+ */
+@Repository
+public class EventArchiveRepository {
+
+    static final String COLUMNS = "event_id, event_time, received_time, machine_id, line_id, duration_ms, "
+            + "defect_count";
+
+    static final RowMapper<MachineEvent> EVENT_ROW = (rs, i) -> {
+        MachineEvent event = new MachineEvent(rs.getString("event_id"),
+                rs.getObject("event_time", OffsetDateTime.class).toInstant(), rs.getString("machine_id"),
+                rs.getString("line_id"), rs.getLong("duration_ms"), rs.getInt("defect_count"));
+        OffsetDateTime received = rs.getObject("received_time", OffsetDateTime.class);
+        event.setReceivedTime(received == null ? null : received.toInstant());
+        return event;
+    };
+
+    private final JdbcTemplate jdbcTemplate;
+    private final SqlDialect dialect;
+
+    public EventArchiveRepository(JdbcTemplate jdbcTemplate, DataSource dataSource) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.dialect = SqlDialect.of(dataSource);
+    }
+
+    /** Earliest eventTime at or after {@code from}, or overall if {@code from} is null. */
+    public Optional<Instant> earliestEventTime(Instant from) {
+        OffsetDateTime earliest = from == null
+                ? jdbcTemplate.queryForObject("SELECT MIN(event_time) FROM events",
+                        (rs, i) -> rs.getObject(1, OffsetDateTime.class))
+                : jdbcTemplate.queryForObject("SELECT MIN(event_time) FROM events WHERE event_time >= ?",
+                        (rs, i) -> rs.getObject(1, OffsetDateTime.class), Timestamp.from(from));
+        return Optional.ofNullable(earliest).map(OffsetDateTime::toInstant);
+    }
+
+    /**
+     * Deletes the events with eventTime in [from, to) and returns them. Must run in a
+     * transaction; the rows stay locked until it ends.
+     */
+    public List<MachineEvent> removeRange(Instant from, Instant to) {
+        if (dialect == SqlDialect.POSTGRES) {
+            return jdbcTemplate.query("DELETE FROM events WHERE event_time >= ? AND event_time < ? RETURNING "
+                    + COLUMNS, EVENT_ROW, Timestamp.from(from), Timestamp.from(to));
+        }
+        // Delete exactly the rows read, not whatever matches the range by the time of the DELETE
+        List<MachineEvent> rows = jdbcTemplate.query("SELECT " + COLUMNS
+                + " FROM events WHERE event_time >= ? AND event_time < ? FOR UPDATE", EVENT_ROW,
+                Timestamp.from(from), Timestamp.from(to));
+        jdbcTemplate.batchUpdate("DELETE FROM events WHERE event_id = ?",
+                rows.stream().map(e -> new Object[] { e.getEventId() }).toList());
+        return rows;
+    }
+}
@@ -0,0 +1,9 @@
+package com.factory.events.repository;
+
+import com.factory.events.model.EventArchiveState;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.stereotype.Repository;
+
+@Repository
+public interface EventArchiveStateRepository extends JpaRepository<EventArchiveState, Integer> {
+}
@@ -0,0 +1,51 @@
+package com.factory.events.repository;
+
+import com.factory.events.model.MachineEvent;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Raw event reads for {@link com.factory.events.service.EventExportService}, one keyset page
+ * at a time.
+ */
+@Repository
+public class EventExportRepository {
+
+    private final JdbcTemplate jdbcTemplate;
+
+    public EventExportRepository(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    /**
+     * Up to {@code limit} events of one machine (or line, if {@code machineId} is null) with
+     * eventTime in [start, end), ordered by (eventTime, eventId), after the event
+     * ({@code afterTime}, {@code afterId}) if given.
+     *
+     * The equality and the eventTime range are the idx_machine_time / idx_line_time range
+     * scan; resuming moves its lower bound, and eventId only orders the rows of one eventTime.
+     */
+    public List<MachineEvent> page(String machineId, String lineId, Instant start, Instant end, Instant afterTime,
+            String afterId, int limit) {
+        StringBuilder sql = new StringBuilder("SELECT ").append(EventArchiveRepository.COLUMNS)
+                .append(" FROM events WHERE ").append(machineId != null ? "machine_id" : "line_id")
+                .append(" = ? AND event_time >= ? AND event_time < ?");
+        List<Object> args = new ArrayList<>();
+        args.add(machineId != null ? machineId : lineId);
+        args.add(Timestamp.from(afterTime != null && afterTime.isAfter(start) ? afterTime : start));
+        args.add(Timestamp.from(end));
+        if (afterTime != null) {
+            sql.append(" AND (event_time > ? OR event_id > ?)");
+            args.add(Timestamp.from(afterTime));
+            args.add(afterId);
+        }
+        sql.append(" ORDER BY event_time, event_id LIMIT ?");
+        args.add(limit);
+        return jdbcTemplate.query(sql.toString(), EventArchiveRepository.EVENT_ROW, args.toArray());
+    }
+}
@@ -0,0 +1,128 @@
+package com.factory.events.repository;
+
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.List;
+
+/**
+ * PostgreSQL DDL for the range-partitioned events table (see
+ * {@link com.factory.events.service.EventPartitionService}).
+ *
+ * The parent table has the same columns Hibernate would create (Hibernate adds the indexes,
+ * which every partition inherits), with primary key (event_id, event_time) because a
+ * partitioned table's unique keys must contain the partition key. Rows outside every range
+ * partition land in the DEFAULT partition events_default.
+ * The unpartitioned event_ids table holds the global unique key on event_id instead (see
+ * JdbcUpsertEventWriter); retiring a partition removes its ids with it.
+ */
+@Repository
+public class EventPartitionRepository {
+
+    public static final String DEFAULT_PARTITION = "events_default";
+
+    // Bounds are cast by the database, so they come back as instants whatever the session TimeZone
+    private static final String LIST_PARTITIONS = "SELECT c.relname, b.bounds[1]::timestamptz, b.bounds[2]::timestamptz "
+            + "FROM pg_inherits i JOIN pg_class c ON c.oid = i.inhrelid "
+            + "CROSS JOIN LATERAL (SELECT regexp_match(pg_get_expr(c.relpartbound, c.oid), "
+            + "'FROM \\(''([^'']+)''\\) TO \\(''([^'']+)''\\)') AS bounds) b "
+            + "WHERE i.inhparent = 'events'::regclass AND b.bounds IS NOT NULL "
+            + "ORDER BY 2";
+
+    private final JdbcTemplate jdbcTemplate;
+
+    public EventPartitionRepository(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    public record Partition(String name, Instant from, Instant to) {
+    }
+
+    public boolean eventsTableExists() {
+        return Boolean.TRUE.equals(jdbcTemplate.queryForObject("SELECT to_regclass('events') IS NOT NULL",
+                Boolean.class));
+    }
+
+    public boolean isPartitioned() {
+        return Boolean.TRUE.equals(jdbcTemplate.queryForObject(
+                "SELECT EXISTS (SELECT 1 FROM pg_partitioned_table WHERE partrelid = to_regclass('events'))",
+                Boolean.class));
+    }
+
+    public void createPartitionedTable() {
+        jdbcTemplate.execute("CREATE TABLE events ("
+                + "event_id varchar(255) NOT NULL, "
+                + "defect_count integer NOT NULL, "
+                + "duration_ms bigint NOT NULL, "
+                + "event_time timestamp(6) with time zone NOT NULL, "
+                + "line_id varchar(255), "
+                + "machine_id varchar(255) NOT NULL, "
+                + "received_time timestamp(6) with time zone, "
+                + "PRIMARY KEY (event_id, event_time)"
+                + ") PARTITION BY RANGE (event_time)");
+        jdbcTemplate.execute("CREATE TABLE " + DEFAULT_PARTITION + " PARTITION OF events DEFAULT");
+    }
+
+    /**
+     * Creates event_ids, filled with the eventIds already stored, unless it exists. Must run
+     * in a transaction.
+     */
+    public boolean createEventIds() {
+        if (Boolean.TRUE.equals(jdbcTemplate.queryForObject("SELECT to_regclass('event_ids') IS NOT NULL",
+                Boolean.class))) {
+            return false;
+        }
+        jdbcTemplate.execute("CREATE TABLE event_ids (event_id varchar(255) PRIMARY KEY)");
+        jdbcTemplate.update("INSERT INTO event_ids SELECT DISTINCT event_id FROM events");
+        return true;
+    }
+
+    /** Range partitions in eventTime order; the DEFAULT partition is not listed. */
+    public List<Partition> partitions() {
+        return jdbcTemplate.query(LIST_PARTITIONS, (rs, i) -> new Partition(rs.getString(1),
+                rs.getTimestamp(2).toInstant(), rs.getTimestamp(3).toInstant()));
+    }
+
+    /**
+     * Adds partition {@code name} for [from, to). Rows of that range sitting in the DEFAULT
+     * partition are moved into it first, which a plain CREATE ... PARTITION OF would refuse.
+     * Must run in a transaction.
+     */
+    public void createPartition(String name, Instant from, Instant to) {
+        jdbcTemplate.execute("CREATE TABLE " + name + " (LIKE events INCLUDING DEFAULTS INCLUDING CONSTRAINTS)");
+        jdbcTemplate.update("WITH moved AS (DELETE FROM " + DEFAULT_PARTITION
+                + " WHERE event_time >= ? AND event_time < ? RETURNING *) INSERT INTO " + name + " SELECT * FROM moved",
+                Timestamp.from(from), Timestamp.from(to));
+        jdbcTemplate.execute("ALTER TABLE events ATTACH PARTITION " + name
+                + " FOR VALUES FROM ('" + from + "') TO ('" + to + "')");
+    }
+
+    /**
+     * The partition stays as a standalone table with its rows, outside every query on events.
+     * Must run in a transaction.
+     */
+    public void detachPartition(String name) {
+        jdbcTemplate.execute("ALTER TABLE events DETACH PARTITION " + name);
+        deleteEventIdsOf(name);
+    }
+
+    /** Must run in a transaction. */
+    public void dropPartition(String name) {
+        deleteEventIdsOf(name);
+        jdbcTemplate.execute("DROP TABLE " + name);
+    }
+
+    public int deleteFromDefaultBefore(Instant cutoff) {
+        Integer deleted = jdbcTemplate.queryForObject("WITH gone AS (DELETE FROM " + DEFAULT_PARTITION
+                + " WHERE event_time < ? RETURNING event_id), "
+                + "ids AS (DELETE FROM event_ids WHERE event_id IN (SELECT event_id FROM gone)) "
+                + "SELECT COUNT(*) FROM gone", Integer.class, Timestamp.from(cutoff));
+        return deleted == null ? 0 : deleted;
+    }
+
+    private void deleteEventIdsOf(String table) {
+        jdbcTemplate.update("DELETE FROM event_ids WHERE event_id IN (SELECT event_id FROM " + table + ")");
+    }
+}
@@ -0,0 +1,241 @@
+package com.factory.events.repository;
+
+import com.factory.events.model.WindowTotals;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import javax.sql.DataSource;
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.*;
+
+/**
+ * SQL access to the event_rollups table (see {@link com.factory.events.model.EventRollup}).
+ *
+ * Two write paths keep rollups equal to the raw events:
+ * - applyDeltas, called inside each ingestion transaction with the +new/-old changes;
+ * - reconcileHour / rebuildDay, used by the catch-up job to recompute buckets from raw data.
+ * On PostgreSQL the recompute takes an EXCLUSIVE lock on event_rollups (reads stay allowed),
+ * so no ingestion delta can interleave between reading raw rows and replacing the buckets.
+ */
+@Repository
+public class EventRollupRepository {
+
+    public static final int MINUTE = 60;
+    public static final int HOUR = 3600;
+    public static final int DAY = 86400;
+
+    // Stored in place of a null lineId, which cannot be part of the primary key
+    public static final String NO_LINE = "";
+
+    private static final int ROWS_PER_STATEMENT = 1000;
+    private static final int IN_CHUNK_SIZE = 500;
+
+    private static final String COLUMNS = "bucket_seconds, machine_id, line_id, bucket_start, event_count, defect_sum";
+
+    private static final String PG_UPSERT_SUFFIX = " ON CONFLICT (bucket_seconds, machine_id, line_id, bucket_start) "
+            + "DO UPDATE SET event_count = event_rollups.event_count + EXCLUDED.event_count, "
+            + "defect_sum = event_rollups.defect_sum + EXCLUDED.defect_sum";
+
+    private static final String GENERIC_ADD = "UPDATE event_rollups SET event_count = event_count + ?, "
+            + "defect_sum = defect_sum + ? "
+            + "WHERE bucket_seconds = ? AND machine_id = ? AND line_id = ? AND bucket_start = ?";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final SqlDialect dialect;
+
+    public EventRollupRepository(JdbcTemplate jdbcTemplate, DataSource dataSource) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.dialect = SqlDialect.of(dataSource);
+    }
+
+    /**
+     * Adds signed deltas to their buckets, creating missing rows. Callers pass deltas sorted
+     * by key so concurrent transactions lock rollup rows in the same order.
+     */
+    public void applyDeltas(List<Delta> deltas) {
+        if (deltas.isEmpty()) {
+            return;
+        }
+        if (dialect == SqlDialect.POSTGRES) {
+            for (int from = 0; from < deltas.size(); from += ROWS_PER_STATEMENT) {
+                List<Delta> chunk = deltas.subList(from, Math.min(from + ROWS_PER_STATEMENT, deltas.size()));
+                jdbcTemplate.update(insertSql(chunk.size()) + PG_UPSERT_SUFFIX, bindArgs(chunk));
+            }
+        } else {
+            // Portable update-then-insert; losing a race to create the row turns into an update
+            for (Delta delta : deltas) {
+                if (addToExisting(delta) == 0) {
+                    try {
+                        jdbcTemplate.update(insertSql(1), bindArgs(List.of(delta)));
+                    } catch (DuplicateKeyException e) {
+                        addToExisting(delta);
+                    }
+                }
+            }
+        }
+    }
+
+    private int addToExisting(Delta delta) {
+        return jdbcTemplate.update(GENERIC_ADD, delta.eventCount(), delta.defectSum(), delta.bucketSeconds(),
+                delta.machineId(), delta.lineId(), utc(delta.bucketStart()));
+    }
+
+    /** Totals per machine over [from, to); machines without rollup rows are absent. */
+    public Map<String, WindowTotals> machineTotals(int bucketSeconds, Collection<String> machineIds, Instant from,
+            Instant to) {
+        Map<String, WindowTotals> totals = new HashMap<>();
+        List<String> ids = List.copyOf(machineIds);
+        for (int start = 0; start < ids.size(); start += IN_CHUNK_SIZE) {
+            List<String> chunk = ids.subList(start, Math.min(start + IN_CHUNK_SIZE, ids.size()));
+            List<Object> args = new ArrayList<>(chunk.size() + 3);
+            args.add(bucketSeconds);
+            args.add(utc(from));
+            args.add(utc(to));
+            args.addAll(chunk);
+            jdbcTemplate.query("SELECT machine_id, SUM(event_count), SUM(defect_sum) FROM event_rollups "
+                    + "WHERE bucket_seconds = ? AND bucket_start >= ? AND bucket_start < ? "
+                    + "AND machine_id IN (" + String.join(",", Collections.nCopies(chunk.size(), "?")) + ") "
+                    + "GROUP BY machine_id",
+                    rs -> {
+                        totals.put(rs.getString(1), new WindowTotals(rs.getLong(2), rs.getLong(3)));
+                    },
+                    args.toArray());
+        }
+        return totals;
+    }
+
+    /** Totals per line over [from, to); the map key is null for events without a line. */
+    public Map<String, WindowTotals> lineTotals(int bucketSeconds, Instant from, Instant to) {
+        Map<String, WindowTotals> totals = new HashMap<>();
+        jdbcTemplate.query("SELECT line_id, SUM(event_count), SUM(defect_sum) FROM event_rollups "
+                + "WHERE bucket_seconds = ? AND bucket_start >= ? AND bucket_start < ? GROUP BY line_id",
+                rs -> {
+                    String lineId = rs.getString(1);
+                    totals.put(NO_LINE.equals(lineId) ? null : lineId, new WindowTotals(rs.getLong(2), rs.getLong(3)));
+                },
+                bucketSeconds, utc(from), utc(to));
+        return totals;
+    }
+
+    /**
+     * Same as {@link #lineTotals} for the machines of one factory: registered machines with
+     * that factoryId, plus unregistered ones when it is the default factory.
+     */
+    public Map<String, WindowTotals> lineTotals(int bucketSeconds, String factoryId, String defaultFactoryId,
+            Instant from, Instant to) {
+        Map<String, WindowTotals> totals = new HashMap<>();
+        jdbcTemplate.query("SELECT r.line_id, SUM(r.event_count), SUM(r.defect_sum) FROM event_rollups r "
+                + "LEFT JOIN machines m ON m.id = r.machine_id "
+                + "WHERE r.bucket_seconds = ? AND r.bucket_start >= ? AND r.bucket_start < ? "
+                + "AND COALESCE(m.factory_id, ?) = ? GROUP BY r.line_id",
+                rs -> {
+                    String lineId = rs.getString(1);
+                    totals.put(NO_LINE.equals(lineId) ? null : lineId, new WindowTotals(rs.getLong(2), rs.getLong(3)));
+                },
+                bucketSeconds, utc(from), utc(to), defaultFactoryId, factoryId);
+        return totals;
+    }
+
+    /**
+     * Recomputes the minute and hour buckets of [hourStart, hourStart + 1h) from raw events.
+     * Must run in a transaction.
+     */
+    public void reconcileHour(Instant hourStart) {
+        lockForRecompute();
+        Instant hourEnd = hourStart.plusSeconds(HOUR);
+        List<Delta> minutes = new ArrayList<>();
+        Map<List<String>, long[]> hours = new TreeMap<>(Comparator.comparing((List<String> k) -> k.get(0))
+                .thenComparing(k -> k.get(1)));
+        jdbcTemplate.query("SELECT machine_id, line_id, bucket, COUNT(*), "
+                + "SUM(CASE WHEN defect_count > 0 THEN defect_count ELSE 0 END) "
+                + "FROM (SELECT machine_id, line_id, defect_count, "
+                + "CAST(FLOOR(EXTRACT(EPOCH FROM event_time) / 60) AS BIGINT) AS bucket "
+                + "FROM events WHERE event_time >= ? AND event_time < ?) b "
+                + "GROUP BY machine_id, line_id, bucket",
+                rs -> {
+                    String machineId = rs.getString(1);
+                    String lineId = rs.getString(2) == null ? NO_LINE : rs.getString(2);
+                    long count = rs.getLong(4);
+                    long defects = rs.getLong(5);
+                    minutes.add(new Delta(MINUTE, machineId, lineId, Instant.ofEpochSecond(rs.getLong(3) * MINUTE),
+                            count, defects));
+                    long[] hour = hours.computeIfAbsent(List.of(machineId, lineId), k -> new long[2]);
+                    hour[0] += count;
+                    hour[1] += defects;
+                },
+                utc(hourStart), utc(hourEnd));
+
+        jdbcTemplate.update("DELETE FROM event_rollups WHERE bucket_seconds IN (?, ?) "
+                + "AND bucket_start >= ? AND bucket_start < ?", MINUTE, HOUR, utc(hourStart), utc(hourEnd));
+
+        List<Delta> rows = new ArrayList<>(minutes);
+        hours.forEach((key, sums) -> rows.add(new Delta(HOUR, key.get(0), key.get(1), hourStart, sums[0], sums[1])));
+        insert(rows);
+    }
+
+    /** Rebuilds the day bucket starting at dayStart from its (already exact) hour buckets. */
+    public void rebuildDay(Instant dayStart) {
+        lockForRecompute();
+        Instant dayEnd = dayStart.plusSeconds(DAY);
+        jdbcTemplate.update("DELETE FROM event_rollups WHERE bucket_seconds = ? AND bucket_start = ?", DAY,
+                utc(dayStart));
+        jdbcTemplate.update("INSERT INTO event_rollups (" + COLUMNS + ") "
+                + "SELECT ?, machine_id, line_id, ?, SUM(event_count), SUM(defect_sum) FROM event_rollups "
+                + "WHERE bucket_seconds = ? AND bucket_start >= ? AND bucket_start < ? "
+                + "GROUP BY machine_id, line_id",
+                DAY, utc(dayStart), HOUR, utc(dayStart), utc(dayEnd));
+    }
+
+    public Optional<Instant> earliestEventTime() {
+        OffsetDateTime earliest = jdbcTemplate.queryForObject("SELECT MIN(event_time) FROM events",
+                (rs, i) -> rs.getObject(1, OffsetDateTime.class));
+        return Optional.ofNullable(earliest).map(OffsetDateTime::toInstant);
+    }
+
+    private void lockForRecompute() {
+        if (dialect == SqlDialect.POSTGRES) {
+            jdbcTemplate.execute("LOCK TABLE event_rollups IN EXCLUSIVE MODE");
+        }
+    }
+
+    private void insert(List<Delta> rows) {
+        for (int from = 0; from < rows.size(); from += ROWS_PER_STATEMENT) {
+            List<Delta> chunk = rows.subList(from, Math.min(from + ROWS_PER_STATEMENT, rows.size()));
+            jdbcTemplate.update(insertSql(chunk.size()), bindArgs(chunk));
+        }
+    }
+
+    private static String insertSql(int rowCount) {
+        StringBuilder sql = new StringBuilder("INSERT INTO event_rollups (" + COLUMNS + ") VALUES ");
+        for (int i = 0; i < rowCount; i++) {
+            sql.append(i == 0 ? "(?,?,?,?,?,?)" : ",(?,?,?,?,?,?)");
+        }
+        return sql.toString();
+    }
+
+    private static Object[] bindArgs(List<Delta> rows) {
+        Object[] args = new Object[rows.size() * 6];
+        int i = 0;
+        for (Delta row : rows) {
+            args[i++] = row.bucketSeconds();
+            args[i++] = row.machineId();
+            args[i++] = row.lineId();
+            args[i++] = utc(row.bucketStart());
+            args[i++] = row.eventCount();
+            args[i++] = row.defectSum();
+        }
+        return args;
+    }
+
+    private static OffsetDateTime utc(Instant instant) {
+        return instant.atOffset(ZoneOffset.UTC);
+    }
+
+    /** A signed change (or, when reconciling, the full value) of one rollup bucket. */
+    public record Delta(int bucketSeconds, String machineId, String lineId, Instant bucketStart, long eventCount,
+            long defectSum) {
+    }
+}
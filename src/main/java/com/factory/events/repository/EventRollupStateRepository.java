@@ -0,0 +1,9 @@
+package com.factory.events.repository;
+
+import com.factory.events.model.EventRollupState;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.stereotype.Repository;
+
+@Repository
+public interface EventRollupStateRepository extends JpaRepository<EventRollupState, Integer> {
+}
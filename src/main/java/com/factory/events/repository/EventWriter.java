@@ -0,0 +1,23 @@
+package com.factory.events.repository;
+
+import com.factory.events.model.MachineEvent;
+
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Persists the rows that survived dedupe/merge in EventIngestionService.
+ * Implementations must run inside the caller's transaction.
+ */
+public interface EventWriter {
+
+    /**
+     * Writes new events and overwrites existing ones with newer payloads.
+     *
+     * @param inserts events not found by the lookup phase
+     * @param updates events that replace a stored row (incoming payload, same eventId)
+     * @return eventIds the store refused because a row with a newer receivedTime
+     *         was written concurrently; empty when the writer cannot tell
+     */
+    Collection<String> write(List<MachineEvent> inserts, List<MachineEvent> updates);
+}
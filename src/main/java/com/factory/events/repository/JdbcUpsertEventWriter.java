@@ -0,0 +1,185 @@
+package com.factory.events.repository;
+
+import com.factory.events.model.MachineEvent;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.sql.Timestamp;
+import java.util.*;
+
+/**
+ * PostgreSQL writer using multi-row INSERT ... ON CONFLICT DO UPDATE. The WHERE guard
+ * re-applies the "newer receivedTime wins" rule in the database, so a row written by a
+ * concurrent batch between our lookup and this statement is never overwritten by an
+ * older payload.
+ *
+ * On a partitioned events table the primary key is (event_id, event_time), so the upsert can
+ * only resolve conflicts on that pair. Updates, whose eventTime may differ from the stored
+ * one, are then written as UPDATE ... WHERE event_id = ? with the same guard; PostgreSQL moves
+ * the row when its eventTime crosses into another partition. The unique key on eventId alone
+ * lives in the unpartitioned event_ids table: each batch first inserts or locks the event_ids
+ * row of every event it writes, in eventId order, so writers of one eventId queue across
+ * instances too. An insert whose eventId is already taken (stored after our lookup) becomes a
+ * guarded update, as ON CONFLICT (event_id) does on a plain table, and never a second row
+ * under another eventTime.
+ */
+public class JdbcUpsertEventWriter implements EventWriter {
+
+    // 7 bind parameters per row, well under the 65535 limit of the Postgres protocol
+    private static final int ROWS_PER_STATEMENT = 1000;
+
+    private static final String INSERT_PREFIX = "INSERT INTO events "
+            + "(event_id, event_time, received_time, machine_id, line_id, duration_ms, defect_count) VALUES ";
+
+    private static final String UPSERT_SET = " DO UPDATE SET "
+            + "event_time = EXCLUDED.event_time, "
+            + "received_time = EXCLUDED.received_time, "
+            + "machine_id = EXCLUDED.machine_id, "
+            + "line_id = EXCLUDED.line_id, "
+            + "duration_ms = EXCLUDED.duration_ms, "
+            + "defect_count = EXCLUDED.defect_count "
+            + "WHERE events.received_time IS NULL OR events.received_time <= EXCLUDED.received_time "
+            + "RETURNING event_id";
+
+    private static final String GUARDED_UPDATE = "UPDATE events SET event_time = ?, received_time = ?, "
+            + "machine_id = ?, line_id = ?, duration_ms = ?, defect_count = ? "
+            + "WHERE event_id = ? AND (received_time IS NULL OR received_time <= ?)";
+
+    private static final String CLAIM_PREFIX = "INSERT INTO event_ids (event_id) VALUES ";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final boolean partitioned;
+    private final String upsertSuffix;
+
+    public JdbcUpsertEventWriter(JdbcTemplate jdbcTemplate, boolean partitioned) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.partitioned = partitioned;
+        this.upsertSuffix = (partitioned ? " ON CONFLICT (event_id, event_time)" : " ON CONFLICT (event_id)")
+                + UPSERT_SET;
+    }
+
+    @Override
+    public Collection<String> write(List<MachineEvent> inserts, List<MachineEvent> updates) {
+        List<MachineEvent> rows = new ArrayList<>(inserts.size() + updates.size());
+        Set<String> skipped = new HashSet<>();
+        if (partitioned) {
+            List<MachineEvent> guarded = new ArrayList<>(updates);
+            lockEventIds(inserts, updates, rows, guarded);
+            updateGuarded(guarded, rows, skipped);
+        } else {
+            rows.addAll(inserts);
+            rows.addAll(updates);
+        }
+
+        for (int from = 0; from < rows.size(); from += ROWS_PER_STATEMENT) {
+            List<MachineEvent> chunk = rows.subList(from, Math.min(from + ROWS_PER_STATEMENT, rows.size()));
+            Set<String> written = new HashSet<>(
+                    jdbcTemplate.queryForList(upsertSql(chunk.size()), String.class, bindArgs(chunk)));
+            for (MachineEvent event : chunk) {
+                if (!written.contains(event.getEventId())) {
+                    skipped.add(event.getEventId());
+                }
+            }
+        }
+        return skipped;
+    }
+
+    /*
+     * Claims new eventIds and locks the event_ids rows of the others, both in eventId order.
+     * Inserts holding a new eventId go to rows, the others to guarded.
+     */
+    private void lockEventIds(List<MachineEvent> inserts, List<MachineEvent> updates, List<MachineEvent> rows,
+            List<MachineEvent> guarded) {
+        SortedSet<String> ids = new TreeSet<>();
+        inserts.forEach(event -> ids.add(event.getEventId()));
+        updates.forEach(event -> ids.add(event.getEventId()));
+        List<String> sorted = new ArrayList<>(ids);
+        Set<String> claimed = new HashSet<>();
+        for (int from = 0; from < sorted.size(); from += ROWS_PER_STATEMENT) {
+            List<String> chunk = sorted.subList(from, Math.min(from + ROWS_PER_STATEMENT, sorted.size()));
+            claimed.addAll(jdbcTemplate.queryForList(CLAIM_PREFIX + placeholders(chunk.size(), "(?)")
+                    + " ON CONFLICT (event_id) DO NOTHING RETURNING event_id", String.class, chunk.toArray()));
+        }
+        List<String> taken = sorted.stream().filter(id -> !claimed.contains(id)).toList();
+        for (int from = 0; from < taken.size(); from += ROWS_PER_STATEMENT) {
+            List<String> chunk = taken.subList(from, Math.min(from + ROWS_PER_STATEMENT, taken.size()));
+            jdbcTemplate.queryForList("SELECT event_id FROM event_ids WHERE event_id IN ("
+                    + placeholders(chunk.size(), "?") + ") ORDER BY event_id FOR UPDATE", String.class,
+                    chunk.toArray());
+        }
+        for (MachineEvent event : inserts) {
+            (claimed.contains(event.getEventId()) ? rows : guarded).add(event);
+        }
+    }
+
+    /*
+     * An update matching no row was either older than the stored one (skipped) or has no row
+     * left to update, its event having been deleted; that one is inserted again.
+     */
+    private void updateGuarded(List<MachineEvent> updates, List<MachineEvent> rows, Set<String> skipped) {
+        if (updates.isEmpty()) {
+            return;
+        }
+        List<Object[]> args = new ArrayList<>(updates.size());
+        for (MachineEvent event : updates) {
+            args.add(new Object[] { Timestamp.from(event.getEventTime()), Timestamp.from(event.getReceivedTime()),
+                    event.getMachineId(), event.getLineId(), event.getDurationMs(), event.getDefectCount(),
+                    event.getEventId(), Timestamp.from(event.getReceivedTime()) });
+        }
+        int[] counts = jdbcTemplate.batchUpdate(GUARDED_UPDATE, args);
+        List<MachineEvent> unmatched = new ArrayList<>();
+        for (int i = 0; i < counts.length; i++) {
+            if (counts[i] == 0) {
+                unmatched.add(updates.get(i));
+            }
+        }
+        Set<String> stored = new HashSet<>();
+        for (int from = 0; from < unmatched.size(); from += ROWS_PER_STATEMENT) {
+            List<MachineEvent> chunk = unmatched.subList(from, Math.min(from + ROWS_PER_STATEMENT, unmatched.size()));
+            stored.addAll(jdbcTemplate.queryForList("SELECT event_id FROM events WHERE event_id IN ("
+                    + placeholders(chunk.size(), "?") + ")", String.class,
+                    chunk.stream().map(MachineEvent::getEventId).toArray()));
+        }
+        for (MachineEvent event : unmatched) {
+            if (stored.contains(event.getEventId())) {
+                skipped.add(event.getEventId());
+            } else {
+                rows.add(event);
+            }
+        }
+    }
+
+    private static String placeholders(int count, String placeholder) {
+        StringJoiner joined = new StringJoiner(",");
+        for (int i = 0; i < count; i++) {
+            joined.add(placeholder);
+        }
+        return joined.toString();
+    }
+
+    private String upsertSql(int rowCount) {
+        StringBuilder sql = new StringBuilder(INSERT_PREFIX.length() + rowCount * 24 + upsertSuffix.length());
+        sql.append(INSERT_PREFIX);
+        for (int i = 0; i < rowCount; i++) {
+            if (i > 0) {
+                sql.append(',');
+            }
+            sql.append("(?,?,?,?,?,?,?)");
+        }
+        return sql.append(upsertSuffix).toString();
+    }
+
+    private static Object[] bindArgs(List<MachineEvent> chunk) {
+        Object[] args = new Object[chunk.size() * 7];
+        int i = 0;
+        for (MachineEvent event : chunk) {
+            args[i++] = event.getEventId();
+            args[i++] = Timestamp.from(event.getEventTime());
+            args[i++] = Timestamp.from(event.getReceivedTime());
+            args[i++] = event.getMachineId();
+            args[i++] = event.getLineId();
+            args[i++] = event.getDurationMs();
+            args[i++] = event.getDefectCount();
+        }
+        return args;
+    }
+}
@@ -0,0 +1,35 @@
+package com.factory.events.repository;
+
+import com.factory.events.model.MachineEvent;
+import jakarta.persistence.EntityManager;
+
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Portable writer going through the Hibernate entity lifecycle. Used for H2 and any
+ * database without INSERT ... ON CONFLICT.
+ */
+public class JpaEventWriter implements EventWriter {
+
+    private final EntityManager entityManager;
+    private final MachineEventRepository repository;
+
+    public JpaEventWriter(EntityManager entityManager, MachineEventRepository repository) {
+        this.entityManager = entityManager;
+        this.repository = repository;
+    }
+
+    @Override
+    public Collection<String> write(List<MachineEvent> inserts, List<MachineEvent> updates) {
+        // persist() skips the SELECT that merge() issues for entities with an assigned id
+        for (MachineEvent event : inserts) {
+            entityManager.persist(event);
+        }
+        // Stored rows are already managed from the lookup, so merge only copies state
+        if (!updates.isEmpty()) {
+            repository.saveAll(updates);
+        }
+        return List.of();
+    }
+}
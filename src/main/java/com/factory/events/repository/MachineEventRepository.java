@@ -6,6 +6,7 @@ import org.springframework.data.jpa.repository.Query;
 import org.springframework.stereotype.Repository;
 
 import java.time.Instant;
+import java.util.Collection;
 import java.util.List;
 
 @Repository
@@ -17,6 +18,15 @@ public interface MachineEventRepository extends JpaRepository<MachineEvent, Stri
     @Query("SELECT SUM(e.defectCount) FROM MachineEvent e WHERE e.machineId = :machineId AND e.eventTime >= :start AND e.eventTime < :end AND e.defectCount >= 0")
     Long countDefectsInWindow(String machineId, Instant start, Instant end);
 
+    // Event count and defect sum of several machines in one grouped scan; machines without
+    // events in the window are absent from the result
+    @Query("SELECT e.machineId as machineId, COUNT(e) as eventCount, " +
+            "SUM(CASE WHEN e.defectCount > 0 THEN e.defectCount ELSE 0 END) as defectSum " +
+            "FROM MachineEvent e " +
+            "WHERE e.machineId IN :machineIds AND e.eventTime >= :start AND e.eventTime < :end " +
+            "GROUP BY e.machineId")
+    List<MachineTotalsProjection> sumByMachineInWindow(Collection<String> machineIds, Instant start, Instant end);
+
     // DTO Projection for Top Defect Lines
     @Query("SELECT e.lineId as lineId, " +
             "SUM(CASE WHEN e.defectCount > 0 THEN e.defectCount ELSE 0 END) as totalDefects, " +
@@ -28,6 +38,58 @@ public interface MachineEventRepository extends JpaRepository<MachineEvent, Stri
             "LIMIT :limit")
     List<TopDefectProjection> findTopDefectLines(Instant from, Instant to, int limit);
 
+    // Same totals for every line, unordered; merged with rollup totals by the query planner
+    @Query("SELECT e.lineId as lineId, " +
+            "SUM(CASE WHEN e.defectCount > 0 THEN e.defectCount ELSE 0 END) as totalDefects, " +
+            "COUNT(e) as eventCount " +
+            "FROM MachineEvent e " +
+            "WHERE e.eventTime >= :from AND e.eventTime < :to " +
+            "GROUP BY e.lineId")
+    List<TopDefectProjection> sumByLineInWindow(Instant from, Instant to);
+
+    // Factory-scoped variants: a machine's factory comes from the registry, and machines that
+    // are not registered (or have no factoryId) belong to the default factory
+    @Query("SELECT e.lineId as lineId, " +
+            "SUM(CASE WHEN e.defectCount > 0 THEN e.defectCount ELSE 0 END) as totalDefects, " +
+            "COUNT(e) as eventCount " +
+            "FROM MachineEvent e LEFT JOIN Machine m ON m.id = e.machineId " +
+            "WHERE e.eventTime >= :from AND e.eventTime < :to " +
+            "AND COALESCE(m.factoryId, :defaultFactoryId) = :factoryId " +
+            "GROUP BY e.lineId " +
+            "ORDER BY totalDefects DESC " +
+            "LIMIT :limit")
+    List<TopDefectProjection> findTopDefectLinesInFactory(String factoryId, String defaultFactoryId, Instant from,
+            Instant to, int limit);
+
+    @Query("SELECT e.lineId as lineId, " +
+            "SUM(CASE WHEN e.defectCount > 0 THEN e.defectCount ELSE 0 END) as totalDefects, " +
+            "COUNT(e) as eventCount " +
+            "FROM MachineEvent e LEFT JOIN Machine m ON m.id = e.machineId " +
+            "WHERE e.eventTime >= :from AND e.eventTime < :to " +
+            "AND COALESCE(m.factoryId, :defaultFactoryId) = :factoryId " +
+            "GROUP BY e.lineId")
+    List<TopDefectProjection> sumByLineInFactory(String factoryId, String defaultFactoryId, Instant from,
+            Instant to);
+
+    // Per (machine, line, bucket) totals since "from", used to warm the in-memory hot window.
+    // Row: machine_id, line_id, bucket (epoch seconds / bucketSeconds), event count, defect sum
+    @Query(value = "SELECT machine_id, line_id, bucket, COUNT(*), "
+            + "SUM(CASE WHEN defect_count > 0 THEN defect_count ELSE 0 END) "
+            + "FROM (SELECT machine_id, line_id, defect_count, "
+            + "CAST(FLOOR(EXTRACT(EPOCH FROM event_time) / :bucketSeconds) AS BIGINT) AS bucket "
+            + "FROM events WHERE event_time >= :from) b "
+            + "GROUP BY machine_id, line_id, bucket",
+            nativeQuery = true)
+    List<Object[]> sumByBucketSince(Instant from, long bucketSeconds);
+
+    interface MachineTotalsProjection {
+        String getMachineId();
+
+        long getEventCount();
+
+        long getDefectSum();
+    }
+
     interface TopDefectProjection {
         String getLineId();
 
@@ -2,8 +2,21 @@ package com.factory.events.repository;
 
 import com.factory.events.model.Machine;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
 import org.springframework.stereotype.Repository;
 
+import java.time.Instant;
+
 @Repository
 public interface MachineRepository extends JpaRepository<Machine, String> {
+
+    // Cheap change check for the in-memory registry: a new machine moves the count, a save the max
+    @Query("SELECT COUNT(m) as machineCount, MAX(m.lastUpdated) as lastUpdated FROM Machine m")
+    TableVersionProjection tableVersion();
+
+    interface TableVersionProjection {
+        long getMachineCount();
+
+        Instant getLastUpdated();
+    }
 }
@@ -0,0 +1,24 @@
+package com.factory.events.repository;
+
+import org.springframework.jdbc.support.JdbcUtils;
+import org.springframework.jdbc.support.MetaDataAccessException;
+
+import javax.sql.DataSource;
+import java.sql.DatabaseMetaData;
+
+/**
+ * The two SQL flavours hand-written statements need to care about: PostgreSQL in production,
+ * anything else (H2 in tests) through portable SQL.
+ */
+public enum SqlDialect {
+    POSTGRES, GENERIC;
+
+    public static SqlDialect of(DataSource dataSource) {
+        try {
+            String product = JdbcUtils.extractDatabaseMetaData(dataSource, DatabaseMetaData::getDatabaseProductName);
+            return "PostgreSQL".equalsIgnoreCase(product) ? POSTGRES : GENERIC;
+        } catch (MetaDataAccessException e) {
+            return GENERIC;
+        }
+    }
+}
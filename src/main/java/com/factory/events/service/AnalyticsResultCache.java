@@ -0,0 +1,149 @@
+package com.factory.events.service;
+
+import com.factory.events.model.MachineEvent;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+
+/**
+ * Answers of analytics queries over closed windows, i.e. windows sealed by the event-time
+ * watermarks (see EventTimeWatermarks). Only late corrections still reach such a window, so
+ * its answer rarely changes; when one does commit, every cached window holding its eventTime
+ * is evicted. Windows still open are always computed.
+ *
+ * An answer computed while a late change committed is not cached, and
+ * {@link #invalidatedAt()} tells a lagging replica whether it has seen the last such change.
+ * Rows removed outside ingestion (partition retention, tests) need {@link #clear()}.
+ */
+@Service
+public class AnalyticsResultCache implements EventChangeListener, NodeLocalState {
+
+    /** One query over [start, end); {@code params} are its other arguments. */
+    public record Key(String query, Object params, Instant start, Instant end) {
+
+        boolean contains(Instant eventTime) {
+            return !eventTime.isBefore(start) && eventTime.isBefore(end);
+        }
+    }
+
+    private final boolean enabled;
+    private final EventTimeWatermarks watermarks;
+    private final Cache<Key, Object> answers;
+    private final Counter hits;
+    private final Counter misses;
+    // Bumped by each late change (and clear), so answers computed meanwhile are not cached
+    private final AtomicLong generation = new AtomicLong();
+
+    // End of the latest cached window; later events cannot touch a cached answer
+    private final AtomicReference<Instant> latestEnd = new AtomicReference<>(Instant.MIN);
+    private volatile Instant invalidatedAt = Instant.MIN;
+    // Late changes from another node would not evict anything
+    private volatile boolean suspended;
+
+    public AnalyticsResultCache(EventTimeWatermarks watermarks, MeterRegistry meterRegistry,
+            @Value("${events.analytics.result-cache.enabled:true}") boolean enabled,
+            @Value("${events.analytics.result-cache.max-entries:1000}") long maxEntries) {
+        this.enabled = enabled;
+        this.watermarks = watermarks;
+        this.answers = Caffeine.newBuilder().maximumSize(maxEntries).build();
+        this.hits = resultCounter(meterRegistry, "hit");
+        this.misses = resultCounter(meterRegistry, "miss");
+    }
+
+    private static Counter resultCounter(MeterRegistry meterRegistry, String result) {
+        return Counter.builder("events.analytics.result_cache")
+                .description("Closed-window analytics queries answered from the cache or computed")
+                .tag("result", result)
+                .register(meterRegistry);
+    }
+
+    /** True if the window ending at {@code end} is sealed, so its answer may be cached. */
+    public boolean isClosed(Instant end) {
+        return enabled && !suspended && !end.isAfter(watermarks.sealedThrough());
+    }
+
+    /** When the last late change committed; a replica must have seen it to fill the cache. */
+    public Instant invalidatedAt() {
+        return invalidatedAt;
+    }
+
+    /** The cached answer for {@code key}, computing it if missing; open windows are always computed. */
+    @SuppressWarnings("unchecked")
+    public <T> T get(Key key, Supplier<T> compute) {
+        if (!isClosed(key.end())) {
+            return compute.get();
+        }
+        T cached = (T) answers.getIfPresent(key);
+        if (cached != null) {
+            hits.increment();
+            return cached;
+        }
+        misses.increment();
+        long before = generation.get();
+        T answer = compute.get();
+        if (answer != null && generation.get() == before) {
+            answers.put(key, answer);
+            latestEnd.accumulateAndGet(key.end(), (a, b) -> a.isAfter(b) ? a : b);
+            if (generation.get() != before) {
+                // A late change raced the put; it may have scanned before the entry existed
+                answers.invalidate(key);
+            }
+        }
+        return answer;
+    }
+
+    @Override
+    public void onCommitted(List<EventChange> changes) {
+        if (!enabled) {
+            return;
+        }
+        // Cached windows end at or before sealedThrough, which never moves back
+        Instant closedBefore = watermarks.sealedThrough();
+        for (EventChange change : changes) {
+            if (change.before() != null) {
+                evict(change.before(), closedBefore);
+            }
+            evict(change.after(), closedBefore);
+        }
+    }
+
+    private void evict(MachineEvent event, Instant closedBefore) {
+        Instant eventTime = event.getEventTime();
+        if (!eventTime.isBefore(closedBefore)) {
+            return;
+        }
+        generation.incrementAndGet();
+        invalidatedAt = Instant.now();
+        if (eventTime.isBefore(latestEnd.get())) {
+            answers.asMap().keySet().removeIf(key -> key.contains(eventTime));
+        }
+    }
+
+    /** Forgets every cached answer; for rows deleted or written outside the ingestion path. */
+    public void clear() {
+        generation.incrementAndGet();
+        invalidatedAt = Instant.now();
+        answers.invalidateAll();
+    }
+
+    @Override
+    public void suspend() {
+        suspended = true;
+        clear();
+    }
+
+    @Override
+    public void reload() {
+        clear();
+        suspended = false;
+    }
+}
@@ -1,25 +1,109 @@
 package com.factory.events.service;
 
+import com.factory.events.model.WindowTotals;
 import com.factory.events.repository.MachineEventRepository;
+import com.factory.events.sharding.ShardMembership;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import org.springframework.stereotype.Service;
 
 import java.time.Duration;
 import java.time.Instant;
-import java.util.List;
+import java.util.*;
+import java.util.function.Supplier;
+
+import static com.factory.events.repository.EventRollupRepository.*;
 
 @Service
 public class AnalyticsService {
 
+        // Max machine ids per "IN (...)" of a grouped stats query
+        private static final int MACHINE_CHUNK_SIZE = 500;
+
         private final MachineEventRepository repository;
+        private final HotWindowAggregateStore hotWindow;
+        private final RollupService rollups;
+        private final EventArchiveService archive;
+        private final TopDefectLineIndex topLineIndex;
+        private final MachineFactories factories;
+        private final ReplicaReads replicaReads;
+        private final AnalyticsResultCache resultCache;
+        private final ShardMembership shards;
+        // events.analytics.query{query}: whole request; events.analytics.piece{source}: one planned piece
+        private final Timer statsTimer;
+        private final Timer topLinesTimer;
+        private final Map<Source, Timer> pieceTimers = new EnumMap<>(Source.class);
+        // events.analytics.top_lines{answer}: top-lines queries read from the index vs. planned
+        private final Counter topLinesFromIndex;
+        private final Counter topLinesPlanned;
 
-        public AnalyticsService(MachineEventRepository repository) {
+        public AnalyticsService(MachineEventRepository repository, HotWindowAggregateStore hotWindow,
+                        RollupService rollups, EventArchiveService archive, TopDefectLineIndex topLineIndex,
+                        MachineFactories factories, ReplicaReads replicaReads, AnalyticsResultCache resultCache,
+                        ShardMembership shards, MeterRegistry meterRegistry) {
                 this.repository = repository;
+                this.hotWindow = hotWindow;
+                this.rollups = rollups;
+                this.archive = archive;
+                this.topLineIndex = topLineIndex;
+                this.factories = factories;
+                this.replicaReads = replicaReads;
+                this.resultCache = resultCache;
+                this.shards = shards;
+                this.statsTimer = queryTimer(meterRegistry, "stats");
+                this.topLinesTimer = queryTimer(meterRegistry, "top_defect_lines");
+                for (Source source : Source.values()) {
+                        pieceTimers.put(source, Timer.builder("events.analytics.piece")
+                                        .description("Time to answer one planned piece of a window")
+                                        .tag("source", source.name().toLowerCase(Locale.ROOT))
+                                        .register(meterRegistry));
+                }
+                this.topLinesFromIndex = topLinesCounter(meterRegistry, "index");
+                this.topLinesPlanned = topLinesCounter(meterRegistry, "planner");
+        }
+
+        private static Counter topLinesCounter(MeterRegistry meterRegistry, String answer) {
+                return Counter.builder("events.analytics.top_lines")
+                                .description("Top defect line queries by how they were answered")
+                                .tag("answer", answer)
+                                .register(meterRegistry);
+        }
+
+        private static Timer queryTimer(MeterRegistry meterRegistry, String query) {
+                return Timer.builder("events.analytics.query")
+                                .description("Time to answer one analytics query")
+                                .tag("query", query)
+                                .publishPercentileHistogram()
+                                .register(meterRegistry);
         }
 
         public MachineStats getStats(String machineId, Instant start, Instant end) {
-                long eventsCount = repository.countEventsInWindow(machineId, start, end);
-                Long defectsCountWrap = repository.countDefectsInWindow(machineId, start, end);
-                long defectsCount = (defectsCountWrap == null) ? 0 : defectsCountWrap;
+                return getStats(List.of(machineId), start, end).get(0);
+        }
+
+        /**
+         * Stats of several machines over one window, in the order given. Each piece of the
+         * window is answered for all machines at once (one grouped query per piece), so the
+         * number of queries does not grow with the number of machines. Closed windows are
+         * cached.
+         */
+        public List<MachineStats> getStats(List<String> machineIds, Instant start, Instant end) {
+                return statsTimer.record(() -> {
+                        Set<String> ids = new LinkedHashSet<>(machineIds);
+                        Map<String, WindowTotals> totals = resultCache.get(
+                                        new AnalyticsResultCache.Key("stats", ids, start, end),
+                                        () -> read(start, end, () -> machineTotals(ids, start, end)));
+                        return machineIds.stream()
+                                        .map(id -> toMachineStats(id, start, end,
+                                                        totals.getOrDefault(id, WindowTotals.EMPTY)))
+                                        .toList();
+                });
+        }
+
+        private MachineStats toMachineStats(String machineId, Instant start, Instant end, WindowTotals totals) {
+                long eventsCount = totals.eventCount();
+                long defectsCount = totals.defectSum();
 
                 double hours = Duration.between(start, end).toSeconds() / 3600.0;
                 double avgDefectRate = (hours > 0) ? (defectsCount / hours) : 0.0;
@@ -32,18 +116,267 @@ public class AnalyticsService {
                 return new MachineStats(machineId, start, end, eventsCount, defectsCount, avgDefectRate, status);
         }
 
+        private Map<String, WindowTotals> machineTotals(Collection<String> machineIds, Instant start, Instant end) {
+                Map<String, WindowTotals> totals = new HashMap<>();
+                for (Piece piece : plan(start, end)) {
+                        Timer timer = pieceTimers.get(piece.source());
+                        Map<String, WindowTotals> part = timer.record(() -> switch (piece.source()) {
+                                case RAW -> rawMachineTotals(machineIds, piece.start(), piece.end());
+                                case ARCHIVE -> archivedMachineTotals(machineIds, piece.start(), piece.end());
+                                case HOT -> hotMachineTotals(machineIds, piece.start(), piece.end());
+                                case ROLLUP -> rollups.machineTotals(piece.bucketSeconds(), machineIds, piece.start(),
+                                                piece.end());
+                        });
+                        part.forEach((machineId, t) -> totals.merge(machineId, t, WindowTotals::plus));
+                }
+                return totals;
+        }
+
+        private Map<String, WindowTotals> hotMachineTotals(Collection<String> machineIds, Instant start, Instant end) {
+                Map<String, WindowTotals> totals = new HashMap<>();
+                for (String machineId : machineIds) {
+                        Optional<WindowTotals> hot = hotWindow.machineTotals(machineId, start, end);
+                        if (hot.isEmpty()) {
+                                // The hot range slides forward; fall back to raw rows if it moved past the piece
+                                return rawMachineTotals(machineIds, start, end);
+                        }
+                        totals.put(machineId, hot.get());
+                }
+                return totals;
+        }
+
+        private Map<String, WindowTotals> rawMachineTotals(Collection<String> machineIds, Instant start, Instant end) {
+                Map<String, WindowTotals> totals = new HashMap<>();
+                List<String> ids = List.copyOf(machineIds);
+                for (int from = 0; from < ids.size(); from += MACHINE_CHUNK_SIZE) {
+                        List<String> chunk = ids.subList(from, Math.min(from + MACHINE_CHUNK_SIZE, ids.size()));
+                        for (MachineEventRepository.MachineTotalsProjection p : repository.sumByMachineInWindow(chunk,
+                                        start, end)) {
+                                totals.put(p.getMachineId(), new WindowTotals(p.getEventCount(), p.getDefectSum()));
+                        }
+                }
+                return totals;
+        }
+
+        // Rows that reached the table after their day was archived are counted on top of the segments
+        private Map<String, WindowTotals> archivedMachineTotals(Collection<String> machineIds, Instant start,
+                        Instant end) {
+                Map<String, WindowTotals> totals = new HashMap<>(archive.machineTotals(machineIds, start, end));
+                rawMachineTotals(machineIds, start, end).forEach((id, t) -> totals.merge(id, t, WindowTotals::plus));
+                return totals;
+        }
+
         public List<TopDefectLine> getTopDefectLines(Instant from, Instant to, int limit) {
-                List<MachineEventRepository.TopDefectProjection> projections = repository.findTopDefectLines(from, to,
-                                limit);
+                return getTopDefectLines(null, from, to, limit);
+        }
 
-                return projections.stream().map(p -> {
-                        double defectsPercent = (p.getEventCount() > 0)
-                                        ? (double) p.getTotalDefects() / p.getEventCount() * 100
-                                        : 0.0;
-                        defectsPercent = Math.round(defectsPercent * 100.0) / 100.0; // Round to 2 decimals
+        /**
+         * Top defect lines of one factory ({@code null} for all). Standard sliding windows come
+         * ranked from the {@link TopDefectLineIndex}; any other window is planned like /stats,
+         * and cached once closed. A sharded node only sees the changes of its own machines, so
+         * there lines always come from rollups and rows, uncached.
+         */
+        public List<TopDefectLine> getTopDefectLines(String factoryId, Instant from, Instant to, int limit) {
+                return topLinesTimer.record(() -> {
+                        Optional<List<TopDefectLine>> indexed = shards.isEnabled() ? Optional.empty()
+                                        : topLineIndex.top(factoryId, from, to, limit);
+                        if (indexed.isPresent()) {
+                                topLinesFromIndex.increment();
+                                return indexed.get();
+                        }
+                        topLinesPlanned.increment();
+                        if (shards.isEnabled()) {
+                                return read(from, to, () -> topDefectLines(factoryId, from, to, limit));
+                        }
+                        // Factory reassignments change the answer, so they are part of the key
+                        AnalyticsResultCache.Key key = new AnalyticsResultCache.Key("top_defect_lines",
+                                        Arrays.asList(factoryId, limit, factories.version()), from, to);
+                        return resultCache.get(key,
+                                        () -> read(from, to, () -> topDefectLines(factoryId, from, to, limit)));
+                });
+        }
+
+        /**
+         * Runs a query over [start, end) on the read replica if it has seen every commit the
+         * answer depends on: the last move of the archive horizon when the window reaches into
+         * the archive (else moved rows count twice), and the last late change when the answer
+         * goes into the result cache.
+         */
+        private <T> T read(Instant start, Instant end, Supplier<T> query) {
+                Instant neededAsOf = resultCache.isClosed(end) ? resultCache.invalidatedAt() : null;
+                Instant archivedBefore = archive.archivedBefore();
+                if (archivedBefore != null && start.isBefore(archivedBefore)) {
+                        Instant movedAt = archive.horizonMovedAt();
+                        if (neededAsOf == null || movedAt.isAfter(neededAsOf)) {
+                                neededAsOf = movedAt;
+                        }
+                }
+                return replicaReads.read(neededAsOf, query);
+        }
+
+        private List<TopDefectLine> topDefectLines(String factoryId, Instant from, Instant to, int limit) {
+                List<Piece> pieces = plan(from, to);
+                if (pieces.stream().allMatch(p -> p.source() == Source.RAW)) {
+                        return pieceTimers.get(Source.RAW).record(() -> factoryId == null
+                                        ? repository.findTopDefectLines(from, to, limit)
+                                        : repository.findTopDefectLinesInFactory(factoryId,
+                                                        factories.defaultFactoryId(), from, to, limit))
+                                        .stream()
+                                        .map(p -> toTopDefectLine(p.getLineId(), p.getTotalDefects(), p.getEventCount()))
+                                        .toList();
+                }
 
-                        return new TopDefectLine(p.getLineId(), p.getTotalDefects(), p.getEventCount(), defectsPercent);
-                }).toList();
+                // Lines may have a null id, which HashMap accepts as a key
+                Map<String, WindowTotals> byLine = new HashMap<>();
+                for (Piece piece : pieces) {
+                        Timer timer = pieceTimers.get(piece.source());
+                        Map<String, WindowTotals> part = timer.record(() -> switch (piece.source()) {
+                                case RAW -> rawLineTotals(factoryId, piece.start(), piece.end());
+                                case ARCHIVE -> archivedLineTotals(factoryId, piece.start(), piece.end());
+                                // The hot window does not split lines by machine, so it cannot filter by
+                                // factory; sharded, it only holds this node's machines
+                                case HOT -> factoryId == null && !shards.isEnabled()
+                                                ? hotWindow.allLineTotals(piece.start(), piece.end())
+                                                                .orElseGet(() -> rawLineTotals(null, piece.start(),
+                                                                                piece.end()))
+                                                : rawLineTotals(factoryId, piece.start(), piece.end());
+                                case ROLLUP -> factoryId == null
+                                                ? rollups.lineTotals(piece.bucketSeconds(), piece.start(), piece.end())
+                                                : rollups.lineTotals(piece.bucketSeconds(), factoryId,
+                                                                factories.defaultFactoryId(), piece.start(),
+                                                                piece.end());
+                        });
+                        part.forEach((lineId, totals) -> byLine.merge(lineId, totals, WindowTotals::plus));
+                }
+                return byLine.entrySet().stream()
+                                // Corrections can leave all-zero rollup rows behind
+                                .filter(e -> e.getValue().eventCount() > 0)
+                                .sorted(Comparator.comparingLong((Map.Entry<String, WindowTotals> e) -> e.getValue()
+                                                .defectSum()).reversed())
+                                .limit(limit)
+                                .map(e -> toTopDefectLine(e.getKey(), e.getValue().defectSum(),
+                                                e.getValue().eventCount()))
+                                .toList();
+        }
+
+        private Map<String, WindowTotals> rawLineTotals(String factoryId, Instant start, Instant end) {
+                Map<String, WindowTotals> totals = new HashMap<>();
+                List<MachineEventRepository.TopDefectProjection> rows = factoryId == null
+                                ? repository.sumByLineInWindow(start, end)
+                                : repository.sumByLineInFactory(factoryId, factories.defaultFactoryId(), start, end);
+                for (MachineEventRepository.TopDefectProjection p : rows) {
+                        totals.put(p.getLineId(), new WindowTotals(p.getEventCount(), p.getTotalDefects()));
+                }
+                return totals;
+        }
+
+        private Map<String, WindowTotals> archivedLineTotals(String factoryId, Instant start, Instant end) {
+                Map<String, WindowTotals> totals = new HashMap<>(factoryId == null
+                                ? archive.lineTotals(start, end)
+                                : archive.lineTotals(factories.machinesOf(factoryId), start, end));
+                rawLineTotals(factoryId, start, end).forEach((lineId, t) -> totals.merge(lineId, t, WindowTotals::plus));
+                return totals;
+        }
+
+        private TopDefectLine toTopDefectLine(String lineId, long totalDefects, long eventCount) {
+                return TopDefectLine.of(lineId, totalDefects, eventCount);
+        }
+
+        /**
+         * Splits [start, end) into pieces that each have one cheapest source:
+         * ragged edges (less than a minute) from raw rows, the recent part from the in-memory hot
+         * window, and the rest from day/hour/minute rollups, coarsest first. Without rollup
+         * coverage the older part falls back to raw rows, so the answer never changes, only
+         * the cost: with rollups it grows with the number of buckets, not of events. Raw
+         * pieces before the archive horizon are answered from archive segments.
+         */
+        List<Piece> plan(Instant start, Instant end) {
+                List<Piece> pieces = new ArrayList<>();
+                Instant innerStart = RollupService.ceil(start, MINUTE);
+                Instant innerEnd = RollupService.floor(end, MINUTE);
+                if (!innerStart.isBefore(innerEnd)) {
+                        addRawPieces(pieces, start, end);
+                        return pieces;
+                }
+                addRawPieces(pieces, start, innerStart);
+
+                Instant hotStart = innerEnd;
+                Instant hotEnd = innerEnd;
+                Optional<Instant> coveredFrom = hotWindow.coveredFrom();
+                if (coveredFrom.isPresent()) {
+                        Instant from = hotWindow.ceilToBucket(innerStart);
+                        hotStart = from.isAfter(coveredFrom.get()) ? from : coveredFrom.get();
+                        hotEnd = hotWindow.floorToBucket(innerEnd);
+                        // Hot buckets need not be whole minutes; only use them on minute boundaries
+                        if (!hotStart.isBefore(hotEnd) || !isMinuteAligned(hotStart) || !isMinuteAligned(hotEnd)) {
+                                hotStart = innerEnd;
+                                hotEnd = innerEnd;
+                        }
+                }
+
+                addColdPieces(pieces, innerStart, hotStart);
+                addPiece(pieces, Source.HOT, 0, hotStart, hotEnd);
+                addColdPieces(pieces, hotEnd, innerEnd);
+                addRawPieces(pieces, innerEnd, end);
+                return pieces;
+        }
+
+        // Minute-aligned [start, end) outside the hot window: rollups if backfilled, else raw
+        private void addColdPieces(List<Piece> pieces, Instant start, Instant end) {
+                if (!start.isBefore(end)) {
+                        return;
+                }
+                if (!rollups.covers(start, end)) {
+                        addRawPieces(pieces, start, end);
+                        return;
+                }
+                Instant hourStart = RollupService.ceil(start, HOUR);
+                Instant hourEnd = RollupService.floor(end, HOUR);
+                if (!hourStart.isBefore(hourEnd)) {
+                        addPiece(pieces, Source.ROLLUP, MINUTE, start, end);
+                        return;
+                }
+                Instant dayStart = RollupService.ceil(hourStart, DAY);
+                Instant dayEnd = RollupService.floor(hourEnd, DAY);
+                addPiece(pieces, Source.ROLLUP, MINUTE, start, hourStart);
+                if (dayStart.isBefore(dayEnd)) {
+                        addPiece(pieces, Source.ROLLUP, HOUR, hourStart, dayStart);
+                        addPiece(pieces, Source.ROLLUP, DAY, dayStart, dayEnd);
+                        addPiece(pieces, Source.ROLLUP, HOUR, dayEnd, hourEnd);
+                } else {
+                        addPiece(pieces, Source.ROLLUP, HOUR, hourStart, hourEnd);
+                }
+                addPiece(pieces, Source.ROLLUP, MINUTE, hourEnd, end);
+        }
+
+        // Raw rows before the archive horizon live in the segment files
+        private void addRawPieces(List<Piece> pieces, Instant start, Instant end) {
+                Instant archivedBefore = archive.archivedBefore();
+                if (archivedBefore != null && start.isBefore(archivedBefore)) {
+                        Instant split = end.isBefore(archivedBefore) ? end : archivedBefore;
+                        addPiece(pieces, Source.ARCHIVE, 0, start, split);
+                        start = split;
+                }
+                addPiece(pieces, Source.RAW, 0, start, end);
+        }
+
+        private static void addPiece(List<Piece> pieces, Source source, int bucketSeconds, Instant start,
+                        Instant end) {
+                if (start.isBefore(end)) {
+                        pieces.add(new Piece(source, bucketSeconds, start, end));
+                }
+        }
+
+        private static boolean isMinuteAligned(Instant t) {
+                return RollupService.floor(t, MINUTE).equals(t);
+        }
+
+        enum Source {
+                RAW, ARCHIVE, HOT, ROLLUP
+        }
+
+        // One sub-window of a query and where it is answered from (bucketSeconds for rollups)
+        record Piece(Source source, int bucketSeconds, Instant start, Instant end) {
         }
 
         public record MachineStats(String machineId, Instant start, Instant end, long eventsCount, long defectsCount,
@@ -51,5 +384,12 @@ public class AnalyticsService {
         }
 
         public record TopDefectLine(String lineId, long totalDefects, long eventCount, double defectsPercent) {
+
+                public static TopDefectLine of(String lineId, long totalDefects, long eventCount) {
+                        double defectsPercent = (eventCount > 0) ? (double) totalDefects / eventCount * 100 : 0.0;
+                        defectsPercent = Math.round(defectsPercent * 100.0) / 100.0; // Round to 2 decimals
+
+                        return new TopDefectLine(lineId, totalDefects, eventCount, defectsPercent);
+                }
         }
 }
@@ -0,0 +1,402 @@
+package com.factory.events.service;
+
+import com.factory.events.config.WorkerThreads;
+import com.factory.events.model.MachineEvent;
+import com.factory.events.wal.WriteAheadLog;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.dao.TransientDataAccessException;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.CannotCreateTransactionException;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Opt-in asynchronous ingestion (events.ingestion.async.enabled=true).
+ *
+ * Accepted batches are validated, parked and acknowledged with a ticket. A single writer
+ * thread takes several parked batches at a time and applies them in one transaction (group
+ * commit) through {@link EventIngestionService#processBatches}.
+ *
+ * Batches are parked either in a bounded in-memory queue, or, when events.wal.enabled=true,
+ * in the {@link WriteAheadLog}: a batch is then acknowledged only once it is fsynced, and the
+ * writer checkpoints the log after each commit. Unapplied records left by a crash are
+ * replayed by {@link #replayWriteAheadLog()} at startup; eventId dedupe makes re-applying a
+ * record that did reach the database harmless.
+ *
+ * When the queue (or the unapplied part of the log) is full, submit() refuses the batch so
+ * the caller can answer 429.
+ */
+@Service
+public class AsyncIngestionService {
+
+    private static final Logger log = LoggerFactory.getLogger(AsyncIngestionService.class);
+
+    private static final long RETRY_BACKOFF_MS = 1000;
+
+    private final EventIngestionService ingestionService;
+    private final WriteAheadLog wal;
+    private final ObjectMapper objectMapper;
+    private final boolean enabled;
+    private final int maxGroupBatches;
+    private final int maxGroupEvents;
+    private final long maxUnappliedBytes;
+    private final Duration ticketTtl;
+    private final BlockingQueue<PendingBatch> queue;
+    private final Map<String, TicketState> tickets = new ConcurrentHashMap<>();
+
+    private volatile boolean running;
+    private final WorkerThreads workerThreads;
+    private Thread writer;
+    private long applyCursor;
+
+    public AsyncIngestionService(EventIngestionService ingestionService, ObjectProvider<WriteAheadLog> wal,
+            ObjectMapper objectMapper,
+            @Value("${events.ingestion.async.enabled:false}") boolean enabled,
+            @Value("${events.ingestion.async.queue-capacity:256}") int queueCapacity,
+            @Value("${events.ingestion.async.max-group-batches:32}") int maxGroupBatches,
+            @Value("${events.ingestion.async.max-group-events:10000}") int maxGroupEvents,
+            @Value("${events.ingestion.async.ticket-ttl-seconds:600}") long ticketTtlSeconds,
+            @Value("${events.wal.max-unapplied-bytes:1073741824}") long maxUnappliedBytes,
+            WorkerThreads workerThreads) {
+        this.ingestionService = ingestionService;
+        this.workerThreads = workerThreads;
+        this.wal = wal.getIfAvailable();
+        this.objectMapper = objectMapper;
+        // The log only makes sense with asynchronous acknowledgement, so it implies async mode
+        this.enabled = enabled || this.wal != null;
+        this.maxGroupBatches = maxGroupBatches;
+        this.maxGroupEvents = maxGroupEvents;
+        this.maxUnappliedBytes = maxUnappliedBytes;
+        this.ticketTtl = Duration.ofSeconds(ticketTtlSeconds);
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+    }
+
+    @PostConstruct
+    void start() {
+        // In WAL mode the applier starts after the startup replay instead
+        if (enabled && wal == null) {
+            startWriter(this::queueLoop);
+        }
+    }
+
+    private void startWriter(Runnable loop) {
+        running = true;
+        writer = workerThreads.start(wal == null ? "ingest-writer" : "wal-applier", loop);
+    }
+
+    @PreDestroy
+    void stop() throws InterruptedException {
+        running = false;
+        if (writer != null) {
+            // The queue writer drains what is already queued; the log keeps its own backlog
+            writer.join(TimeUnit.SECONDS.toMillis(30));
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Validates and parks a batch for the writer stage. In WAL mode this returns only after
+     * the batch is durable on local disk.
+     *
+     * @return the ticket id to poll, or empty if the writer is saturated (backpressure)
+     * @throws IllegalArgumentException if the batch is larger than one log segment
+     */
+    public Optional<String> submit(List<MachineEvent> events) {
+        if (wal != null ? wal.unappliedBytes() > maxUnappliedBytes : queue.remainingCapacity() == 0) {
+            return Optional.empty();
+        }
+
+        // Stamp arrival now: last-write-wins must follow acceptance order, not write order
+        Instant receivedAt = Instant.now();
+        for (MachineEvent event : events) {
+            if (event.getReceivedTime() == null) {
+                event.setReceivedTime(receivedAt);
+            }
+        }
+
+        String ticketId = UUID.randomUUID().toString();
+        TicketState state = new TicketState();
+        List<MachineEvent> valid = ingestionService.rejectInvalid(events, state.partial);
+        tickets.put(ticketId, state);
+        if (valid.isEmpty()) {
+            complete(ticketId, new EventIngestionService.BatchResult());
+            return Optional.of(ticketId);
+        }
+
+        if (wal != null) {
+            appendToLog(ticketId, valid);
+            return Optional.of(ticketId);
+        }
+        if (!queue.offer(new PendingBatch(ticketId, valid))) {
+            tickets.remove(ticketId);
+            return Optional.empty();
+        }
+        return Optional.of(ticketId);
+    }
+
+    private void appendToLog(String ticketId, List<MachineEvent> events) {
+        try {
+            long end = wal.append(objectMapper.writeValueAsBytes(new PendingBatch(ticketId, events)));
+            wal.awaitDurable(end);
+        } catch (IOException | RuntimeException e) {
+            tickets.remove(ticketId);
+            if (e instanceof IOException io) {
+                throw new UncheckedIOException(io);
+            }
+            throw (RuntimeException) e;
+        }
+    }
+
+    public Optional<BatchTicket> getTicket(String ticketId) {
+        TicketState state = tickets.get(ticketId);
+        if (state == null) {
+            return Optional.empty();
+        }
+        return Optional.of(new BatchTicket(ticketId, state.status, state.result, state.error));
+    }
+
+    public int queuedBatches() {
+        return queue.size();
+    }
+
+    /**
+     * Applies log records left unapplied by the previous run, then starts the background
+     * applier. If the database is unavailable, replay stops early and the applier retries.
+     *
+     * @return number of records replayed
+     */
+    public int replayWriteAheadLog() throws IOException {
+        if (wal == null) {
+            return 0;
+        }
+        applyCursor = wal.checkpointOffset();
+        long target = wal.durableOffset();
+        int replayed = 0;
+        while (applyCursor < target) {
+            List<WriteAheadLog.Record> records = wal.read(applyCursor, maxGroupBatches);
+            if (records.isEmpty()) {
+                break;
+            }
+            long next = applyRecords(records);
+            if (next == applyCursor) {
+                log.warn("WAL replay paused at offset {}; the applier will keep retrying", applyCursor);
+                break;
+            }
+            replayed += (int) records.stream().filter(r -> r.nextOffset() <= next).count();
+            applyCursor = next;
+            wal.checkpoint(next);
+        }
+        if (replayed > 0) {
+            log.info("Replayed {} unapplied WAL records", replayed);
+        }
+        startWriter(this::walLoop);
+        return replayed;
+    }
+
+    private void queueLoop() {
+        List<PendingBatch> group = new ArrayList<>(maxGroupBatches);
+        while (running || !queue.isEmpty()) {
+            try {
+                PendingBatch first = queue.poll(200, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    expireTickets();
+                    continue;
+                }
+                group.add(first);
+                int events = first.events().size();
+                // Coalesce whatever else is already waiting, within the group limits
+                while (group.size() < maxGroupBatches && events < maxGroupEvents) {
+                    PendingBatch next = queue.poll();
+                    if (next == null) {
+                        break;
+                    }
+                    group.add(next);
+                    events += next.events().size();
+                }
+                commitGroup(group);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (RuntimeException e) {
+                log.error("Async ingestion writer failed", e);
+            } finally {
+                group.clear();
+            }
+        }
+    }
+
+    private void walLoop() {
+        while (running) {
+            try {
+                if (!wal.awaitData(applyCursor, 200, TimeUnit.MILLISECONDS)) {
+                    expireTickets();
+                    continue;
+                }
+                long next = applyRecords(wal.read(applyCursor, maxGroupBatches));
+                if (next == applyCursor) {
+                    // Database unavailable: keep the records and try again shortly
+                    Thread.sleep(RETRY_BACKOFF_MS);
+                    continue;
+                }
+                applyCursor = next;
+                wal.checkpoint(next);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (IOException | RuntimeException e) {
+                log.error("WAL applier failed at offset {}", applyCursor, e);
+            }
+        }
+    }
+
+    private void commitGroup(List<PendingBatch> group) {
+        List<List<MachineEvent>> batches = new ArrayList<>(group.size());
+        for (PendingBatch pending : group) {
+            batches.add(pending.events());
+        }
+        try {
+            List<EventIngestionService.BatchResult> results = ingestionService.processBatches(batches);
+            for (int i = 0; i < group.size(); i++) {
+                complete(group.get(i).ticketId(), results.get(i));
+            }
+        } catch (RuntimeException groupFailure) {
+            if (group.size() == 1) {
+                fail(group.get(0).ticketId(), groupFailure);
+                return;
+            }
+            // One bad batch must not fail its neighbours: retry each on its own
+            log.warn("Group commit of {} batches failed, retrying individually", group.size(), groupFailure);
+            for (PendingBatch pending : group) {
+                try {
+                    complete(pending.ticketId(), ingestionService.processBatch(pending.events()));
+                } catch (RuntimeException e) {
+                    fail(pending.ticketId(), e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Group-commits log records. Returns the offset up to which records are done (applied,
+     * or failed for good); records after it are left for a retry.
+     */
+    private long applyRecords(List<WriteAheadLog.Record> records) {
+        List<WriteAheadLog.Record> readable = new ArrayList<>(records.size());
+        List<PendingBatch> group = new ArrayList<>(records.size());
+        for (WriteAheadLog.Record record : records) {
+            try {
+                group.add(objectMapper.readValue(record.payload(), PendingBatch.class));
+                readable.add(record);
+            } catch (IOException e) {
+                // A record that passed its CRC but cannot be decoded will never succeed
+                log.error("Skipping undecodable WAL record at offset {}", record.offset(), e);
+            }
+        }
+        long done = records.get(records.size() - 1).nextOffset();
+        if (group.isEmpty()) {
+            return done;
+        }
+
+        try {
+            List<List<MachineEvent>> batches = new ArrayList<>(group.size());
+            for (PendingBatch pending : group) {
+                batches.add(pending.events());
+            }
+            List<EventIngestionService.BatchResult> results = ingestionService.processBatches(batches);
+            for (int i = 0; i < group.size(); i++) {
+                complete(group.get(i).ticketId(), results.get(i));
+            }
+            return done;
+        } catch (RuntimeException groupFailure) {
+            if (isTransient(groupFailure)) {
+                log.warn("Database unavailable, WAL records from offset {} stay pending: {}",
+                        records.get(0).offset(), groupFailure.getMessage());
+                return records.get(0).offset();
+            }
+            long cursor = records.get(0).offset();
+            for (int i = 0; i < group.size(); i++) {
+                try {
+                    complete(group.get(i).ticketId(), ingestionService.processBatch(group.get(i).events()));
+                } catch (RuntimeException e) {
+                    if (isTransient(e)) {
+                        return cursor;
+                    }
+                    fail(group.get(i).ticketId(), e);
+                }
+                cursor = readable.get(i).nextOffset();
+            }
+            return done;
+        }
+    }
+
+    private static boolean isTransient(RuntimeException e) {
+        return e instanceof TransientDataAccessException
+                || e instanceof DataAccessResourceFailureException
+                || e instanceof CannotCreateTransactionException;
+    }
+
+    private void complete(String ticketId, EventIngestionService.BatchResult result) {
+        TicketState state = tickets.get(ticketId);
+        if (state != null) {
+            state.partial.add(result);
+            state.result = state.partial;
+            state.finishedAt = Instant.now();
+            state.status = TicketStatus.COMPLETED;
+        }
+    }
+
+    private void fail(String ticketId, RuntimeException e) {
+        log.error("Async batch {} failed", ticketId, e);
+        TicketState state = tickets.get(ticketId);
+        if (state != null) {
+            state.error = e.getMessage();
+            state.finishedAt = Instant.now();
+            state.status = TicketStatus.FAILED;
+        }
+    }
+
+    private void expireTickets() {
+        Instant cutoff = Instant.now().minus(ticketTtl);
+        tickets.values().removeIf(state -> state.finishedAt != null && state.finishedAt.isBefore(cutoff));
+    }
+
+    // Also the WAL record format (JSON), so keep it serializable
+    record PendingBatch(String ticketId, List<MachineEvent> events) {
+    }
+
+    private static class TicketState {
+        // Rejections found at submit time; the write results are added on completion
+        final EventIngestionService.BatchResult partial = new EventIngestionService.BatchResult();
+        volatile TicketStatus status = TicketStatus.PENDING;
+        volatile EventIngestionService.BatchResult result;
+        volatile String error;
+        volatile Instant finishedAt;
+    }
+
+    public enum TicketStatus {
+        PENDING, COMPLETED, FAILED
+    }
+
+    public record BatchTicket(String ticketId, TicketStatus status, EventIngestionService.BatchResult result,
+            String error) {
+    }
+}
@@ -0,0 +1,83 @@
+package com.factory.events.service;
+
+import com.factory.events.config.WorkerThreads;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.function.IntFunction;
+
+/**
+ * Spreads the in-memory steps of one large batch over several threads (see
+ * EventIngestionService). Batches below events.ingestion.parallel.min-batch-size keep the
+ * serial path, and so does every batch when events.ingestion.parallel.threads resolves to 1.
+ *
+ * The calling thread works on the first partition itself, so a batch never waits for a free
+ * worker to make progress, and concurrent large batches share one bounded pool.
+ */
+@Component
+public class BatchPartitioner {
+
+    private final int minBatchSize;
+    private final int threads;
+    private final Executor workers;
+
+    public BatchPartitioner(WorkerThreads workerThreads,
+            @Value("${events.ingestion.parallel.min-batch-size:10000}") int minBatchSize,
+            @Value("${events.ingestion.parallel.threads:0}") int threads) {
+        this.minBatchSize = minBatchSize;
+        // 0: one per core
+        this.threads = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+        this.workers = this.threads > 1 ? workerThreads.executor("ingest-partition", this.threads - 1) : null;
+    }
+
+    /** Serial only, for services created outside the application context. */
+    public static BatchPartitioner serial() {
+        return new BatchPartitioner(WorkerThreads.platform(), Integer.MAX_VALUE, 1);
+    }
+
+    /** Partitions for a batch of {@code size} events; 1 is the serial path. */
+    public int partitionsFor(int size) {
+        return workers == null || size < minBatchSize ? 1 : threads;
+    }
+
+    /**
+     * Runs {@code task} for partitions 0 to {@code partitions - 1} and returns the results in
+     * partition order. A failure is rethrown once every partition has finished, so none is
+     * still working on the batch when the caller's transaction rolls back.
+     */
+    public <T> List<T> run(int partitions, IntFunction<T> task) {
+        if (partitions == 1) {
+            return List.of(task.apply(0));
+        }
+        List<CompletableFuture<T>> forked = new ArrayList<>(partitions - 1);
+        for (int p = 1; p < partitions; p++) {
+            int partition = p;
+            forked.add(CompletableFuture.supplyAsync(() -> task.apply(partition), workers));
+        }
+        List<T> results = new ArrayList<>(partitions);
+        RuntimeException failure = null;
+        try {
+            results.add(task.apply(0));
+        } catch (RuntimeException e) {
+            failure = e;
+        }
+        for (CompletableFuture<T> partition : forked) {
+            try {
+                results.add(partition.join());
+            } catch (CompletionException e) {
+                if (failure == null) {
+                    failure = e.getCause() instanceof RuntimeException cause ? cause : e;
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+        return results;
+    }
+}
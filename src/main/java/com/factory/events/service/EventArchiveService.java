@@ -0,0 +1,212 @@
+package com.factory.events.service;
+
+import com.factory.events.archive.EventArchive;
+import com.factory.events.model.EventArchiveState;
+import com.factory.events.model.MachineEvent;
+import com.factory.events.model.WindowTotals;
+import com.factory.events.repository.EventArchiveRepository;
+import com.factory.events.repository.EventArchiveStateRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.*;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Predicate;
+import java.util.function.ToDoubleFunction;
+
+import static com.factory.events.repository.EventRollupRepository.DAY;
+
+/**
+ * Cold tier: moves events older than {@code after-days} out of the events table into
+ * {@link EventArchive} segments, one UTC day at a time, oldest first.
+ *
+ * - A day is deleted from the table, written to its segment (forced to disk) and the horizon
+ *   (event_archive_state.archivedBefore) advanced, all before one commit. Segments at or past
+ *   the horizon at startup come from runs that never committed and are deleted.
+ * - Only days the rollups already cover are archived, and rollups are never touched, so long
+ *   windows keep being served from them; raw pieces before the horizon read the segments.
+ * - Events before the horizon are rejected at ingestion (ARCHIVED). A batch validated just
+ *   before the horizon moved can still commit rows into the archived day; such rows stay in
+ *   the table and are counted together with the segment, but a retransmission of an archived
+ *   event in that instant is counted twice.
+ */
+@Service
+public class EventArchiveService {
+
+    private static final Logger log = LoggerFactory.getLogger(EventArchiveService.class);
+
+    private final EventArchive archive;
+    private final EventArchiveRepository events;
+    private final EventArchiveStateRepository stateRepository;
+    private final TransactionTemplate transactionTemplate;
+    private final RollupService rollups;
+    private final Duration after;
+    private final int daysPerRun;
+    private final ReentrantLock jobLock = new ReentrantLock();
+
+    // Cached copy of event_archive_state; null while nothing is archived
+    private volatile Instant archivedBefore;
+    private volatile Instant horizonMovedAt;
+    private Counter archivedEvents;
+
+    public EventArchiveService(ObjectProvider<EventArchive> archive, EventArchiveRepository events,
+            EventArchiveStateRepository stateRepository, PlatformTransactionManager transactionManager,
+            RollupService rollups, MeterRegistry meterRegistry,
+            @Value("${events.archive.after-days:30}") long afterDays,
+            @Value("${events.archive.days-per-run:31}") int daysPerRun) {
+        this.archive = archive.getIfAvailable();
+        this.events = events;
+        this.stateRepository = stateRepository;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.rollups = rollups;
+        this.after = Duration.ofDays(afterDays);
+        this.daysPerRun = daysPerRun;
+        if (this.archive != null) {
+            this.archivedEvents = Counter.builder("events.archive.events")
+                    .description("Events moved to the archive")
+                    .register(meterRegistry);
+            blockCounter(meterRegistry, "read", EventArchive::blocksRead);
+            blockCounter(meterRegistry, "skipped", EventArchive::blocksSkipped);
+        }
+    }
+
+    private void blockCounter(MeterRegistry meterRegistry, String result,
+            ToDoubleFunction<EventArchive> count) {
+        FunctionCounter.builder("events.archive.blocks", archive, count)
+                .description("Archive blocks read by queries, or skipped by their zone maps")
+                .tag("result", result)
+                .register(meterRegistry);
+    }
+
+    @PostConstruct
+    void loadState() throws IOException {
+        if (archive == null) {
+            return;
+        }
+        archivedBefore = stateRepository.findById(EventArchiveState.SINGLETON_ID)
+                .map(EventArchiveState::getArchivedBefore)
+                .orElse(null);
+        // The last move may have happened just before the restart
+        horizonMovedAt = archivedBefore == null ? null : Instant.now();
+        archive.discardFrom(archivedBefore == null ? LocalDate.MIN : day(archivedBefore));
+    }
+
+    /** Events with an earlier eventTime live in the archive; null if nothing is archived. */
+    public Instant archivedBefore() {
+        return archivedBefore;
+    }
+
+    /**
+     * When the horizon last moved (null if nothing is archived). A replica that has not
+     * replayed that commit yet still holds the moved rows, which would then be counted twice.
+     */
+    public Instant horizonMovedAt() {
+        return horizonMovedAt;
+    }
+
+    /**
+     * Archives up to days-per-run whole days ending before now - after-days. Runs are skipped
+     * while a previous one is active.
+     */
+    @Scheduled(initialDelayString = "${events.archive.interval-ms:3600000}",
+            fixedDelayString = "${events.archive.interval-ms:3600000}")
+    public void archiveOldEvents() {
+        if (archive == null || !jobLock.tryLock()) {
+            return;
+        }
+        try {
+            archiveBefore(RollupService.floor(Instant.now().minus(after), DAY));
+        } catch (RuntimeException e) {
+            log.warn("Archiving failed, retrying on the next run", e);
+        } finally {
+            jobLock.unlock();
+        }
+    }
+
+    private void archiveBefore(Instant cutoff) {
+        EventArchiveState state = stateRepository.findById(EventArchiveState.SINGLETON_ID)
+                .orElseGet(EventArchiveState::new);
+        for (int days = 0; days < daysPerRun; days++) {
+            // Days without events are passed over; the horizon moves past them with the next one
+            Optional<Instant> earliest = events.earliestEventTime(state.getArchivedBefore());
+            if (earliest.isEmpty()) {
+                return;
+            }
+            Instant dayStart = RollupService.floor(earliest.get(), DAY);
+            Instant dayEnd = dayStart.plusSeconds(DAY);
+            if (dayEnd.isAfter(cutoff)) {
+                return;
+            }
+            if (rollups.isEnabled() && !rollups.covers(dayStart, dayEnd)) {
+                log.debug("Not archiving {} before the rollups cover it", dayStart);
+                return;
+            }
+            archiveDay(state, dayStart, dayEnd);
+        }
+    }
+
+    private void archiveDay(EventArchiveState state, Instant dayStart, Instant dayEnd) {
+        LocalDate day = day(dayStart);
+        int[] moved = new int[1];
+        try {
+            transactionTemplate.executeWithoutResult(tx -> {
+                List<MachineEvent> rows = events.removeRange(dayStart, dayEnd);
+                try {
+                    archive.write(day, rows);
+                } catch (IOException e) {
+                    throw new UncheckedIOException("Cannot write archive segment for " + day, e);
+                }
+                state.setArchivedBefore(dayEnd);
+                stateRepository.save(state);
+                moved[0] = rows.size();
+            });
+        } catch (RuntimeException e) {
+            try {
+                archive.discardFrom(day);
+            } catch (IOException suppressed) {
+                e.addSuppressed(suppressed);
+            }
+            throw e;
+        }
+        // In this order, so whoever sees the new horizon also sees when it moved
+        horizonMovedAt = Instant.now();
+        archivedBefore = dayEnd;
+        archivedEvents.increment(moved[0]);
+        log.info("Archived {} events of {}", moved[0], day);
+    }
+
+    /** Archived totals per machine in [start, end), which must end at or before the horizon. */
+    public Map<String, WindowTotals> machineTotals(Collection<String> machineIds, Instant start, Instant end) {
+        return archive == null ? Map.of() : archive.machineTotals(machineIds, start, end);
+    }
+
+    /** Archived totals per line in [start, end), which must end at or before the horizon. */
+    public Map<String, WindowTotals> lineTotals(Instant start, Instant end) {
+        return archive == null ? Map.of() : archive.lineTotals(start, end);
+    }
+
+    /** Same as {@link #lineTotals(Instant, Instant)} for the events of the machines {@code machines} accepts. */
+    public Map<String, WindowTotals> lineTotals(Predicate<String> machines, Instant start, Instant end) {
+        return archive == null ? Map.of() : archive.lineTotals(machines, start, end);
+    }
+
+    private static LocalDate day(Instant t) {
+        return t.atOffset(ZoneOffset.UTC).toLocalDate();
+    }
+}
@@ -0,0 +1,15 @@
+package com.factory.events.service;
+
+import com.factory.events.model.MachineEvent;
+
+/**
+ * One row change made by the ingestion path: an insert ({@code before == null}) or an update
+ * that replaced the stored payload {@code before} with {@code after}. Both sides are detached
+ * snapshots and must not be modified.
+ */
+public record EventChange(MachineEvent before, MachineEvent after) {
+
+    public boolean isInsert() {
+        return before == null;
+    }
+}
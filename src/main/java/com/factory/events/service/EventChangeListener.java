@@ -0,0 +1,23 @@
+package com.factory.events.service;
+
+import java.util.List;
+
+/**
+ * Receives the row changes made by the ingestion path, on the ingesting thread.
+ */
+public interface EventChangeListener {
+
+    /**
+     * Called inside the ingestion transaction right after the rows are written. Use it for
+     * derived data stored in the same database; throwing rolls the whole batch back.
+     */
+    default void onWritten(List<EventChange> changes) {
+    }
+
+    /**
+     * Called once the transaction has committed, so derived in-process state (aggregates,
+     * caches, live feeds) never reflects a rolled-back write. Must be quick and not throw.
+     */
+    default void onCommitted(List<EventChange> changes) {
+    }
+}
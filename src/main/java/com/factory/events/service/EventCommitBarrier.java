@@ -0,0 +1,56 @@
+package com.factory.events.service;
+
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Lines up in-memory state rebuilt from the events table with the committed changes it
+ * follows (see EventChangeListener#onCommitted).
+ *
+ * Every ingestion write holds the barrier from just before its rows are written until its
+ * commit listeners have run. {@link #exclusive} waits for the writes in flight and holds new
+ * ones back, so a read of the events table inside it sees exactly the changes that were
+ * already delivered to listeners: none is missed by both, or counted by both.
+ */
+@Component
+public class EventCommitBarrier {
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    /**
+     * Enters the barrier for a write. Inside a transaction it is left once the transaction has
+     * completed and its afterCommit callbacks have run.
+     *
+     * @return false if there is no transaction and the caller must {@link #leave()} itself
+     */
+    boolean enterUntilCompletion() {
+        lock.readLock().lock();
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            return false;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCompletion(int status) {
+                lock.readLock().unlock();
+            }
+        });
+        return true;
+    }
+
+    void leave() {
+        lock.readLock().unlock();
+    }
+
+    /** Runs {@code rebuild} with no ingestion write in flight. Must not be called while writing. */
+    public void exclusive(Runnable rebuild) {
+        lock.writeLock().lock();
+        try {
+            rebuild.run();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+}
@@ -0,0 +1,212 @@
+package com.factory.events.service;
+
+import com.factory.events.model.MachineEvent;
+import com.factory.events.repository.EventExportRepository;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.Base64;
+import java.util.List;
+
+/**
+ * Raw events of one machine or line over [start, end), in (eventTime, eventId) order, without
+ * loading the range into memory.
+ *
+ * Both the JSON pages and the CSV / NDJSON export use keyset pagination: every page is one
+ * indexed query for the rows after the last (eventTime, eventId) returned, so it costs the
+ * same at the end of a month as at its start, and no connection or transaction is held
+ * between pages. The export writes and flushes one page of events.export.page-size rows at a
+ * time, so heap use stays at one page whatever the range. Pages are read on the read replica
+ * when there is one (see ReplicaReads).
+ *
+ * Each page sees the table as of its own query: an event whose eventTime is corrected while a
+ * range is being read can appear twice or not at all. Days moved to the archive are not
+ * included.
+ */
+@Service
+public class EventExportService {
+
+    public enum Format {
+        CSV, NDJSON
+    }
+
+    /** One page of events; nextCursor resumes after its last event, null on the last page. */
+    public record EventPage(List<MachineEvent> events, String nextCursor) {
+    }
+
+    private static final String CSV_HEADER = "eventId,eventTime,receivedTime,machineId,lineId,durationMs,defectCount";
+
+    private final EventExportRepository exportRepository;
+    private final ReplicaReads replicaReads;
+    private final ObjectMapper objectMapper;
+    // Flushed per page, not per row
+    private final ObjectWriter rowWriter;
+    private final MeterRegistry meterRegistry;
+    private final int pageSize;
+    private final int maxPageSize;
+
+    public EventExportService(EventExportRepository exportRepository, ReplicaReads replicaReads,
+            ObjectMapper objectMapper, MeterRegistry meterRegistry,
+            @Value("${events.export.page-size:1000}") int pageSize,
+            @Value("${events.export.max-page-size:10000}") int maxPageSize) {
+        this.exportRepository = exportRepository;
+        this.replicaReads = replicaReads;
+        this.objectMapper = objectMapper;
+        this.rowWriter = objectMapper.writer().without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+        this.meterRegistry = meterRegistry;
+        this.pageSize = pageSize;
+        this.maxPageSize = maxPageSize;
+    }
+
+    public int pageSize() {
+        return pageSize;
+    }
+
+    public int maxPageSize() {
+        return maxPageSize;
+    }
+
+    /**
+     * Up to {@code limit} events of {@code machineId} (or {@code lineId}) after {@code cursor}.
+     *
+     * @throws IllegalArgumentException if the cursor was not returned by this API
+     */
+    public EventPage page(String machineId, String lineId, Instant start, Instant end, String cursor, int limit) {
+        Position after = cursor == null ? null : Position.decode(cursor);
+        // One row more tells whether there is a next page
+        List<MachineEvent> rows = read(machineId, lineId, start, end, after, limit + 1);
+        count("page", Math.min(rows.size(), limit));
+        if (rows.size() <= limit) {
+            return new EventPage(rows, null);
+        }
+        List<MachineEvent> events = rows.subList(0, limit);
+        return new EventPage(List.copyOf(events), Position.of(events.get(limit - 1)).encode());
+    }
+
+    /** Writes every event of the range to {@code out}, one flushed page at a time; returns the row count. */
+    public long export(String machineId, String lineId, Instant start, Instant end, Format format,
+            OutputStream out) throws IOException {
+        Writer csv = null;
+        JsonGenerator json = null;
+        if (format == Format.CSV) {
+            csv = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+            csv.write(CSV_HEADER);
+            csv.write("\r\n");
+        } else {
+            json = objectMapper.getFactory().createGenerator(out);
+            json.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+            // Lines are separated by the raw '\n' alone, not Jackson's default " " between root values
+            json.setRootValueSeparator(null);
+        }
+        long rows = 0;
+        Position after = null;
+        try {
+            while (true) {
+                List<MachineEvent> page = read(machineId, lineId, start, end, after, pageSize);
+                for (MachineEvent event : page) {
+                    if (csv != null) {
+                        writeCsv(csv, event);
+                    } else {
+                        rowWriter.writeValue(json, event);
+                        json.writeRaw('\n');
+                    }
+                }
+                rows += page.size();
+                if (csv != null) {
+                    csv.flush();
+                } else {
+                    json.flush();
+                }
+                if (page.size() < pageSize) {
+                    return rows;
+                }
+                after = Position.of(page.get(page.size() - 1));
+            }
+        } finally {
+            count(format.name().toLowerCase(), rows);
+        }
+    }
+
+    private List<MachineEvent> read(String machineId, String lineId, Instant start, Instant end, Position after,
+            int limit) {
+        return replicaReads.read(null, () -> exportRepository.page(machineId, lineId, start, end,
+                after == null ? null : after.eventTime(), after == null ? null : after.eventId(), limit));
+    }
+
+    private void count(String format, long rows) {
+        Counter.builder("events.export.rows")
+                .description("Raw events read by the export API")
+                .tag("format", format)
+                .register(meterRegistry)
+                .increment(rows);
+    }
+
+    private static void writeCsv(Writer out, MachineEvent event) throws IOException {
+        out.write(csvField(event.getEventId()));
+        out.write(',');
+        out.write(event.getEventTime().toString());
+        out.write(',');
+        if (event.getReceivedTime() != null) {
+            out.write(event.getReceivedTime().toString());
+        }
+        out.write(',');
+        out.write(csvField(event.getMachineId()));
+        out.write(',');
+        if (event.getLineId() != null) {
+            out.write(csvField(event.getLineId()));
+        }
+        out.write(',');
+        out.write(Long.toString(event.getDurationMs()));
+        out.write(',');
+        out.write(Integer.toString(event.getDefectCount()));
+        out.write("\r\n");
+    }
+
+    // RFC 4180: quote fields holding a separator, quote or line break, doubling the quotes
+    static String csvField(String value) {
+        if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0 && value.indexOf('\r') < 0) {
+            return value;
+        }
+        return '"' + value.replace("\"", "\"\"") + '"';
+    }
+
+    // The key of the last event returned; the cursor is its base64url encoding
+    record Position(Instant eventTime, String eventId) {
+
+        static Position of(MachineEvent event) {
+            return new Position(event.getEventTime(), event.getEventId());
+        }
+
+        String encode() {
+            return Base64.getUrlEncoder().withoutPadding()
+                    .encodeToString((eventTime + " " + eventId).getBytes(StandardCharsets.UTF_8));
+        }
+
+        static Position decode(String cursor) {
+            try {
+                String key = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+                int space = key.indexOf(' ');
+                if (space < 0) {
+                    throw new IllegalArgumentException("Malformed cursor");
+                }
+                return new Position(Instant.parse(key.substring(0, space)), key.substring(space + 1));
+            } catch (DateTimeParseException e) {
+                throw new IllegalArgumentException("Malformed cursor", e);
+            }
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package com.factory.events.service;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Thread-safe Bloom filter over eventIds: {@link #mightContain} is never false for an id
+ * that was {@link #put}, and false for most other ids (about {@code falsePositiveRate}
+ * while fewer than {@code expectedIds} ids were added). Ids cannot be removed.
+ *
+ * The k probe positions are h1 + i * h2 for one 64-bit hash of the id and a remix of it
+ * (Kirsch-Mitzenmacher double hashing); bits are set with lock-free CAS on an
+ * AtomicLongArray.
+ */
+final class EventIdBloomFilter {
+
+    private final AtomicLongArray words;
+    private final long bits;
+    private final int hashes;
+
+    EventIdBloomFilter(long expectedIds, double falsePositiveRate) {
+        if (expectedIds <= 0 || falsePositiveRate <= 0 || falsePositiveRate >= 1) {
+            throw new IllegalArgumentException("Need expectedIds > 0 and 0 < falsePositiveRate < 1");
+        }
+        // m = -n ln p / (ln 2)^2, k = m/n ln 2
+        long optimalBits = (long) Math.ceil(-expectedIds * Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2)));
+        long wordCount = Math.min(Integer.MAX_VALUE, Math.max(1, (optimalBits + 63) / 64));
+        this.words = new AtomicLongArray((int) wordCount);
+        this.bits = wordCount * 64;
+        this.hashes = Math.max(1, (int) Math.round((double) bits / expectedIds * Math.log(2)));
+    }
+
+    void put(String eventId) {
+        long h1 = hash(eventId);
+        long h2 = fmix(h1 + 0x9E3779B97F4A7C15L);
+        for (int i = 0; i < hashes; i++) {
+            long bit = Math.floorMod(h1 + i * h2, bits);
+            int word = (int) (bit >>> 6);
+            long mask = 1L << bit;
+            long current = words.get(word);
+            while ((current & mask) == 0 && !words.compareAndSet(word, current, current | mask)) {
+                current = words.get(word);
+            }
+        }
+    }
+
+    boolean mightContain(String eventId) {
+        long h1 = hash(eventId);
+        long h2 = fmix(h1 + 0x9E3779B97F4A7C15L);
+        for (int i = 0; i < hashes; i++) {
+            long bit = Math.floorMod(h1 + i * h2, bits);
+            if ((words.get((int) (bit >>> 6)) & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // FNV-1a style over the UTF-16 chars, finished with the murmur3 fmix64 step
+    private static long hash(String s) {
+        long h = 0xCBF29CE484222325L;
+        for (int i = 0; i < s.length(); i++) {
+            h = (h ^ s.charAt(i)) * 0x100000001B3L;
+        }
+        return fmix(h);
+    }
+
+    private static long fmix(long h) {
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        h *= 0xC4CEB9FE1A85EC53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
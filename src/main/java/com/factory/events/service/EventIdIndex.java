@@ -0,0 +1,58 @@
+package com.factory.events.service;
+
+import java.util.Objects;
+
+/**
+ * Numbers the distinct eventIds of one batch 0, 1, 2, ... in order of first occurrence.
+ *
+ * Replaces a LinkedHashMap for the in-batch dedupe: an open-addressing table of parallel
+ * arrays sized once for the batch, so there is no entry object per event and no rehashing.
+ * Callers keep per-eventId state in arrays indexed by the ordinal. Null is a valid key.
+ */
+final class EventIdIndex {
+
+    private final String[] keys;
+    private final int[] ordinals;
+    private final int[] hashes;
+    private final int mask;
+    private int size;
+
+    EventIdIndex(int maxKeys) {
+        // Load factor <= 0.5 keeps probe sequences short
+        int capacity = Integer.highestOneBit(Math.max(2, maxKeys) * 2 - 1) << 1;
+        this.keys = new String[capacity];
+        this.ordinals = new int[capacity];
+        this.hashes = new int[capacity];
+        this.mask = capacity - 1;
+    }
+
+    /**
+     * @return the ordinal of {@code eventId}; a new eventId gets {@link #size()} (before the
+     *         call), so {@code ordinal(id) == size() - 1} after adding it
+     */
+    int ordinal(String eventId) {
+        int hash = spread(Objects.hashCode(eventId));
+        int slot = hash & mask;
+        while (ordinals[slot] != 0) {
+            if (hashes[slot] == hash && Objects.equals(keys[slot], eventId)) {
+                return ordinals[slot] - 1;
+            }
+            slot = (slot + 1) & mask;
+        }
+        // ordinals are stored + 1 so that 0 marks a free slot
+        keys[slot] = eventId;
+        hashes[slot] = hash;
+        ordinals[slot] = ++size;
+        return size - 1;
+    }
+
+    int size() {
+        return size;
+    }
+
+    // String hash codes of sequential ids differ mostly in the low bits of a few chars
+    private static int spread(int h) {
+        h *= 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
@@ -0,0 +1,119 @@
+package com.factory.events.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Serializes concurrent batches that carry the same eventId, and only those.
+ *
+ * Without it two transactions can both look an eventId up as absent, or both merge against
+ * the same stored version, and the loser either hits the primary key or applies its change
+ * on top of a stale "before" (wrong updated/ignored counts, drifting hot-window and rollup
+ * deltas). A batch therefore claims each of its eventIds before the lookup and keeps the
+ * claims until its transaction completes, so the next batch with that eventId sees the
+ * committed row and merges against it.
+ *
+ * Claims are exact keys in a concurrent map rather than a fixed array of hash stripes: a
+ * 1000-event batch would touch most stripes of any reasonable array and serialize with
+ * every other batch, whereas here batches without a common eventId never wait. One lock
+ * per batch marks its claims; a batch that finds an eventId taken waits on the owner's lock
+ * and retries. Claims are taken in eventId order, so two batches cannot wait on each other.
+ *
+ * Coordination is per JVM; across instances the database write path stays the safety net
+ * (the PostgreSQL upsert refuses older receivedTimes).
+ */
+@Component
+public class EventIdLocks {
+
+    private final boolean enabled;
+    private final ConcurrentMap<String, ReentrantLock> owners = new ConcurrentHashMap<>();
+    private final Counter waits;
+
+    public EventIdLocks(@Value("${events.ingestion.event-locks.enabled:true}") boolean enabled,
+            MeterRegistry meterRegistry) {
+        this.enabled = enabled;
+        this.waits = Counter.builder("events.ingestion.lock.waits")
+                .description("Times a batch waited for a concurrent batch with the same eventId")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Claims {@code eventIds} for the current thread, waiting for concurrent owners, and
+     * releases them when the current transaction completes. Null eventIds are not claimed.
+     */
+    public void lockUntilCompletion(Collection<String> eventIds) {
+        if (!enabled || eventIds.isEmpty()) {
+            return;
+        }
+        ReentrantLock mine = new ReentrantLock();
+        mine.lock();
+        List<String> claimed = new ArrayList<>(eventIds.size());
+        try {
+            for (String eventId : sorted(eventIds)) {
+                if (claim(eventId, mine)) {
+                    claimed.add(eventId);
+                }
+            }
+        } catch (RuntimeException | Error e) {
+            release(claimed, mine);
+            throw e;
+        }
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            // Nothing to wait for: callers outside a transaction get no isolation anyway
+            release(claimed, mine);
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCompletion(int status) {
+                release(claimed, mine);
+            }
+        });
+    }
+
+    private static TreeSet<String> sorted(Collection<String> eventIds) {
+        TreeSet<String> sorted = new TreeSet<>();
+        for (String eventId : eventIds) {
+            if (eventId != null) {
+                sorted.add(eventId);
+            }
+        }
+        return sorted;
+    }
+
+    // false if the current thread already owns the eventId (nested or group-committed batches)
+    private boolean claim(String eventId, ReentrantLock mine) {
+        while (true) {
+            ReentrantLock owner = owners.putIfAbsent(eventId, mine);
+            if (owner == null) {
+                return true;
+            }
+            if (owner.isHeldByCurrentThread()) {
+                return false;
+            }
+            waits.increment();
+            // Returns once the owner has released all its claims
+            owner.lock();
+            owner.unlock();
+        }
+    }
+
+    private void release(List<String> claimed, ReentrantLock mine) {
+        for (String eventId : claimed) {
+            owners.remove(eventId, mine);
+        }
+        mine.unlock();
+    }
+}
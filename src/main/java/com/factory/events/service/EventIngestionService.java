@@ -1,77 +1,456 @@
 package com.factory.events.service;
 
+import com.factory.events.codec.EventColumns;
 import com.factory.events.model.MachineEvent;
+import com.factory.events.repository.EventWriter;
 import com.factory.events.repository.MachineEventRepository;
+import jakarta.persistence.EntityManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 import java.time.Instant;
 import java.util.*;
 import java.util.concurrent.atomic.AtomicInteger;
 
+import static com.factory.events.service.IngestionMetrics.Phase;
+
 @Service
 public class EventIngestionService {
 
+    private static final Logger log = LoggerFactory.getLogger(EventIngestionService.class);
+
     private final MachineEventRepository repository;
+    private final EventWriter eventWriter;
+    private final List<EventChangeListener> changeListeners;
+    private final IngestionMetrics metrics;
+    private final EventIdLocks eventIdLocks;
+    private final RecentEventCache recentEvents;
+    private final EventArchiveService archive;
+    private final BatchPartitioner partitioner;
+    private final EntityManager entityManager;
+    private final EventCommitBarrier commitBarrier;
 
     // Concurrent validation constraints
     private static final long MAX_DURATION_MS = 6 * 60 * 60 * 1000; // 6 hours
     private static final long FUTURE_LIMIT_SECONDS = 15 * 60; // 15 mins
 
-    public EventIngestionService(MachineEventRepository repository) {
+    // Max ids per "IN (...)" lookup, keeps very large batches under driver bind limits
+    private static final int LOOKUP_CHUNK_SIZE = 500;
+
+    public EventIngestionService(MachineEventRepository repository, EventWriter eventWriter,
+            List<EventChangeListener> changeListeners, IngestionMetrics metrics, EventIdLocks eventIdLocks,
+            RecentEventCache recentEvents, EventArchiveService archive, BatchPartitioner partitioner,
+            EntityManager entityManager, EventCommitBarrier commitBarrier) {
         this.repository = repository;
+        this.eventWriter = eventWriter;
+        this.changeListeners = changeListeners;
+        this.metrics = metrics;
+        this.eventIdLocks = eventIdLocks;
+        this.recentEvents = recentEvents;
+        this.archive = archive;
+        this.partitioner = partitioner;
+        this.entityManager = entityManager;
+        this.commitBarrier = commitBarrier;
     }
 
     @Transactional
     public BatchResult processBatch(List<MachineEvent> events) {
+        lockEventIds(events);
+        return mergeBatch(events);
+    }
+
+    /**
+     * Same as {@link #processBatch} for a decoded binary batch. Validation and the in-batch
+     * dedupe run over the primitive columns, so rejected events and superseded in-batch
+     * duplicates never become objects; only the survivors are materialized.
+     */
+    @Transactional
+    public BatchResult processColumns(EventColumns columns) {
+        List<String> eventIds = new ArrayList<>(columns.size());
+        for (int i = 0; i < columns.size(); i++) {
+            eventIds.add(columns.eventId(i));
+        }
+        eventIdLocks.lockUntilCompletion(eventIds);
+
+        long batchStart = System.nanoTime();
         BatchResult result = new BatchResult();
-        List<MachineEvent> toSave = new ArrayList<>();
-        Instant now = Instant.now();
+
+        // 0. Validation
+        int[] valid = rejectInvalid(columns, result);
+        long phaseStart = recordPhase(Phase.VALIDATE, batchStart);
+
+        // 1. In-batch dedupe by position
+        List<MachineEvent> unique = dedupeInBatch(columns, valid, result);
+        int partitions = partitioner.partitionsFor(columns.size());
+        return mergeUnique(splitByEventId(List.of(unique), partitions), columns.size(), result, batchStart,
+                phaseStart);
+    }
+
+    /**
+     * Group commit: processes several independent batches in one transaction, in order.
+     * Each batch gets its own result; later batches see the rows written by earlier ones.
+     */
+    @Transactional
+    public List<BatchResult> processBatches(List<List<MachineEvent>> batches) {
+        lockEventIds(batches.stream().flatMap(List::stream).toList());
+        List<BatchResult> results = new ArrayList<>(batches.size());
+        for (List<MachineEvent> events : batches) {
+            if (!results.isEmpty()) {
+                // The JDBC writer bypasses the persistence context: entities loaded by an earlier
+                // batch still hold the rows as they were, and the lookup would hand them back
+                entityManager.flush();
+                entityManager.clear();
+            }
+            results.add(mergeBatch(events));
+        }
+        return results;
+    }
+
+    // Held until commit, so a concurrent batch with the same eventId merges against our result
+    private void lockEventIds(List<MachineEvent> events) {
+        List<String> eventIds = new ArrayList<>(events.size());
+        for (MachineEvent event : events) {
+            eventIds.add(event.getEventId());
+        }
+        eventIdLocks.lockUntilCompletion(eventIds);
+    }
+
+    /*
+     * A batch of at least events.ingestion.parallel.min-batch-size events is validated, deduped
+     * and merged on several threads (BatchPartitioner). Validation splits it into contiguous
+     * ranges, so rejections keep the batch order; dedupe and merge split the valid events by
+     * eventId hash, so all versions of an eventId stay in one partition. Counts are atomic and
+     * lists are joined in partition order. The recent-event check, the lookup and the write stay
+     * on this thread, which holds the transaction, so the batch still commits as one.
+     */
+    private BatchResult mergeBatch(List<MachineEvent> events) {
+        long batchStart = System.nanoTime();
+        BatchResult result = new BatchResult();
+        int partitions = partitioner.partitionsFor(events.size());
+
+        // 0. Validation
+        List<List<MachineEvent>> valid = rejectInvalid(events, partitions, result);
+        long phaseStart = recordPhase(Phase.VALIDATE, batchStart);
 
         // 1. In-memory dedupe for the incoming batch to handle duplicates within the
         // same payload
-        Map<String, MachineEvent> batchUnique = new HashMap<>(); // eventId -> Event
+        List<List<MachineEvent>> byEventId = splitByEventId(valid, partitions);
+        List<List<MachineEvent>> unique = partitioner.run(partitions, p -> dedupeInBatch(byEventId.get(p), result));
+        return mergeUnique(unique, events.size(), result, batchStart, phaseStart);
+    }
 
-        for (MachineEvent event : events) {
-            // Validation
-            if (!isValid(event, now, result)) {
-                continue;
+    // rejectInvalid per contiguous range; rejections are added to result in batch order
+    private List<List<MachineEvent>> rejectInvalid(List<MachineEvent> events, int partitions, BatchResult result) {
+        if (partitions == 1) {
+            return List.of(rejectInvalid(events, result));
+        }
+        int rangeSize = (events.size() + partitions - 1) / partitions;
+        List<BatchResult> rangeResults = new ArrayList<>(partitions);
+        for (int p = 0; p < partitions; p++) {
+            rangeResults.add(new BatchResult());
+        }
+        List<List<MachineEvent>> valid = partitioner.run(partitions, p -> rejectInvalid(
+                events.subList(Math.min(p * rangeSize, events.size()), Math.min((p + 1) * rangeSize, events.size())),
+                rangeResults.get(p)));
+        rangeResults.forEach(result::add);
+        return valid;
+    }
+
+    // Regroups events into partitions sharing no eventId, keeping their order
+    private static List<List<MachineEvent>> splitByEventId(List<List<MachineEvent>> events, int partitions) {
+        if (partitions == 1 && events.size() == 1) {
+            return events;
+        }
+        int size = events.stream().mapToInt(List::size).sum();
+        List<List<MachineEvent>> split = new ArrayList<>(partitions);
+        for (int p = 0; p < partitions; p++) {
+            split.add(new ArrayList<>(size / partitions + 16));
+        }
+        for (List<MachineEvent> part : events) {
+            for (MachineEvent event : part) {
+                split.get(Math.floorMod(Objects.hashCode(event.getEventId()), partitions)).add(event);
+            }
+        }
+        return split;
+    }
+
+    // Keeps the newest version of each eventId by receivedTime (ties by position), in order of
+    // first occurrence. Package-private for the JMH benchmarks.
+    List<MachineEvent> dedupeInBatch(List<MachineEvent> valid, BatchResult result) {
+        EventIdIndex index = new EventIdIndex(valid.size());
+        MachineEvent[] latest = new MachineEvent[valid.size()];
+        Instant now = Instant.now();
+        for (MachineEvent event : valid) {
+            int ordinal = index.ordinal(event.getEventId());
+            MachineEvent previous = latest[ordinal];
+            if (previous != null) {
+                // Same outcome as if the two had arrived one after another, in receivedTime order
+                if (receivedOrNow(event, now).isBefore(receivedOrNow(previous, now))) {
+                    result.ignored.incrementAndGet();
+                    continue;
+                }
+                if (isSamePayload(event, previous)) {
+                    result.deduped.incrementAndGet();
+                } else {
+                    result.updated.incrementAndGet();
+                }
+            }
+            latest[ordinal] = event;
+        }
+        return Arrays.asList(latest).subList(0, index.size());
+    }
+
+    // A missing receivedTime is stamped on arrival
+    private static Instant receivedOrNow(MachineEvent event, Instant now) {
+        return event.getReceivedTime() == null ? now : event.getReceivedTime();
+    }
+
+    // rejectInvalid over the columns: the positions that passed, in order
+    int[] rejectInvalid(EventColumns columns, BatchResult result) {
+        long futureLimitMillis = Instant.now().plusSeconds(FUTURE_LIMIT_SECONDS).toEpochMilli();
+        Instant archivedBefore = archive.archivedBefore();
+        long archivedBeforeMillis = archivedBefore == null ? Long.MIN_VALUE : archivedBefore.toEpochMilli();
+        int[] valid = new int[columns.size()];
+        int validCount = 0;
+        for (int i = 0; i < columns.size(); i++) {
+            long durationMs = columns.durationMs(i);
+            if (durationMs < 0 || durationMs > MAX_DURATION_MS) {
+                reject(columns.eventId(i), "INVALID_DURATION", result);
+            } else if (columns.eventTimeMillis(i) > futureLimitMillis) {
+                reject(columns.eventId(i), "FUTURE_EVENT", result);
+            } else if (columns.eventTimeMillis(i) < archivedBeforeMillis) {
+                reject(columns.eventId(i), "ARCHIVED", result);
+            } else {
+                valid[validCount++] = i;
+            }
+        }
+        return Arrays.copyOf(valid, validCount);
+    }
+
+    // dedupeInBatch over the columns, which carry no receivedTime, so the last position wins;
+    // only that version of each eventId is materialized
+    List<MachineEvent> dedupeInBatch(EventColumns columns, int[] valid, BatchResult result) {
+        EventIdIndex index = new EventIdIndex(valid.length);
+        int[] latest = new int[valid.length];
+        for (int i : valid) {
+            int known = index.size();
+            int ordinal = index.ordinal(columns.eventId(i));
+            if (ordinal < known) {
+                if (columns.samePayload(i, latest[ordinal])) {
+                    result.deduped.incrementAndGet();
+                } else {
+                    result.updated.incrementAndGet();
+                }
             }
+            latest[ordinal] = i;
+        }
+        List<MachineEvent> unique = new ArrayList<>(index.size());
+        for (int ordinal = 0; ordinal < index.size(); ordinal++) {
+            unique.add(columns.toEvent(latest[ordinal]));
+        }
+        return unique;
+    }
 
-            // Local Batch Dedupe: Keep latest in batch if dupe
-            batchUnique.put(event.getEventId(), event);
+    // Steps 2 and 3 for the distinct, valid events of a batch, in partitions sharing no eventId
+    private BatchResult mergeUnique(List<List<MachineEvent>> unique, int batchSize, BatchResult result,
+            long batchStart, long phaseStart) {
+        // Retransmissions of recently stored events are settled from memory, and eventIds
+        // that were certainly never stored skip the lookup. On this thread, since the cache
+        // tells apart the writes of the current transaction.
+        Instant receivedAt = Instant.now();
+        List<List<MachineEvent>> toMerge = new ArrayList<>(unique.size());
+        List<String> toLookUp = new ArrayList<>();
+        for (List<MachineEvent> partition : unique) {
+            List<MachineEvent> partitionToMerge = new ArrayList<>(partition.size());
+            for (MachineEvent incoming : partition) {
+                if (incoming.getReceivedTime() == null) {
+                    incoming.setReceivedTime(receivedAt);
+                }
+                switch (recentEvents.classify(incoming)) {
+                    case DUPLICATE -> result.deduped.incrementAndGet();
+                    case STALE -> result.ignored.incrementAndGet();
+                    case NEW -> partitionToMerge.add(incoming);
+                    case LOOKUP -> {
+                        partitionToMerge.add(incoming);
+                        toLookUp.add(incoming.getEventId());
+                    }
+                }
+            }
+            toMerge.add(partitionToMerge);
         }
+        phaseStart = recordPhase(Phase.DEDUPE, phaseStart);
 
-        // 2. Database Check & Merge
-        for (MachineEvent incoming : batchUnique.values()) {
-            Optional<MachineEvent> existingOpt = repository.findById(incoming.getEventId());
-            checkAndMerge(incoming, existingOpt, toSave, result);
+        // 2. Database Check & Merge (one bulk lookup instead of findById per event)
+        Map<String, MachineEvent> existingById = findExisting(toLookUp);
+        phaseStart = recordPhase(Phase.LOOKUP, phaseStart);
+        List<Merged> merged = partitioner.run(toMerge.size(), p -> merge(toMerge.get(p), existingById, result));
+        List<MachineEvent> inserts = new ArrayList<>();
+        List<MachineEvent> updates = new ArrayList<>();
+        List<MachineEvent> unchanged = new ArrayList<>();
+        List<EventChange> changes = new ArrayList<>();
+        for (Merged partition : merged) {
+            inserts.addAll(partition.inserts());
+            updates.addAll(partition.updates());
+            unchanged.addAll(partition.unchanged());
+            changes.addAll(partition.changes());
         }
+        recentEvents.rememberAfterCommit(unchanged);
+        phaseStart = recordPhase(Phase.MERGE, phaseStart);
 
         // 3. Batch Save
-        if (!toSave.isEmpty()) {
-            repository.saveAll(toSave);
+        if (!inserts.isEmpty() || !updates.isEmpty()) {
+            // Held until the commit listeners have run, so state rebuilt from the table meanwhile
+            // sees this write either in the rows or through onCommitted, never both
+            boolean untilCompletion = commitBarrier.enterUntilCompletion();
+            try {
+                Collection<String> skipped = eventWriter.write(inserts, updates);
+                if (!skipped.isEmpty()) {
+                    reclassifySkipped(skipped, inserts, result);
+                    changes = changes.stream().filter(c -> !skipped.contains(c.after().getEventId())).toList();
+                }
+                phaseStart = recordPhase(Phase.WRITE, phaseStart);
+                for (EventChangeListener listener : changeListeners) {
+                    listener.onWritten(changes);
+                }
+                publishAfterCommit(changes);
+                recordPhase(Phase.LISTENERS, phaseStart);
+            } finally {
+                if (!untilCompletion) {
+                    commitBarrier.leave();
+                }
+            }
         }
 
+        metrics.recordBatch(batchSize, System.nanoTime() - batchStart, result);
         return result;
     }
 
-    private boolean isValid(MachineEvent event, Instant now, BatchResult result) {
+    private record Merged(List<MachineEvent> inserts, List<MachineEvent> updates, List<MachineEvent> unchanged,
+            List<EventChange> changes) {
+    }
+
+    // The merge of one partition; only reads existingById and adds to the atomic counts of result
+    private Merged merge(List<MachineEvent> toMerge, Map<String, MachineEvent> existingById, BatchResult result) {
+        List<MachineEvent> inserts = new ArrayList<>();
+        List<MachineEvent> updates = new ArrayList<>();
+        List<MachineEvent> unchanged = new ArrayList<>();
+        for (MachineEvent incoming : toMerge) {
+            MachineEvent existing = existingById.get(incoming.getEventId());
+            int updateCount = updates.size();
+            checkAndMerge(incoming, Optional.ofNullable(existing), inserts, updates, result);
+            if (existing != null && updates.size() == updateCount) {
+                unchanged.add(existing);
+            }
+        }
+        // Snapshot before writing: the JPA writer merges updates onto the loaded entities
+        List<EventChange> changes = changeListeners.isEmpty() ? List.of()
+                : snapshotChanges(inserts, updates, existingById);
+        return new Merged(inserts, updates, unchanged, changes);
+    }
+
+    // Records the phase that started at phaseStart and returns the start of the next one
+    private long recordPhase(Phase phase, long phaseStart) {
+        long now = System.nanoTime();
+        metrics.recordPhase(phase, now - phaseStart);
+        return now;
+    }
+
+    private static List<EventChange> snapshotChanges(List<MachineEvent> inserts, List<MachineEvent> updates,
+            Map<String, MachineEvent> existingById) {
+        List<EventChange> changes = new ArrayList<>(inserts.size() + updates.size());
+        for (MachineEvent inserted : inserts) {
+            changes.add(new EventChange(null, new MachineEvent(inserted)));
+        }
+        for (MachineEvent updated : updates) {
+            MachineEvent before = existingById.get(updated.getEventId());
+            changes.add(new EventChange(new MachineEvent(before), new MachineEvent(updated)));
+        }
+        return changes;
+    }
+
+    private void publishAfterCommit(List<EventChange> changes) {
+        if (changes.isEmpty()) {
+            return;
+        }
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            notifyListeners(changes);
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                notifyListeners(changes);
+            }
+        });
+    }
+
+    private void notifyListeners(List<EventChange> changes) {
+        for (EventChangeListener listener : changeListeners) {
+            try {
+                listener.onCommitted(changes);
+            } catch (RuntimeException e) {
+                log.error("Event change listener {} failed", listener.getClass().getSimpleName(), e);
+            }
+        }
+    }
+
+    /**
+     * Runs the validation rules on their own, recording rejections in {@code result}.
+     *
+     * @return the events that passed, in their original order
+     */
+    public List<MachineEvent> rejectInvalid(List<MachineEvent> events, BatchResult result) {
+        Instant futureLimit = Instant.now().plusSeconds(FUTURE_LIMIT_SECONDS);
+        Instant archivedBefore = archive.archivedBefore();
+        List<MachineEvent> valid = new ArrayList<>(events.size());
+        for (MachineEvent event : events) {
+            if (isValid(event, futureLimit, archivedBefore, result)) {
+                valid.add(event);
+            }
+        }
+        return valid;
+    }
+
+    private Map<String, MachineEvent> findExisting(Collection<String> eventIds) {
+        Map<String, MachineEvent> existingById = new HashMap<>(eventIds.size() * 2);
+        List<String> ids = new ArrayList<>(eventIds);
+        for (int from = 0; from < ids.size(); from += LOOKUP_CHUNK_SIZE) {
+            List<String> chunk = ids.subList(from, Math.min(from + LOOKUP_CHUNK_SIZE, ids.size()));
+            for (MachineEvent existing : repository.findAllById(chunk)) {
+                existingById.put(existing.getEventId(), existing);
+            }
+        }
+        return existingById;
+    }
+
+    // Events before the archive horizon belong to days already moved out of the table
+    private boolean isValid(MachineEvent event, Instant futureLimit, Instant archivedBefore, BatchResult result) {
         if (event.getDurationMs() < 0 || event.getDurationMs() > MAX_DURATION_MS) {
-            result.rejections.add(new Rejection(event.getEventId(), "INVALID_DURATION"));
-            result.rejected.incrementAndGet();
-            return false;
+            return reject(event.getEventId(), "INVALID_DURATION", result);
         }
-        if (event.getEventTime().isAfter(now.plusSeconds(FUTURE_LIMIT_SECONDS))) {
-            result.rejections.add(new Rejection(event.getEventId(), "FUTURE_EVENT"));
-            result.rejected.incrementAndGet();
-            return false;
+        if (event.getEventTime().isAfter(futureLimit)) {
+            return reject(event.getEventId(), "FUTURE_EVENT", result);
+        }
+        if (archivedBefore != null && event.getEventTime().isBefore(archivedBefore)) {
+            return reject(event.getEventId(), "ARCHIVED", result);
         }
         return true;
     }
 
-    private void checkAndMerge(MachineEvent incoming, Optional<MachineEvent> existingOpt, List<MachineEvent> toSave,
-            BatchResult result) {
+    private boolean reject(String eventId, String reason, BatchResult result) {
+        result.rejections.add(new Rejection(eventId, reason));
+        result.rejected.incrementAndGet();
+        metrics.recordRejection(reason);
+        return false;
+    }
+
+    // Package-private for the JMH benchmarks (performance/jmh)
+    void checkAndMerge(MachineEvent incoming, Optional<MachineEvent> existingOpt,
+            List<MachineEvent> inserts, List<MachineEvent> updates, BatchResult result) {
         // If receivedTime is not set by sender (which is expected), set it to now.
         // If sender provides it (e.g. for backfill or testing), keep it.
         if (incoming.getReceivedTime() == null) {
@@ -92,25 +471,35 @@ public class EventIngestionService {
                 // Exact Match -> Dedupe
                 result.deduped.incrementAndGet();
             } else {
-                // Different Payload -> Update
-                existing.setMachineId(incoming.getMachineId());
-                existing.setLineId(incoming.getLineId());
-                existing.setEventTime(incoming.getEventTime());
-                existing.setDurationMs(incoming.getDurationMs());
-                existing.setDefectCount(incoming.getDefectCount());
-                existing.setReceivedTime(incoming.getReceivedTime()); // Update timestamp
-
-                toSave.add(existing);
+                // Different Payload -> Update. The incoming event carries the new payload and
+                // receivedTime under the same eventId; the writer decides how to apply it.
+                updates.add(incoming);
                 result.updated.incrementAndGet();
             }
         } else {
             // New -> Insert
-            toSave.add(incoming);
+            inserts.add(incoming);
             result.accepted.incrementAndGet();
         }
     }
 
-    private boolean isSamePayload(MachineEvent a, MachineEvent b) {
+    // A concurrent batch stored a newer version between our lookup and the write
+    private void reclassifySkipped(Collection<String> skipped, List<MachineEvent> inserts, BatchResult result) {
+        Set<String> insertIds = new HashSet<>();
+        for (MachineEvent event : inserts) {
+            insertIds.add(event.getEventId());
+        }
+        for (String eventId : skipped) {
+            if (insertIds.contains(eventId)) {
+                result.accepted.decrementAndGet();
+            } else {
+                result.updated.decrementAndGet();
+            }
+            result.ignored.incrementAndGet();
+        }
+    }
+
+    boolean isSamePayload(MachineEvent a, MachineEvent b) {
         return a.getMachineId().equals(b.getMachineId()) &&
                 Objects.equals(a.getLineId(), b.getLineId()) &&
                 a.getEventTime().equals(b.getEventTime()) &&
@@ -124,7 +513,18 @@ public class EventIngestionService {
         public AtomicInteger updated = new AtomicInteger(0);
         public AtomicInteger rejected = new AtomicInteger(0);
         public AtomicInteger ignored = new AtomicInteger(0);
-        public List<Rejection> rejections = Collections.synchronizedList(new ArrayList<>());
+        // Filled by one thread and published after (returned, or through a volatile ticket field),
+        // so it needs no synchronized wrapper, which would also pin virtual threads
+        public List<Rejection> rejections = new ArrayList<>();
+
+        public void add(BatchResult other) {
+            accepted.addAndGet(other.accepted.get());
+            deduped.addAndGet(other.deduped.get());
+            updated.addAndGet(other.updated.get());
+            rejected.addAndGet(other.rejected.get());
+            ignored.addAndGet(other.ignored.get());
+            rejections.addAll(other.rejections);
+        }
     }
 
     public record Rejection(String eventId, String reason) {
@@ -0,0 +1,217 @@
+package com.factory.events.service;
+
+import com.factory.events.repository.EventPartitionRepository;
+import com.factory.events.repository.EventPartitionRepository.Partition;
+import com.factory.events.repository.SqlDialect;
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.sql.DataSource;
+import java.time.DayOfWeek;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.temporal.TemporalAdjusters;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Native PostgreSQL range partitioning of the events table on eventTime, by UTC day or
+ * ISO week.
+ *
+ * - On a database without an events table, the partitioned table is created at startup,
+ *   before Hibernate's schema update would create a plain one (see EventPartitionConfig).
+ *   An existing plain table is left alone; converting it is a manual migration (README).
+ * - A maintenance job keeps partitions ready for the current period and the next
+ *   {@code premake} ones. Anything outside them (late history) lands in events_default.
+ * - Partitions that end before the retention cutoff are detached (kept as standalone
+ *   archive tables) or dropped: a metadata change instead of a mass DELETE. Rollups are not
+ *   touched, so long-range stats stay available after the raw rows are gone, and the rollup
+ *   reconcile leaves hours before {@link #retainedFrom()} alone.
+ *
+ * Range queries on eventTime are pruned to the partitions they overlap. Lookups by eventId
+ * alone probe every partition's primary key, which is why the recent-ID cache and the eventId
+ * filter (RecentEventCache) matter more once the table is partitioned.
+ */
+@Service
+public class EventPartitionService {
+
+    private static final Logger log = LoggerFactory.getLogger(EventPartitionService.class);
+
+    private static final DateTimeFormatter NAME_DATE = DateTimeFormatter.ofPattern("yyyyMMdd", Locale.ROOT);
+
+    public enum Interval {
+        DAY, WEEK
+    }
+
+    public enum RetentionAction {
+        /** Keep the partition as a standalone table, outside the events table */
+        DETACH,
+        DROP
+    }
+
+    private final EventPartitionRepository partitions;
+    private final AnalyticsResultCache resultCache;
+    private final TransactionTemplate transactionTemplate;
+    private final boolean enabled;
+    private final Interval interval;
+    private final int premake;
+    private final Duration retention;
+    private final RetentionAction retentionAction;
+    private final ReentrantLock jobLock = new ReentrantLock();
+
+    private volatile boolean partitioned;
+
+    public EventPartitionService(EventPartitionRepository partitions, DataSource dataSource,
+            AnalyticsResultCache resultCache,
+            @Value("${events.partitioning.enabled:true}") boolean enabled,
+            @Value("${events.partitioning.interval:week}") String interval,
+            @Value("${events.partitioning.premake:4}") int premake,
+            @Value("${events.partitioning.retention-days:0}") long retentionDays,
+            @Value("${events.partitioning.retention-action:detach}") String retentionAction) {
+        this.partitions = partitions;
+        this.resultCache = resultCache;
+        // Not the JPA transaction manager: this bean is created before the EntityManagerFactory.
+        // JdbcTemplate joins DataSource transactions either way.
+        this.transactionTemplate = new TransactionTemplate(new DataSourceTransactionManager(dataSource));
+        this.enabled = enabled && SqlDialect.of(dataSource) == SqlDialect.POSTGRES;
+        this.interval = Interval.valueOf(interval.toUpperCase(Locale.ROOT));
+        this.premake = premake;
+        this.retention = retentionDays > 0 ? Duration.ofDays(retentionDays) : null;
+        this.retentionAction = RetentionAction.valueOf(retentionAction.toUpperCase(Locale.ROOT));
+    }
+
+    @PostConstruct
+    void createTable() {
+        if (!enabled) {
+            return;
+        }
+        if (!partitions.eventsTableExists()) {
+            partitions.createPartitionedTable();
+            log.info("Created events partitioned by {} on event_time", interval.name().toLowerCase(Locale.ROOT));
+        }
+        partitioned = partitions.isPartitioned();
+        if (!partitioned) {
+            log.warn("events is a plain table; partitioning stays off until it is migrated (see README)");
+            return;
+        }
+        if (Boolean.TRUE.equals(transactionTemplate.execute(tx -> partitions.createEventIds()))) {
+            log.info("Created event_ids, the unique key of eventIds across partitions");
+        }
+        maintain();
+    }
+
+    /**
+     * Start of the eventTimes still kept under the retention (now - retention-days), or null
+     * if nothing is retired. Earlier hours may have lost raw rows to a retired partition.
+     */
+    public Instant retainedFrom() {
+        return partitioned && retention != null ? Instant.now().minus(retention) : null;
+    }
+
+    /** True if events is a partitioned table, so eventId alone is not a unique key. */
+    public boolean isPartitioned() {
+        return partitioned;
+    }
+
+    /**
+     * Creates missing partitions up to {@code premake} periods ahead and retires those past
+     * the retention. Runs are skipped while a previous one is active.
+     */
+    @Scheduled(initialDelayString = "${events.partitioning.maintenance-interval-ms:3600000}",
+            fixedDelayString = "${events.partitioning.maintenance-interval-ms:3600000}")
+    public void maintain() {
+        if (!partitioned || !jobLock.tryLock()) {
+            return;
+        }
+        try {
+            createAhead(Instant.now());
+            if (retention != null) {
+                retire(Instant.now().minus(retention));
+            }
+        } catch (RuntimeException e) {
+            log.warn("Partition maintenance failed, retrying on the next run", e);
+        } finally {
+            jobLock.unlock();
+        }
+    }
+
+    private void createAhead(Instant now) {
+        List<Partition> existing = partitions.partitions();
+        Instant from = periodStart(now, interval);
+        for (int i = 0; i <= premake; i++) {
+            Instant to = next(from, interval);
+            if (!overlapsAny(existing, from, to)) {
+                Instant start = from;
+                String name = "events_p" + NAME_DATE.format(from.atOffset(ZoneOffset.UTC));
+                transactionTemplate.executeWithoutResult(tx -> partitions.createPartition(name, start, to));
+                log.info("Created partition {} for [{}, {})", name, start, to);
+            }
+            from = to;
+        }
+    }
+
+    // Earlier partitions may have another interval (configuration changed); those periods are skipped
+    private static boolean overlapsAny(List<Partition> existing, Instant from, Instant to) {
+        for (Partition partition : existing) {
+            if (partition.from().isBefore(to) && from.isBefore(partition.to())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void retire(Instant cutoff) {
+        boolean retired = false;
+        for (Partition partition : partitions.partitions()) {
+            if (partition.to().isAfter(cutoff)) {
+                break;
+            }
+            retired = true;
+            transactionTemplate.executeWithoutResult(tx -> {
+                if (retentionAction == RetentionAction.DROP) {
+                    partitions.dropPartition(partition.name());
+                } else {
+                    partitions.detachPartition(partition.name());
+                }
+            });
+            log.info("{} partition {} [{}, {}) past the retention", retentionAction == RetentionAction.DROP
+                    ? "Dropped" : "Detached", partition.name(), partition.from(), partition.to());
+        }
+        if (retentionAction == RetentionAction.DROP) {
+            // Late history in the default partition; kept when partitions are archived instead
+            int deleted = transactionTemplate.execute(tx -> partitions.deleteFromDefaultBefore(cutoff));
+            if (deleted > 0) {
+                log.info("Deleted {} events before {} from {}", deleted, cutoff,
+                        EventPartitionRepository.DEFAULT_PARTITION);
+                retired = true;
+            }
+        }
+        if (retired) {
+            // Cached closed-window answers may still count the retired rows
+            resultCache.clear();
+        }
+    }
+
+    // UTC day, or ISO week starting on Monday
+    static Instant periodStart(Instant time, Interval interval) {
+        LocalDate day = time.atOffset(ZoneOffset.UTC).toLocalDate();
+        if (interval == Interval.WEEK) {
+            day = day.with(TemporalAdjusters.previousOrSame(DayOfWeek.MONDAY));
+        }
+        return day.atStartOfDay(ZoneOffset.UTC).toInstant();
+    }
+
+    static Instant next(Instant periodStart, Interval interval) {
+        return periodStart.plus(Duration.ofDays(interval == Interval.WEEK ? 7 : 1));
+    }
+}
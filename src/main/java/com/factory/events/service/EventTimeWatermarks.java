@@ -0,0 +1,134 @@
+package com.factory.events.service;
+
+import com.factory.events.model.MachineEvent;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Event-time watermarks: how far the events of each machine have progressed, and up to which
+ * instant analytics windows are sealed.
+ *
+ * A machine's watermark trails the latest eventTime it has sent by
+ * events.watermark.allowed-lateness-minutes, and never lags the clock by more than
+ * events.watermark.idle-timeout-minutes. {@link #sealedThrough()} is the lowest watermark of
+ * the machines that sent events within the idle timeout, so a quiet machine does not hold it
+ * back. It stays between the idle horizon and allowed-lateness before the clock, and only moves
+ * forward. Windows ending at or before it are sealed: their answers are cached as final
+ * (AnalyticsResultCache) and their rollup hours are re-derived once (RollupService).
+ *
+ * An event written before its machine's watermark, or before sealedThrough, is a correction.
+ * It is stored like any other event, but it re-opens only the buckets it falls in: cached
+ * windows holding it are evicted, its rollup hour is re-derived again, and
+ * events.watermark.corrections counts it.
+ *
+ * Committed eventTimes move the watermarks only in {@link #advance()}, so every listener of
+ * one batch judges it against the same watermarks. They are kept per node and start at the
+ * idle horizon after a restart.
+ */
+@Service
+public class EventTimeWatermarks implements EventChangeListener {
+
+    private final Duration allowedLateness;
+    private final Duration idleTimeout;
+    private final Counter corrections;
+    private final ReentrantLock advanceLock = new ReentrantLock();
+
+    private record Progress(Instant watermark, Instant lastSeen) {
+    }
+
+    // Latest committed eventTime per machine, folded into machines by advance()
+    private final Map<String, Instant> pending = new ConcurrentHashMap<>();
+    // Machines that sent events within the idle timeout
+    private final Map<String, Progress> machines = new ConcurrentHashMap<>();
+    private volatile Instant sealedThrough;
+
+    public EventTimeWatermarks(MeterRegistry meterRegistry,
+            @Value("${events.watermark.allowed-lateness-minutes:5}") long allowedLatenessMinutes,
+            @Value("${events.watermark.idle-timeout-minutes:60}") long idleTimeoutMinutes) {
+        this.allowedLateness = Duration.ofMinutes(allowedLatenessMinutes);
+        this.idleTimeout = Duration.ofMinutes(idleTimeoutMinutes);
+        this.sealedThrough = idleHorizon();
+        this.corrections = Counter.builder("events.watermark.corrections")
+                .description("Events written into windows that were already sealed")
+                .register(meterRegistry);
+        Gauge.builder("events.watermark.sealed_lag", this,
+                w -> Duration.between(w.sealedThrough, Instant.now()).toMillis() / 1000.0)
+                .description("How far sealed windows trail the clock")
+                .baseUnit("seconds")
+                .register(meterRegistry);
+    }
+
+    private Instant idleHorizon() {
+        return Instant.now().minus(idleTimeout);
+    }
+
+    /** Windows ending at or before this instant are sealed. Never moves back. */
+    public Instant sealedThrough() {
+        return sealedThrough;
+    }
+
+    /** The watermark of {@code machineId}: its events before this instant are late. */
+    public Instant watermark(String machineId) {
+        Instant idle = idleHorizon();
+        Progress own = machineId == null ? null : machines.get(machineId);
+        return own != null && own.watermark().isAfter(idle) ? own.watermark() : idle;
+    }
+
+    /** True if writing {@code event} now would change a sealed window. */
+    public boolean isSealed(MachineEvent event) {
+        Instant eventTime = event.getEventTime();
+        return eventTime.isBefore(sealedThrough) || eventTime.isBefore(watermark(event.getMachineId()));
+    }
+
+    @Override
+    public void onCommitted(List<EventChange> changes) {
+        for (EventChange change : changes) {
+            MachineEvent after = change.after();
+            if (isSealed(after) || (change.before() != null && isSealed(change.before()))) {
+                corrections.increment();
+            }
+            pending.merge(after.getMachineId(), after.getEventTime(), (a, b) -> a.isAfter(b) ? a : b);
+        }
+    }
+
+    /** Folds the eventTimes committed since the last call into the watermarks. */
+    @Scheduled(fixedDelayString = "${events.watermark.advance-interval-ms:1000}")
+    public void advance() {
+        advanceLock.lock();
+        try {
+            Instant now = Instant.now();
+            for (String machineId : pending.keySet()) {
+                Instant watermark = pending.remove(machineId).minus(allowedLateness);
+                machines.merge(machineId, new Progress(watermark, now), (a, b) -> new Progress(
+                        a.watermark().isAfter(b.watermark()) ? a.watermark() : b.watermark(), now));
+            }
+            Instant idle = now.minus(idleTimeout);
+            machines.values().removeIf(progress -> progress.lastSeen().isBefore(idle));
+            Instant lowest = now.minus(allowedLateness);
+            for (Progress progress : machines.values()) {
+                if (progress.watermark().isBefore(lowest)) {
+                    lowest = progress.watermark();
+                }
+            }
+            if (lowest.isBefore(idle)) {
+                lowest = idle;
+            }
+            if (lowest.isAfter(sealedThrough)) {
+                sealedThrough = lowest;
+            }
+        } finally {
+            advanceLock.unlock();
+        }
+    }
+}
@@ -0,0 +1,296 @@
+package com.factory.events.service;
+
+import com.factory.events.model.MachineEvent;
+import com.factory.events.model.WindowTotals;
+import com.factory.events.repository.MachineEventRepository;
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * In-memory, time-bucketed event/defect counters per machine and per line for the recent
+ * "hot" window (events.analytics.hot-window.hours, default 48h, in bucket-seconds buckets).
+ *
+ * Loaded from the events table at startup, then kept current from committed ingestion
+ * changes: an update subtracts the old payload from its bucket and adds the new one, so
+ * corrections that move an event between buckets or machines stay exact. Any bucket-aligned
+ * window inside the covered range is answered by summing buckets instead of querying.
+ *
+ * Only changes made through this instance are seen, so the store assumes it is the sole
+ * writer of the events it serves (single node, or machine-partitioned nodes; see
+ * ShardMembership, where line totals only cover the node's own machines).
+ */
+@Service
+public class HotWindowAggregateStore implements EventChangeListener, NodeLocalState {
+
+    private static final Logger log = LoggerFactory.getLogger(HotWindowAggregateStore.class);
+
+    // Events may be up to 15 minutes ahead of the clock (see EventIngestionService)
+    private static final long FUTURE_LIMIT_SECONDS = 15 * 60;
+    private static final String NULL_LINE = "\u0000";
+
+    private final MachineEventRepository repository;
+    private final EventCommitBarrier commitBarrier;
+    private final boolean enabled;
+    private final long bucketSeconds;
+    private final long windowBuckets;
+    private final long futureBuckets;
+    private final int slots;
+    private final Map<String, Series> machines = new ConcurrentHashMap<>();
+    private final Map<String, Series> lines = new ConcurrentHashMap<>();
+
+    // Nothing is served until the warm-up has loaded the window
+    private volatile long coveredFromBucket = Long.MAX_VALUE;
+
+    public HotWindowAggregateStore(MachineEventRepository repository, EventCommitBarrier commitBarrier,
+            @Value("${events.analytics.hot-window.enabled:true}") boolean enabled,
+            @Value("${events.analytics.hot-window.hours:48}") long hours,
+            @Value("${events.analytics.hot-window.bucket-seconds:60}") long bucketSeconds) {
+        this.repository = repository;
+        this.commitBarrier = commitBarrier;
+        this.enabled = enabled;
+        this.bucketSeconds = bucketSeconds;
+        this.windowBuckets = hours * 3600 / bucketSeconds;
+        this.futureBuckets = (FUTURE_LIMIT_SECONDS + bucketSeconds - 1) / bucketSeconds;
+        this.slots = (int) (windowBuckets + futureBuckets + 2);
+    }
+
+    // With ingestion held back, so each commit is either in the rows read or applied afterwards
+    @PostConstruct
+    void warmUp() {
+        if (!enabled) {
+            return;
+        }
+        commitBarrier.exclusive(this::load);
+    }
+
+    private void load() {
+        long fromBucket = bucketOf(Instant.now()) - windowBuckets;
+        List<Object[]> rows = repository.sumByBucketSince(Instant.ofEpochSecond(fromBucket * bucketSeconds),
+                bucketSeconds);
+        for (Object[] row : rows) {
+            long bucket = ((Number) row[2]).longValue();
+            long count = ((Number) row[3]).longValue();
+            long defects = row[4] == null ? 0 : ((Number) row[4]).longValue();
+            series(machines, (String) row[0]).add(bucket, count, defects, fromBucket);
+            series(lines, lineKey((String) row[1])).add(bucket, count, defects, fromBucket);
+        }
+        coveredFromBucket = fromBucket;
+        log.info("Hot window warmed with {} buckets from the last {} hours", rows.size(),
+                windowBuckets * bucketSeconds / 3600);
+    }
+
+    // Serves nothing, and stops following changes, until reloaded
+    @Override
+    public void suspend() {
+        coveredFromBucket = Long.MAX_VALUE;
+    }
+
+    @Override
+    public void reload() {
+        if (!enabled) {
+            return;
+        }
+        commitBarrier.exclusive(() -> {
+            suspend();
+            machines.clear();
+            lines.clear();
+            load();
+        });
+    }
+
+    @Override
+    public void onCommitted(List<EventChange> changes) {
+        if (!enabled) {
+            return;
+        }
+        long oldest = oldestServableBucket();
+        for (EventChange change : changes) {
+            if (change.before() != null) {
+                apply(change.before(), -1, oldest);
+            }
+            apply(change.after(), 1, oldest);
+        }
+    }
+
+    private void apply(MachineEvent event, int sign, long oldestBucket) {
+        long bucket = bucketOf(event.getEventTime());
+        if (bucket < oldestBucket) {
+            return;
+        }
+        long defects = sign * WindowTotals.defectContribution(event.getDefectCount());
+        series(machines, event.getMachineId()).add(bucket, sign, defects, oldestBucket);
+        series(lines, lineKey(event.getLineId())).add(bucket, sign, defects, oldestBucket);
+    }
+
+    /**
+     * Totals for one machine over a bucket-aligned window [start, end).
+     *
+     * @return empty if the window is not aligned or reaches outside the hot range
+     */
+    public Optional<WindowTotals> machineTotals(String machineId, Instant start, Instant end) {
+        return totals(machines, machineId, start, end);
+    }
+
+    /** Same as {@link #machineTotals} for a production line ({@code null} line allowed). */
+    public Optional<WindowTotals> lineTotals(String lineId, Instant start, Instant end) {
+        return totals(lines, lineKey(lineId), start, end);
+    }
+
+    /**
+     * Totals of every line with events in a bucket-aligned window, or empty if the window
+     * cannot be served from memory. Keys are line ids ({@code null} for events without one).
+     */
+    public Optional<Map<String, WindowTotals>> allLineTotals(Instant start, Instant end) {
+        return allTotals(lines, start, end);
+    }
+
+    /** Same as {@link #allLineTotals} for every machine. */
+    public Optional<Map<String, WindowTotals>> allMachineTotals(Instant start, Instant end) {
+        return allTotals(machines, start, end);
+    }
+
+    private Optional<Map<String, WindowTotals>> allTotals(Map<String, Series> index, Instant start, Instant end) {
+        if (!covers(start, end)) {
+            return Optional.empty();
+        }
+        long from = bucketOf(start);
+        long to = Math.min(bucketOf(end), newestBucket() + 1);
+        Map<String, WindowTotals> result = new HashMap<>();
+        index.forEach((key, series) -> {
+            WindowTotals totals = series.sum(from, to);
+            if (totals.eventCount() > 0) {
+                result.put(NULL_LINE.equals(key) ? null : key, totals);
+            }
+        });
+        return Optional.of(result);
+    }
+
+    private Optional<WindowTotals> totals(Map<String, Series> index, String key, Instant start, Instant end) {
+        if (!covers(start, end)) {
+            return Optional.empty();
+        }
+        Series series = index.get(key);
+        if (series == null) {
+            return Optional.of(WindowTotals.EMPTY);
+        }
+        // Nothing can lie beyond the future limit, so clamp instead of refusing
+        return Optional.of(series.sum(bucketOf(start), Math.min(bucketOf(end), newestBucket() + 1)));
+    }
+
+    /** True if [start, end) is bucket-aligned and fully inside the range held in memory. */
+    public boolean covers(Instant start, Instant end) {
+        return enabled && isAligned(start) && isAligned(end) && start.isBefore(end)
+                && bucketOf(start) >= oldestServableBucket();
+    }
+
+    /** Earliest bucket start that can currently be served, or empty before the warm-up. */
+    public Optional<Instant> coveredFrom() {
+        if (!enabled || coveredFromBucket == Long.MAX_VALUE) {
+            return Optional.empty();
+        }
+        return Optional.of(Instant.ofEpochSecond(oldestServableBucket() * bucketSeconds));
+    }
+
+    public Instant floorToBucket(Instant t) {
+        return Instant.ofEpochSecond(bucketOf(t) * bucketSeconds);
+    }
+
+    public Instant ceilToBucket(Instant t) {
+        Instant floor = floorToBucket(t);
+        return floor.equals(t) ? t : floor.plusSeconds(bucketSeconds);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    private boolean isAligned(Instant t) {
+        return t.getNano() == 0 && Math.floorMod(t.getEpochSecond(), bucketSeconds) == 0;
+    }
+
+    private long bucketOf(Instant t) {
+        return Math.floorDiv(t.getEpochSecond(), bucketSeconds);
+    }
+
+    private long newestBucket() {
+        return bucketOf(Instant.now()) + futureBuckets;
+    }
+
+    private long oldestServableBucket() {
+        return Math.max(coveredFromBucket, newestBucket() - slots + 2);
+    }
+
+    private Series series(Map<String, Series> index, String key) {
+        return index.computeIfAbsent(key, k -> new Series(slots));
+    }
+
+    private static String lineKey(String lineId) {
+        return lineId == null ? NULL_LINE : lineId;
+    }
+
+    /**
+     * Ring of buckets indexed by bucket number modulo the slot count. Each slot remembers
+     * which bucket it holds, so stale slots from a previous lap read as empty.
+     */
+    private static final class Series {
+        private final long[] bucketIds;
+        private final long[] counts;
+        private final long[] defects;
+        private final ReentrantLock lock = new ReentrantLock();
+
+        Series(int slots) {
+            bucketIds = new long[slots];
+            counts = new long[slots];
+            defects = new long[slots];
+            Arrays.fill(bucketIds, Long.MIN_VALUE);
+        }
+
+        void add(long bucket, long countDelta, long defectDelta, long oldestBucket) {
+            if (bucket < oldestBucket) {
+                return;
+            }
+            int slot = (int) Math.floorMod(bucket, (long) bucketIds.length);
+            lock.lock();
+            try {
+                if (bucketIds[slot] != bucket) {
+                    if (bucketIds[slot] > bucket) {
+                        return; // slot already reused by a newer lap
+                    }
+                    bucketIds[slot] = bucket;
+                    counts[slot] = 0;
+                    defects[slot] = 0;
+                }
+                counts[slot] += countDelta;
+                defects[slot] += defectDelta;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        WindowTotals sum(long fromBucket, long toBucket) {
+            long count = 0;
+            long defectSum = 0;
+            lock.lock();
+            try {
+                for (long bucket = fromBucket; bucket < toBucket; bucket++) {
+                    int slot = (int) Math.floorMod(bucket, (long) bucketIds.length);
+                    if (bucketIds[slot] == bucket) {
+                        count += counts[slot];
+                        defectSum += defects[slot];
+                    }
+                }
+            } finally {
+                lock.unlock();
+            }
+            return new WindowTotals(count, defectSum);
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package com.factory.events.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.stereotype.Component;
+
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Meters of the ingestion path, exported at /actuator/prometheus.
+ *
+ * <ul>
+ * <li>events.ingestion.phase{phase}: time per phase of one batch (validate, dedupe, lookup,
+ * merge, write, listeners)</li>
+ * <li>events.ingestion.batch: whole batch inside the transaction, excluding commit;
+ * http.server.requests adds JSON binding and commit on top</li>
+ * <li>events.ingestion.batch.size: events per batch</li>
+ * <li>events.ingestion.events{outcome}: accepted / deduped / updated / ignored / rejected</li>
+ * <li>events.ingestion.rejections{reason}: rejections per reason</li>
+ * </ul>
+ * Meters are registered up front (rejection reasons on first use) so recording is a few
+ * atomic adds per batch.
+ */
+@Component
+public class IngestionMetrics {
+
+    public enum Phase {
+        VALIDATE, DEDUPE, LOOKUP, MERGE, WRITE, LISTENERS
+    }
+
+    private final MeterRegistry registry;
+    private final Map<Phase, Timer> phaseTimers = new EnumMap<>(Phase.class);
+    private final Timer batchTimer;
+    private final DistributionSummary batchSize;
+    private final Counter accepted;
+    private final Counter deduped;
+    private final Counter updated;
+    private final Counter ignored;
+    private final Counter rejected;
+    private final Map<String, Counter> rejectionsByReason = new ConcurrentHashMap<>();
+
+    public IngestionMetrics(MeterRegistry registry) {
+        this.registry = registry;
+        for (Phase phase : Phase.values()) {
+            phaseTimers.put(phase, Timer.builder("events.ingestion.phase")
+                    .description("Time spent in one phase of a batch")
+                    .tag("phase", phase.name().toLowerCase(Locale.ROOT))
+                    .register(registry));
+        }
+        this.batchTimer = Timer.builder("events.ingestion.batch")
+                .description("Time to process one batch, excluding commit")
+                .publishPercentileHistogram()
+                .register(registry);
+        this.batchSize = DistributionSummary.builder("events.ingestion.batch.size")
+                .description("Events per batch")
+                .baseUnit("events")
+                .publishPercentileHistogram()
+                .register(registry);
+        this.accepted = outcome("accepted");
+        this.deduped = outcome("deduped");
+        this.updated = outcome("updated");
+        this.ignored = outcome("ignored");
+        this.rejected = outcome("rejected");
+    }
+
+    private Counter outcome(String outcome) {
+        return Counter.builder("events.ingestion.events")
+                .description("Ingested events by outcome")
+                .tag("outcome", outcome)
+                .register(registry);
+    }
+
+    public void recordPhase(Phase phase, long nanos) {
+        phaseTimers.get(phase).record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void recordBatch(int size, long nanos, EventIngestionService.BatchResult result) {
+        batchTimer.record(nanos, TimeUnit.NANOSECONDS);
+        batchSize.record(size);
+        accepted.increment(result.accepted.get());
+        deduped.increment(result.deduped.get());
+        updated.increment(result.updated.get());
+        ignored.increment(result.ignored.get());
+    }
+
+    // Counted where the rule fires: asynchronous ingestion validates before queueing
+    public void recordRejection(String reason) {
+        rejected.increment();
+        rejectionsByReason.computeIfAbsent(reason, r -> Counter.builder("events.ingestion.rejections")
+                .description("Rejected events by reason")
+                .tag("reason", r)
+                .register(registry)).increment();
+    }
+}
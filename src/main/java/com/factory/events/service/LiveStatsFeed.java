@@ -0,0 +1,480 @@
+package com.factory.events.service;
+
+import com.factory.events.config.WorkerThreads;
+import com.factory.events.model.MachineEvent;
+import com.factory.events.model.WindowTotals;
+import com.factory.events.service.AnalyticsService.TopDefectLine;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.MediaType;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Push feed of per-machine and per-line stats for dashboards (GET /stats/stream, SSE).
+ *
+ * - Committed ingestion changes are summed into pending per-machine/per-line deltas on the
+ *   ingesting thread; only events inside the feed window (the last {@code window-minutes} of
+ *   eventTime) count.
+ * - Every {@code interval-ms} the pending deltas become one "delta" frame, serialized once
+ *   and handed to every subscriber, with the top defect lines of the window when they changed.
+ * - A "snapshot" frame (window totals and top lines from the hot window) is sent on subscribe
+ *   and to everybody every {@code snapshot-interval-ms}. It resyncs clients as events slide
+ *   out of the window, and doubles as a heartbeat that detects closed connections.
+ * - A snapshot is read from the hot window, which already holds the pending deltas. It is
+ *   taken inside the EventCommitBarrier, right after the pending deltas went out, so it counts
+ *   exactly the changes before its seq: none is sent again in a later delta, or left out.
+ *   Ingestion commits wait for that read, on subscribe and once per snapshot interval.
+ *
+ * Sends run on a small sender pool, at most one at a time per subscriber. Frames published
+ * while a subscriber is still sending are coalesced into one pending frame (deltas summed, a
+ * snapshot replaces everything before it), so a slow client costs one merged frame of memory
+ * and at most one sender thread. A client whose oldest pending frame waits longer than
+ * {@code max-lag-ms} is disconnected and may reconnect for a fresh snapshot.
+ */
+@Service
+public class LiveStatsFeed implements EventChangeListener {
+
+    private static final Logger log = LoggerFactory.getLogger(LiveStatsFeed.class);
+
+    /** Where frames go; SSE in production */
+    interface Sink {
+        void send(String event, String json) throws IOException;
+
+        void close();
+    }
+
+    public record Totals(String id, long eventCount, long defectSum) {
+    }
+
+    public record Snapshot(long seq, Instant windowStart, Instant windowEnd, List<Totals> machines,
+            List<Totals> lines, List<TopDefectLine> topLines) {
+    }
+
+    /** Changes since the previous frame; topLines is null when the ranking did not change */
+    public record Delta(long seq, List<Totals> machines, List<Totals> lines, List<TopDefectLine> topLines) {
+    }
+
+    private final HotWindowAggregateStore hotWindow;
+    private final EventCommitBarrier commitBarrier;
+    private final ObjectMapper objectMapper;
+    private final boolean enabled;
+    private final Duration window;
+    private final int topLinesLimit;
+    private final int maxSubscribers;
+    private final long snapshotIntervalMillis;
+    private final long maxLagMillis;
+    private final Executor senders;
+    private final Set<Subscriber> subscribers = ConcurrentHashMap.newKeySet();
+    private final Counter framesSent;
+    private final Counter framesCoalesced;
+    private final Counter evictions;
+
+    // Changes committed since the last flush, guarded by pendingLock. Locks rather than
+    // monitors throughout, so a virtual thread waiting here does not pin its carrier
+    private final ReentrantLock pendingLock = new ReentrantLock();
+    private Map<String, long[]> pendingMachines = new HashMap<>();
+    private Map<String, long[]> pendingLines = new HashMap<>();
+
+    // Flush state, guarded by flushLock
+    private final ReentrantLock flushLock = new ReentrantLock();
+    private long seq;
+    // Also read before taking flushLock, to decide whether the flush needs the barrier
+    private volatile long lastSnapshotMillis;
+    private List<TopDefectLine> lastTopLines = List.of();
+
+    public LiveStatsFeed(HotWindowAggregateStore hotWindow, EventCommitBarrier commitBarrier,
+            ObjectMapper objectMapper, MeterRegistry meterRegistry,
+            @Value("${events.stats.stream.enabled:true}") boolean enabled,
+            @Value("${events.stats.stream.window-minutes:60}") long windowMinutes,
+            @Value("${events.stats.stream.top-lines:10}") int topLinesLimit,
+            @Value("${events.stats.stream.max-subscribers:1000}") int maxSubscribers,
+            @Value("${events.stats.stream.snapshot-interval-ms:60000}") long snapshotIntervalMillis,
+            @Value("${events.stats.stream.max-lag-ms:30000}") long maxLagMillis,
+            @Value("${events.stats.stream.send-threads:4}") int sendThreads, WorkerThreads workerThreads) {
+        this.hotWindow = hotWindow;
+        this.commitBarrier = commitBarrier;
+        this.objectMapper = objectMapper;
+        this.enabled = enabled;
+        this.window = Duration.ofMinutes(windowMinutes);
+        this.topLinesLimit = topLinesLimit;
+        this.maxSubscribers = maxSubscribers;
+        this.snapshotIntervalMillis = snapshotIntervalMillis;
+        this.maxLagMillis = maxLagMillis;
+        // Subscribers get their own snapshot; the first broadcast one is due an interval later
+        this.lastSnapshotMillis = System.currentTimeMillis();
+        // Each subscriber has at most one send in flight, which bounds virtual senders too
+        this.senders = workerThreads.executor("stats-stream", sendThreads);
+        Gauge.builder("events.stats.stream.subscribers", subscribers, Set::size)
+                .description("Open /stats/stream connections")
+                .register(meterRegistry);
+        this.framesSent = frameCounter(meterRegistry, "sent");
+        this.framesCoalesced = frameCounter(meterRegistry, "coalesced");
+        this.evictions = Counter.builder("events.stats.stream.evictions")
+                .description("Subscribers disconnected for lagging more than max-lag-ms")
+                .register(meterRegistry);
+    }
+
+    private static Counter frameCounter(MeterRegistry meterRegistry, String result) {
+        return Counter.builder("events.stats.stream.frames")
+                .description("Frames sent to subscribers, or merged into a pending frame of a busy one")
+                .tag("result", result)
+                .register(meterRegistry);
+    }
+
+    @PreDestroy
+    void stop() {
+        subscribers.forEach(s -> s.sink.close());
+        if (senders instanceof ExecutorService pool) {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * Opens an SSE connection that starts with a snapshot.
+     *
+     * @return empty if the feed is disabled or at max-subscribers
+     */
+    public Optional<SseEmitter> subscribe() {
+        SseEmitter emitter = new SseEmitter(0L);
+        Optional<Subscriber> subscriber = subscribe(new Sink() {
+            @Override
+            public void send(String event, String json) throws IOException {
+                emitter.send(SseEmitter.event().name(event).data(json, MediaType.APPLICATION_JSON));
+            }
+
+            @Override
+            public void close() {
+                emitter.complete();
+            }
+        });
+        subscriber.ifPresent(s -> {
+            emitter.onCompletion(() -> subscribers.remove(s));
+            emitter.onTimeout(() -> subscribers.remove(s));
+            emitter.onError(e -> subscribers.remove(s));
+        });
+        return subscriber.map(s -> emitter);
+    }
+
+    Optional<Subscriber> subscribe(Sink sink) {
+        if (!enabled || subscribers.size() >= maxSubscribers) {
+            return Optional.empty();
+        }
+        Subscriber subscriber = new Subscriber(sink);
+        // The pending deltas go to the current subscribers only; the snapshot already counts them
+        commitBarrier.exclusive(() -> {
+            flushLock.lock();
+            try {
+                flushPending(false);
+                subscribers.add(subscriber);
+                subscriber.offer(snapshotMessage());
+            } finally {
+                flushLock.unlock();
+            }
+        });
+        return Optional.of(subscriber);
+    }
+
+    @Override
+    public void onCommitted(List<EventChange> changes) {
+        if (!enabled || subscribers.isEmpty()) {
+            return;
+        }
+        Instant windowStart = Instant.now().minus(window);
+        pendingLock.lock();
+        try {
+            for (EventChange change : changes) {
+                if (change.before() != null) {
+                    add(change.before(), -1, windowStart);
+                }
+                add(change.after(), 1, windowStart);
+            }
+        } finally {
+            pendingLock.unlock();
+        }
+    }
+
+    private void add(MachineEvent event, int sign, Instant windowStart) {
+        if (event.getEventTime().isBefore(windowStart)) {
+            return;
+        }
+        long defects = sign * WindowTotals.defectContribution(event.getDefectCount());
+        long[] machine = pendingMachines.computeIfAbsent(event.getMachineId(), k -> new long[2]);
+        machine[0] += sign;
+        machine[1] += defects;
+        long[] line = pendingLines.computeIfAbsent(event.getLineId(), k -> new long[2]);
+        line[0] += sign;
+        line[1] += defects;
+    }
+
+    /** Publishes the pending deltas, or a snapshot when one is due. */
+    @Scheduled(fixedDelayString = "${events.stats.stream.interval-ms:1000}")
+    public void flush() {
+        if (!enabled) {
+            return;
+        }
+        boolean snapshot = System.currentTimeMillis() - lastSnapshotMillis >= snapshotIntervalMillis;
+        Runnable flush = () -> {
+            flushLock.lock();
+            try {
+                flushPending(snapshot);
+            } finally {
+                flushLock.unlock();
+            }
+        };
+        if (snapshot && !subscribers.isEmpty()) {
+            // A commit between the swap and the snapshot would be counted by both
+            commitBarrier.exclusive(flush);
+        } else {
+            flush.run();
+        }
+    }
+
+    // Under flushLock
+    private void flushPending(boolean snapshotDue) {
+        Map<String, long[]> machines;
+        Map<String, long[]> lines;
+        pendingLock.lock();
+        try {
+            machines = pendingMachines;
+            lines = pendingLines;
+            pendingMachines = new HashMap<>();
+            pendingLines = new HashMap<>();
+        } finally {
+            pendingLock.unlock();
+        }
+        if (subscribers.isEmpty()) {
+            return;
+        }
+        try {
+            if (snapshotDue) {
+                // Taken after the swap, so it already includes the deltas just dropped
+                Message snapshot = snapshotMessage();
+                lastSnapshotMillis = System.currentTimeMillis();
+                lastTopLines = ((Snapshot) snapshot.frame()).topLines();
+                publish(snapshot);
+                return;
+            }
+            if (machines.isEmpty() && lines.isEmpty()) {
+                return;
+            }
+            List<TopDefectLine> topLines = null;
+            if (!lines.isEmpty()) {
+                List<TopDefectLine> current = topLines(windowStart(), windowEnd());
+                if (!current.equals(lastTopLines)) {
+                    topLines = current;
+                    lastTopLines = current;
+                }
+            }
+            Delta delta = new Delta(++seq, toTotals(machines), toTotals(lines), topLines);
+            publish(new Message("delta", delta, json(delta)));
+        } catch (RuntimeException e) {
+            log.warn("Stats stream flush failed", e);
+        }
+    }
+
+    // Under flushLock, so seq is the last delta the snapshot already includes
+    private Message snapshotMessage() {
+        flushLock.lock();
+        try {
+            Instant end = windowEnd();
+            Instant start = windowStart();
+            Map<String, WindowTotals> lines = hotWindow.allLineTotals(start, end).orElse(Map.of());
+            Snapshot snapshot = new Snapshot(seq, start, end,
+                    fromWindowTotals(hotWindow.allMachineTotals(start, end).orElse(Map.of())),
+                    fromWindowTotals(lines), topLines(lines));
+            return new Message("snapshot", snapshot, json(snapshot));
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    // Hot-window buckets are whole minutes by default; the window ends at the next boundary
+    private Instant windowEnd() {
+        return hotWindow.ceilToBucket(Instant.now());
+    }
+
+    private Instant windowStart() {
+        return hotWindow.floorToBucket(windowEnd().minus(window));
+    }
+
+    private List<TopDefectLine> topLines(Instant start, Instant end) {
+        return topLines(hotWindow.allLineTotals(start, end).orElse(Map.of()));
+    }
+
+    private List<TopDefectLine> topLines(Map<String, WindowTotals> lines) {
+        return lines.entrySet().stream()
+                .filter(e -> e.getValue().eventCount() > 0)
+                .sorted(Comparator.comparingLong((Map.Entry<String, WindowTotals> e) -> e.getValue().defectSum())
+                        .reversed())
+                .limit(topLinesLimit)
+                .map(e -> TopDefectLine.of(e.getKey(), e.getValue().defectSum(), e.getValue().eventCount()))
+                .toList();
+    }
+
+    private void publish(Message message) {
+        for (Subscriber subscriber : subscribers) {
+            subscriber.offer(message);
+        }
+    }
+
+    private String json(Object frame) {
+        try {
+            return objectMapper.writeValueAsString(frame);
+        } catch (JsonProcessingException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static List<Totals> toTotals(Map<String, long[]> sums) {
+        List<Totals> totals = new ArrayList<>(sums.size());
+        sums.forEach((id, sum) -> {
+            if (sum[0] != 0 || sum[1] != 0) {
+                totals.add(new Totals(id, sum[0], sum[1]));
+            }
+        });
+        return totals;
+    }
+
+    private static List<Totals> fromWindowTotals(Map<String, WindowTotals> sums) {
+        List<Totals> totals = new ArrayList<>(sums.size());
+        sums.forEach((id, t) -> totals.add(new Totals(id, t.eventCount(), t.defectSum())));
+        return totals;
+    }
+
+    // A frame with its JSON, serialized once for every subscriber that gets it as is (null: not yet)
+    private record Message(String event, Object frame, String json) {
+    }
+
+    private void evict(Subscriber subscriber) {
+        if (subscribers.remove(subscriber)) {
+            evictions.increment();
+            subscriber.sink.close();
+        }
+    }
+
+    final class Subscriber {
+        private final Sink sink;
+        // Guarded by lock: frames waiting while a send is in progress
+        private final ReentrantLock lock = new ReentrantLock();
+        private Message pendingSnapshot;
+        private Message pendingDelta;
+        private long pendingSinceMillis;
+        // Oldest frame of the batch being sent; lag counts from here, as a stuck send holds everything up
+        private long inFlightSinceMillis;
+        private boolean sending;
+
+        Subscriber(Sink sink) {
+            this.sink = sink;
+        }
+
+        void offer(Message message) {
+            boolean lagging;
+            lock.lock();
+            try {
+                if (pendingSnapshot == null && pendingDelta == null) {
+                    pendingSinceMillis = System.currentTimeMillis();
+                }
+                if (message.frame() instanceof Snapshot) {
+                    if (pendingSnapshot != null || pendingDelta != null) {
+                        framesCoalesced.increment();
+                    }
+                    pendingSnapshot = message;
+                    pendingDelta = null;
+                } else if (pendingDelta == null) {
+                    pendingDelta = message;
+                } else {
+                    pendingDelta = merge(pendingDelta, message);
+                    framesCoalesced.increment();
+                }
+                lagging = sending && System.currentTimeMillis() - inFlightSinceMillis > maxLagMillis;
+                if (!sending && !lagging) {
+                    sending = true;
+                    // Lag counts from now on, not from a drain that has not started yet
+                    inFlightSinceMillis = pendingSinceMillis;
+                    senders.execute(this::drain);
+                }
+            } finally {
+                lock.unlock();
+            }
+            if (lagging) {
+                log.debug("Disconnecting a stats stream subscriber lagging more than {} ms", maxLagMillis);
+                evict(this);
+            }
+        }
+
+        private void drain() {
+            while (subscribers.contains(this)) {
+                List<Message> batch = new ArrayList<>(2);
+                lock.lock();
+                try {
+                    if (pendingSnapshot != null) {
+                        batch.add(pendingSnapshot);
+                    }
+                    if (pendingDelta != null) {
+                        batch.add(pendingDelta);
+                    }
+                    pendingSnapshot = null;
+                    pendingDelta = null;
+                    if (batch.isEmpty()) {
+                        sending = false;
+                        return;
+                    }
+                    inFlightSinceMillis = pendingSinceMillis;
+                } finally {
+                    lock.unlock();
+                }
+                try {
+                    for (Message message : batch) {
+                        sink.send(message.event(), message.json() != null ? message.json() : json(message.frame()));
+                        framesSent.increment();
+                    }
+                } catch (IOException | RuntimeException e) {
+                    // Client went away
+                    subscribers.remove(this);
+                    sink.close();
+                    return;
+                }
+            }
+        }
+    }
+
+    private Message merge(Message older, Message newer) {
+        Delta a = (Delta) older.frame();
+        Delta b = (Delta) newer.frame();
+        Delta merged = new Delta(b.seq(), mergeTotals(a.machines(), b.machines()), mergeTotals(a.lines(), b.lines()),
+                b.topLines() != null ? b.topLines() : a.topLines());
+        // Serialized by the sender, off the flushing thread
+        return new Message("delta", merged, null);
+    }
+
+    private static List<Totals> mergeTotals(List<Totals> a, List<Totals> b) {
+        Map<String, long[]> sums = new LinkedHashMap<>();
+        for (List<Totals> list : List.of(a, b)) {
+            for (Totals t : list) {
+                long[] sum = sums.computeIfAbsent(t.id(), k -> new long[2]);
+                sum[0] += t.eventCount();
+                sum[1] += t.defectSum();
+            }
+        }
+        return toTotals(sums);
+    }
+}
@@ -0,0 +1,114 @@
+package com.factory.events.service;
+
+import com.factory.events.model.Machine;
+import com.factory.events.repository.MachineRepository;
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Predicate;
+
+/**
+ * Factory of every machine, from the machine registry. Events carry no factory of their own:
+ * an event belongs to the current factory of its machine. Machines that are not registered,
+ * or have no factoryId, belong to the default factory (events.factory.default-id), so a
+ * single-site install needs no registry entries at all.
+ *
+ * The registry is small, so the whole mapping is held in memory. Only machines outside the
+ * default factory are stored. MachineRegistry keeps it current: it reports local saves, and
+ * hands over the whole table whenever it reloads it for changes made through other instances.
+ */
+@Service
+public class MachineFactories {
+
+    private final MachineRepository machineRepository;
+    private final String defaultFactoryId;
+    private final Map<String, String> factoryByMachine = new ConcurrentHashMap<>();
+    private final ReentrantLock saveLock = new ReentrantLock();
+
+    // Bumped whenever a machine moves to another factory; readers rebuild derived state
+    private volatile long version;
+
+    public MachineFactories(MachineRepository machineRepository,
+            @Value("${events.factory.default-id:F01}") String defaultFactoryId) {
+        this.machineRepository = machineRepository;
+        this.defaultFactoryId = defaultFactoryId;
+    }
+
+    @PostConstruct
+    void load() {
+        for (Machine machine : machineRepository.findAll()) {
+            put(machine.getId(), machine.getFactoryId());
+        }
+    }
+
+    public String defaultFactoryId() {
+        return defaultFactoryId;
+    }
+
+    public String factoryOf(String machineId) {
+        return factoryByMachine.getOrDefault(machineId, defaultFactoryId);
+    }
+
+    /** Machine filter selecting the events of {@code factoryId}. */
+    public Predicate<String> machinesOf(String factoryId) {
+        return machineId -> factoryId.equals(factoryOf(machineId));
+    }
+
+    /** Records the factory of a saved registry entry. */
+    public void saved(Machine machine) {
+        saveLock.lock();
+        try {
+            if (!Objects.equals(factoryOf(machine.getId()), normalize(machine.getFactoryId()))) {
+                put(machine.getId(), machine.getFactoryId());
+                version++;
+            }
+        } finally {
+            saveLock.unlock();
+        }
+    }
+
+    /** Replaces the mapping with the registry as just read from the table. */
+    public void reloaded(Collection<Machine> machines) {
+        Map<String, String> loaded = new HashMap<>();
+        for (Machine machine : machines) {
+            String factory = normalize(machine.getFactoryId());
+            if (!factory.equals(defaultFactoryId)) {
+                loaded.put(machine.getId(), factory);
+            }
+        }
+        saveLock.lock();
+        try {
+            if (!factoryByMachine.equals(loaded)) {
+                factoryByMachine.keySet().retainAll(loaded.keySet());
+                factoryByMachine.putAll(loaded);
+                version++;
+            }
+        } finally {
+            saveLock.unlock();
+        }
+    }
+
+    public long version() {
+        return version;
+    }
+
+    private void put(String machineId, String factoryId) {
+        String factory = normalize(factoryId);
+        if (factory.equals(defaultFactoryId)) {
+            factoryByMachine.remove(machineId);
+        } else {
+            factoryByMachine.put(machineId, factory);
+        }
+    }
+
+    private String normalize(String factoryId) {
+        return factoryId == null || factoryId.isBlank() ? defaultFactoryId : factoryId;
+    }
+}
@@ -0,0 +1,195 @@
+package com.factory.events.service;
+
+import com.factory.events.model.Machine;
+import com.factory.events.repository.MachineRepository;
+import jakarta.annotation.PostConstruct;
+import jakarta.persistence.EntityManager;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Sort;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.*;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The machines table, held in memory: loaded at startup, written through by {@link #save} and
+ * {@link #saveAll}, and reloaded by {@link #refresh}, so the registry endpoints never read
+ * the table.
+ *
+ * Readers get an immutable {@link Snapshot}; a save commits first and then publishes a new
+ * snapshot, under one lock, so the cache follows the commit order. The registry is small, so
+ * each save copies it. The ETag is a hash of the machines served, so instances holding the
+ * same rows answer with the same ETag.
+ *
+ * Saves made through another instance (POST /api/machines is not routed between shard nodes)
+ * arrive through {@link #refresh}: it probes the row count and the newest lastUpdated, and
+ * reloads the table, and the factory map with it, when either moved. An update the probe
+ * cannot see (saved by a node whose clock is behind the newest lastUpdated) is picked up by
+ * the full reload every events.machines.full-reload-interval-ms.
+ */
+@Service
+public class MachineRegistry {
+
+    /** All machines ordered by id, and an ETag derived from their content. */
+    public record Snapshot(List<Machine> machines, Map<String, Machine> byId, String etag) {
+    }
+
+    private record TableVersion(long machineCount, Instant lastUpdated) {
+    }
+
+    private final MachineRepository machineRepository;
+    private final MachineFactories machineFactories;
+    private final EntityManager entityManager;
+    private final TransactionTemplate transactionTemplate;
+    private final long fullReloadIntervalMs;
+    private final ReentrantLock saveLock = new ReentrantLock();
+
+    // Guarded by saveLock: the table as of the last reload
+    private TableVersion loadedVersion;
+    private long nextFullReloadMillis;
+    private volatile Snapshot snapshot;
+
+    public MachineRegistry(MachineRepository machineRepository, MachineFactories machineFactories,
+            EntityManager entityManager, PlatformTransactionManager transactionManager,
+            @Value("${events.machines.full-reload-interval-ms:60000}") long fullReloadIntervalMs) {
+        this.machineRepository = machineRepository;
+        this.machineFactories = machineFactories;
+        this.entityManager = entityManager;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.fullReloadIntervalMs = fullReloadIntervalMs;
+    }
+
+    @PostConstruct
+    void load() {
+        saveLock.lock();
+        try {
+            reload();
+        } finally {
+            saveLock.unlock();
+        }
+    }
+
+    /**
+     * Reloads the table if another instance (or anything else) changed it since the last reload.
+     * A local save moves the probe too, so the next refresh reloads once; the content, and so the
+     * ETag, come out the same.
+     */
+    @Scheduled(fixedDelayString = "${events.machines.refresh-interval-ms:1000}")
+    public void refresh() {
+        TableVersion current = tableVersion();
+        saveLock.lock();
+        try {
+            if (!current.equals(loadedVersion) || System.currentTimeMillis() >= nextFullReloadMillis) {
+                reload();
+            }
+        } finally {
+            saveLock.unlock();
+        }
+    }
+
+    public Snapshot snapshot() {
+        return snapshot;
+    }
+
+    public Optional<Machine> find(String id) {
+        return Optional.ofNullable(snapshot.byId().get(id));
+    }
+
+    public Machine save(Machine machine) {
+        return saveAll(List.of(machine)).get(0);
+    }
+
+    /**
+     * Inserts or replaces {@code machines} in one transaction: one lookup of the stored rows,
+     * then batched inserts and updates. A machine listed twice is saved as its last entry.
+     */
+    public List<Machine> saveAll(List<Machine> machines) {
+        Map<String, Machine> byId = new LinkedHashMap<>();
+        for (Machine machine : machines) {
+            byId.put(machine.getId(), machine);
+        }
+        saveLock.lock();
+        try {
+            List<Machine> saved = transactionTemplate.execute(tx -> write(byId));
+            publish(new TreeMap<>(snapshot.byId()), saved);
+            saved.forEach(machineFactories::saved);
+            return saved;
+        } finally {
+            saveLock.unlock();
+        }
+    }
+
+    private List<Machine> write(Map<String, Machine> byId) {
+        Set<String> stored = new HashSet<>();
+        List<Machine> updates = new ArrayList<>();
+        // Loaded rows stay managed, so merge() below only copies state
+        for (Machine existing : machineRepository.findAllById(byId.keySet())) {
+            stored.add(existing.getId());
+        }
+        List<Machine> saved = new ArrayList<>(byId.size());
+        for (Machine machine : byId.values()) {
+            if (stored.contains(machine.getId())) {
+                updates.add(machine);
+            } else {
+                // persist() skips the SELECT that merge() issues for entities with an assigned id
+                entityManager.persist(machine);
+                saved.add(machine);
+            }
+        }
+        saved.addAll(machineRepository.saveAll(updates));
+        return saved;
+    }
+
+    // Guarded by saveLock. The version is read first: a change racing the read shows up in the
+    // next probe even if the rows already contain it.
+    private void reload() {
+        TableVersion version = tableVersion();
+        List<Machine> machines = machineRepository.findAll(Sort.by("id"));
+        publish(new TreeMap<>(), machines);
+        machineFactories.reloaded(machines);
+        loadedVersion = version;
+        nextFullReloadMillis = System.currentTimeMillis() + fullReloadIntervalMs;
+    }
+
+    private TableVersion tableVersion() {
+        MachineRepository.TableVersionProjection version = machineRepository.tableVersion();
+        return new TableVersion(version.getMachineCount(), version.getLastUpdated());
+    }
+
+    // Guarded by saveLock
+    private void publish(TreeMap<String, Machine> byId, List<Machine> saved) {
+        for (Machine machine : saved) {
+            byId.put(machine.getId(), machine);
+        }
+        snapshot = new Snapshot(List.copyOf(byId.values()), Collections.unmodifiableMap(byId),
+                etag(byId.values()));
+    }
+
+    // lastUpdated at the precision the table stores, so a reload of unchanged rows keeps the ETag
+    private static String etag(Collection<Machine> machines) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        for (Machine machine : machines) {
+            Instant lastUpdated = machine.getLastUpdated();
+            for (Object field : new Object[] { machine.getId(), machine.getName(), machine.getSerialNumber(),
+                    machine.getDepartment(), machine.getDepartmentId(), machine.getFactoryId(),
+                    lastUpdated == null ? null : lastUpdated.truncatedTo(ChronoUnit.MICROS) }) {
+                digest.update(String.valueOf(field).getBytes(StandardCharsets.UTF_8));
+                digest.update((byte) 0);
+            }
+        }
+        return "\"" + HexFormat.of().formatHex(digest.digest(), 0, 16) + "\"";
+    }
+}
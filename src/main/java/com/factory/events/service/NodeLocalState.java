@@ -0,0 +1,17 @@
+package com.factory.events.service;
+
+/**
+ * In-memory state built from the writes of this node: caches and aggregates that stay exact
+ * only while no other node writes the same machines. When ingestion is sharded, a membership
+ * change hands machines from one node to another (see ShardMembership). The state is then
+ * suspended, so nothing is answered from it while the previous owners may still be writing.
+ * Afterwards it is reloaded from the database.
+ */
+public interface NodeLocalState {
+
+    /** Stops answering from memory until {@link #reload()}. */
+    void suspend();
+
+    /** Rebuilds the state from the database; called while no local write is in progress. */
+    void reload();
+}
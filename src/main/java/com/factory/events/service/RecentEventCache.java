@@ -0,0 +1,352 @@
+package com.factory.events.service;
+
+import com.factory.events.model.MachineEvent;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.sql.DataSource;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Answers the dedupe question for retransmitted events without a database read.
+ *
+ * <ul>
+ * <li>A size- and age-bounded cache (Caffeine, W-TinyLFU eviction) maps recently written or
+ * looked-up eventIds to their stored payload and receivedTime. An incoming event found there
+ * is classified as a duplicate, or as an out-of-order resend to ignore, exactly as
+ * {@code checkAndMerge} would against the row. Payloads are compared field by field rather
+ * than by hash, so a collision can never turn a correction into a duplicate.</li>
+ * <li>A Bloom filter over every eventId ever stored (loaded in the background at startup,
+ * then fed by each write) says which ids are definitely new; those skip the lookup and go
+ * straight to insert.</li>
+ * </ul>
+ * Everything else, including cached events whose payload changed, is looked up as before.
+ *
+ * The cache is refreshed from committed changes while the batch still holds its eventId
+ * claims ({@link EventIdLocks}), so the next batch with the same eventId sees the committed
+ * version. JPA writes from elsewhere in this process reach it through
+ * {@link RecentEventEntityListener}. Like the hot window, it otherwise assumes this instance
+ * is the only writer of the events it ingests; rows deleted or rewritten with plain SQL or
+ * by another instance need {@link #clear()}.
+ */
+@Service
+public class RecentEventCache implements EventChangeListener, NodeLocalState {
+
+    private static final Logger log = LoggerFactory.getLogger(RecentEventCache.class);
+
+    private static final int FILTER_LOAD_FETCH_SIZE = 10_000;
+
+    public enum Verdict {
+        /** Same payload as the stored row, not older: deduped */
+        DUPLICATE,
+        /** Older than the stored row: ignored */
+        STALE,
+        /** Never stored: insert without a lookup */
+        NEW,
+        /** Needs the stored row */
+        LOOKUP
+    }
+
+    private final boolean enabled;
+    private final Cache<String, Recent> recent;
+    private final long expectedIds;
+    private final double falsePositiveRate;
+    private final DataSource dataSource;
+    private final TransactionTemplate readOnlyTransaction;
+    private final Counter hits;
+    private final Counter filtered;
+    private final Counter lookups;
+
+    // Replaced wholesale by clear(); null until the background load has finished
+    private volatile EventIdBloomFilter filter;
+    private volatile EventIdBloomFilter loadingFilter;
+    // Every event is looked up while another node may still write the same eventIds
+    private volatile boolean suspended;
+    // Transaction resource: the filters holding every id the transaction has written so far
+    private final Object writesKey = new Object();
+
+    public RecentEventCache(DataSource dataSource, PlatformTransactionManager transactionManager,
+            MeterRegistry meterRegistry,
+            @Value("${events.ingestion.recent-ids.enabled:true}") boolean enabled,
+            @Value("${events.ingestion.recent-ids.max-size:200000}") long maxSize,
+            @Value("${events.ingestion.recent-ids.ttl-minutes:60}") long ttlMinutes,
+            @Value("${events.ingestion.id-filter.expected-ids:10000000}") long expectedIds,
+            @Value("${events.ingestion.id-filter.false-positive-rate:0.01}") double falsePositiveRate) {
+        this.enabled = enabled;
+        this.recent = Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterWrite(Duration.ofMinutes(ttlMinutes))
+                .build();
+        this.expectedIds = expectedIds;
+        this.falsePositiveRate = falsePositiveRate;
+        this.dataSource = dataSource;
+        this.readOnlyTransaction = new TransactionTemplate(transactionManager);
+        this.readOnlyTransaction.setReadOnly(true);
+        this.hits = verdictCounter(meterRegistry, "cache_hit");
+        this.filtered = verdictCounter(meterRegistry, "filtered_new");
+        this.lookups = verdictCounter(meterRegistry, "lookup");
+    }
+
+    private static Counter verdictCounter(MeterRegistry meterRegistry, String result) {
+        return Counter.builder("events.ingestion.recent_ids")
+                .description("How the dedupe lookup of an incoming event was answered")
+                .tag("result", result)
+                .register(meterRegistry);
+    }
+
+    @PostConstruct
+    void start() {
+        if (!enabled) {
+            return;
+        }
+        Thread loader = new Thread(this::loadFilter, "event-id-filter-load");
+        loader.setDaemon(true);
+        loader.start();
+    }
+
+    // Ids written while loading are put into the loading filter too (see onWritten)
+    private void loadFilter() {
+        EventIdBloomFilter loading = new EventIdBloomFilter(expectedIds, falsePositiveRate);
+        loadingFilter = loading;
+        try {
+            JdbcTemplate scan = new JdbcTemplate(dataSource);
+            scan.setFetchSize(FILTER_LOAD_FETCH_SIZE);
+            long[] count = { 0 };
+            // Inside a transaction so PostgreSQL streams the rows through a cursor
+            readOnlyTransaction.executeWithoutResult(status -> scan.query("SELECT event_id FROM events", rs -> {
+                loading.put(rs.getString(1));
+                count[0]++;
+            }));
+            if (loadingFilter == loading) {
+                filter = loading;
+            }
+            log.info("EventId filter loaded with {} ids", count[0]);
+        } catch (RuntimeException e) {
+            log.warn("EventId filter load failed, every unknown eventId is looked up", e);
+        } finally {
+            if (loadingFilter == loading) {
+                loadingFilter = null;
+            }
+        }
+    }
+
+    /**
+     * Classifies {@code incoming}, which must have its receivedTime set.
+     */
+    public Verdict classify(MachineEvent incoming) {
+        if (!enabled) {
+            return Verdict.LOOKUP;
+        }
+        if (suspended) {
+            lookups.increment();
+            return Verdict.LOOKUP;
+        }
+        Recent stored = recent.getIfPresent(incoming.getEventId());
+        if (stored != null) {
+            if (incoming.getReceivedTime().isBefore(stored.receivedTime())) {
+                hits.increment();
+                return Verdict.STALE;
+            }
+            if (stored.samePayload(incoming)) {
+                hits.increment();
+                return Verdict.DUPLICATE;
+            }
+        } else {
+            EventIdBloomFilter current = filter;
+            if (current != null && !current.mightContain(incoming.getEventId()) && holdsOwnWrites(current)) {
+                filtered.increment();
+                return Verdict.NEW;
+            }
+        }
+        lookups.increment();
+        return Verdict.LOOKUP;
+    }
+
+    /**
+     * Caches rows that were read from the database and left unchanged, once the current
+     * transaction commits (an earlier batch of a group commit may have written them).
+     */
+    public void rememberAfterCommit(List<MachineEvent> stored) {
+        if (!enabled || stored.isEmpty()) {
+            return;
+        }
+        List<Map.Entry<String, Recent>> snapshots = new ArrayList<>(stored.size());
+        for (MachineEvent event : stored) {
+            if (event.getReceivedTime() != null) {
+                snapshots.add(Map.entry(event.getEventId(), Recent.of(event)));
+            }
+        }
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            snapshots.forEach(e -> recent.put(e.getKey(), e.getValue()));
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                snapshots.forEach(e -> recent.put(e.getKey(), e.getValue()));
+            }
+        });
+    }
+
+    // Before commit, so a definitely-new answer never misses a row that may be committed;
+    // ids of a rolled-back batch only add false positives
+    @Override
+    public void onWritten(List<EventChange> changes) {
+        if (!enabled) {
+            return;
+        }
+        Set<EventIdBloomFilter> receivers = addToFilters(changes);
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            trackOwnWrites(receivers);
+        }
+        // Later batches of the same transaction must see these rows, not the cached versions
+        for (EventChange change : changes) {
+            recent.invalidate(change.after().getEventId());
+        }
+    }
+
+    @Override
+    public void onCommitted(List<EventChange> changes) {
+        if (!enabled) {
+            return;
+        }
+        for (EventChange change : changes) {
+            recent.put(change.after().getEventId(), Recent.of(change.after()));
+        }
+        // Again after commit: a load may have started (and scanned without these rows) after
+        // onWritten. The loader publishes its filter before clearing loadingFilter, so at
+        // least one of the two is visible here.
+        addToFilters(changes);
+    }
+
+    private Set<EventIdBloomFilter> addToFilters(List<EventChange> changes) {
+        return addToFilters(changes.stream().map(change -> change.after().getEventId()).toList());
+    }
+
+    // Returns the filters the ids went into
+    private Set<EventIdBloomFilter> addToFilters(Collection<String> eventIds) {
+        // loadingFilter first: the loader publishes filter before clearing loadingFilter
+        EventIdBloomFilter loading = loadingFilter;
+        EventIdBloomFilter current = filter;
+        Set<EventIdBloomFilter> receivers = Collections.newSetFromMap(new IdentityHashMap<>());
+        if (current != null) {
+            receivers.add(current);
+        }
+        if (loading != null) {
+            receivers.add(loading);
+        }
+        for (String eventId : eventIds) {
+            for (EventIdBloomFilter receiver : receivers) {
+                receiver.put(eventId);
+            }
+        }
+        return receivers;
+    }
+
+    /*
+     * A filter whose load started after an earlier batch of the open transaction was written
+     * scanned without those uncommitted rows, and onCommitted has not added them yet; such a
+     * filter must not answer "new" to later batches of the same group commit.
+     */
+    @SuppressWarnings("unchecked")
+    private void trackOwnWrites(Set<EventIdBloomFilter> receivers) {
+        Set<EventIdBloomFilter> holding = (Set<EventIdBloomFilter>) TransactionSynchronizationManager
+                .getResource(writesKey);
+        if (holding != null) {
+            holding.retainAll(receivers);
+            return;
+        }
+        TransactionSynchronizationManager.bindResource(writesKey, receivers);
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCompletion(int status) {
+                TransactionSynchronizationManager.unbindResourceIfPossible(writesKey);
+            }
+        });
+    }
+
+    private boolean holdsOwnWrites(EventIdBloomFilter current) {
+        Object holding = TransactionSynchronizationManager.getResource(writesKey);
+        return holding == null || ((Set<?>) holding).contains(current);
+    }
+
+    // A row is about to be inserted through JPA (see RecentEventEntityListener)
+    void written(String eventId) {
+        if (enabled) {
+            Set<EventIdBloomFilter> receivers = addToFilters(List.of(eventId));
+            if (TransactionSynchronizationManager.isSynchronizationActive()) {
+                trackOwnWrites(receivers);
+            }
+            recent.invalidate(eventId);
+        }
+    }
+
+    // A row was updated or deleted through JPA
+    void forget(String eventId) {
+        if (enabled) {
+            recent.invalidate(eventId);
+        }
+    }
+
+    /**
+     * Forgets every cached row and stops answering "new" until the filter is reloaded; for
+     * when events were deleted or written outside the ingestion path.
+     */
+    public void clear() {
+        filter = null;
+        recent.invalidateAll();
+        if (enabled) {
+            start();
+        }
+    }
+
+    @Override
+    public void suspend() {
+        suspended = true;
+    }
+
+    @Override
+    public void reload() {
+        clear();
+        suspended = false;
+    }
+
+    // The stored payload, i.e. the fields isSamePayload compares
+    private record Recent(String machineId, String lineId, Instant eventTime, long durationMs, int defectCount,
+            Instant receivedTime) {
+
+        static Recent of(MachineEvent event) {
+            return new Recent(event.getMachineId(), event.getLineId(), event.getEventTime(), event.getDurationMs(),
+                    event.getDefectCount(), event.getReceivedTime());
+        }
+
+        boolean samePayload(MachineEvent event) {
+            return machineId.equals(event.getMachineId())
+                    && Objects.equals(lineId, event.getLineId())
+                    && eventTime.equals(event.getEventTime())
+                    && durationMs == event.getDurationMs()
+                    && defectCount == event.getDefectCount();
+        }
+    }
+}
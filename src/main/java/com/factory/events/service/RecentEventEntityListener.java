@@ -0,0 +1,33 @@
+package com.factory.events.service;
+
+import com.factory.events.model.MachineEvent;
+import jakarta.persistence.PostRemove;
+import jakarta.persistence.PostUpdate;
+import jakarta.persistence.PrePersist;
+import org.springframework.beans.factory.ObjectProvider;
+
+/**
+ * JPA callbacks on {@link MachineEvent} that keep {@link RecentEventCache} coherent with rows
+ * written through JPA outside the ingestion path (repository.save, deletes). Instantiated by
+ * Hibernate through the Spring bean container; the cache is resolved lazily because entity
+ * listeners are created while the EntityManagerFactory is still being built.
+ */
+public class RecentEventEntityListener {
+
+    private final ObjectProvider<RecentEventCache> cache;
+
+    public RecentEventEntityListener(ObjectProvider<RecentEventCache> cache) {
+        this.cache = cache;
+    }
+
+    @PrePersist
+    void persisting(MachineEvent event) {
+        cache.ifAvailable(c -> c.written(event.getEventId()));
+    }
+
+    @PostUpdate
+    @PostRemove
+    void changed(MachineEvent event) {
+        cache.ifAvailable(c -> c.forget(event.getEventId()));
+    }
+}
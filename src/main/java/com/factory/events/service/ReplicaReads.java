@@ -0,0 +1,203 @@
+package com.factory.events.service;
+
+import com.factory.events.config.ReplicaRoutingDataSource;
+import com.factory.events.repository.SqlDialect;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+/**
+ * Runs analytics reads on the read replica (see ReadReplicaConfig) while it is current
+ * enough, else on the primary. Without a replica every read runs as before, on the primary.
+ *
+ * The replica's lag is measured every events.datasource.replica.lag-check-interval-ms. On
+ * PostgreSQL each check reads the primary's WAL position, then the standby's replay position:
+ * once the standby has replayed up to the position of some check, it holds every commit made
+ * before that check. The standby's own view is not enough, since one that stopped receiving
+ * WAL has replayed all it received and looks current. A replica that is no standby, and other
+ * databases (a second pool on the same H2 database in tests), count as current. This gives
+ * the instant up to which the replica holds every commit. A read goes to the replica only if
+ * that instant is at most max-lag-ms old (bounded staleness, -1 for no bound) and not before
+ * what the caller needs.
+ */
+@Service
+public class ReplicaReads {
+
+    private static final Logger log = LoggerFactory.getLogger(ReplicaReads.class);
+
+    // Null replay position: no standby (in recovery, nothing replayed yet: handled by the caller)
+    private static final String POSTGRES_REPLAY_POSITION = "SELECT pg_is_in_recovery(), "
+            + "CASE WHEN pg_is_in_recovery() THEN pg_last_wal_replay_lsn()::text END";
+
+    private final ReplicaRoutingDataSource routing;
+    private final TransactionTemplate readOnlyTransaction;
+    private final long maxLagMillis;
+    private final JdbcTemplate primaryJdbc;
+    private final JdbcTemplate replicaJdbc;
+    private final SqlDialect replicaDialect;
+    private final Counter replicaReads;
+    private final Counter primaryReads;
+    // One check at a time, so a slow one cannot move currentAsOf back behind a later one
+    private final ReentrantLock checkLock = new ReentrantLock();
+
+    // The replica holds every commit before this instant; EPOCH until the first lag check
+    private volatile Instant currentAsOf = Instant.EPOCH;
+    private volatile long lagMillis = -1;
+    private boolean checkFailing;
+    // Guarded by checkLock
+    private final ReplayProbes probes = new ReplayProbes();
+
+    public ReplicaReads(ObjectProvider<ReplicaRoutingDataSource> routing,
+            PlatformTransactionManager transactionManager, MeterRegistry meterRegistry,
+            @Value("${events.datasource.replica.max-lag-ms:10000}") long maxLagMillis) {
+        this.routing = routing.getIfAvailable();
+        this.readOnlyTransaction = new TransactionTemplate(transactionManager);
+        this.readOnlyTransaction.setReadOnly(true);
+        this.maxLagMillis = maxLagMillis;
+        this.primaryJdbc = this.routing == null ? null : new JdbcTemplate(this.routing.primary());
+        this.replicaJdbc = this.routing == null ? null : new JdbcTemplate(this.routing.replica());
+        this.replicaDialect = this.routing == null ? null : SqlDialect.of(this.routing.replica());
+        this.replicaReads = readCounter(meterRegistry, "replica");
+        this.primaryReads = readCounter(meterRegistry, "primary");
+        Gauge.builder("events.datasource.replica.lag", () -> lagMillis < 0 ? -1 : lagMillis / 1000.0)
+                .description("Replication lag of the read replica at the last check (-1: unknown)")
+                .baseUnit("seconds")
+                .register(meterRegistry);
+    }
+
+    private static Counter readCounter(MeterRegistry meterRegistry, String target) {
+        return Counter.builder("events.datasource.reads")
+                .description("Analytics reads by the database that answered them")
+                .tag("target", target)
+                .register(meterRegistry);
+    }
+
+    public boolean hasReplica() {
+        return routing != null;
+    }
+
+    /**
+     * Runs {@code query} in a read-only transaction, on the replica if it holds every commit
+     * before {@code neededAsOf} (null: no such need) and is within the staleness bound.
+     */
+    public <T> T read(Instant neededAsOf, Supplier<T> query) {
+        if (routing == null) {
+            return query.get();
+        }
+        if (!isCurrent(neededAsOf)) {
+            primaryReads.increment();
+            return readOnlyTransaction.execute(status -> query.get());
+        }
+        replicaReads.increment();
+        return ReplicaRoutingDataSource.onReplica(() -> readOnlyTransaction.execute(status -> query.get()));
+    }
+
+    private boolean isCurrent(Instant neededAsOf) {
+        Instant asOf = currentAsOf;
+        if (neededAsOf != null && asOf.isBefore(neededAsOf)) {
+            return false;
+        }
+        return maxLagMillis < 0 || !asOf.isBefore(Instant.now().minusMillis(maxLagMillis));
+    }
+
+    @Scheduled(fixedDelayString = "${events.datasource.replica.lag-check-interval-ms:1000}")
+    public void checkLag() {
+        if (routing == null) {
+            return;
+        }
+        checkLock.lock();
+        try {
+            measureLag();
+        } finally {
+            checkLock.unlock();
+        }
+    }
+
+    private void measureLag() {
+        // The clock is read first, so the lag can only be overestimated
+        Instant checkedAt = Instant.now();
+        try {
+            Instant asOf = replicaDialect == SqlDialect.POSTGRES ? replayedAsOf(checkedAt) : checkedAt;
+            if (asOf != null && asOf.isAfter(currentAsOf)) {
+                currentAsOf = asOf;
+            }
+            lagMillis = currentAsOf.equals(Instant.EPOCH) ? -1 : checkedAt.toEpochMilli() - currentAsOf.toEpochMilli();
+            if (checkFailing) {
+                checkFailing = false;
+                log.info("Replica lag check recovered, lag {} ms", lagMillis);
+            }
+        } catch (RuntimeException e) {
+            lagMillis = -1;
+            if (!checkFailing) {
+                checkFailing = true;
+                log.warn("Replica lag check failed; reads move to the primary once the bound runs out", e);
+            }
+        }
+    }
+
+    // The last check the standby has caught up with, or null if none since the previous one
+    private Instant replayedAsOf(Instant checkedAt) {
+        long primaryPosition = lsn(primaryJdbc.queryForObject("SELECT pg_current_wal_lsn()::text", String.class));
+        Object[] replay = replicaJdbc.queryForObject(POSTGRES_REPLAY_POSITION,
+                (rs, i) -> new Object[] { rs.getBoolean(1), rs.getString(2) });
+        if (!(Boolean) replay[0]) {
+            return checkedAt;
+        }
+        probes.add(checkedAt, primaryPosition);
+        // Nothing replayed yet; the probes count once something is
+        return replay[1] == null ? null : probes.replayedThrough(lsn((String) replay[1]));
+    }
+
+    // PostgreSQL prints a WAL position as two hex halves, e.g. 16/B374D848
+    static long lsn(String text) {
+        int slash = text.indexOf('/');
+        return Long.parseUnsignedLong(text.substring(0, slash), 16) << 32
+                | Long.parseUnsignedLong(text.substring(slash + 1), 16);
+    }
+
+    /**
+     * The primary's WAL position at recent checks. A standby that replayed past one holds every
+     * commit made before that check. When the standby falls behind by more than MAX_PROBES
+     * checks the oldest are dropped, which only underestimates how current it is.
+     */
+    static final class ReplayProbes {
+
+        private static final int MAX_PROBES = 1000;
+
+        private record Probe(Instant checkedAt, long position) {
+        }
+
+        private final Deque<Probe> probes = new ArrayDeque<>();
+
+        void add(Instant checkedAt, long primaryPosition) {
+            if (probes.size() == MAX_PROBES) {
+                probes.removeFirst();
+            }
+            probes.addLast(new Probe(checkedAt, primaryPosition));
+        }
+
+        /** The latest check at or before {@code replayedPosition}, or null if none is left. */
+        Instant replayedThrough(long replayedPosition) {
+            Instant through = null;
+            while (!probes.isEmpty() && Long.compareUnsigned(probes.peekFirst().position(), replayedPosition) <= 0) {
+                through = probes.removeFirst().checkedAt();
+            }
+            return through;
+        }
+    }
+}
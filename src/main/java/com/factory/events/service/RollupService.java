@@ -0,0 +1,288 @@
+package com.factory.events.service;
+
+import com.factory.events.model.EventRollupState;
+import com.factory.events.model.MachineEvent;
+import com.factory.events.model.WindowTotals;
+import com.factory.events.repository.EventRollupRepository;
+import com.factory.events.repository.EventRollupRepository.Delta;
+import com.factory.events.repository.EventRollupStateRepository;
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static com.factory.events.repository.EventRollupRepository.*;
+
+/**
+ * Keeps the minute/hour/day rollups (event_rollups) equal to the raw events table.
+ *
+ * - Every ingestion transaction adds its changes as deltas (-old payload, +new payload) at all
+ *   three resolutions, in the same transaction as the raw rows.
+ * - A catch-up job recomputes rows that existed before the rollups did, one hour per
+ *   transaction from the oldest event, recording progress in event_rollup_state. Until it
+ *   finishes, only windows ending before its progress mark are served from rollups.
+ * - Once caught up, the job re-derives each hour once as a safety net, when the event-time
+ *   watermarks seal it, and again after a late correction re-opened it (EventTimeWatermarks).
+ *   Hours sealed and left alone are treated as immutable. Hours before the partition
+ *   retention (EventPartitionService.retainedFrom) are never re-derived: their raw rows may be
+ *   gone, and the rollups are then the only record of them.
+ *
+ * Applying deltas in the ingestion transaction has a cost: the current minute, hour and day
+ * rows of a machine and its line are updated by every batch for that machine, and their row
+ * locks are held until commit, so concurrent batches for the same machine serialize on them
+ * (key order prevents deadlocks, not waiting). Each reconcile transaction also takes an
+ * EXCLUSIVE lock on event_rollups, so ingestion waits for one hour's recompute per reconciled
+ * hour, which is why the job re-derives each hour once instead of on every run. Batches for
+ * different machines only share their line's rows.
+ */
+@Service
+public class RollupService implements EventChangeListener {
+
+    private static final Logger log = LoggerFactory.getLogger(RollupService.class);
+
+    private static final int[] RESOLUTIONS = { MINUTE, HOUR, DAY };
+    // Events may be up to 15 minutes ahead of the clock (see EventIngestionService)
+    private static final Duration FUTURE_LIMIT = Duration.ofMinutes(15);
+
+    // Deltas are applied in key order so concurrent batches lock rollup rows in the same order
+    private static final Comparator<Delta> DELTA_KEY_ORDER = Comparator.comparingInt(Delta::bucketSeconds)
+            .thenComparing(Delta::machineId)
+            .thenComparing(Delta::lineId)
+            .thenComparing(Delta::bucketStart);
+
+    private final EventRollupRepository rollups;
+    private final EventRollupStateRepository stateRepository;
+    private final EventTimeWatermarks watermarks;
+    private final EventPartitionService partitionService;
+    private final TransactionTemplate transactionTemplate;
+    private final boolean enabled;
+    private final int hoursPerRun;
+    private final int reconcileHours;
+    private final ReentrantLock jobLock = new ReentrantLock();
+
+    // Cached copy of event_rollup_state for the query planner
+    private volatile boolean complete;
+    private volatile Instant backfilledThrough;
+    private Instant sealedHoursReconciled;
+    // Hours written by late corrections since the last run
+    private final Set<Instant> reopenedHours = ConcurrentHashMap.newKeySet();
+
+    public RollupService(EventRollupRepository rollups, EventRollupStateRepository stateRepository,
+            EventTimeWatermarks watermarks, EventPartitionService partitionService,
+            PlatformTransactionManager transactionManager,
+            @Value("${events.rollup.enabled:true}") boolean enabled,
+            @Value("${events.rollup.catch-up-hours-per-run:168}") int hoursPerRun,
+            @Value("${events.rollup.reconcile-hours:2}") int reconcileHours) {
+        this.rollups = rollups;
+        this.stateRepository = stateRepository;
+        this.watermarks = watermarks;
+        this.partitionService = partitionService;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.enabled = enabled;
+        this.hoursPerRun = hoursPerRun;
+        this.reconcileHours = reconcileHours;
+    }
+
+    @PostConstruct
+    void loadState() {
+        if (enabled) {
+            stateRepository.findById(EventRollupState.SINGLETON_ID).ifPresent(this::cache);
+        }
+    }
+
+    @Override
+    public void onWritten(List<EventChange> changes) {
+        if (!enabled || changes.isEmpty()) {
+            return;
+        }
+        Map<Delta, long[]> sums = new TreeMap<>(DELTA_KEY_ORDER);
+        for (EventChange change : changes) {
+            if (change.before() != null) {
+                addDeltas(sums, change.before(), -1);
+            }
+            addDeltas(sums, change.after(), 1);
+        }
+        List<Delta> deltas = new ArrayList<>(sums.size());
+        sums.forEach((key, sum) -> {
+            if (sum[0] != 0 || sum[1] != 0) {
+                deltas.add(new Delta(key.bucketSeconds(), key.machineId(), key.lineId(), key.bucketStart(), sum[0],
+                        sum[1]));
+            }
+        });
+        rollups.applyDeltas(deltas);
+    }
+
+    // Judged before EventTimeWatermarks.advance() folds this batch in
+    @Override
+    public void onCommitted(List<EventChange> changes) {
+        if (!enabled || !complete) {
+            return;
+        }
+        for (EventChange change : changes) {
+            if (change.before() != null && watermarks.isSealed(change.before())) {
+                reopenedHours.add(floor(change.before().getEventTime(), HOUR));
+            }
+            if (watermarks.isSealed(change.after())) {
+                reopenedHours.add(floor(change.after().getEventTime(), HOUR));
+            }
+        }
+    }
+
+    private static void addDeltas(Map<Delta, long[]> sums, MachineEvent event, int sign) {
+        String lineId = event.getLineId() == null ? NO_LINE : event.getLineId();
+        long defects = sign * WindowTotals.defectContribution(event.getDefectCount());
+        for (int resolution : RESOLUTIONS) {
+            Delta key = new Delta(resolution, event.getMachineId(), lineId, floor(event.getEventTime(), resolution),
+                    0, 0);
+            long[] sum = sums.computeIfAbsent(key, k -> new long[2]);
+            sum[0] += sign;
+            sum[1] += defects;
+        }
+    }
+
+    /**
+     * Backfills up to catch-up-hours-per-run hours, or, once caught up, re-derives the most
+     * recent closed hours once per hour. Runs are skipped while a previous one is active.
+     */
+    @Scheduled(initialDelayString = "${events.rollup.catch-up-interval-ms:60000}",
+            fixedDelayString = "${events.rollup.catch-up-interval-ms:60000}")
+    public void catchUp() {
+        if (!enabled || !jobLock.tryLock()) {
+            return;
+        }
+        try {
+            EventRollupState state = stateRepository.findById(EventRollupState.SINGLETON_ID)
+                    .orElseGet(EventRollupState::new);
+            if (state.isComplete()) {
+                cache(state);
+                reconcileSealedHours();
+            } else {
+                backfill(state);
+            }
+        } catch (RuntimeException e) {
+            log.warn("Rollup catch-up failed, retrying on the next run", e);
+        } finally {
+            jobLock.unlock();
+        }
+    }
+
+    private void backfill(EventRollupState state) {
+        // Rows committed from now on carry their own deltas; everything older must be recomputed
+        Instant target = ceil(Instant.now().plus(FUTURE_LIMIT), HOUR);
+        Instant cursor = state.getBackfilledThrough();
+        if (cursor == null) {
+            cursor = rollups.earliestEventTime().map(t -> floor(t, HOUR)).orElse(target);
+        }
+        int hours = 0;
+        while (cursor.isBefore(target) && hours++ < hoursPerRun) {
+            Instant hour = cursor;
+            Instant next = hour.plusSeconds(HOUR);
+            transactionTemplate.executeWithoutResult(tx -> {
+                rollups.reconcileHour(hour);
+                if (next.equals(floor(next, DAY))) {
+                    rollups.rebuildDay(floor(hour, DAY));
+                }
+                state.setBackfilledThrough(next);
+                stateRepository.save(state);
+            });
+            cursor = next;
+        }
+        if (!cursor.isBefore(target)) {
+            Instant finalCursor = cursor;
+            transactionTemplate.executeWithoutResult(tx -> {
+                // The day holding the last backfilled hour may have been cut short
+                rollups.rebuildDay(floor(finalCursor.minusSeconds(HOUR), DAY));
+                state.setBackfilledThrough(finalCursor);
+                state.setComplete(true);
+                stateRepository.save(state);
+            });
+            log.info("Rollup backfill complete through {}", cursor);
+        }
+        cache(state);
+    }
+
+    /*
+     * Re-derives the hours sealed since the last run (at most reconcile-hours of them) and the
+     * sealed hours re-opened by late corrections. Open hours wait until they are sealed; hours
+     * starting before the retention cutoff are skipped, since recomputing them from the rows
+     * left would erase the retired ones from the rollups.
+     */
+    private void reconcileSealedHours() {
+        Instant sealedBefore = floor(watermarks.sealedThrough(), HOUR);
+        Instant from = sealedBefore.minusSeconds((long) reconcileHours * HOUR);
+        if (sealedHoursReconciled != null && sealedHoursReconciled.isAfter(from)) {
+            from = sealedHoursReconciled;
+        }
+        SortedSet<Instant> hours = new TreeSet<>();
+        for (Instant hour = from; hour.isBefore(sealedBefore); hour = hour.plusSeconds(HOUR)) {
+            hours.add(hour);
+        }
+        for (Instant hour : reopenedHours) {
+            if (hour.isBefore(sealedBefore) && reopenedHours.remove(hour)) {
+                hours.add(hour);
+            }
+        }
+        Instant retainedFrom = partitionService.retainedFrom();
+        for (Instant hour : hours) {
+            if (retainedFrom != null && hour.isBefore(retainedFrom)) {
+                continue;
+            }
+            transactionTemplate.executeWithoutResult(tx -> {
+                rollups.reconcileHour(hour);
+                rollups.rebuildDay(floor(hour, DAY));
+            });
+        }
+        sealedHoursReconciled = sealedBefore;
+    }
+
+    private void cache(EventRollupState state) {
+        backfilledThrough = state.getBackfilledThrough();
+        complete = state.isComplete();
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /** True if rollups can answer [start, end) exactly. */
+    public boolean covers(Instant start, Instant end) {
+        if (!enabled) {
+            return false;
+        }
+        Instant through = backfilledThrough;
+        return complete || (through != null && !end.isAfter(through));
+    }
+
+    public Map<String, WindowTotals> machineTotals(int bucketSeconds, Collection<String> machineIds, Instant start,
+            Instant end) {
+        return rollups.machineTotals(bucketSeconds, machineIds, start, end);
+    }
+
+    public Map<String, WindowTotals> lineTotals(int bucketSeconds, Instant start, Instant end) {
+        return rollups.lineTotals(bucketSeconds, start, end);
+    }
+
+    public Map<String, WindowTotals> lineTotals(int bucketSeconds, String factoryId, String defaultFactoryId,
+            Instant start, Instant end) {
+        return rollups.lineTotals(bucketSeconds, factoryId, defaultFactoryId, start, end);
+    }
+
+    public static Instant floor(Instant t, int bucketSeconds) {
+        return Instant.ofEpochSecond(Math.floorDiv(t.getEpochSecond(), bucketSeconds) * bucketSeconds);
+    }
+
+    public static Instant ceil(Instant t, int bucketSeconds) {
+        Instant floor = floor(t, bucketSeconds);
+        return floor.equals(t) ? t : floor.plusSeconds(bucketSeconds);
+    }
+}
@@ -0,0 +1,129 @@
+package com.factory.events.service;
+
+import com.factory.events.model.MachineEvent;
+import com.factory.events.sharding.ShardRouter;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Ingests an arbitrarily large request body without binding it to one List<MachineEvent>.
+ *
+ * Events are pulled one at a time from a Jackson streaming parser (newline-delimited JSON, or
+ * a single top-level array) and handed to {@link ShardRouter#processBatch} (or, for a stream
+ * forwarded by another node, {@link ShardRouter#processOwned}) in sub-batches of
+ * events.ingestion.stream.sub-batch-size, each in its own transaction. Heap
+ * use is bounded by the sub-batch size plus at most max-rejection-details rejection entries;
+ * the counters always cover the whole stream.
+ *
+ * An eventId repeated in a later sub-batch is merged against the stored row exactly as if it
+ * had arrived in a later request.
+ */
+@Service
+public class StreamingIngestionService {
+
+    private final ShardRouter shardRouter;
+    private final ObjectMapper objectMapper;
+    private final int subBatchSize;
+    private final int maxRejectionDetails;
+
+    public StreamingIngestionService(ShardRouter shardRouter, ObjectMapper objectMapper,
+            @Value("${events.ingestion.stream.sub-batch-size:1000}") int subBatchSize,
+            @Value("${events.ingestion.stream.max-rejection-details:1000}") int maxRejectionDetails) {
+        this.shardRouter = shardRouter;
+        this.objectMapper = objectMapper;
+        this.subBatchSize = subBatchSize;
+        this.maxRejectionDetails = maxRejectionDetails;
+    }
+
+    /**
+     * Reads and applies every event of {@code body}.
+     *
+     * @throws MalformedStreamException if the body stops being valid JSON; the sub-batches
+     *                                  before that point are committed and reported
+     */
+    public EventIngestionService.BatchResult ingest(InputStream body) throws IOException {
+        return ingest(body, false);
+    }
+
+    /**
+     * Like {@link #ingest(InputStream)}; {@code forwarded} streams come from another node and
+     * are applied here without being split again.
+     */
+    public EventIngestionService.BatchResult ingest(InputStream body, boolean forwarded) throws IOException {
+        EventIngestionService.BatchResult total = new EventIngestionService.BatchResult();
+        List<MachineEvent> subBatch = new ArrayList<>(subBatchSize);
+        long position = 0;
+        try (JsonParser parser = objectMapper.getFactory().createParser(body)) {
+            JsonToken token = parser.nextToken();
+            boolean array = token == JsonToken.START_ARRAY;
+            if (array) {
+                token = parser.nextToken();
+            }
+            while (token != null && token != JsonToken.END_ARRAY) {
+                position++;
+                MachineEvent event = objectMapper.readValue(parser, MachineEvent.class);
+                if (event == null) {
+                    throw malformed(subBatch, total, forwarded, position, "null event");
+                }
+                subBatch.add(event);
+                if (subBatch.size() >= subBatchSize) {
+                    flush(subBatch, total, forwarded);
+                }
+                token = parser.nextToken();
+            }
+        } catch (JsonProcessingException e) {
+            throw malformed(subBatch, total, forwarded, position, e.getOriginalMessage());
+        }
+        flush(subBatch, total, forwarded);
+        return total;
+    }
+
+    // Applies what was read before the bad input and reports it as one MALFORMED_JSON rejection
+    private MalformedStreamException malformed(List<MachineEvent> subBatch, EventIngestionService.BatchResult total,
+            boolean forwarded, long position, String detail) {
+        flush(subBatch, total, forwarded);
+        total.rejected.incrementAndGet();
+        total.rejections.add(new EventIngestionService.Rejection(null, "MALFORMED_JSON"));
+        return new MalformedStreamException("Malformed event #" + position + ": " + detail, total);
+    }
+
+    private void flush(List<MachineEvent> subBatch, EventIngestionService.BatchResult total, boolean forwarded) {
+        if (subBatch.isEmpty()) {
+            return;
+        }
+        List<MachineEvent> events = List.copyOf(subBatch);
+        EventIngestionService.BatchResult result = forwarded ? shardRouter.processOwned(events)
+                : shardRouter.processBatch(events);
+        subBatch.clear();
+        int room = Math.max(0, maxRejectionDetails - total.rejections.size());
+        if (result.rejections.size() > room) {
+            result.rejections.subList(room, result.rejections.size()).clear();
+        }
+        total.add(result);
+    }
+
+    /** The body is not valid JSON past some point; carries what was applied before it. */
+    public static class MalformedStreamException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        private final transient EventIngestionService.BatchResult partialResult;
+
+        MalformedStreamException(String message, EventIngestionService.BatchResult partialResult) {
+            super(message);
+            this.partialResult = partialResult;
+        }
+
+        public EventIngestionService.BatchResult getPartialResult() {
+            return partialResult;
+        }
+    }
+}
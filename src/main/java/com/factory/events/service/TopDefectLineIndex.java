@@ -0,0 +1,331 @@
+package com.factory.events.service;
+
+import com.factory.events.model.MachineEvent;
+import com.factory.events.model.WindowTotals;
+import com.factory.events.repository.MachineEventRepository;
+import com.factory.events.service.AnalyticsService.TopDefectLine;
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Ranked per-line defect totals of the standard sliding windows (events.analytics.top-lines
+ * .window-minutes, default the last hour and the last 24 hours), per factory and over all
+ * factories, so the top defect lines of such a window are read in O(K) instead of grouping
+ * every event of the window.
+ *
+ * Counts are kept per (machine, line) and bucket (bucket-seconds) in rings like the hot
+ * window's. A window covers the buckets from {@code window} before the end of the current
+ * bucket onwards. Committed changes update the totals of every window whose range holds the
+ * event, and each line is re-inserted into its window's ordered set. When the clock passes a
+ * bucket boundary, the buckets that left a window are subtracted on the next change or query.
+ * Moving a machine to another factory rebuilds the rankings from the rings.
+ *
+ * A window is answered only when it is exact: {@code from} must be the current start of a
+ * standard window and {@code to} a bucket boundary with no events at or after it. For the
+ * last 24h, ask for [t - 24h, t) with t the end of the current minute. Any other window is
+ * answered by the query planner.
+ */
+@Service
+public class TopDefectLineIndex implements EventChangeListener {
+
+    private static final Logger log = LoggerFactory.getLogger(TopDefectLineIndex.class);
+
+    // Events may be up to 15 minutes ahead of the clock (see EventIngestionService)
+    private static final long FUTURE_LIMIT_SECONDS = 15 * 60;
+    private static final String NULL_LINE = "\u0000";
+    private static final String ALL_FACTORIES = "\u0000";
+    private static final Comparator<Entry> RANK = Comparator.comparingLong(Entry::defectSum).reversed()
+            .thenComparing(Comparator.comparingLong(Entry::eventCount).reversed())
+            .thenComparing(Entry::lineKey);
+
+    private final MachineEventRepository repository;
+    private final MachineFactories factories;
+    private final boolean enabled;
+    private final long bucketSeconds;
+    private final long futureBuckets;
+    private final long maxWindowBuckets;
+    private final int slots;
+    private final List<Window> windows = new ArrayList<>();
+    private final Map<List<String>, Series> series = new HashMap<>();
+    // Events per bucket over all machines, to check that nothing lies at or after "to"
+    private final Series allEvents;
+    private final ReentrantLock lock = new ReentrantLock();
+
+    // Long.MIN_VALUE until the warm-up has loaded the windows
+    private long currentBucket = Long.MIN_VALUE;
+    private long factoriesVersion;
+
+    public TopDefectLineIndex(MachineEventRepository repository, MachineFactories factories,
+            @Value("${events.analytics.top-lines.enabled:true}") boolean enabled,
+            @Value("${events.analytics.top-lines.window-minutes:60,1440}") long[] windowMinutes,
+            @Value("${events.analytics.top-lines.bucket-seconds:60}") long bucketSeconds) {
+        this.repository = repository;
+        this.factories = factories;
+        this.enabled = enabled;
+        this.bucketSeconds = bucketSeconds;
+        this.futureBuckets = (FUTURE_LIMIT_SECONDS + bucketSeconds - 1) / bucketSeconds;
+        long longest = 1;
+        for (long minutes : windowMinutes) {
+            long buckets = minutes * 60 / bucketSeconds;
+            windows.add(new Window(buckets));
+            longest = Math.max(longest, buckets);
+        }
+        this.maxWindowBuckets = longest;
+        this.slots = (int) (maxWindowBuckets + futureBuckets + 2);
+        this.allEvents = new Series(slots);
+    }
+
+    @PostConstruct
+    void warmUp() {
+        if (!enabled || windows.isEmpty()) {
+            return;
+        }
+        lock.lock();
+        try {
+            long now = bucketOf(Instant.now());
+            long oldest = now + 1 - maxWindowBuckets;
+            List<Object[]> rows = repository.sumByBucketSince(Instant.ofEpochSecond(oldest * bucketSeconds),
+                    bucketSeconds);
+            for (Object[] row : rows) {
+                long bucket = ((Number) row[2]).longValue();
+                long count = ((Number) row[3]).longValue();
+                long defects = row[4] == null ? 0 : ((Number) row[4]).longValue();
+                series((String) row[0], lineKey((String) row[1])).add(bucket, count, defects);
+                allEvents.add(bucket, count, defects);
+            }
+            currentBucket = now;
+            rebuild();
+            log.info("Top defect line index warmed with {} buckets for windows of {} minutes", rows.size(),
+                    windows.stream().map(w -> w.buckets * bucketSeconds / 60).toList());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void onCommitted(List<EventChange> changes) {
+        if (!enabled || windows.isEmpty()) {
+            return;
+        }
+        lock.lock();
+        try {
+            if (currentBucket == Long.MIN_VALUE) {
+                return;
+            }
+            refresh();
+            for (EventChange change : changes) {
+                if (change.before() != null) {
+                    apply(change.before(), -1);
+                }
+                apply(change.after(), 1);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Top {@code limit} lines of {@code factoryId} ({@code null} for all factories) by defect
+     * sum in [from, to).
+     *
+     * @return empty unless [from, to) is a standard window that can be answered exactly
+     */
+    public Optional<List<TopDefectLine>> top(String factoryId, Instant from, Instant to, int limit) {
+        if (!enabled || !isAligned(from) || !isAligned(to) || !from.isBefore(to)) {
+            return Optional.empty();
+        }
+        lock.lock();
+        try {
+            if (currentBucket == Long.MIN_VALUE) {
+                return Optional.empty();
+            }
+            refresh();
+            long fromBucket = bucketOf(from);
+            Window window = windows.stream().filter(w -> w.startBucket == fromBucket).findFirst().orElse(null);
+            if (window == null || allEvents.sum(bucketOf(to), currentBucket + futureBuckets + 1).eventCount() > 0) {
+                return Optional.empty();
+            }
+            Ranking ranking = window.rankings.get(factoryId == null ? ALL_FACTORIES : factoryId);
+            if (ranking == null) {
+                return Optional.of(List.of());
+            }
+            return Optional.of(ranking.order.stream()
+                    .limit(limit)
+                    .map(e -> TopDefectLine.of(NULL_LINE.equals(e.lineKey()) ? null : e.lineKey(), e.defectSum(),
+                            e.eventCount()))
+                    .toList());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    private void apply(MachineEvent event, int sign) {
+        long bucket = bucketOf(event.getEventTime());
+        if (bucket <= currentBucket - maxWindowBuckets) {
+            return;
+        }
+        String line = lineKey(event.getLineId());
+        long defects = sign * WindowTotals.defectContribution(event.getDefectCount());
+        series(event.getMachineId(), line).add(bucket, sign, defects);
+        allEvents.add(bucket, sign, defects);
+        String factory = factories.factoryOf(event.getMachineId());
+        for (Window window : windows) {
+            if (bucket >= window.startBucket) {
+                window.add(factory, line, sign, defects);
+            }
+        }
+    }
+
+    // Moves the windows up to the current bucket and follows factory reassignments
+    private void refresh() {
+        long now = bucketOf(Instant.now());
+        if (now > currentBucket) {
+            for (Window window : windows) {
+                long newStart = now + 1 - window.buckets;
+                // Slots older than one lap of the ring were already overwritten or are empty
+                for (long bucket = Math.max(window.startBucket, newStart - slots); bucket < newStart; bucket++) {
+                    for (Map.Entry<List<String>, Series> e : series.entrySet()) {
+                        WindowTotals expired = e.getValue().sum(bucket, bucket + 1);
+                        if (expired.eventCount() != 0 || expired.defectSum() != 0) {
+                            window.add(factories.factoryOf(e.getKey().get(0)), e.getKey().get(1),
+                                    -expired.eventCount(), -expired.defectSum());
+                        }
+                    }
+                }
+                window.startBucket = newStart;
+            }
+            currentBucket = now;
+        }
+        if (factories.version() != factoriesVersion) {
+            rebuild();
+        }
+    }
+
+    private void rebuild() {
+        factoriesVersion = factories.version();
+        long end = currentBucket + futureBuckets + 1;
+        for (Window window : windows) {
+            window.rankings.clear();
+            window.startBucket = currentBucket + 1 - window.buckets;
+            series.forEach((key, s) -> {
+                WindowTotals totals = s.sum(window.startBucket, end);
+                if (totals.eventCount() != 0) {
+                    window.add(factories.factoryOf(key.get(0)), key.get(1), totals.eventCount(),
+                            totals.defectSum());
+                }
+            });
+        }
+    }
+
+    private boolean isAligned(Instant t) {
+        return t.getNano() == 0 && Math.floorMod(t.getEpochSecond(), bucketSeconds) == 0;
+    }
+
+    private long bucketOf(Instant t) {
+        return Math.floorDiv(t.getEpochSecond(), bucketSeconds);
+    }
+
+    private Series series(String machineId, String lineKey) {
+        return series.computeIfAbsent(List.of(machineId, lineKey), k -> new Series(slots));
+    }
+
+    private static String lineKey(String lineId) {
+        return lineId == null ? NULL_LINE : lineId;
+    }
+
+    private record Entry(String lineKey, long eventCount, long defectSum) {
+    }
+
+    /** Totals of one window, ranked per factory and over all factories. */
+    private static final class Window {
+        final long buckets;
+        final Map<String, Ranking> rankings = new HashMap<>();
+        long startBucket = Long.MIN_VALUE;
+
+        Window(long buckets) {
+            this.buckets = buckets;
+        }
+
+        void add(String factoryId, String lineKey, long countDelta, long defectDelta) {
+            rankings.computeIfAbsent(factoryId, k -> new Ranking()).add(lineKey, countDelta, defectDelta);
+            rankings.computeIfAbsent(ALL_FACTORIES, k -> new Ranking()).add(lineKey, countDelta, defectDelta);
+        }
+    }
+
+    /** Line totals plus the same entries ordered by defect sum; an update re-inserts one entry. */
+    private static final class Ranking {
+        final Map<String, Entry> byLine = new HashMap<>();
+        final TreeSet<Entry> order = new TreeSet<>(RANK);
+
+        void add(String lineKey, long countDelta, long defectDelta) {
+            Entry old = byLine.remove(lineKey);
+            long count = countDelta;
+            long defects = defectDelta;
+            if (old != null) {
+                order.remove(old);
+                count += old.eventCount();
+                defects += old.defectSum();
+            }
+            if (count > 0) {
+                Entry entry = new Entry(lineKey, count, defects);
+                byLine.put(lineKey, entry);
+                order.add(entry);
+            }
+        }
+    }
+
+    /**
+     * Ring of buckets indexed by bucket number modulo the slot count; stale slots from a
+     * previous lap read as empty. Guarded by the index lock.
+     */
+    private static final class Series {
+        private final long[] bucketIds;
+        private final long[] counts;
+        private final long[] defects;
+
+        Series(int slots) {
+            bucketIds = new long[slots];
+            counts = new long[slots];
+            defects = new long[slots];
+            Arrays.fill(bucketIds, Long.MIN_VALUE);
+        }
+
+        void add(long bucket, long countDelta, long defectDelta) {
+            int slot = (int) Math.floorMod(bucket, (long) bucketIds.length);
+            if (bucketIds[slot] != bucket) {
+                if (bucketIds[slot] > bucket) {
+                    return; // slot already reused by a newer lap
+                }
+                bucketIds[slot] = bucket;
+                counts[slot] = 0;
+                defects[slot] = 0;
+            }
+            counts[slot] += countDelta;
+            defects[slot] += defectDelta;
+        }
+
+        WindowTotals sum(long fromBucket, long toBucket) {
+            long count = 0;
+            long defectSum = 0;
+            for (long bucket = fromBucket; bucket < toBucket; bucket++) {
+                int slot = (int) Math.floorMod(bucket, (long) bucketIds.length);
+                if (bucketIds[slot] == bucket) {
+                    count += counts[slot];
+                    defectSum += defects[slot];
+                }
+            }
+            return new WindowTotals(count, defectSum);
+        }
+    }
+}
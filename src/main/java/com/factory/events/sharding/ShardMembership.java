@@ -0,0 +1,189 @@
+package com.factory.events.sharding;
+
+import com.factory.events.config.WorkerThreads;
+import com.factory.events.service.NodeLocalState;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.web.context.WebServerInitializedEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Supplier;
+
+/**
+ * Which node owns which machine when ingestion is sharded (events.sharding.enabled=true).
+ * Nodes are identified by their base URL. events.sharding.self names this node; it defaults
+ * to http://localhost:{port}. The members come from events.sharding.nodes and later from
+ * PUT /cluster/members. A node that is not a member owns nothing and forwards everything.
+ *
+ * A membership change takes effect at once for routing. Until then, the previous owners of
+ * the moved machines may still be writing them: other nodes may not have the new list yet,
+ * or may still have forwards in flight. So every {@link NodeLocalState} is suspended for
+ * events.sharding.rebalance-settle-ms, which must cover both. It is then reloaded from the
+ * database while local writes pause. The same list must reach every node within that time.
+ */
+@Service
+public class ShardMembership {
+
+    private static final Logger log = LoggerFactory.getLogger(ShardMembership.class);
+
+    private final boolean enabled;
+    private final int virtualNodes;
+    private final long settleMillis;
+    private final List<NodeLocalState> localState;
+    private final WorkerThreads workerThreads;
+    private final Counter rebalances;
+    // Shared by every local write, exclusive while node-local state is reloaded
+    private final ReentrantReadWriteLock localWrites = new ReentrantReadWriteLock();
+    private final ReentrantLock membershipLock = new ReentrantLock();
+
+    private volatile String self;
+    private volatile ConsistentHashRing ring;
+    private volatile boolean rebalancing;
+    // Guarded by membershipLock; a newer change restarts the settle period
+    private long generation;
+
+    public ShardMembership(List<NodeLocalState> localState, WorkerThreads workerThreads, MeterRegistry meterRegistry,
+            @Value("${events.sharding.enabled:false}") boolean enabled,
+            @Value("${events.sharding.self:}") String self,
+            @Value("${events.sharding.nodes:}") String[] nodes,
+            @Value("${events.sharding.virtual-nodes:128}") int virtualNodes,
+            @Value("${events.sharding.rebalance-settle-ms:30000}") long settleMillis,
+            @Value("${events.ingestion.async.enabled:false}") boolean asyncIngestion,
+            @Value("${events.wal.enabled:false}") boolean wal,
+            @Value("${events.archive.enabled:false}") boolean archive) {
+        if (enabled && (asyncIngestion || wal || archive)) {
+            // The async writer would bypass the routing, and WAL and archive segments are local files
+            throw new IllegalStateException("events.sharding.enabled needs events.ingestion.async.enabled=false,"
+                    + " events.wal.enabled=false and events.archive.enabled=false");
+        }
+        this.enabled = enabled;
+        this.localState = localState;
+        this.workerThreads = workerThreads;
+        this.virtualNodes = virtualNodes;
+        this.settleMillis = settleMillis;
+        this.self = self.isBlank() ? null : normalize(self);
+        this.ring = new ConsistentHashRing(Arrays.stream(nodes).filter(n -> !n.isBlank())
+                .map(ShardMembership::normalize).toList(), virtualNodes);
+        this.rebalances = Counter.builder("events.sharding.rebalances")
+                .description("Membership changes applied by this node")
+                .register(meterRegistry);
+        Gauge.builder("events.sharding.members", () -> ring.nodes().size())
+                .description("Nodes that ingestion is sharded over")
+                .register(meterRegistry);
+    }
+
+    @EventListener
+    public void onWebServerInitialized(WebServerInitializedEvent event) {
+        if (!enabled) {
+            return;
+        }
+        if (self == null) {
+            self = "http://localhost:" + event.getWebServer().getPort();
+        }
+        log.info("Ingestion sharded by machineId as {} over {}", self, ring.nodes());
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public String self() {
+        return self;
+    }
+
+    /** The owner of {@code machineId}; this node when sharding is off or there are no members. */
+    public String owner(String machineId) {
+        ConsistentHashRing current = ring;
+        if (!enabled || current.isEmpty() || machineId == null) {
+            return self;
+        }
+        return current.owner(machineId);
+    }
+
+    /** Runs a write of this node's own machines; held back while node-local state is reloaded. */
+    public <T> T runLocal(Supplier<T> write) {
+        localWrites.readLock().lock();
+        try {
+            return write.get();
+        } finally {
+            localWrites.readLock().unlock();
+        }
+    }
+
+    public record Status(String self, List<String> members, String version, boolean rebalancing) {
+    }
+
+    public Status status() {
+        ConsistentHashRing current = ring;
+        return new Status(self, current.nodes(), current.version(), rebalancing);
+    }
+
+    /**
+     * Replaces the members. Routing follows at once; node-local state is suspended and
+     * reloaded once the settle period has passed.
+     *
+     * @return false if the members are unchanged
+     */
+    public boolean setMembers(List<String> nodes) {
+        ConsistentHashRing next = new ConsistentHashRing(nodes.stream().map(ShardMembership::normalize).toList(),
+                virtualNodes);
+        membershipLock.lock();
+        try {
+            if (next.nodes().equals(ring.nodes())) {
+                return false;
+            }
+            localState.forEach(NodeLocalState::suspend);
+            rebalancing = true;
+            ring = next;
+            long settling = ++generation;
+            rebalances.increment();
+            log.info("Sharding members changed to {} (version {}), reloading node-local state in {} ms",
+                    next.nodes(), next.version(), settleMillis);
+            workerThreads.start("shard-rebalance", () -> settle(settling));
+            return true;
+        } finally {
+            membershipLock.unlock();
+        }
+    }
+
+    private void settle(long settling) {
+        try {
+            Thread.sleep(settleMillis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+        membershipLock.lock();
+        try {
+            if (generation != settling) {
+                return;
+            }
+            localWrites.writeLock().lock();
+            try {
+                localState.forEach(NodeLocalState::reload);
+            } finally {
+                localWrites.writeLock().unlock();
+            }
+            rebalancing = false;
+            log.info("Rebalance to version {} settled", ring.version());
+        } catch (RuntimeException e) {
+            log.error("Reloading node-local state failed; it stays suspended until the next change", e);
+        } finally {
+            membershipLock.unlock();
+        }
+    }
+
+    private static String normalize(String node) {
+        String trimmed = node.trim();
+        return trimmed.endsWith("/") ? trimmed.substring(0, trimmed.length() - 1) : trimmed;
+    }
+}
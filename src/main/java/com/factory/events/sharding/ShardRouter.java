@@ -0,0 +1,232 @@
+package com.factory.events.sharding;
+
+import com.factory.events.codec.EventColumns;
+import com.factory.events.config.WorkerThreads;
+import com.factory.events.model.MachineEvent;
+import com.factory.events.service.AnalyticsService;
+import com.factory.events.service.EventIngestionService;
+import com.factory.events.service.EventIngestionService.BatchResult;
+import com.factory.events.service.IngestionMetrics;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.client.JdkClientHttpRequestFactory;
+import org.springframework.stereotype.Service;
+import org.springframework.web.bind.annotation.ResponseStatus;
+import org.springframework.web.client.RestClient;
+import org.springframework.web.client.RestClientException;
+
+import java.net.http.HttpClient;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+
+/**
+ * Entry point for ingestion and per-machine stats. With sharding off, calls go straight to
+ * the services. With sharding on (see ShardMembership), each batch is split by the owner of
+ * its machines. This node writes its own part, and the other parts are forwarded to their
+ * owners in parallel as plain POST /events/batch requests marked with {@link #FORWARDED_HEADER}.
+ * A forwarded request is always applied where it lands, so routing never loops, even while
+ * nodes disagree about the members. /stats for a machine is answered by its owner, whose hot
+ * window and result cache see all of the machine's writes.
+ *
+ * Events of a sub-batch whose owner cannot be reached are rejected as SHARD_UNAVAILABLE, and
+ * the rest of the batch is still applied.
+ */
+@Service
+public class ShardRouter {
+
+    private static final Logger log = LoggerFactory.getLogger(ShardRouter.class);
+
+    public static final String FORWARDED_HEADER = "X-Events-Forwarded";
+    static final String UNAVAILABLE = "SHARD_UNAVAILABLE";
+
+    private final ShardMembership membership;
+    private final EventIngestionService ingestionService;
+    private final AnalyticsService analyticsService;
+    private final IngestionMetrics metrics;
+    private final RestClient http;
+    private final Executor forwarders;
+    private final Counter forwardedEvents;
+    private final Counter failedEvents;
+
+    public ShardRouter(ShardMembership membership, EventIngestionService ingestionService,
+            AnalyticsService analyticsService, IngestionMetrics metrics, RestClient.Builder restClientBuilder,
+            WorkerThreads workerThreads, MeterRegistry meterRegistry,
+            @Value("${events.sharding.forward-timeout-ms:10000}") int forwardTimeoutMillis,
+            @Value("${events.sharding.forward-threads:8}") int forwardThreads) {
+        this.membership = membership;
+        this.ingestionService = ingestionService;
+        this.analyticsService = analyticsService;
+        this.metrics = metrics;
+        Duration forwardTimeout = Duration.ofMillis(forwardTimeoutMillis);
+        JdkClientHttpRequestFactory requestFactory = new JdkClientHttpRequestFactory(HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(forwardTimeout)
+                .build());
+        requestFactory.setReadTimeout(forwardTimeout);
+        this.http = restClientBuilder.requestFactory(requestFactory).build();
+        this.forwarders = membership.isEnabled() ? workerThreads.executor("shard-forward", forwardThreads) : null;
+        this.forwardedEvents = forwardCounter(meterRegistry, "ok");
+        this.failedEvents = forwardCounter(meterRegistry, "failed");
+    }
+
+    private static Counter forwardCounter(MeterRegistry meterRegistry, String result) {
+        return Counter.builder("events.sharding.forwarded")
+                .description("Events forwarded to the node owning their machine")
+                .tag("result", result)
+                .register(meterRegistry);
+    }
+
+    public boolean isEnabled() {
+        return membership.isEnabled();
+    }
+
+    public BatchResult processBatch(List<MachineEvent> events) {
+        if (!membership.isEnabled()) {
+            return ingestionService.processBatch(events);
+        }
+        Map<String, List<MachineEvent>> byOwner = split(events);
+        List<MachineEvent> own = byOwner.remove(membership.self());
+        Map<String, CompletableFuture<BatchResult>> forwarded = new LinkedHashMap<>();
+        byOwner.forEach((node, part) -> forwarded.put(node,
+                CompletableFuture.supplyAsync(() -> forwardBatch(node, part), forwarders)));
+
+        BatchResult result = own == null ? new BatchResult() : processOwned(own);
+        forwarded.forEach((node, reply) -> {
+            List<MachineEvent> part = byOwner.get(node);
+            try {
+                result.add(reply.join());
+                forwardedEvents.increment(part.size());
+            } catch (CompletionException e) {
+                log.warn("Forwarding {} events to {} failed: {}", part.size(), node, e.getCause().toString());
+                failedEvents.increment(part.size());
+                for (MachineEvent event : part) {
+                    result.rejected.incrementAndGet();
+                    result.rejections.add(new EventIngestionService.Rejection(event.getEventId(), UNAVAILABLE));
+                    metrics.recordRejection(UNAVAILABLE);
+                }
+            }
+        });
+        return result;
+    }
+
+    /** A binary batch; split like a JSON one when sharded, so only then are all events materialized. */
+    public BatchResult processColumns(EventColumns columns) {
+        if (!membership.isEnabled()) {
+            return ingestionService.processColumns(columns);
+        }
+        return processBatch(columns.toEvents());
+    }
+
+    /** A batch forwarded by another node: applied here, whoever owns it now. */
+    public BatchResult processOwned(List<MachineEvent> events) {
+        return membership.runLocal(() -> ingestionService.processBatch(events));
+    }
+
+    /**
+     * Groups events by owner, in batch order. All versions of one eventId go to the owner of
+     * the machine of the version the in-batch dedupe keeps: the newest by receivedTime (a
+     * missing one counting as now), the later one on a tie.
+     */
+    Map<String, List<MachineEvent>> split(List<MachineEvent> events) {
+        Instant now = Instant.now();
+        Map<String, MachineEvent> kept = new HashMap<>();
+        for (MachineEvent event : events) {
+            kept.merge(event.getEventId(), event, (previous, next) ->
+                    receivedOrNow(next, now).isBefore(receivedOrNow(previous, now)) ? previous : next);
+        }
+        Map<String, List<MachineEvent>> byOwner = new LinkedHashMap<>();
+        for (MachineEvent event : events) {
+            String owner = membership.owner(kept.get(event.getEventId()).getMachineId());
+            byOwner.computeIfAbsent(owner, k -> new ArrayList<>()).add(event);
+        }
+        return byOwner;
+    }
+
+    private static Instant receivedOrNow(MachineEvent event, Instant now) {
+        return event.getReceivedTime() == null ? now : event.getReceivedTime();
+    }
+
+    private BatchResult forwardBatch(String node, List<MachineEvent> events) {
+        return http.post()
+                .uri(node + "/events/batch")
+                .header(FORWARDED_HEADER, membership.self())
+                .contentType(MediaType.APPLICATION_JSON)
+                .body(events)
+                .retrieve()
+                .body(BatchResult.class);
+    }
+
+    public AnalyticsService.MachineStats getStats(String machineId, Instant start, Instant end) {
+        String owner = membership.owner(machineId);
+        if (!membership.isEnabled() || owner.equals(membership.self())) {
+            return analyticsService.getStats(machineId, start, end);
+        }
+        try {
+            return http.get()
+                    .uri(owner + "/stats?machineId={machineId}&start={start}&end={end}", machineId, start, end)
+                    .header(FORWARDED_HEADER, membership.self())
+                    .retrieve()
+                    .body(AnalyticsService.MachineStats.class);
+        } catch (RestClientException e) {
+            throw new ShardUnavailableException(owner, e);
+        }
+    }
+
+    /** Stats of many machines, each part from its owner, in the order given. */
+    public List<AnalyticsService.MachineStats> getStats(List<String> machineIds, Instant start, Instant end) {
+        if (!membership.isEnabled()) {
+            return analyticsService.getStats(machineIds, start, end);
+        }
+        Map<String, List<String>> byOwner = new LinkedHashMap<>();
+        for (String machineId : machineIds) {
+            byOwner.computeIfAbsent(membership.owner(machineId), k -> new ArrayList<>()).add(machineId);
+        }
+        List<String> own = byOwner.remove(membership.self());
+        Map<String, CompletableFuture<List<AnalyticsService.MachineStats>>> forwarded = new LinkedHashMap<>();
+        byOwner.forEach((node, ids) -> forwarded.put(node,
+                CompletableFuture.supplyAsync(() -> forwardStats(node, ids, start, end), forwarders)));
+
+        Map<String, AnalyticsService.MachineStats> byMachine = new HashMap<>();
+        if (own != null) {
+            analyticsService.getStats(own, start, end).forEach(s -> byMachine.put(s.machineId(), s));
+        }
+        forwarded.forEach((node, reply) -> {
+            try {
+                reply.join().forEach(s -> byMachine.put(s.machineId(), s));
+            } catch (CompletionException e) {
+                throw new ShardUnavailableException(node, e.getCause());
+            }
+        });
+        return machineIds.stream().map(byMachine::get).toList();
+    }
+
+    private List<AnalyticsService.MachineStats> forwardStats(String node, List<String> machineIds, Instant start,
+            Instant end) {
+        return Arrays.asList(http.post()
+                .uri(node + "/stats/batch")
+                .header(FORWARDED_HEADER, membership.self())
+                .contentType(MediaType.APPLICATION_JSON)
+                .body(Map.of("machineIds", machineIds, "start", start, "end", end))
+                .retrieve()
+                .body(AnalyticsService.MachineStats[].class));
+    }
+
+    /** The owner of a machine could not answer; reported as 503 so the client can retry. */
+    @ResponseStatus(HttpStatus.SERVICE_UNAVAILABLE)
+    public static class ShardUnavailableException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        ShardUnavailableException(String node, Throwable cause) {
+            super("Shard " + node + " unavailable", cause);
+        }
+    }
+}
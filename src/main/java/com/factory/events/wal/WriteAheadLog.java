@@ -0,0 +1,357 @@
+package com.factory.events.wal;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only log of memory-mapped, fixed-size segment files.
+ *
+ * Layout: each segment is named after its base offset ({@code 00000000000000000000.wal}) and
+ * holds records of [int length][int crc32][payload]. A zero length marks the end of written
+ * data; the reader then continues in the next segment if there is one. Offsets are global:
+ * segment base + position, so a segment spans [base, base + its file size).
+ *
+ * Durability: {@link #append} only writes into the mapping. {@link #awaitDurable} forces the
+ * active segment once for every append that happened before it (group fsync), so concurrent
+ * appenders share one msync. Readers only see data up to the durable offset.
+ *
+ * Applied progress is tracked in a separate {@code checkpoint} file. Segments that lie fully
+ * below the checkpoint are deleted, except for the newest {@code retainedSegments}.
+ */
+public class WriteAheadLog implements Closeable {
+
+    private static final int HEADER_BYTES = 8;
+    private static final String SEGMENT_SUFFIX = ".wal";
+    private static final String CHECKPOINT_FILE = "checkpoint";
+
+    private final Path dir;
+    private final int segmentBytes;
+    private final int retainedSegments;
+    private final ConcurrentSkipListMap<Long, Segment> segments = new ConcurrentSkipListMap<>();
+
+    // Writers serialize on appendLock; group fsync and reader wake-ups use syncLock
+    private final ReentrantLock appendLock = new ReentrantLock();
+    private final ReentrantLock syncLock = new ReentrantLock();
+    private final Condition durableAdvanced = syncLock.newCondition();
+
+    private Segment active;
+    private volatile long writeOffset;
+    private volatile long durableOffset;
+    private volatile long checkpointOffset;
+
+    private WriteAheadLog(Path dir, int segmentBytes, int retainedSegments) {
+        this.dir = dir;
+        this.segmentBytes = segmentBytes;
+        this.retainedSegments = retainedSegments;
+    }
+
+    /**
+     * Opens (or creates) the log in {@code dir}, recovering the write position from the
+     * last segment. A torn record at the tail is discarded.
+     */
+    public static WriteAheadLog open(Path dir, int segmentBytes, int retainedSegments) throws IOException {
+        if (segmentBytes <= HEADER_BYTES * 2) {
+            throw new IllegalArgumentException("segmentBytes too small: " + segmentBytes);
+        }
+        Files.createDirectories(dir);
+        WriteAheadLog log = new WriteAheadLog(dir, segmentBytes, retainedSegments);
+        log.recover();
+        return log;
+    }
+
+    private void recover() throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            for (Path file : files.filter(f -> f.getFileName().toString().endsWith(SEGMENT_SUFFIX)).toList()) {
+                String name = file.getFileName().toString();
+                long base = Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length()));
+                // Keep the size a segment was written with, even if segmentBytes changed since
+                segments.put(base, Segment.map(file, base, (int) Math.max(Files.size(file), HEADER_BYTES)));
+            }
+        }
+        Path checkpointFile = dir.resolve(CHECKPOINT_FILE);
+        checkpointOffset = Files.exists(checkpointFile) ? ByteBuffer.wrap(Files.readAllBytes(checkpointFile)).getLong()
+                : 0;
+
+        if (segments.isEmpty()) {
+            active = createSegment(checkpointOffset);
+            writeOffset = checkpointOffset;
+        } else {
+            active = segments.lastEntry().getValue();
+            writeOffset = active.base + scanEnd(active);
+        }
+        durableOffset = writeOffset;
+    }
+
+    // Position after the last intact record of a segment
+    private int scanEnd(Segment segment) {
+        int pos = 0;
+        while (pos + HEADER_BYTES <= segment.size) {
+            int length = readLength(segment, pos);
+            if (length <= 0 || segment.crc(pos) != checksum(segment, pos + HEADER_BYTES, length)) {
+                return pos;
+            }
+            pos += HEADER_BYTES + length;
+        }
+        return pos;
+    }
+
+    /**
+     * Writes one record into the active segment, rolling to a new one when it does not fit.
+     *
+     * @return the offset just past the record; pass it to {@link #awaitDurable}
+     */
+    public long append(byte[] payload) throws IOException {
+        if (payload.length == 0 || payload.length > maxRecordBytes()) {
+            throw new IllegalArgumentException("WAL record of " + payload.length + " bytes exceeds the "
+                    + maxRecordBytes() + " byte limit of a segment");
+        }
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+
+        appendLock.lock();
+        try {
+            int pos = (int) (writeOffset - active.base);
+            if (pos + HEADER_BYTES + payload.length > active.size) {
+                // Everything in the old segment must be on disk before it stops being "active"
+                active.buffer.force();
+                active = createSegment(active.base + active.size);
+                pos = 0;
+            }
+            ByteBuffer buffer = active.buffer;
+            buffer.putInt(pos + 4, (int) crc.getValue());
+            buffer.put(pos + HEADER_BYTES, payload);
+            int next = pos + HEADER_BYTES + payload.length;
+            if (next + HEADER_BYTES <= active.size) {
+                // Clear the next header so leftovers of a torn write are never read as a record
+                buffer.putInt(next, 0);
+            }
+            // Length goes in last: a reader never sees a header without its payload
+            buffer.putInt(pos, payload.length);
+            writeOffset = active.base + next;
+            return writeOffset;
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    /**
+     * Blocks until everything up to {@code offset} is on disk. One caller forces the segment
+     * for all appends made so far; the others find their offset already covered.
+     */
+    public void awaitDurable(long offset) throws IOException {
+        if (durableOffset >= offset) {
+            return;
+        }
+        syncLock.lock();
+        try {
+            if (durableOffset >= offset) {
+                return;
+            }
+            long target;
+            Segment segment;
+            appendLock.lock();
+            try {
+                target = writeOffset;
+                segment = active;
+            } finally {
+                appendLock.unlock();
+            }
+            segment.buffer.force();
+            durableOffset = target;
+            durableAdvanced.signalAll();
+        } finally {
+            syncLock.unlock();
+        }
+    }
+
+    /**
+     * Waits until durable data exists past {@code from}.
+     *
+     * @return true if there is something to read
+     */
+    public boolean awaitData(long from, long timeout, TimeUnit unit) throws InterruptedException {
+        if (durableOffset > from) {
+            return true;
+        }
+        syncLock.lock();
+        try {
+            long nanos = unit.toNanos(timeout);
+            while (durableOffset <= from && nanos > 0) {
+                nanos = durableAdvanced.awaitNanos(nanos);
+            }
+            return durableOffset > from;
+        } finally {
+            syncLock.unlock();
+        }
+    }
+
+    /**
+     * Reads up to {@code maxRecords} durable records starting at {@code from}.
+     */
+    public List<Record> read(long from, int maxRecords) {
+        List<Record> records = new ArrayList<>();
+        long limit = durableOffset;
+        long offset = from;
+        while (records.size() < maxRecords && offset < limit) {
+            Map.Entry<Long, Segment> entry = segments.floorEntry(offset);
+            if (entry == null) {
+                throw new IllegalStateException("No WAL segment holds offset " + offset);
+            }
+            Segment segment = entry.getValue();
+            int pos = (int) (offset - segment.base);
+            int length = pos + HEADER_BYTES <= segment.size ? readLength(segment, pos) : 0;
+            if (length <= 0) {
+                // End of this segment's data: the next record starts the following segment
+                offset = segment.base + segment.size;
+                continue;
+            }
+            byte[] payload = new byte[length];
+            segment.buffer.get(pos + HEADER_BYTES, payload);
+            CRC32 crc = new CRC32();
+            crc.update(payload);
+            if ((int) crc.getValue() != segment.crc(pos)) {
+                throw new IllegalStateException("Corrupt WAL record at offset " + offset);
+            }
+            long next = offset + HEADER_BYTES + length;
+            records.add(new Record(offset, next, payload));
+            offset = next;
+        }
+        return records;
+    }
+
+    /**
+     * Persists that everything before {@code offset} has been applied, then drops segments
+     * that are no longer needed beyond the retention count.
+     */
+    public void checkpoint(long offset) throws IOException {
+        Path tmp = dir.resolve(CHECKPOINT_FILE + ".tmp");
+        try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            channel.write(ByteBuffer.allocate(8).putLong(0, offset));
+            channel.force(true);
+        }
+        Files.move(tmp, dir.resolve(CHECKPOINT_FILE), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+        checkpointOffset = offset;
+        deleteAppliedSegments();
+    }
+
+    private void deleteAppliedSegments() throws IOException {
+        List<Segment> applied = new ArrayList<>();
+        for (Segment segment : segments.values()) {
+            if (segment != active && segment.base + segment.size <= checkpointOffset) {
+                applied.add(segment);
+            }
+        }
+        for (int i = 0; i < applied.size() - retainedSegments; i++) {
+            Segment segment = applied.get(i);
+            segments.remove(segment.base);
+            segment.close();
+            Files.deleteIfExists(segment.file);
+        }
+    }
+
+    public long checkpointOffset() {
+        return checkpointOffset;
+    }
+
+    public long durableOffset() {
+        return durableOffset;
+    }
+
+    /** Bytes appended but not yet checkpointed; used for backpressure. */
+    public long unappliedBytes() {
+        return writeOffset - checkpointOffset;
+    }
+
+    public int maxRecordBytes() {
+        return segmentBytes - HEADER_BYTES;
+    }
+
+    int segmentCount() {
+        return segments.size();
+    }
+
+    @Override
+    public void close() throws IOException {
+        appendLock.lock();
+        try {
+            for (Segment segment : segments.values()) {
+                segment.buffer.force();
+                segment.close();
+            }
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    private Segment createSegment(long base) throws IOException {
+        Segment segment = Segment.map(dir.resolve(String.format("%020d%s", base, SEGMENT_SUFFIX)), base,
+                segmentBytes);
+        segments.put(base, segment);
+        return segment;
+    }
+
+    private static int readLength(Segment segment, int pos) {
+        return segment.buffer.getInt(pos);
+    }
+
+    private static int checksum(Segment segment, int from, int length) {
+        if (from + (long) length > segment.size) {
+            return ~segment.crc(from - HEADER_BYTES); // never matches
+        }
+        byte[] payload = new byte[length];
+        segment.buffer.get(from, payload);
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        return (int) crc.getValue();
+    }
+
+    public record Record(long offset, long nextOffset, byte[] payload) {
+    }
+
+    private static final class Segment {
+        final Path file;
+        final long base;
+        final int size;
+        final FileChannel channel;
+        final MappedByteBuffer buffer;
+
+        private Segment(Path file, long base, int size, FileChannel channel, MappedByteBuffer buffer) {
+            this.file = file;
+            this.base = base;
+            this.size = size;
+            this.channel = channel;
+            this.buffer = buffer;
+        }
+
+        static Segment map(Path file, long base, int size) throws IOException {
+            FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE);
+            // Mapping beyond the current size grows the file, pre-filled with zeros
+            return new Segment(file, base, size, channel, channel.map(FileChannel.MapMode.READ_WRITE, 0, size));
+        }
+
+        int crc(int pos) {
+            return buffer.getInt(pos + 4);
+        }
+
+        void close() throws IOException {
+            // The mapping itself is released by the GC; Java 17 has no public unmap
+            channel.close();
+        }
+    }
+}
@@ -1,25 +1,85 @@
 package com.factory.events;
 
+import com.factory.events.codec.BinaryBatchCodec;
+import com.factory.events.config.EventWriterConfig;
+import com.factory.events.model.Machine;
 import com.factory.events.model.MachineEvent;
+import com.factory.events.model.WindowTotals;
 import com.factory.events.repository.MachineEventRepository;
+import com.factory.events.repository.EventRollupRepository;
+import com.factory.events.repository.EventRollupStateRepository;
+import com.factory.events.repository.EventWriter;
+import com.factory.events.repository.JdbcUpsertEventWriter;
+import com.factory.events.repository.MachineRepository;
+import com.factory.events.service.AnalyticsResultCache;
 import com.factory.events.service.AnalyticsService;
+import com.factory.events.service.BatchPartitioner;
+import com.factory.events.service.EventArchiveService;
+import com.factory.events.service.EventChange;
+import com.factory.events.service.EventChangeListener;
+import com.factory.events.service.EventCommitBarrier;
+import com.factory.events.service.EventIdLocks;
 import com.factory.events.service.EventIngestionService;
+import com.factory.events.service.EventPartitionService;
+import com.factory.events.service.EventTimeWatermarks;
+import com.factory.events.service.HotWindowAggregateStore;
+import com.factory.events.service.IngestionMetrics;
+import com.factory.events.service.MachineFactories;
+import com.factory.events.service.MachineRegistry;
+import com.factory.events.service.RecentEventCache;
+import com.factory.events.service.ReplicaReads;
+import com.factory.events.service.RollupService;
+import com.factory.events.service.StreamingIngestionService;
+import com.factory.events.sharding.ShardRouter;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.persistence.EntityManager;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
 
+import javax.sql.DataSource;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.sql.Timestamp;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
 import java.time.Instant;
+import java.time.temporal.ChronoUnit;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 
 import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
-@SpringBootTest
+// A second pool on the same database stands in for the read replica; batches of 1000+ events
+// are partitioned over 4 threads whatever the core count; exports read pages of 100 rows
+@SpringBootTest(properties = { "events.datasource.replica.url=${spring.datasource.url}",
+        "events.ingestion.parallel.threads=4", "events.ingestion.parallel.min-batch-size=1000",
+        "events.export.page-size=100" })
+@AutoConfigureMockMvc
 class FactoryEventsApplicationTests {
 
     @Autowired
@@ -31,9 +91,89 @@ class FactoryEventsApplicationTests {
     @Autowired
     private MachineEventRepository repository;
 
+    @Autowired
+    private RollupService rollupService;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Autowired
+    private RecentEventCache recentEventCache;
+
+    @Autowired
+    private MachineRepository machineRepository;
+
+    @Autowired
+    private MachineFactories machineFactories;
+
+    @Autowired
+    private MachineRegistry machineRegistry;
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @Autowired
+    private ReplicaReads replicaReads;
+
+    @Autowired
+    private ShardRouter shardRouter;
+
+    @Autowired
+    private AnalyticsResultCache analyticsResultCache;
+
+    @Autowired
+    private EventWriter eventWriter;
+
+    @Autowired
+    private IngestionMetrics ingestionMetrics;
+
+    @Autowired
+    private EventIdLocks eventIdLocks;
+
+    @Autowired
+    private EventArchiveService archiveService;
+
+    @Autowired
+    private BatchPartitioner batchPartitioner;
+
+    @Autowired
+    private EventRollupRepository rollupRepository;
+
+    @Autowired
+    private EventRollupStateRepository rollupStateRepository;
+
+    @Autowired
+    private EventTimeWatermarks watermarks;
+
+    @Autowired
+    private DataSource dataSource;
+
+    @Autowired
+    private EntityManager entityManager;
+
+    @Autowired
+    private EventCommitBarrier commitBarrier;
+
+    @Autowired
+    private HotWindowAggregateStore hotWindow;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
     @BeforeEach
     void setUp() {
         repository.deleteAll();
+        // Rollups only follow ingestion, not bulk deletes
+        jdbcTemplate.update("DELETE FROM event_rollups");
+        // Rows were deleted behind the cache's back
+        recentEventCache.clear();
+        analyticsResultCache.clear();
     }
 
     // 1. Identical duplicate eventId -> deduped
@@ -49,6 +189,31 @@ class FactoryEventsApplicationTests {
         assertEquals(1, repository.count());
     }
 
+    // Repeats within one batch follow the cross-batch rule: the newest receivedTime wins, not the
+    // last position
+    @Test
+    void testOutOfOrderRepeatInBatchKeepsNewest() {
+        Instant received = Instant.now().minus(Duration.ofMinutes(1));
+        MachineEvent newer = new MachineEvent("E-OOO", Instant.parse("2026-01-15T10:00:00Z"), "M-001", "L1", 2000, 3);
+        newer.setReceivedTime(received);
+        MachineEvent older = new MachineEvent("E-OOO", Instant.parse("2026-01-15T10:00:00Z"), "M-001", "L1", 1000, 0);
+        older.setReceivedTime(received.minusSeconds(30));
+        MachineEvent tie = new MachineEvent("E-OOO-TIE", Instant.parse("2026-01-15T10:00:00Z"), "M-001", "L1", 1000, 0);
+        tie.setReceivedTime(received);
+        MachineEvent tieLater = new MachineEvent("E-OOO-TIE", Instant.parse("2026-01-15T10:00:00Z"), "M-001", "L1", 1500, 1);
+        tieLater.setReceivedTime(received);
+
+        EventIngestionService.BatchResult result = ingestionService.processBatch(List.of(newer, older, tie, tieLater));
+
+        assertEquals(2, result.accepted.get());
+        assertEquals(1, result.ignored.get());
+        assertEquals(1, result.updated.get());
+        MachineEvent stored = repository.findById("E-OOO").orElseThrow();
+        assertEquals(2000, stored.getDurationMs());
+        assertEquals(3, stored.getDefectCount());
+        assertEquals(1500, repository.findById("E-OOO-TIE").orElseThrow().getDurationMs());
+    }
+
     // 2. Different payload + newer receivedTime -> update happens
     @Test
     void testDifferentPayloadUpdates() {
@@ -110,6 +275,83 @@ class FactoryEventsApplicationTests {
         assertEquals(1, response.rejected.get());
     }
 
+    @Test
+    void testColumnarBatchMatchesObjectBatch() {
+        Instant eventTime = Instant.parse("2026-01-15T10:00:00Z");
+        List<MachineEvent> batch = List.of(
+                new MachineEvent("C-1", eventTime, "M-001", "L1", 1000, 0),
+                new MachineEvent("C-2", eventTime, "M-002", null, 500, 1),
+                new MachineEvent("C-1", eventTime, "M-001", "L1", 1000, 0),
+                new MachineEvent("C-BAD", eventTime, "M-001", "L1", -5, 0),
+                new MachineEvent("C-FUT", Instant.now().plus(Duration.ofMinutes(20)), "M-001", "L1", 10, 0),
+                new MachineEvent("C-2", eventTime, "M-002", null, 700, 2));
+
+        EventIngestionService.BatchResult columnar = ingestionService
+                .processColumns(BinaryBatchCodec.decodeColumns(BinaryBatchCodec.encode(batch)));
+
+        assertEquals(2, columnar.accepted.get());
+        assertEquals(1, columnar.deduped.get());
+        assertEquals(1, columnar.updated.get());
+        assertEquals(2, columnar.rejected.get());
+        assertEquals(List.of("C-BAD:INVALID_DURATION", "C-FUT:FUTURE_EVENT"),
+                columnar.rejections.stream().map(r -> r.eventId() + ":" + r.reason()).toList());
+        MachineEvent stored = repository.findById("C-2").orElseThrow();
+        assertEquals(700, stored.getDurationMs());
+        assertNull(stored.getLineId());
+
+        // The object path counts the same batch the same way
+        repository.deleteAll();
+        recentEventCache.clear();
+        EventIngestionService.BatchResult objects = ingestionService.processBatch(batch);
+        assertEquals(columnar.accepted.get(), objects.accepted.get());
+        assertEquals(columnar.deduped.get(), objects.deduped.get());
+        assertEquals(columnar.updated.get(), objects.updated.get());
+        assertEquals(columnar.rejected.get(), objects.rejected.get());
+    }
+
+    @Test
+    void testIngestionMetricsCountOutcomesAndPhases() {
+        double acceptedBefore = meterRegistry.get("events.ingestion.events").tag("outcome", "accepted").counter().count();
+        double invalidBefore = meterRegistry.find("events.ingestion.rejections").tag("reason", "INVALID_DURATION")
+                .counters().stream().mapToDouble(c -> c.count()).sum();
+        long lookupsBefore = meterRegistry.get("events.ingestion.phase").tag("phase", "lookup").timer().count();
+
+        ingestionService.processBatch(List.of(
+                new MachineEvent("E-MET-1", Instant.parse("2026-01-15T10:00:00Z"), "M-001", "L1", 1000, 0),
+                new MachineEvent("E-MET-2", Instant.parse("2026-01-15T10:00:00Z"), "M-001", "L1", 1000, 0),
+                new MachineEvent("E-MET-3", Instant.parse("2026-01-15T10:00:00Z"), "M-001", "L1", -5, 0)));
+
+        assertEquals(acceptedBefore + 2,
+                meterRegistry.get("events.ingestion.events").tag("outcome", "accepted").counter().count());
+        assertEquals(invalidBefore + 1,
+                meterRegistry.get("events.ingestion.rejections").tag("reason", "INVALID_DURATION").counter().count());
+        assertEquals(lookupsBefore + 1,
+                meterRegistry.get("events.ingestion.phase").tag("phase", "lookup").timer().count());
+    }
+
+    @Test
+    void testRetransmissionsSettledFromRecentCache() {
+        Instant t = Instant.parse("2026-01-15T10:00:00Z");
+        ingestionService.processBatch(List.of(new MachineEvent("E-RC-1", t, "M-001", "L1", 1000, 0),
+                new MachineEvent("E-RC-2", t, "M-001", "L1", 1000, 0)));
+        double lookupsBefore = meterRegistry.get("events.ingestion.recent_ids").tag("result", "lookup").counter()
+                .count();
+
+        EventIngestionService.BatchResult resent = ingestionService.processBatch(List.of(
+                new MachineEvent("E-RC-1", t, "M-001", "L1", 1000, 0),
+                new MachineEvent("E-RC-2", t, "M-001", "L1", 1000, 0)));
+        assertEquals(2, resent.deduped.get());
+        assertEquals(lookupsBefore,
+                meterRegistry.get("events.ingestion.recent_ids").tag("result", "lookup").counter().count());
+
+        // The cache follows updates: the old payload is now a change again
+        assertEquals(1, ingestionService.processBatch(List.of(
+                new MachineEvent("E-RC-1", t, "M-001", "L1", 1000, 3))).updated.get());
+        assertEquals(1, ingestionService.processBatch(List.of(
+                new MachineEvent("E-RC-1", t, "M-001", "L1", 1000, 0))).updated.get());
+        assertEquals(0, repository.findById("E-RC-1").orElseThrow().getDefectCount());
+    }
+
     // 6. DefectCount = -1 ignored in defect totals
     @Test
     void testDefectCountNegativeOneIgnored() {
@@ -139,6 +381,480 @@ class FactoryEventsApplicationTests {
         assertEquals(2, stats.eventsCount()); // Should include e1, e2 but NOT e3
     }
 
+    // Batch stats: one result per requested machine, in request order, same numbers as /stats
+    @Test
+    void testBatchStatsKeepsRequestOrder() {
+        ingestionService.processBatch(List.of(
+                new MachineEvent("E-BS-1", Instant.parse("2026-01-15T10:00:00Z"), "M-BS-A", "L1", 1000, 2),
+                new MachineEvent("E-BS-2", Instant.parse("2026-01-15T10:30:00Z"), "M-BS-A", "L1", 1000, -1),
+                new MachineEvent("E-BS-3", Instant.parse("2026-01-15T10:45:10Z"), "M-BS-B", "L2", 1000, 4)));
+
+        Instant start = Instant.parse("2026-01-15T09:59:30Z");
+        Instant end = Instant.parse("2026-01-15T11:00:00Z");
+        List<AnalyticsService.MachineStats> stats = analyticsService.getStats(List.of("M-BS-B", "M-BS-NONE", "M-BS-A"),
+                start, end);
+
+        assertEquals(List.of("M-BS-B", "M-BS-NONE", "M-BS-A"),
+                stats.stream().map(AnalyticsService.MachineStats::machineId).toList());
+        assertEquals(analyticsService.getStats("M-BS-B", start, end), stats.get(0));
+        assertEquals(0, stats.get(1).eventsCount());
+        assertEquals(2, stats.get(2).eventsCount());
+        assertEquals(2, stats.get(2).defectsCount());
+    }
+
+    // Streaming ingestion: NDJSON applied in sub-batches, bad input reported with what was applied
+    @Test
+    void testStreamIngestionAppliesSubBatches() throws IOException {
+        StreamingIngestionService streaming = new StreamingIngestionService(shardRouter, objectMapper, 2, 10);
+        String line = "{\"eventId\":\"%s\",\"eventTime\":\"2026-01-15T10:00:00Z\",\"machineId\":\"M-STR\","
+                + "\"lineId\":\"L1\",\"durationMs\":%d,\"defectCount\":%d}\n";
+        String body = String.format(line, "E-STR-1", 1000, 1) + String.format(line, "E-STR-2", 1000, 0)
+                + String.format(line, "E-STR-1", 1000, 1) // identical repeat in the next sub-batch
+                + String.format(line, "E-STR-3", -5, 0) + "\n" + String.format(line, "E-STR-2", 1000, 3);
+
+        EventIngestionService.BatchResult result = streaming.ingest(stream(body));
+
+        assertEquals(2, result.accepted.get());
+        assertEquals(1, result.deduped.get());
+        assertEquals(1, result.updated.get());
+        assertEquals(1, result.rejected.get());
+        assertEquals(3, repository.findById("E-STR-2").get().getDefectCount());
+
+        StreamingIngestionService.MalformedStreamException e = assertThrows(
+                StreamingIngestionService.MalformedStreamException.class,
+                () -> streaming.ingest(stream(String.format(line, "E-STR-4", 1000, 0) + "{\"eventId\": ")));
+        assertEquals(1, e.getPartialResult().accepted.get());
+        assertEquals("MALFORMED_JSON", e.getPartialResult().rejections.get(0).reason());
+        assertTrue(repository.existsById("E-STR-4"));
+    }
+
+    private static InputStream stream(String body) {
+        return new ByteArrayInputStream(body.getBytes(StandardCharsets.UTF_8));
+    }
+
+    // Group commit: batches applied together still see each other's writes in order
+    @Test
+    void testGroupCommitAppliesBatchesInOrder() {
+        MachineEvent first = new MachineEvent("E-GRP-1", Instant.parse("2026-01-15T10:00:00Z"), "M-001", "L1", 1000, 0);
+        MachineEvent same = new MachineEvent("E-GRP-1", Instant.parse("2026-01-15T10:00:00Z"), "M-001", "L1", 1000, 0);
+        MachineEvent changed = new MachineEvent("E-GRP-1", Instant.parse("2026-01-15T10:00:00Z"), "M-001", "L1", 3000, 2);
+
+        List<EventIngestionService.BatchResult> results = ingestionService
+                .processBatches(List.of(List.of(first), List.of(same), List.of(changed)));
+
+        assertEquals(1, results.get(0).accepted.get());
+        assertEquals(1, results.get(1).deduped.get());
+        assertEquals(1, results.get(2).updated.get());
+        assertEquals(3000, repository.findById("E-GRP-1").get().getDurationMs());
+    }
+
+    // Group commit through a writer that bypasses the persistence context: the upsert writer on
+    // PostgreSQL, a plain JDBC MERGE elsewhere. Later batches must merge against the rows the
+    // earlier ones wrote, not against the entities loaded before.
+    @Test
+    void testGroupCommitMergesAgainstJdbcWrites() {
+        Instant eventTime = Instant.parse("2026-01-15T10:00:00Z");
+        Instant received = Instant.now().minus(Duration.ofMinutes(10));
+        MachineEvent stored = new MachineEvent("E-GRP-JDBC", eventTime, "M-001", "L1", 1000, 0);
+        stored.setReceivedTime(received);
+        ingestionService.processBatch(List.of(stored));
+        // Force the lookups to the database
+        recentEventCache.clear();
+
+        EventWriter writer = eventWriter instanceof JdbcUpsertEventWriter ? eventWriter : (inserts, updates) -> {
+            List<MachineEvent> rows = new ArrayList<>(inserts);
+            rows.addAll(updates);
+            jdbcTemplate.batchUpdate("MERGE INTO events (event_id, event_time, received_time, machine_id, line_id, "
+                    + "duration_ms, defect_count) KEY (event_id) VALUES (?, ?, ?, ?, ?, ?, ?)",
+                    rows.stream().map(e -> new Object[] { e.getEventId(), Timestamp.from(e.getEventTime()),
+                            Timestamp.from(e.getReceivedTime()), e.getMachineId(), e.getLineId(), e.getDurationMs(),
+                            e.getDefectCount() }).toList());
+            return List.of();
+        };
+        List<EventChange> changes = new ArrayList<>();
+        EventChangeListener capture = new EventChangeListener() {
+            @Override
+            public void onWritten(List<EventChange> written) {
+                changes.addAll(written);
+            }
+        };
+        EventIngestionService service = new EventIngestionService(repository, writer, List.of(capture),
+                ingestionMetrics, eventIdLocks, recentEventCache, archiveService, batchPartitioner, entityManager,
+                commitBarrier);
+
+        MachineEvent changed = new MachineEvent("E-GRP-JDBC", eventTime, "M-001", "L1", 2000, 2);
+        changed.setReceivedTime(received.plusSeconds(1));
+        MachineEvent resent = new MachineEvent(changed);
+        resent.setReceivedTime(received.plusSeconds(2));
+        MachineEvent changedAgain = new MachineEvent("E-GRP-JDBC", eventTime, "M-001", "L1", 3000, 5);
+        changedAgain.setReceivedTime(received.plusSeconds(3));
+        List<EventIngestionService.BatchResult> results = new TransactionTemplate(transactionManager).execute(
+                status -> service.processBatches(List.of(List.of(changed), List.of(resent), List.of(changedAgain))));
+
+        assertEquals(1, results.get(0).updated.get());
+        assertEquals(1, results.get(1).deduped.get());
+        assertEquals(1, results.get(2).updated.get());
+        assertEquals(2, changes.size());
+        assertEquals(1000, changes.get(0).before().getDurationMs());
+        assertEquals(2000, changes.get(1).before().getDurationMs());
+        assertEquals(2, changes.get(1).before().getDefectCount());
+        assertEquals(3000, repository.findById("E-GRP-JDBC").orElseThrow().getDurationMs());
+    }
+
+    // An insert whose lookup missed the stored row, under another eventTime: on a partitioned
+    // table the primary key (event_id, event_time) would allow a second row, event_ids does not
+    @Test
+    void testUpsertWriterKeepsEventIdUnique() {
+        assumeTrue(eventWriter instanceof JdbcUpsertEventWriter, "upsert writer is PostgreSQL only");
+        String eventId = "E-UNIQ-" + Long.toString(System.nanoTime(), 36);
+        Instant received = Instant.now().minus(Duration.ofMinutes(10));
+        MachineEvent stored = new MachineEvent(eventId, Instant.parse("2026-01-05T10:00:00Z"), "M-001", null, 1000, 0);
+        stored.setReceivedTime(received);
+        MachineEvent moved = new MachineEvent(eventId, Instant.parse("2026-02-20T10:00:00Z"), "M-001", null, 2000, 1);
+        moved.setReceivedTime(received.plusSeconds(60));
+        MachineEvent older = new MachineEvent(eventId, Instant.parse("2026-03-10T10:00:00Z"), "M-001", null, 3000, 2);
+        older.setReceivedTime(received.minusSeconds(60));
+        TransactionTemplate tx = new TransactionTemplate(transactionManager);
+
+        tx.executeWithoutResult(status -> eventWriter.write(List.of(stored), List.of()));
+        assertTrue(tx.execute(status -> eventWriter.write(List.of(moved), List.of())).isEmpty());
+        assertTrue(tx.execute(status -> eventWriter.write(List.of(older), List.of())).contains(eventId));
+
+        List<MachineEvent> rows = jdbcTemplate.query("SELECT duration_ms, event_time FROM events WHERE event_id = ?",
+                (rs, i) -> new MachineEvent(eventId, rs.getTimestamp(2).toInstant(), "M-001", null, rs.getLong(1), 0),
+                eventId);
+        assertEquals(1, rows.size());
+        assertEquals(2000, rows.get(0).getDurationMs());
+        assertEquals(moved.getEventTime(), rows.get(0).getEventTime());
+    }
+
+    // Only the JDBC writer claims eventIds in event_ids, which keeps them unique across partitions
+    @Test
+    void testPartitionedTableTakesTheJdbcWriter() {
+        EventPartitionService partitioned = new EventPartitionService(null, dataSource, null, false, "week", 4, 0,
+                "drop") {
+            @Override
+            public boolean isPartitioned() {
+                return true;
+            }
+        };
+        EventWriterConfig config = new EventWriterConfig();
+
+        assertInstanceOf(JdbcUpsertEventWriter.class,
+                config.eventWriter("auto", dataSource, jdbcTemplate, entityManager, repository, partitioned));
+        IllegalStateException e = assertThrows(IllegalStateException.class,
+                () -> config.eventWriter("jpa", dataSource, jdbcTemplate, entityManager, repository, partitioned));
+        assertTrue(e.getMessage().startsWith("A partitioned events table needs"), e.getMessage());
+    }
+
+    // A reload racing a commit: the commit is visible in the table before its listeners run.
+    // The warm-up must not read it from the table and then get it again through onCommitted.
+    @Test
+    void testHotWindowReloadDuringCommit() throws Exception {
+        String machineId = "M-RELOAD-" + Long.toString(System.nanoTime(), 36);
+        Instant bucket = hotWindow.floorToBucket(Instant.now().minus(Duration.ofMinutes(5)));
+        Thread[] reload = new Thread[1];
+        new TransactionTemplate(transactionManager).executeWithoutResult(status -> {
+            // Registered before the ingestion's own callbacks, so it runs between commit and listeners
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    reload[0] = new Thread(hotWindow::reload);
+                    reload[0].start();
+                    try {
+                        reload[0].join(1000);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            });
+            ingestionService.processBatch(List.of(
+                    new MachineEvent("E-RELOAD-1", bucket.plusSeconds(1), machineId, "L-RELOAD", 1000, 2)));
+        });
+        reload[0].join(10_000);
+        assertFalse(reload[0].isAlive());
+
+        assertEquals(new WindowTotals(1, 2),
+                hotWindow.machineTotals(machineId, bucket, bucket.plus(Duration.ofHours(1))).orElseThrow());
+    }
+
+    // A large batch is partitioned; outcomes and rejection order are those of the serial path
+    @Test
+    void testLargeBatchPartitionedAcrossThreads() {
+        Instant time = Instant.parse("2026-01-15T10:00:00Z");
+        List<MachineEvent> stored = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            stored.add(new MachineEvent("E-PAR-" + i, time, "M-" + (i % 7), "L1", 1000, 0));
+        }
+        assertEquals(200, ingestionService.processBatch(stored).accepted.get());
+
+        List<MachineEvent> batch = new ArrayList<>();
+        for (int i = 0; i < 2800; i++) {
+            MachineEvent event = new MachineEvent("E-PAR-" + i, time, "M-" + (i % 7), "L1", 1000, 0);
+            if (i >= 100 && i < 200) {
+                event.setDurationMs(2000);
+            }
+            if (i >= 190 && i < 200) {
+                event.setReceivedTime(Instant.parse("2020-01-01T00:00:00Z"));
+            }
+            if (i % 500 == 250) {
+                event.setDurationMs(-1);
+            }
+            batch.add(event);
+        }
+        for (int i = 300; i < 500; i++) {
+            batch.add(new MachineEvent("E-PAR-" + i, time, "M-" + (i % 7), "L1", i < 400 ? 1000 : 3000, 0));
+        }
+
+        EventIngestionService.BatchResult result = ingestionService.processBatch(batch);
+
+        assertEquals(2594, result.accepted.get());
+        assertEquals(200, result.deduped.get());
+        assertEquals(190, result.updated.get());
+        assertEquals(10, result.ignored.get());
+        assertEquals(6, result.rejected.get());
+        assertEquals(List.of("E-PAR-250", "E-PAR-750", "E-PAR-1250", "E-PAR-1750", "E-PAR-2250", "E-PAR-2750"),
+                result.rejections.stream().map(EventIngestionService.Rejection::eventId).toList());
+        assertEquals(2794, repository.count());
+        assertEquals(2000, repository.findById("E-PAR-150").get().getDurationMs());
+        assertEquals(1000, repository.findById("E-PAR-195").get().getDurationMs());
+        assertEquals(3000, repository.findById("E-PAR-450").get().getDurationMs());
+    }
+
+    // Hot window: recent windows served from memory stay exact across corrections
+    @Test
+    void testHotWindowStatsFollowUpdates() {
+        Instant base = Instant.now().truncatedTo(ChronoUnit.MINUTES).minus(Duration.ofHours(2));
+        Instant end = base.plus(Duration.ofHours(1));
+        ingestionService.processBatch(List.of(
+                new MachineEvent("E-HOT-1", base.plusSeconds(10), "M-HOT-A", "L-HOT", 1000, 2),
+                new MachineEvent("E-HOT-2", base.plusSeconds(1800), "M-HOT-A", "L-HOT", 1000, 1)));
+
+        assertEquals(2, analyticsService.getStats("M-HOT-A", base, end).eventsCount());
+        assertEquals(3, analyticsService.getStats("M-HOT-A", base, end).defectsCount());
+
+        // Correction moves E-HOT-1 to another machine with a new defect count
+        ingestionService.processBatch(List.of(
+                new MachineEvent("E-HOT-1", base.plusSeconds(10), "M-HOT-B", "L-HOT", 1000, 4)));
+
+        AnalyticsService.MachineStats a = analyticsService.getStats("M-HOT-A", base, end);
+        AnalyticsService.MachineStats b = analyticsService.getStats("M-HOT-B", base, end);
+        assertEquals(1, a.eventsCount());
+        assertEquals(1, a.defectsCount());
+        assertEquals(1, b.eventsCount());
+        assertEquals(4, b.defectsCount());
+
+        // Unaligned window: ragged edges come from the database
+        assertEquals(0, analyticsService.getStats("M-HOT-B", base.plusSeconds(11), end).eventsCount());
+        assertEquals(1, analyticsService.getStats("M-HOT-B", base.plusSeconds(5), end.minusSeconds(5))
+                .eventsCount());
+    }
+
+    // Rollups: long windows split into raw edges, rollup buckets and hot buckets match raw queries
+    @Test
+    void testRollupPlannerMatchesRawQueries() {
+        Instant base = Instant.now().truncatedTo(ChronoUnit.DAYS).minus(Duration.ofDays(2)).minus(Duration.ofMinutes(90));
+        // Unique per run: the hot window may have loaded rows a previous run left in the database
+        String run = Long.toString(System.nanoTime(), 36);
+        List<MachineEvent> events = new ArrayList<>();
+        for (int i = 0; i < 60; i++) {
+            String lineId = i % 3 == 0 ? null : run + "-L" + (i % 3);
+            String machineId = i % 2 == 0 ? run + "-M1" : run + "-M2";
+            events.add(new MachineEvent("E-ROLL-" + i, base.plusSeconds(i * 3037L), machineId, lineId, 1000, i % 5 - 1));
+        }
+        ingestionService.processBatch(events);
+
+        // Recompute everything from raw rows, as on first start with existing data
+        jdbcTemplate.update("DELETE FROM event_rollups");
+        jdbcTemplate.update("DELETE FROM event_rollup_state");
+        rollupService.catchUp();
+        assertTrue(rollupService.covers(base, Instant.now()));
+        assertPlannerMatchesRaw(base, run);
+
+        // Deltas from ingestion: a correction moving an event to another machine, line and hour
+        ingestionService.processBatch(List.of(
+                new MachineEvent("E-ROLL-4", base.plusSeconds(7200 + 1), run + "-M2", run + "-L2", 1000, 7),
+                new MachineEvent("E-ROLL-NEW", base.plusSeconds(86400), run + "-M1", run + "-L1", 1000, 3)));
+        assertPlannerMatchesRaw(base, run);
+    }
+
+    // Retention: a reopened hour whose raw rows were retired keeps its rollups
+    @Test
+    void testRollupReconcileSkipsRetiredHours() {
+        rollupService.catchUp();
+        String machineId = "M-RET-" + Long.toString(System.nanoTime(), 36);
+        Instant hour = RollupService.floor(Instant.now().minus(Duration.ofDays(3)), 3600);
+        MachineEvent event = new MachineEvent("E-RET-" + machineId, hour.plusSeconds(600), machineId, null, 1000, 2);
+        ingestionService.processBatch(List.of(event));
+
+        // Partitions ending before yesterday are gone; so is the event, but its rollups stay
+        RollupService retaining = reconcilingRollups(Instant.now().minus(Duration.ofDays(1)));
+        retaining.onCommitted(List.of(new EventChange(null, event)));
+        jdbcTemplate.update("DELETE FROM events WHERE event_id = ?", event.getEventId());
+        retaining.catchUp();
+        assertEquals(new WindowTotals(1, 2), rollupService.machineTotals(3600, List.of(machineId), hour,
+                hour.plusSeconds(3600)).get(machineId));
+
+        // Without retention the hour is re-derived from what is left
+        RollupService keepingAll = reconcilingRollups(null);
+        keepingAll.onCommitted(List.of(new EventChange(null, event)));
+        keepingAll.catchUp();
+        assertNull(rollupService.machineTotals(3600, List.of(machineId), hour, hour.plusSeconds(3600))
+                .get(machineId));
+    }
+
+    private RollupService reconcilingRollups(Instant retainedFrom) {
+        EventPartitionService partitions = new EventPartitionService(null, dataSource, null, false, "week", 4, 0,
+                "drop") {
+            @Override
+            public Instant retainedFrom() {
+                return retainedFrom;
+            }
+        };
+        RollupService rollups = new RollupService(rollupRepository, rollupStateRepository, watermarks, partitions,
+                transactionManager, true, 168, 2);
+        // Loads the completed backfill state, so late corrections are tracked
+        rollups.catchUp();
+        return rollups;
+    }
+
+    private void assertPlannerMatchesRaw(Instant base, String run) {
+        Instant end = base.plus(Duration.ofDays(3));
+        List<Instant[]> windows = List.of(
+                new Instant[] { base.minusSeconds(7), end.plusSeconds(13) },
+                new Instant[] { base.plusSeconds(3037), base.plus(Duration.ofDays(1)).plusSeconds(1) },
+                new Instant[] { base.plusSeconds(90), base.plusSeconds(3600 * 5) });
+        for (Instant[] w : windows) {
+            for (String machineId : List.of(run + "-M1", run + "-M2")) {
+                AnalyticsService.MachineStats stats = analyticsService.getStats(machineId, w[0], w[1]);
+                assertEquals(repository.countEventsInWindow(machineId, w[0], w[1]), stats.eventsCount());
+                Long defects = repository.countDefectsInWindow(machineId, w[0], w[1]);
+                assertEquals(defects == null ? 0 : defects, stats.defectsCount());
+            }
+            // The hot window still remembers lines of earlier tests, deleted behind its back
+            List<AnalyticsService.TopDefectLine> lines = analyticsService.getTopDefectLines(w[0], w[1], 100).stream()
+                    .filter(l -> l.lineId() != null && l.lineId().startsWith(run)).toList();
+            List<MachineEventRepository.TopDefectProjection> raw = repository.findTopDefectLines(w[0], w[1], 100)
+                    .stream().filter(p -> p.getLineId() != null).toList();
+            assertEquals(raw.size(), lines.size());
+            for (MachineEventRepository.TopDefectProjection p : raw) {
+                AnalyticsService.TopDefectLine line = lines.stream()
+                        .filter(l -> Objects.equals(l.lineId(), p.getLineId())).findFirst().orElseThrow();
+                assertEquals(p.getTotalDefects(), line.totalDefects());
+                assertEquals(p.getEventCount(), line.eventCount());
+            }
+        }
+    }
+
+    // Top-K index: standard sliding windows per factory match the events across corrections and factory moves
+    @Test
+    void testTopDefectLinesPerFactoryMatchEvents() {
+        String run = Long.toString(System.nanoTime(), 36);
+        String factoryId = "F-" + run;
+        Instant now = Instant.now();
+        List<MachineEvent> events = new ArrayList<>();
+        for (int i = 0; i < 40; i++) {
+            String lineId = i % 4 == 0 ? null : run + "-L" + (i % 3);
+            events.add(new MachineEvent("E-TOPK-" + i, now.minusSeconds(60 + i * 1800L), run + "-M" + (i % 2), lineId,
+                    1000, i % 6 - 1));
+        }
+        ingestionService.processBatch(events);
+        assertTopLinesMatchEvents(run, null);
+        assertTopLinesMatchEvents(run, machineFactories.defaultFactoryId());
+        assertTopLinesMatchEvents(run, factoryId);
+
+        Machine machine = new Machine(run + "-M1", "Press", "SN-1", "Stamping", run + "-M1");
+        machine.setFactoryId(factoryId);
+        machineRegistry.save(machine);
+        double fromIndex = meterRegistry.counter("events.analytics.top_lines", "answer", "index").count();
+        assertTopLinesMatchEvents(run, null);
+        assertTopLinesMatchEvents(run, machineFactories.defaultFactoryId());
+        assertTopLinesMatchEvents(run, factoryId);
+        assertTrue(meterRegistry.counter("events.analytics.top_lines", "answer", "index").count() > fromIndex);
+
+        // Corrections moving events between machines, lines and factories
+        ingestionService.processBatch(List.of(
+                new MachineEvent("E-TOPK-2", now.minusSeconds(120), run + "-M1", run + "-L1", 1000, 9),
+                new MachineEvent("E-TOPK-3", now.minusSeconds(60 + 3 * 1800L), run + "-M0", run + "-L2", 1000, 4)));
+        assertTopLinesMatchEvents(run, null);
+        assertTopLinesMatchEvents(run, machineFactories.defaultFactoryId());
+        assertTopLinesMatchEvents(run, factoryId);
+    }
+
+    private void assertTopLinesMatchEvents(String run, String factoryId) {
+        // Index windows end with the current minute; the unaligned one goes through the planner
+        Instant to = Instant.now().truncatedTo(ChronoUnit.MINUTES).plusSeconds(60);
+        List<Instant> starts = List.of(to.minus(Duration.ofHours(24)), to.minus(Duration.ofHours(1)),
+                to.minus(Duration.ofHours(24)).plusSeconds(7));
+        for (Instant from : starts) {
+            Map<String, List<Long>> expected = new HashMap<>();
+            for (MachineEvent e : repository.findAll()) {
+                if (e.getLineId() != null && e.getLineId().startsWith(run) && !e.getEventTime().isBefore(from)
+                        && e.getEventTime().isBefore(to)
+                        && (factoryId == null || factoryId.equals(machineFactories.factoryOf(e.getMachineId())))) {
+                    expected.merge(e.getLineId(), List.of(1L, (long) Math.max(e.getDefectCount(), 0)),
+                            (a, b) -> List.of(a.get(0) + b.get(0), a.get(1) + b.get(1)));
+                }
+            }
+            Map<String, List<Long>> actual = new HashMap<>();
+            analyticsService.getTopDefectLines(factoryId, from, to, 100).stream()
+                    .filter(l -> l.lineId() != null && l.lineId().startsWith(run))
+                    .forEach(l -> actual.put(l.lineId(), List.of(l.eventCount(), l.totalDefects())));
+            assertEquals(expected, actual, "factory " + factoryId + " from " + from);
+        }
+    }
+
+    // Analytics reads go to the replica while it holds what they need, else to the primary
+    @Test
+    void testAnalyticsReadsRoutedToCurrentReplica() {
+        assertTrue(replicaReads.hasReplica());
+        ingestionService.processBatch(List.of(
+                new MachineEvent("E-RR-1", Instant.parse("2026-01-15T10:00:00Z"), "M-RR", "L1", 1000, 3)));
+        replicaReads.checkLag();
+        double replicaBefore = readCount("replica");
+        double primaryBefore = readCount("primary");
+
+        assertEquals(3, analyticsService.getStats("M-RR", Instant.parse("2026-01-15T10:00:00Z"),
+                Instant.parse("2026-01-15T11:00:00Z")).defectsCount());
+        assertEquals(replicaBefore + 1, readCount("replica"));
+
+        // Commits after the last lag check may be missing on the replica
+        long count = replicaReads.read(Instant.now().plusSeconds(60), repository::count);
+        assertEquals(1, count);
+        assertEquals(primaryBefore + 1, readCount("primary"));
+    }
+
+    // Closed windows come from the result cache until a late event for them commits
+    @Test
+    void testClosedWindowCachedUntilLateEvent() {
+        Instant start = Instant.parse("2026-01-15T10:00:00Z");
+        Instant end = Instant.parse("2026-01-15T11:00:00Z");
+        ingestionService.processBatch(List.of(
+                new MachineEvent("E-RC-1", Instant.parse("2026-01-15T10:10:00Z"), "M-RC", "L1", 1000, 2)));
+        double hitsBefore = meterRegistry.get("events.analytics.result_cache").tag("result", "hit").counter().count();
+
+        assertEquals(2, analyticsService.getStats("M-RC", start, end).defectsCount());
+        assertEquals(2, analyticsService.getStats("M-RC", start, end).defectsCount());
+        assertEquals(hitsBefore + 1,
+                meterRegistry.get("events.analytics.result_cache").tag("result", "hit").counter().count());
+
+        // Long sealed: stored as a correction
+        double correctionsBefore = meterRegistry.get("events.watermark.corrections").counter().count();
+        ingestionService.processBatch(List.of(
+                new MachineEvent("E-RC-2", Instant.parse("2026-01-15T10:20:00Z"), "M-RC", "L1", 1000, 5)));
+        assertEquals(7, analyticsService.getStats("M-RC", start, end).defectsCount());
+        assertEquals(correctionsBefore + 1, meterRegistry.get("events.watermark.corrections").counter().count());
+
+        // An update moving an event out of the window evicts it too
+        ingestionService.processBatch(List.of(
+                new MachineEvent("E-RC-1", Instant.parse("2026-01-15T12:00:00Z"), "M-RC", "L1", 1000, 2)));
+        assertEquals(5, analyticsService.getStats("M-RC", start, end).defectsCount());
+    }
+
+    private double readCount(String target) {
+        return meterRegistry.get("events.datasource.reads").tag("target", target).counter().count();
+    }
+
     // 8. Thread-safety test: concurrent ingestion
     @Test
     void testConcurrentIngestion() throws InterruptedException {
@@ -166,4 +882,201 @@ class FactoryEventsApplicationTests {
         assertTrue(latch.await(10, TimeUnit.SECONDS));
         assertEquals(threads * eventsPerThread, repository.count());
     }
+
+    // Overlapping eventIds from many threads: every id ends at its newest receivedTime, is
+    // accepted exactly once, and the aggregates agree with the stored rows
+    @Test
+    void testConcurrentOverlappingBatchesMergeDeterministically() throws Exception {
+        String machineId = "M-STRESS-" + Long.toString(System.nanoTime(), 36);
+        Instant eventTime = Instant.now().minus(Duration.ofHours(1)).truncatedTo(ChronoUnit.MINUTES);
+        Instant receivedBase = Instant.now().minus(Duration.ofMinutes(5));
+        int threads = 8;
+        int batchesPerThread = 25;
+        int ids = 60;
+        java.util.concurrent.atomic.AtomicLong receivedSequence = new java.util.concurrent.atomic.AtomicLong();
+        java.util.concurrent.ConcurrentMap<String, MachineEvent> newest = new java.util.concurrent.ConcurrentHashMap<>();
+        java.util.concurrent.atomic.AtomicInteger accepted = new java.util.concurrent.atomic.AtomicInteger();
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<java.util.concurrent.Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            final int seed = t;
+            futures.add(executor.submit(() -> {
+                java.util.Random random = new java.util.Random(seed);
+                for (int b = 0; b < batchesPerThread; b++) {
+                    List<MachineEvent> batch = new ArrayList<>();
+                    for (int j = 0; j < 20; j++) {
+                        String eventId = machineId + "-" + random.nextInt(ids);
+                        long sequence = receivedSequence.incrementAndGet();
+                        // Every version differs (durationMs), so none is deduped: a dedupe keeps the
+                        // stored receivedTime and would make the outcome depend on arrival order
+                        MachineEvent event = new MachineEvent(eventId, eventTime, machineId, "L-STRESS",
+                                1000 + sequence, random.nextInt(5));
+                        // Unique receivedTimes, handed out in an order unrelated to commit order
+                        event.setReceivedTime(receivedBase.plusMillis(sequence));
+                        newest.merge(eventId, new MachineEvent(event),
+                                (a, c) -> a.getReceivedTime().isAfter(c.getReceivedTime()) ? a : c);
+                        batch.add(event);
+                    }
+                    accepted.addAndGet(ingestionService.processBatch(batch).accepted.get());
+                }
+                return null;
+            }));
+        }
+        executor.shutdown();
+        for (java.util.concurrent.Future<?> future : futures) {
+            future.get(60, TimeUnit.SECONDS); // rethrows any constraint violation
+        }
+
+        assertEquals(newest.size(), accepted.get());
+        long expectedDefects = 0;
+        for (MachineEvent expected : newest.values()) {
+            MachineEvent stored = repository.findById(expected.getEventId()).orElseThrow();
+            assertEquals(expected.getDurationMs(), stored.getDurationMs(), expected.getEventId());
+            assertEquals(expected.getDefectCount(), stored.getDefectCount(), expected.getEventId());
+            expectedDefects += expected.getDefectCount();
+        }
+        AnalyticsService.MachineStats stats = analyticsService.getStats(machineId,
+                eventTime.minus(Duration.ofHours(2)), eventTime.plus(Duration.ofHours(1)));
+        assertEquals(newest.size(), stats.eventsCount());
+        assertEquals(expectedDefects, stats.defectsCount());
+    }
+
+    // The machine list is served from the registry with an ETag; a bulk upsert writes the whole
+    // line in one go and changes the ETag
+    @Test
+    void testMachineRegistryBulkUpsertAndEtag() throws Exception {
+        String run = "BULK-" + Long.toString(System.nanoTime(), 36);
+        MvcResult list = mockMvc.perform(get("/api/machines")).andExpect(status().isOk()).andReturn();
+        String etag = list.getResponse().getHeader(HttpHeaders.ETAG);
+        assertNotNull(etag);
+        mockMvc.perform(get("/api/machines").header(HttpHeaders.IF_NONE_MATCH, etag))
+                .andExpect(status().isNotModified());
+
+        List<Map<String, Object>> machines = new ArrayList<>();
+        for (int i = 0; i < 300; i++) {
+            Map<String, Object> machine = new HashMap<>();
+            machine.put("departmentId", run + "-M" + i);
+            machine.put("name", "Press " + i);
+            machine.put("factoryId", i == 0 ? " " : "F-" + run);
+            machines.add(machine);
+        }
+        // Listed twice: saved as the last entry
+        machines.add(Map.of("id", run + "-M1", "name", "Renamed", "factoryId", "F-" + run));
+        mockMvc.perform(post("/api/machines/bulk").contentType(MediaType.APPLICATION_JSON)
+                .content(objectMapper.writeValueAsString(machines))).andExpect(status().isOk());
+
+        assertEquals(3, machineRepository.findAllById(List.of(run + "-M0", run + "-M1", run + "-M299")).size());
+        assertEquals("Renamed", machineRepository.findById(run + "-M1").orElseThrow().getName());
+        assertNull(machineRegistry.find(run + "-M0").orElseThrow().getFactoryId());
+        assertEquals("F-" + run, machineFactories.factoryOf(run + "-M299"));
+        MvcResult changed = mockMvc.perform(get("/api/machines").header(HttpHeaders.IF_NONE_MATCH, etag))
+                .andExpect(status().isOk()).andReturn();
+        String newEtag = changed.getResponse().getHeader(HttpHeaders.ETAG);
+        assertNotEquals(etag, newEtag);
+        assertTrue(changed.getResponse().getContentAsString().contains(run + "-M299"));
+
+        // Updates go through the same path, and single saves keep the cache current too
+        mockMvc.perform(post("/api/machines").contentType(MediaType.APPLICATION_JSON)
+                .content(objectMapper.writeValueAsString(Map.of("id", run + "-M0", "name", "Single"))))
+                .andExpect(status().isOk());
+        mockMvc.perform(get("/api/machines/" + run + "-M0")).andExpect(status().isOk())
+                .andExpect(result -> assertTrue(result.getResponse().getContentAsString().contains("Single")));
+        mockMvc.perform(get("/api/machines").header(HttpHeaders.IF_NONE_MATCH, newEtag))
+                .andExpect(status().isOk());
+
+        mockMvc.perform(post("/api/machines/bulk").contentType(MediaType.APPLICATION_JSON).content("[]"))
+                .andExpect(status().isBadRequest());
+        mockMvc.perform(post("/api/machines/bulk").contentType(MediaType.APPLICATION_JSON)
+                .content("[{\"name\": \"No id\"}]")).andExpect(status().isBadRequest());
+    }
+
+    // Saves made through another instance reach this one through the table; reloading rows that
+    // did not change keeps the ETag
+    @Test
+    void testMachineRegistryPicksUpSavesOfOtherInstances() throws Exception {
+        String run = "REMOTE-" + Long.toString(System.nanoTime(), 36);
+        machineRegistry.refresh();
+        String etag = machineRegistry.snapshot().etag();
+        machineRegistry.refresh();
+        assertEquals(etag, machineRegistry.snapshot().etag());
+
+        Instant now = Instant.now();
+        jdbcTemplate.update("INSERT INTO machines (id, name, factory_id, last_updated) VALUES (?, ?, ?, ?)", run,
+                "Remote", "F-" + run, Timestamp.from(now));
+        machineRegistry.refresh();
+        assertEquals("Remote", machineRegistry.find(run).orElseThrow().getName());
+        assertEquals("F-" + run, machineFactories.factoryOf(run));
+        String inserted = machineRegistry.snapshot().etag();
+        assertNotEquals(etag, inserted);
+
+        jdbcTemplate.update("UPDATE machines SET name = ?, factory_id = NULL, last_updated = ? WHERE id = ?",
+                "Renamed", Timestamp.from(now.plusSeconds(1)), run);
+        machineRegistry.refresh();
+        assertEquals("Renamed", machineRegistry.find(run).orElseThrow().getName());
+        assertEquals(machineFactories.defaultFactoryId(), machineFactories.factoryOf(run));
+        mockMvc.perform(get("/api/machines").header(HttpHeaders.IF_NONE_MATCH, inserted))
+                .andExpect(status().isOk());
+    }
+
+    // Keyset pages and the streamed exports return the whole range once, in (eventTime, eventId)
+    // order, across eventTime ties and page boundaries
+    @Test
+    void testRawEventPagesAndExport() throws Exception {
+        String machineId = "M-EXP-" + Long.toString(System.nanoTime(), 36);
+        Instant start = Instant.now().minus(Duration.ofHours(3)).truncatedTo(ChronoUnit.MINUTES);
+        List<MachineEvent> events = new ArrayList<>();
+        for (int i = 0; i < 250; i++) {
+            // Three events per eventTime; the line holds a comma and a quote for the CSV
+            events.add(new MachineEvent("E-EXP-" + (1000 - i), start.plusSeconds(i / 3 * 10L), machineId,
+                    i % 2 == 0 ? "L,\"EXP\"" : null, 1000 + i, i % 4));
+        }
+        events.add(new MachineEvent("E-EXP-OUT", start.plus(Duration.ofHours(2)), machineId, null, 1000, 0));
+        ingestionService.processBatch(events);
+        List<String> expected = events.subList(0, 250).stream()
+                .sorted(java.util.Comparator.comparing(MachineEvent::getEventTime)
+                        .thenComparing(MachineEvent::getEventId))
+                .map(MachineEvent::getEventId)
+                .toList();
+        String range = "machineId=" + machineId + "&start=" + start + "&end=" + start.plus(Duration.ofHours(1));
+
+        List<String> paged = new ArrayList<>();
+        String cursor = null;
+        int pages = 0;
+        do {
+            String url = "/events?" + range + "&limit=40" + (cursor == null ? "" : "&cursor=" + cursor);
+            Map<?, ?> page = objectMapper.readValue(mockMvc.perform(get(url)).andExpect(status().isOk())
+                    .andReturn().getResponse().getContentAsString(), Map.class);
+            for (Object event : (List<?>) page.get("events")) {
+                paged.add((String) ((Map<?, ?>) event).get("eventId"));
+            }
+            cursor = (String) page.get("nextCursor");
+            pages++;
+        } while (cursor != null);
+        assertEquals(expected, paged);
+        assertEquals(7, pages);
+
+        String ndjson = mockMvc.perform(get("/events/export?" + range)).andExpect(status().isOk())
+                .andReturn().getResponse().getContentAsString();
+        List<String> exported = new ArrayList<>();
+        for (String line : ndjson.split("\n")) {
+            assertTrue(line.startsWith("{"), line);
+            MachineEvent event = objectMapper.readValue(line, MachineEvent.class);
+            exported.add(event.getEventId());
+        }
+        assertEquals(expected, exported);
+
+        String csv = mockMvc.perform(get("/events/export?" + range + "&format=csv")).andExpect(status().isOk())
+                .andReturn().getResponse().getContentAsString(StandardCharsets.UTF_8);
+        String[] rows = csv.split("\r\n");
+        assertEquals(251, rows.length);
+        assertEquals("eventId,eventTime,receivedTime,machineId,lineId,durationMs,defectCount", rows[0]);
+        MachineEvent first = events.get(0);
+        assertTrue(rows[1].startsWith(first.getEventId() + "," + first.getEventTime() + ","), rows[1]);
+        assertTrue(rows[1].endsWith("," + machineId + ",\"L,\"\"EXP\"\"\",1000,0"), rows[1]);
+
+        mockMvc.perform(get("/events?" + range + "&lineId=L1")).andExpect(status().isBadRequest());
+        mockMvc.perform(get("/events?" + range + "&cursor=not-a-cursor")).andExpect(status().isBadRequest());
+        mockMvc.perform(get("/events/export?" + range + "&format=xml")).andExpect(status().isBadRequest());
+    }
 }
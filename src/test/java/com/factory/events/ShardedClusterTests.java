@@ -0,0 +1,178 @@
+package com.factory.events;
+
+import com.factory.events.model.MachineEvent;
+import com.factory.events.service.AnalyticsService;
+import com.factory.events.service.EventIngestionService;
+import com.factory.events.sharding.ConsistentHashRing;
+import com.factory.events.sharding.ShardMembership;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.web.context.WebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.http.MediaType;
+import org.springframework.web.client.RestClient;
+
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Three application instances on localhost sharing one database, with ingestion sharded
+ * over some of them.
+ */
+class ShardedClusterTests {
+
+    private static final int VIRTUAL_NODES = 128;
+
+    private static final List<ConfigurableApplicationContext> nodes = new ArrayList<>();
+    private static RestClient http;
+
+    @BeforeAll
+    static void startNodes() {
+        for (int i = 0; i < 3; i++) {
+            nodes.add(new SpringApplicationBuilder(FactoryEventsApplication.class).run(
+                    "--server.port=0",
+                    "--spring.datasource.url=jdbc:h2:mem:cluster;MODE=PostgreSQL;DB_CLOSE_DELAY=-1",
+                    "--spring.datasource.username=sa",
+                    "--spring.datasource.password=",
+                    "--spring.jpa.database-platform=org.hibernate.dialect.H2Dialect",
+                    "--events.sharding.enabled=true",
+                    "--events.sharding.virtual-nodes=" + VIRTUAL_NODES,
+                    "--events.sharding.rebalance-settle-ms=0"));
+        }
+        http = RestClient.create();
+    }
+
+    @AfterAll
+    static void stopNodes() {
+        nodes.forEach(ConfigurableApplicationContext::close);
+    }
+
+    // A node outside the members forwards everything; each member writes only its own machines
+    @Test
+    void testBatchesSplitAndForwardedToOwners() throws InterruptedException {
+        List<String> members = List.of(url(0), url(1));
+        setMembers(members);
+        ConsistentHashRing ring = new ConsistentHashRing(members, VIRTUAL_NODES);
+        Instant time = Instant.now().truncatedTo(ChronoUnit.MINUTES).minus(10, ChronoUnit.MINUTES);
+        List<MachineEvent> batch = events("SPLIT", 40, time, 1);
+        double[] before = { outcome(0, "accepted"), outcome(1, "accepted"), outcome(2, "accepted") };
+
+        EventIngestionService.BatchResult result = ingest(2, batch);
+
+        assertEquals(40, result.accepted.get());
+        for (int i = 0; i < 2; i++) {
+            String node = url(i);
+            long owned = batch.stream().filter(e -> ring.owner(e.getMachineId()).equals(node)).count();
+            assertTrue(owned > 0, node);
+            assertEquals(before[i] + owned, outcome(i, "accepted"), node);
+        }
+        assertEquals(before[2], outcome(2, "accepted"));
+
+        Instant start = time.minus(1, ChronoUnit.HOURS);
+        Instant end = time.plus(5, ChronoUnit.MINUTES);
+        for (MachineEvent event : batch) {
+            AnalyticsService.MachineStats stats = stats(2, event.getMachineId(), start, end);
+            assertEquals(1, stats.eventsCount(), event.getMachineId());
+            assertEquals(1, stats.defectsCount(), event.getMachineId());
+        }
+        List<String> machineIds = new ArrayList<>(batch.stream().map(MachineEvent::getMachineId).toList());
+        Collections.reverse(machineIds);
+        List<AnalyticsService.MachineStats> batchStats = List.of(Objects.requireNonNull(http.post()
+                .uri(url(0) + "/stats/batch")
+                .contentType(MediaType.APPLICATION_JSON)
+                .body(new StatsBatch(machineIds, start, end))
+                .retrieve()
+                .body(AnalyticsService.MachineStats[].class)));
+        assertEquals(machineIds, batchStats.stream().map(AnalyticsService.MachineStats::machineId).toList());
+        assertTrue(batchStats.stream().allMatch(s -> s.eventsCount() == 1));
+    }
+
+    // A joining node reloads its caches and hot window before serving the machines it takes over
+    @Test
+    void testRebalanceHandsMachinesToJoiningNode() throws InterruptedException {
+        setMembers(List.of(url(0), url(1)));
+        Instant time = Instant.now().truncatedTo(ChronoUnit.MINUTES).minus(10, ChronoUnit.MINUTES);
+        List<MachineEvent> batch = events("JOIN", 60, time, 1);
+        assertEquals(60, ingest(0, batch).accepted.get());
+
+        List<String> members = List.of(url(0), url(1), url(2));
+        setMembers(members);
+        ConsistentHashRing ring = new ConsistentHashRing(members, VIRTUAL_NODES);
+        long taken = batch.stream().filter(e -> ring.owner(e.getMachineId()).equals(url(2))).count();
+        assertTrue(taken > 0);
+
+        // The new owner finds the rows written by the previous one
+        double dedupedBefore = outcome(2, "deduped");
+        assertEquals(60, ingest(1, events("JOIN", 60, time, 1)).deduped.get());
+        assertEquals(dedupedBefore + taken, outcome(2, "deduped"));
+
+        assertEquals(60, ingest(1, events("JOIN", 60, time, 3)).updated.get());
+        Instant start = time.minus(1, ChronoUnit.HOURS);
+        Instant end = time.plus(5, ChronoUnit.MINUTES);
+        for (MachineEvent event : batch) {
+            AnalyticsService.MachineStats stats = stats(0, event.getMachineId(), start, end);
+            assertEquals(1, stats.eventsCount(), event.getMachineId());
+            assertEquals(3, stats.defectsCount(), event.getMachineId());
+        }
+    }
+
+    private record StatsBatch(List<String> machineIds, Instant start, Instant end) {
+    }
+
+    private static List<MachineEvent> events(String prefix, int machines, Instant time, int defects) {
+        List<MachineEvent> events = new ArrayList<>();
+        for (int i = 0; i < machines; i++) {
+            events.add(new MachineEvent("E-" + prefix + "-" + i, time, "M-" + prefix + "-" + i, "L1", 1000, defects));
+        }
+        return events;
+    }
+
+    private static EventIngestionService.BatchResult ingest(int node, List<MachineEvent> events) {
+        return http.post()
+                .uri(url(node) + "/events/batch")
+                .contentType(MediaType.APPLICATION_JSON)
+                .body(events)
+                .retrieve()
+                .body(EventIngestionService.BatchResult.class);
+    }
+
+    private static AnalyticsService.MachineStats stats(int node, String machineId, Instant start, Instant end) {
+        return http.get()
+                .uri(url(node) + "/stats?machineId={machineId}&start={start}&end={end}", machineId, start, end)
+                .retrieve()
+                .body(AnalyticsService.MachineStats.class);
+    }
+
+    // The same list on every node; with no settle period the rebalance ends right away
+    private static void setMembers(List<String> members) throws InterruptedException {
+        for (int i = 0; i < nodes.size(); i++) {
+            http.put().uri(url(i) + "/cluster/members").contentType(MediaType.APPLICATION_JSON).body(members)
+                    .retrieve().toBodilessEntity();
+        }
+        long deadline = System.currentTimeMillis() + 30_000;
+        for (ConfigurableApplicationContext node : nodes) {
+            while (node.getBean(ShardMembership.class).status().rebalancing()) {
+                assertTrue(System.currentTimeMillis() < deadline, "rebalance did not settle");
+                Thread.sleep(20);
+            }
+        }
+    }
+
+    private static double outcome(int node, String outcome) {
+        return nodes.get(node).getBean(MeterRegistry.class).get("events.ingestion.events").tag("outcome", outcome)
+                .counter().count();
+    }
+
+    private static String url(int node) {
+        return "http://localhost:" + ((WebServerApplicationContext) nodes.get(node)).getWebServer().getPort();
+    }
+}
@@ -0,0 +1,95 @@
+package com.factory.events.archive;
+
+import com.factory.events.model.MachineEvent;
+import com.factory.events.model.WindowTotals;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ArchiveSegmentTest {
+
+    private static final Instant DAY_START = Instant.parse("2026-01-15T00:00:00Z");
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void testRoundTripKeepsEveryColumnInMachineTimeOrder() throws Exception {
+        MachineEvent late = event("E-2", "M-2", null, 1_500, 3);
+        late.setReceivedTime(DAY_START.plusSeconds(90_000).plusNanos(123_000));
+        MachineEvent early = event("E-1", "M-1", "L-1", 60, -1);
+        MachineEvent second = event("E-10", "M-1", "L-1", 30, 0);
+
+        ArchiveSegment.write(dir.resolve("s.seg"), List.of(late, early, second));
+        List<MachineEvent> read = ArchiveSegment.open(dir.resolve("s.seg")).readAll();
+
+        assertEquals(List.of("E-10", "E-1", "E-2"), read.stream().map(MachineEvent::getEventId).toList());
+        MachineEvent m2 = read.get(2);
+        assertEquals(late.getEventTime(), m2.getEventTime());
+        assertEquals(late.getReceivedTime(), m2.getReceivedTime());
+        assertNull(m2.getLineId());
+        assertEquals(3, m2.getDefectCount());
+        assertEquals(1_000, m2.getDurationMs());
+        assertNull(read.get(0).getReceivedTime());
+        assertEquals(-1, read.get(1).getDefectCount());
+    }
+
+    @Test
+    void testZoneMapsSkipBlocksOfOtherMachinesAndTimes() throws Exception {
+        List<MachineEvent> events = new ArrayList<>();
+        for (int m = 0; m < 4; m++) {
+            for (int i = 0; i < ArchiveSegment.BLOCK_ROWS; i++) {
+                events.add(event("E-" + m + "-" + i, "M-" + m, "L-" + (m % 2), i * 10L, i % 7 == 0 ? 2 : 0));
+            }
+        }
+        ArchiveSegment segment = ArchiveSegment.write(dir.resolve("s.seg"), events);
+        assertEquals(4, segment.blockCount());
+        assertTrue(Files.size(segment.file()) < events.size() * 8L, "run-length and delta encoding compress");
+
+        long[] seen = new long[2];
+        long from = ArchiveSegment.micros(DAY_START.plusSeconds(100));
+        long to = ArchiveSegment.micros(DAY_START.plusSeconds(200));
+        int read = segment.scan(Set.of("M-2"), from, to, (machineId, lineId, time, defects) -> {
+            assertEquals("M-2", machineId);
+            seen[0]++;
+            seen[1] += defects;
+        });
+        assertEquals(1, read);
+        assertEquals(10, seen[0]); // rows at 100, 110, ..., 190 seconds
+        assertEquals(0, segment.scan(Set.of("M-9"), from, to, (machineId, lineId, time, defects) -> fail()));
+        assertEquals(0, segment.scan(null, to + 100_000_000_000L, Long.MAX_VALUE,
+                (machineId, lineId, time, defects) -> fail()));
+    }
+
+    @Test
+    void testArchiveTotalsAndDiscardOfUncommittedDays() throws Exception {
+        EventArchive archive = EventArchive.open(dir);
+        archive.write(LocalDate.parse("2026-01-15"), List.of(event("E-1", "M-1", "L-1", 10, 2),
+                event("E-2", "M-1", "L-2", 20, 5), event("E-3", "M-2", "L-1", 30, -1)));
+        archive.write(LocalDate.parse("2026-01-16"), List.of(event("E-4", "M-1", "L-1", 86_400, 1)));
+
+        Instant end = DAY_START.plusSeconds(25);
+        assertEquals(new WindowTotals(2, 7), archive.machineTotals(List.of("M-1", "M-2"), DAY_START, end).get("M-1"));
+        assertFalse(archive.machineTotals(List.of("M-1", "M-2"), DAY_START, end).containsKey("M-2"));
+        Map<String, WindowTotals> lines = archive.lineTotals(DAY_START, DAY_START.plusSeconds(2 * 86_400));
+        assertEquals(new WindowTotals(3, 3), lines.get("L-1"));
+
+        archive.discardFrom(LocalDate.parse("2026-01-16"));
+        EventArchive reopened = EventArchive.open(dir);
+        assertTrue(reopened.segment(LocalDate.parse("2026-01-15")).isPresent());
+        assertTrue(reopened.segment(LocalDate.parse("2026-01-16")).isEmpty());
+    }
+
+    private static MachineEvent event(String eventId, String machineId, String lineId, long offsetSeconds,
+            int defectCount) {
+        return new MachineEvent(eventId, DAY_START.plusSeconds(offsetSeconds), machineId, lineId, 1_000,
+                defectCount);
+    }
+}
@@ -0,0 +1,83 @@
+package com.factory.events.codec;
+
+import com.factory.events.model.MachineEvent;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import org.junit.jupiter.api.Test;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BinaryBatchCodecTest {
+
+    @Test
+    void testRoundTripKeepsEveryField() {
+        List<MachineEvent> events = List.of(
+                new MachineEvent("E-000123", Instant.parse("2026-01-15T10:00:00.250Z"), "M-001", "L1", 1500, 3),
+                new MachineEvent("E-000124", Instant.parse("2026-01-15T09:59:59Z"), "M-002", null, 0, -1),
+                new MachineEvent("Ä-1", Instant.parse("1969-12-31T23:59:59Z"), "M-001", "L1", 21600000, 0));
+
+        List<MachineEvent> decoded = BinaryBatchCodec.decode(BinaryBatchCodec.encode(events));
+
+        assertEquals(events.size(), decoded.size());
+        for (int i = 0; i < events.size(); i++) {
+            MachineEvent expected = events.get(i);
+            MachineEvent actual = decoded.get(i);
+            assertEquals(expected.getEventId(), actual.getEventId());
+            assertEquals(expected.getEventTime(), actual.getEventTime());
+            assertEquals(expected.getMachineId(), actual.getMachineId());
+            assertEquals(expected.getLineId(), actual.getLineId());
+            assertEquals(expected.getDurationMs(), actual.getDurationMs());
+            assertEquals(expected.getDefectCount(), actual.getDefectCount());
+        }
+        // Dictionary entries are shared, not re-created per event
+        assertSame(decoded.get(0).getMachineId(), decoded.get(2).getMachineId());
+    }
+
+    @Test
+    void testTypicalBatchIsFarSmallerThanJson() throws Exception {
+        List<MachineEvent> events = new ArrayList<>();
+        Instant start = Instant.parse("2026-01-15T10:00:00Z");
+        for (int i = 0; i < 1000; i++) {
+            events.add(new MachineEvent(String.format("EVT-2026-01-15-%06d", i), start.plusMillis(i * 850L),
+                    "MACHINE-" + (i % 40), "LINE-" + (i % 5), 1000 + i % 700, i % 7 == 0 ? 2 : 0));
+        }
+        ObjectMapper json = new ObjectMapper().findAndRegisterModules()
+                .disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS);
+
+        int jsonBytes = json.writeValueAsBytes(events).length;
+        int binaryBytes = BinaryBatchCodec.encode(events).length;
+
+        assertTrue(jsonBytes >= 5 * binaryBytes, "json=" + jsonBytes + " binary=" + binaryBytes);
+    }
+
+    @Test
+    void testRejectsCorruptInput() {
+        byte[] valid = BinaryBatchCodec.encode(List.of(
+                new MachineEvent("E-1", Instant.parse("2026-01-15T10:00:00Z"), "M-001", "L1", 1000, 0)));
+
+        assertThrows(IllegalArgumentException.class, () -> BinaryBatchCodec.decode(new byte[] { 'X', 'Y', 1 }));
+        assertThrows(IllegalArgumentException.class,
+                () -> BinaryBatchCodec.decode(Arrays.copyOf(valid, valid.length - 1)));
+        assertThrows(IllegalArgumentException.class,
+                () -> BinaryBatchCodec.decode(Arrays.copyOf(valid, valid.length + 1)));
+        // Claims far more events than the input could hold
+        byte[] huge = { 'M', 'E', 1, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x7F, 0 };
+        assertThrows(IllegalArgumentException.class, () -> BinaryBatchCodec.decode(huge));
+        // machineRef 0 (null) on a required column
+        byte[] noMachine = { 'M', 'E', 1, 1, 0, 0, 1, 'E', 0, 0, 0, 0, 0 };
+        assertThrows(IllegalArgumentException.class, () -> BinaryBatchCodec.decodeColumns(noMachine));
+    }
+
+    @Test
+    void testRefusesToEncodeAnEventWithoutMachineId() {
+        List<MachineEvent> events = List.of(
+                new MachineEvent("E-1", Instant.parse("2026-01-15T10:00:00Z"), null, "L1", 1000, 0));
+
+        assertThrows(IllegalArgumentException.class, () -> BinaryBatchCodec.encode(events));
+    }
+}
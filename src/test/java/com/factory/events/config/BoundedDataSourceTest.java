@@ -0,0 +1,31 @@
+package com.factory.events.config;
+
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.jupiter.api.Test;
+
+import java.sql.Connection;
+import java.sql.SQLTransientConnectionException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BoundedDataSourceTest {
+
+    @Test
+    void testConnectionsBeyondTheBoundWaitUntilOneIsClosed() throws Exception {
+        JdbcDataSource h2 = new JdbcDataSource();
+        h2.setURL("jdbc:h2:mem:bounded;DB_CLOSE_DELAY=-1");
+        BoundedDataSource dataSource = new BoundedDataSource(h2, 1, 100);
+
+        Connection first = dataSource.getConnection();
+        assertThrows(SQLTransientConnectionException.class, dataSource::getConnection);
+
+        first.close();
+        first.close(); // a second close must not hand out a second permit
+        assertTrue(first.isClosed());
+        try (Connection second = dataSource.getConnection()) {
+            assertFalse(second.isClosed());
+            assertThrows(SQLTransientConnectionException.class, dataSource::getConnection);
+        }
+        dataSource.getConnection().close();
+    }
+}
@@ -0,0 +1,68 @@
+package com.factory.events.service;
+
+import com.factory.events.config.WorkerThreads;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BatchPartitionerTest {
+
+    @Test
+    void testSmallBatchesStaySerial() {
+        BatchPartitioner partitioner = new BatchPartitioner(WorkerThreads.platform(), 1000, 4);
+        assertEquals(1, partitioner.partitionsFor(999));
+        assertEquals(4, partitioner.partitionsFor(1000));
+        assertEquals(1, BatchPartitioner.serial().partitionsFor(1_000_000));
+    }
+
+    // All partitions run at once, the first on the caller; results come back in partition order
+    @Test
+    void testPartitionsRunConcurrentlyInOrder() {
+        BatchPartitioner partitioner = new BatchPartitioner(WorkerThreads.platform(), 1, 4);
+        CountDownLatch allStarted = new CountDownLatch(4);
+        Set<Thread> threads = ConcurrentHashMap.newKeySet();
+
+        List<Integer> results = partitioner.run(4, p -> {
+            threads.add(Thread.currentThread());
+            allStarted.countDown();
+            try {
+                assertTrue(allStarted.await(10, TimeUnit.SECONDS));
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+            return p * 10;
+        });
+
+        assertEquals(List.of(0, 10, 20, 30), results);
+        assertEquals(4, threads.size());
+        assertTrue(threads.contains(Thread.currentThread()));
+    }
+
+    @Test
+    void testFailureRethrownAfterAllPartitionsFinish() {
+        BatchPartitioner partitioner = new BatchPartitioner(WorkerThreads.platform(), 1, 4);
+        AtomicInteger finished = new AtomicInteger();
+
+        IllegalArgumentException failure = assertThrows(IllegalArgumentException.class, () -> partitioner.run(4, p -> {
+            if (p == 2) {
+                throw new IllegalArgumentException("partition 2");
+            }
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+            return finished.incrementAndGet();
+        }));
+
+        assertEquals("partition 2", failure.getMessage());
+        assertEquals(3, finished.get());
+    }
+}
@@ -0,0 +1,35 @@
+package com.factory.events.service;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class EventIdBloomFilterTest {
+
+    @Test
+    void testNeverForgetsAnAddedId() {
+        EventIdBloomFilter filter = new EventIdBloomFilter(10_000, 0.01);
+        for (int i = 0; i < 10_000; i++) {
+            filter.put(String.format("EVT-2026-01-15-%06d", i));
+        }
+        for (int i = 0; i < 10_000; i++) {
+            assertTrue(filter.mightContain(String.format("EVT-2026-01-15-%06d", i)));
+        }
+    }
+
+    @Test
+    void testFalsePositiveRateIsNearTheTarget() {
+        EventIdBloomFilter filter = new EventIdBloomFilter(50_000, 0.01);
+        for (int i = 0; i < 50_000; i++) {
+            filter.put("E-" + i);
+        }
+        int falsePositives = 0;
+        for (int i = 50_000; i < 150_000; i++) {
+            if (filter.mightContain("E-" + i)) {
+                falsePositives++;
+            }
+        }
+        // Target 1% of 100k probes; sequential ids must not cluster
+        assertTrue(falsePositives < 2_000, "false positives: " + falsePositives);
+    }
+}
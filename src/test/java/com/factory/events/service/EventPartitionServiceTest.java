@@ -0,0 +1,27 @@
+package com.factory.events.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Instant;
+
+import static com.factory.events.service.EventPartitionService.Interval.DAY;
+import static com.factory.events.service.EventPartitionService.Interval.WEEK;
+import static org.junit.jupiter.api.Assertions.*;
+
+class EventPartitionServiceTest {
+
+    @Test
+    void testPeriodsAreUtcDaysAndMondayWeeks() {
+        // Sunday evening, last instant of an ISO week
+        Instant sunday = Instant.parse("2026-01-18T23:59:59.999Z");
+
+        assertEquals(Instant.parse("2026-01-18T00:00:00Z"), EventPartitionService.periodStart(sunday, DAY));
+        assertEquals(Instant.parse("2026-01-12T00:00:00Z"), EventPartitionService.periodStart(sunday, WEEK));
+        assertEquals(Instant.parse("2026-01-19T00:00:00Z"),
+                EventPartitionService.periodStart(Instant.parse("2026-01-19T00:00:00Z"), WEEK));
+        assertEquals(Instant.parse("2026-01-19T00:00:00Z"),
+                EventPartitionService.next(Instant.parse("2026-01-12T00:00:00Z"), WEEK));
+        assertEquals(Instant.parse("2026-01-13T00:00:00Z"),
+                EventPartitionService.next(Instant.parse("2026-01-12T00:00:00Z"), DAY));
+    }
+}
@@ -0,0 +1,69 @@
+package com.factory.events.service;
+
+import com.factory.events.model.MachineEvent;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class EventTimeWatermarksTest {
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    private final EventTimeWatermarks watermarks = new EventTimeWatermarks(registry, 5, 60);
+    private final Instant now = Instant.now();
+
+    @Test
+    void testSealedThroughFollowsTheSlowestActiveMachine() {
+        assertSealedNear(now.minus(Duration.ofMinutes(60)));
+
+        watermarks.onCommitted(List.of(insert("E-1", "M-1", 10), insert("E-2", "M-2", 30)));
+        // Not folded in yet: the batch is judged against the watermarks it arrived under
+        assertFalse(watermarks.isSealed(event("E-3", "M-1", 20)));
+
+        watermarks.advance();
+        assertSealedNear(now.minus(Duration.ofMinutes(35)));
+        assertTrue(watermarks.isSealed(event("E-3", "M-1", 20)));
+        assertFalse(watermarks.isSealed(event("E-3", "M-2", 32)));
+        assertFalse(watermarks.isSealed(event("E-3", "M-3", 34)));
+
+        // A machine that was quiet or is backfilling cannot move it back
+        watermarks.onCommitted(List.of(insert("E-4", "M-4", 50), insert("E-5", "M-5", 24 * 60)));
+        watermarks.advance();
+        assertSealedNear(now.minus(Duration.ofMinutes(35)));
+    }
+
+    @Test
+    void testWritesIntoSealedWindowsCountAsCorrections() {
+        watermarks.onCommitted(List.of(insert("E-1", "M-1", 10)));
+        watermarks.advance();
+        assertSealedNear(now.minus(Duration.ofMinutes(15)));
+
+        watermarks.onCommitted(List.of(
+                insert("E-2", "M-1", 20), // sealed
+                insert("E-3", "M-2", 12), // open
+                insert("E-4", "M-2", 90), // sealed
+                new EventChange(event("E-1", "M-1", 10), event("E-1", "M-1", 20)), // moved into a sealed window
+                new EventChange(event("E-5", "M-2", 30), event("E-5", "M-2", 8)), // moved out of one
+                new EventChange(event("E-6", "M-1", 2), event("E-6", "M-1", 3)))); // open
+
+        assertEquals(4, registry.get("events.watermark.corrections").counter().count());
+    }
+
+    private void assertSealedNear(Instant expected) {
+        long drift = Math.abs(Duration.between(expected, watermarks.sealedThrough()).toSeconds());
+        assertTrue(drift < 10, "sealed through " + watermarks.sealedThrough() + ", expected " + expected);
+    }
+
+    private EventChange insert(String eventId, String machineId, long minutesAgo) {
+        return new EventChange(null, event(eventId, machineId, minutesAgo));
+    }
+
+    private MachineEvent event(String eventId, String machineId, long minutesAgo) {
+        return new MachineEvent(eventId, now.minus(minutesAgo, ChronoUnit.MINUTES), machineId, "L-1", 1000, 0);
+    }
+}
@@ -0,0 +1,199 @@
+package com.factory.events.service;
+
+import com.factory.events.config.WorkerThreads;
+import com.factory.events.model.MachineEvent;
+import com.factory.events.repository.MachineEventRepository;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.lang.reflect.Proxy;
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LiveStatsFeedTest {
+
+    private final ObjectMapper objectMapper = new ObjectMapper().findAndRegisterModules();
+
+    @Test
+    void testDeltasSinceTheLastFrameReachEverySubscriber() throws Exception {
+        LiveStatsFeed feed = feed(30_000);
+        RecordingSink a = new RecordingSink(null);
+        RecordingSink b = new RecordingSink(null);
+        feed.subscribe(a);
+        feed.subscribe(b);
+
+        MachineEvent before = event("E-1", "M-1", "L-1", 2);
+        MachineEvent after = event("E-1", "M-1", "L-1", 5);
+        feed.onCommitted(List.of(new EventChange(null, before), new EventChange(null, event("E-2", "M-2", null, 1))));
+        feed.onCommitted(List.of(new EventChange(before, after)));
+        MachineEvent old = event("E-3", "M-1", "L-1", 0);
+        old.setEventTime(Instant.EPOCH);
+        feed.onCommitted(List.of(new EventChange(null, old)));
+        feed.flush();
+
+        for (RecordingSink sink : List.of(a, b)) {
+            assertEquals("snapshot", sink.next().get("event").asText());
+            JsonNode delta = sink.next();
+            assertEquals("delta", delta.get("event").asText());
+            JsonNode machines = delta.get("data").get("machines");
+            assertEquals(2, machines.size());
+            assertEquals(1, totals(machines, "M-1").get("eventCount").asLong()); // E-3 is outside the window
+            assertEquals(5, totals(machines, "M-1").get("defectSum").asLong());
+            assertEquals(1, totals(machines, "M-2").get("defectSum").asLong());
+        }
+    }
+
+    @Test
+    void testSlowSubscriberGetsOneCoalescedDeltaWithoutHoldingBackOthers() throws Exception {
+        LiveStatsFeed feed = feed(30_000);
+        CountDownLatch release = new CountDownLatch(1);
+        RecordingSink slow = new RecordingSink(release);
+        RecordingSink fast = new RecordingSink(null);
+        feed.subscribe(slow);
+        feed.subscribe(fast);
+        fast.next(); // snapshot
+
+        for (int i = 0; i < 3; i++) {
+            feed.onCommitted(List.of(new EventChange(null, event("E-" + i, "M-1", "L-1", 1))));
+            feed.flush();
+            assertEquals(1, fast.next().get("data").get("machines").get(0).get("eventCount").asLong());
+        }
+
+        release.countDown();
+        assertEquals("snapshot", slow.next().get("event").asText());
+        JsonNode merged = slow.next().get("data");
+        assertEquals(3, merged.get("seq").asLong());
+        assertEquals(3, merged.get("machines").get(0).get("eventCount").asLong());
+        assertNull(slow.frames.poll(200, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    void testSubscriberLaggingBeyondMaxLagIsDisconnected() throws Exception {
+        LiveStatsFeed feed = feed(50);
+        RecordingSink stuck = new RecordingSink(new CountDownLatch(1));
+        feed.subscribe(stuck);
+
+        feed.onCommitted(List.of(new EventChange(null, event("E-1", "M-1", "L-1", 1))));
+        feed.flush();
+        Thread.sleep(100);
+        feed.onCommitted(List.of(new EventChange(null, event("E-2", "M-1", "L-1", 1))));
+        feed.flush();
+
+        assertTrue(stuck.closed.await(1, TimeUnit.SECONDS));
+        assertTrue(feed.subscribe(new RecordingSink(null)).isPresent());
+    }
+
+    // Changes pending when a subscriber joins are already in the hot window its snapshot reads
+    @Test
+    void testSnapshotAndDeltasAddUpForSubscriberJoiningBeforeFlush() throws Exception {
+        EventCommitBarrier barrier = new EventCommitBarrier();
+        // Warmed up from an empty table
+        MachineEventRepository emptyTable = (MachineEventRepository) Proxy.newProxyInstance(
+                getClass().getClassLoader(), new Class<?>[] { MachineEventRepository.class },
+                (proxy, method, args) -> List.of());
+        HotWindowAggregateStore hotWindow = new HotWindowAggregateStore(emptyTable, barrier, true, 48, 60);
+        hotWindow.warmUp();
+        LiveStatsFeed feed = feed(hotWindow, barrier, 30_000);
+        RecordingSink early = new RecordingSink(null);
+        feed.subscribe(early);
+
+        commit(hotWindow, feed, event("E-1", "M-1", "L-1", 2));
+        RecordingSink late = new RecordingSink(null);
+        feed.subscribe(late);
+        feed.flush();
+        commit(hotWindow, feed, event("E-2", "M-1", "L-1", 3));
+        feed.flush();
+
+        for (RecordingSink sink : List.of(early, late)) {
+            long events = 0;
+            long defects = 0;
+            while (events < 2) {
+                for (JsonNode machine : sink.next().get("data").get("machines")) {
+                    events += machine.get("eventCount").asLong();
+                    defects += machine.get("defectSum").asLong();
+                }
+            }
+            assertEquals(2, events);
+            assertEquals(5, defects);
+            assertNull(sink.frames.poll(200, TimeUnit.MILLISECONDS));
+        }
+    }
+
+    private static void commit(HotWindowAggregateStore hotWindow, LiveStatsFeed feed, MachineEvent event) {
+        List<EventChange> changes = List.of(new EventChange(null, event));
+        hotWindow.onCommitted(changes);
+        feed.onCommitted(changes);
+    }
+
+    private LiveStatsFeed feed(long maxLagMillis) {
+        // The hot window is off, so snapshots are empty and only deltas carry totals
+        return feed(new HotWindowAggregateStore(null, null, false, 48, 60), new EventCommitBarrier(), maxLagMillis);
+    }
+
+    private LiveStatsFeed feed(HotWindowAggregateStore hotWindow, EventCommitBarrier barrier, long maxLagMillis) {
+        return new LiveStatsFeed(hotWindow, barrier, objectMapper, new SimpleMeterRegistry(), true, 60, 10, 10,
+                60_000, maxLagMillis, 2, WorkerThreads.platform());
+    }
+
+    private static JsonNode totals(JsonNode list, String id) {
+        for (JsonNode node : list) {
+            if (id.equals(node.get("id").asText())) {
+                return node;
+            }
+        }
+        throw new AssertionError("No totals for " + id);
+    }
+
+    private static MachineEvent event(String eventId, String machineId, String lineId, int defectCount) {
+        return new MachineEvent(eventId, Instant.now().minusSeconds(60), machineId, lineId, 1000, defectCount);
+    }
+
+    private final class RecordingSink implements LiveStatsFeed.Sink {
+        final BlockingQueue<JsonNode> frames = new LinkedBlockingQueue<>();
+        final CountDownLatch closed = new CountDownLatch(1);
+        private final CountDownLatch release;
+
+        RecordingSink(CountDownLatch release) {
+            this.release = release;
+        }
+
+        @Override
+        public void send(String event, String json) {
+            try {
+                if (release != null) {
+                    release.await();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            frames.add(objectMapper.createObjectNode().put("event", event).set("data", read(json)));
+        }
+
+        @Override
+        public void close() {
+            closed.countDown();
+        }
+
+        JsonNode next() throws InterruptedException {
+            JsonNode frame = frames.poll(5, TimeUnit.SECONDS);
+            assertNotNull(frame, "no frame received");
+            return frame;
+        }
+
+        private JsonNode read(String json) {
+            try {
+                return objectMapper.readTree(json);
+            } catch (Exception e) {
+                throw new AssertionError(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,35 @@
+package com.factory.events.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Instant;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ReplicaReadsTest {
+
+    @Test
+    void testWalPositionsCompareAsNumbers() {
+        assertEquals(0x16B374D848L, ReplicaReads.lsn("16/B374D848"));
+        assertTrue(ReplicaReads.lsn("1/0") > ReplicaReads.lsn("0/FFFFFFFF"));
+    }
+
+    // A standby that stopped receiving WAL has replayed all it got, yet falls behind the primary
+    @Test
+    void testStandbyIsCurrentAsOfTheLastCheckItReplayedPast() {
+        ReplicaReads.ReplayProbes probes = new ReplicaReads.ReplayProbes();
+        Instant t0 = Instant.parse("2026-01-15T10:00:00Z");
+
+        probes.add(t0, 100);
+        assertEquals(t0, probes.replayedThrough(100));
+
+        probes.add(t0.plusSeconds(1), 200);
+        probes.add(t0.plusSeconds(2), 300);
+        assertNull(probes.replayedThrough(150));
+        assertNull(probes.replayedThrough(150));
+
+        probes.add(t0.plusSeconds(3), 300);
+        assertEquals(t0.plusSeconds(3), probes.replayedThrough(320));
+        assertNull(probes.replayedThrough(320));
+    }
+}
@@ -0,0 +1,48 @@
+package com.factory.events.sharding;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ConsistentHashRingTest {
+
+    private static final int KEYS = 20_000;
+
+    @Test
+    void testKeysSpreadEvenlyOverNodes() {
+        ConsistentHashRing ring = new ConsistentHashRing(List.of("http://a", "http://b", "http://c", "http://d"), 128);
+        Map<String, Integer> counts = new HashMap<>();
+        for (int i = 0; i < KEYS; i++) {
+            counts.merge(ring.owner("M-" + i), 1, Integer::sum);
+        }
+        assertEquals(4, counts.size());
+        counts.forEach((node, count) -> assertTrue(count > KEYS * 0.15 && count < KEYS * 0.35, node + ": " + count));
+    }
+
+    @Test
+    void testJoiningNodeOnlyTakesKeys() {
+        ConsistentHashRing before = new ConsistentHashRing(List.of("http://a", "http://b", "http://c", "http://d"), 128);
+        ConsistentHashRing after = new ConsistentHashRing(
+                List.of("http://e", "http://d", "http://c", "http://b", "http://a"), 128);
+        int moved = 0;
+        for (int i = 0; i < KEYS; i++) {
+            String owner = after.owner("M-" + i);
+            if (!owner.equals(before.owner("M-" + i))) {
+                assertEquals("http://e", owner);
+                moved++;
+            }
+        }
+        assertTrue(moved > KEYS * 0.1 && moved < KEYS * 0.3, "moved " + moved);
+
+        // Member order does not matter
+        assertEquals(after.version(),
+                new ConsistentHashRing(List.of("http://a", "http://b", "http://c", "http://d", "http://e"), 128)
+                        .version());
+        assertNotEquals(before.version(), after.version());
+        assertNull(new ConsistentHashRing(List.of(), 128).owner("M-1"));
+    }
+}
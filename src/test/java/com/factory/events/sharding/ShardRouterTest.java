@@ -0,0 +1,61 @@
+package com.factory.events.sharding;
+
+import com.factory.events.config.WorkerThreads;
+import com.factory.events.model.MachineEvent;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.web.client.RestClient;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ShardRouterTest {
+
+    private static final String[] NODES = { "http://a", "http://b" };
+
+    // Node-local queues and files would take writes of machines this node does not own
+    @Test
+    void testShardingRefusesAsyncIngestionWalAndArchive() {
+        for (boolean[] flags : List.of(new boolean[] { true, false, false }, new boolean[] { false, true, false },
+                new boolean[] { false, false, true })) {
+            IllegalStateException e = assertThrows(IllegalStateException.class,
+                    () -> membership(flags[0], flags[1], flags[2]));
+            assertTrue(e.getMessage().startsWith("events.sharding.enabled needs"), e.getMessage());
+        }
+    }
+
+    // All versions of an eventId go where the in-batch dedupe keeps it: the newest receivedTime
+    @Test
+    void testVersionsOfAnEventGoToTheOwnerOfTheNewestVersion() {
+        ShardMembership membership = membership(false, false, false);
+        ShardRouter router = new ShardRouter(membership, null, null, null, RestClient.builder(),
+                WorkerThreads.platform(), new SimpleMeterRegistry(), 1000, 1);
+        String onA = machineOwnedBy(membership, "http://a");
+        String onB = machineOwnedBy(membership, "http://b");
+        Instant received = Instant.parse("2026-01-15T10:00:00Z");
+        MachineEvent newest = new MachineEvent("E-1", received, onA, null, 1000, 0);
+        newest.setReceivedTime(received.plusSeconds(10));
+        MachineEvent olderButLater = new MachineEvent("E-1", received, onB, null, 1000, 0);
+        olderButLater.setReceivedTime(received);
+
+        Map<String, List<MachineEvent>> byOwner = router.split(List.of(newest, olderButLater));
+
+        assertEquals(Map.of("http://a", List.of(newest, olderButLater)), byOwner);
+    }
+
+    private static ShardMembership membership(boolean async, boolean wal, boolean archive) {
+        return new ShardMembership(List.of(), WorkerThreads.platform(), new SimpleMeterRegistry(), true, NODES[0],
+                NODES, 128, 0, async, wal, archive);
+    }
+
+    private static String machineOwnedBy(ShardMembership membership, String node) {
+        for (int i = 0; ; i++) {
+            if (membership.owner("M-" + i).equals(node)) {
+                return "M-" + i;
+            }
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package com.factory.events.wal;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class WriteAheadLogTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void testAppendedRecordsSurviveReopenAndResumeAfterCheckpoint() throws Exception {
+        long afterFirst;
+        try (WriteAheadLog log = WriteAheadLog.open(dir, 4096, 0)) {
+            afterFirst = log.append(bytes("batch-1"));
+            long end = log.append(bytes("batch-2"));
+            log.awaitDurable(end);
+            log.checkpoint(afterFirst);
+        }
+
+        try (WriteAheadLog log = WriteAheadLog.open(dir, 4096, 0)) {
+            assertEquals(afterFirst, log.checkpointOffset());
+            List<WriteAheadLog.Record> pending = log.read(log.checkpointOffset(), 10);
+            assertEquals(1, pending.size());
+            assertEquals("batch-2", text(pending.get(0)));
+        }
+    }
+
+    @Test
+    void testRollsSegmentsAndDeletesAppliedOnesBeyondRetention() throws Exception {
+        try (WriteAheadLog log = WriteAheadLog.open(dir, 64, 1)) {
+            long end = 0;
+            for (int i = 0; i < 10; i++) {
+                end = log.append(bytes("record-" + i + "-padding-padding"));
+            }
+            log.awaitDurable(end);
+            List<WriteAheadLog.Record> all = log.read(0, 100);
+            assertEquals(10, all.size());
+            assertEquals("record-9-padding-padding", text(all.get(9)));
+            assertEquals(5, log.segmentCount()); // two 32-byte records per 64-byte segment
+
+            log.checkpoint(end);
+            // Active segment plus one retained applied segment
+            assertEquals(2, log.segmentCount());
+        }
+    }
+
+    @Test
+    void testReaderOnlySeesDurableRecords() throws Exception {
+        try (WriteAheadLog log = WriteAheadLog.open(dir, 4096, 0)) {
+            long end = log.append(bytes("not-yet-synced"));
+            assertTrue(log.read(0, 10).isEmpty());
+            log.awaitDurable(end);
+            assertEquals(1, log.read(0, 10).size());
+        }
+    }
+
+    private static byte[] bytes(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String text(WriteAheadLog.Record record) {
+        return new String(record.payload(), StandardCharsets.UTF_8);
+    }
+}